@@ -0,0 +1,122 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+/**
+ * A problem that the parser or an expander ran into, and skipped over. See
+ * Diagnostics.
+ */
+public final class Diagnostic {
+
+	/**
+	 * Something was dropped, e.g. an entry that couldn't be parsed.
+	 */
+	public static final int ERROR = 0;
+
+	/**
+	 * Something was repaired or left as it is, e.g. a reference to an
+	 * undefined macro, which expands to an empty string.
+	 */
+	public static final int WARNING = 1;
+
+	/** The parser couldn't make sense of an entry and skipped it. */
+	public static final String SYNTAX_ERROR = "syntax-error";
+
+	/** A macro reference without a definition or a standard macro. */
+	public static final String UNDEFINED_MACRO = "undefined-macro";
+
+	/** A crossref field that names an entry that doesn't exist. */
+	public static final String MISSING_CROSSREF = "missing-crossref";
+
+	/** A chain of crossrefs that leads back to where it started. */
+	public static final String CYCLIC_CROSSREF = "cyclic-crossref";
+
+	/** An author or editor field that can't be split into persons. */
+	public static final String INVALID_PERSON_LIST = "invalid-person-list";
+
+	/**
+	 * A macro definition that refers to itself, directly or through other
+	 * macros.
+	 */
+	public static final String CYCLIC_MACRO = "cyclic-macro";
+
+	/** A node that an expander doesn't know how to handle. */
+	public static final String UNSUPPORTED_NODE = "unsupported-node";
+
+	/** Any other problem of an expander. */
+	public static final String EXPANSION_ERROR = "expansion-error";
+
+	Diagnostic(int severity, String code, String entryKey, int line, int column, String message) {
+		this.severity = severity;
+		this.code = code;
+		this.entryKey = entryKey;
+		this.line = line;
+		this.column = column;
+		this.message = message;
+	}
+
+	private final int severity;
+
+	private final String code;
+
+	private final String entryKey;
+
+	private final int line, column;
+
+	private final String message;
+
+	/**
+	 * @return ERROR or WARNING.
+	 */
+	public int getSeverity() {
+		return severity;
+	}
+
+	/**
+	 * @return one of the code constants in this class, or a code of your own.
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * @return the key of the entry (or macro) with the problem, or null if
+	 *         it's not known.
+	 */
+	public String getEntryKey() {
+		return entryKey;
+	}
+
+	/**
+	 * @return the line in the input, or -1 if it's not known (e.g. for
+	 *         expanders).
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * @return the column in the input, or -1 if it's not known.
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		if (line >= 0)
+			buffer.append(line).append(':').append(column).append(": ");
+		buffer.append(severity == ERROR ? "error" : "warning");
+		buffer.append(" [").append(code).append(']');
+		if (entryKey != null)
+			buffer.append(" in \"").append(entryKey).append('"');
+		buffer.append(": ").append(message);
+		return buffer.toString();
+	}
+}
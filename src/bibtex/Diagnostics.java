@@ -0,0 +1,147 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the problems that the parser and the expanders skip over when they
+ * don't throw all their exceptions. This is much cheaper than collecting
+ * exceptions: nothing is thrown and no stack traces are filled in, which
+ * matters for dirty files with many thousands of problems.
+ *
+ * Only the first few diagnostics are kept (see the constructor), but all of
+ * them are counted, per code. One Diagnostics object can be shared by the
+ * parser and all expanders, and it is thread safe.
+ *
+ * @see bibtex.parser.BibtexParser#setDiagnostics(Diagnostics)
+ * @see bibtex.expansions.AbstractExpander#setDiagnostics(Diagnostics)
+ */
+public final class Diagnostics {
+
+	/**
+	 * Equivalent to Diagnostics(1000).
+	 */
+	public Diagnostics() {
+		this(1000);
+	}
+
+	/**
+	 * @param capacity
+	 *            at most this many diagnostics are kept, the ones after that
+	 *            are only counted.
+	 */
+	public Diagnostics(int capacity) {
+
+		assert capacity >= 0 : "capacity parameter may not be negative.";
+
+		this.capacity = capacity;
+		this.diagnostics = new ArrayList<Diagnostic>(Math.min(capacity, 64));
+	}
+
+	private final int capacity;
+
+	private final ArrayList<Diagnostic> diagnostics;
+
+	// code -> count
+	private final TreeMap<String, int[]> counts = new TreeMap<String, int[]>();
+
+	private int errorCount, warningCount;
+
+	/**
+	 * @param severity
+	 *            Diagnostic.ERROR or Diagnostic.WARNING.
+	 * @param code
+	 *            e.g. Diagnostic.SYNTAX_ERROR.
+	 * @param entryKey
+	 *            may be null.
+	 * @param line
+	 *            -1 if not known.
+	 * @param column
+	 *            -1 if not known.
+	 * @param message
+	 */
+	public synchronized void report(int severity, String code, String entryKey, int line, int column,
+		String message) {
+
+		assert severity == Diagnostic.ERROR || severity == Diagnostic.WARNING :
+			"severity parameter must be Diagnostic.ERROR or Diagnostic.WARNING.";
+		assert code != null : "code parameter may not be null.";
+		assert message != null : "message parameter may not be null.";
+
+		int[] count = counts.get(code);
+		if (count == null) {
+			count = new int[1];
+			counts.put(code, count);
+		}
+		count[0]++;
+		if (severity == Diagnostic.ERROR)
+			errorCount++;
+		else
+			warningCount++;
+		if (diagnostics.size() < capacity)
+			diagnostics.add(new Diagnostic(severity, code, entryKey, line, column, message));
+	}
+
+	/**
+	 * @return the diagnostics that have been kept, in the order in which they
+	 *         were reported.
+	 */
+	public synchronized List<Diagnostic> getDiagnostics() {
+		return Collections.unmodifiableList(new ArrayList<Diagnostic>(diagnostics));
+	}
+
+	/**
+	 * @return how many diagnostics with this code have been reported.
+	 */
+	public synchronized int getCount(String code) {
+		int[] count = counts.get(code);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @return code -> number of diagnostics, sorted by code.
+	 */
+	public synchronized Map<String, Integer> getCounts() {
+		TreeMap<String, Integer> result = new TreeMap<String, Integer>();
+		for (Map.Entry<String, int[]> count : counts.entrySet()) {
+			result.put(count.getKey(), Integer.valueOf(count.getValue()[0]));
+		}
+		return result;
+	}
+
+	public synchronized int getErrorCount() {
+		return errorCount;
+	}
+
+	public synchronized int getWarningCount() {
+		return warningCount;
+	}
+
+	/**
+	 * @return the number of diagnostics that have been reported, including
+	 *         the ones that were not kept.
+	 */
+	public synchronized int getTotalCount() {
+		return errorCount + warningCount;
+	}
+
+	/**
+	 * @return the number of diagnostics that were counted but not kept.
+	 */
+	public synchronized int getDroppedCount() {
+		return getTotalCount() - diagnostics.size();
+	}
+
+	public synchronized void clear() {
+		diagnostics.clear();
+		counts.clear();
+		errorCount = warningCount = 0;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import bibtex.dom.BibtexDiff;
+import bibtex.dom.BibtexDiffPrinter;
+import bibtex.dom.BibtexFile;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Prints what has changed between two bibtex files, entry by entry and field
+ * by field, e.g. between a bibliography and its cleaned version:
+ *
+ * <pre>
+ * java bibtex.Diff merged.bib merged_cleaned.bib UTF-8
+ * </pre>
+ *
+ * The output is written to stdout in UTF-8, the counts to stderr.
+ *
+ * @see BibtexDiff
+ */
+public final class Diff {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: Diff <old.bib> <new.bib> [charset]");
+			return;
+		}
+		Path oldPath = Paths.get(args[0]);
+		Path newPath = Paths.get(args[1]);
+		Charset charset = args.length > 2 ? Charset.forName(args[2]) : Charset.defaultCharset();
+
+		BibtexFile oldFile = new BibtexFile();
+		new BibtexParser(false).parse(oldFile, oldPath, charset);
+		BibtexFile newFile = new BibtexFile();
+		new BibtexParser(false).parse(newFile, newPath, charset);
+
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out,
+			StandardCharsets.UTF_8), 1 << 16));
+		BibtexDiff diff = new BibtexDiff();
+		diff.diff(oldFile, newFile, new BibtexDiffPrinter(writer));
+		writer.flush();
+		System.err.println(diff.getAddedCount() + " added, " + diff.getRemovedCount() + " removed, "
+			+ diff.getChangedCount() + " changed, " + diff.getUnchangedCount() + " unchanged");
+	}
+}
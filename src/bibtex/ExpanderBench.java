@@ -0,0 +1,87 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+
+import bibtex.dom.BibtexFile;
+import bibtex.expansions.AbstractExpander;
+import bibtex.expansions.CrossReferenceExpander;
+import bibtex.expansions.Expander;
+import bibtex.expansions.MacroReferenceExpander;
+import bibtex.expansions.PersonListExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures how long the expanders take on one core and on all of them. The
+ * file is parsed again before each run, since expanding changes it. Run this
+ * with a large bibtex file with lots of macros, e.g.
+ *
+ * <pre>
+ * java -Xmx2g bibtex.ExpanderBench merged.bib UTF-8 5
+ * </pre>
+ */
+public class ExpanderBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: ExpanderBench <file.bib> [charset] [iterations]");
+			return;
+		}
+		File file = new File(args[0]);
+		Charset charset = args.length > 1 ? Charset.forName(args[1]) : Charset.defaultCharset();
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		ForkJoinPool onePool = new ForkJoinPool(1);
+		ForkJoinPool allPool = ForkJoinPool.commonPool();
+		System.err.println(file + ": 1 thread and " + allPool.getParallelism() + " threads");
+		// the first round is just for warming up the JIT.
+		for (int round = 0; round <= iterations; round++) {
+			long macroOneTime = time(new MacroReferenceExpander(true, true, false, false), onePool, file, charset);
+			long macroAllTime = time(new MacroReferenceExpander(true, true, false, false), allPool, file, charset);
+			long crossrefOneTime = time(new CrossReferenceExpander(false), onePool, file, charset);
+			long crossrefAllTime = time(new CrossReferenceExpander(false), allPool, file, charset);
+			long recordTime = time(new CrossReferenceExpander(false, false), allPool, file, charset);
+			long personsOneTime = time(new PersonListExpander(true, true, false), onePool, file, charset);
+			PersonListExpander personListExpander = new PersonListExpander(true, true, false);
+			long personsAllTime = time(personListExpander, allPool, file, charset);
+			PersonListExpander uncachedExpander = new PersonListExpander(true, true, false);
+			uncachedExpander.setCacheSize(0);
+			long uncachedTime = time(uncachedExpander, allPool, file, charset);
+			if (round == 0)
+				continue;
+			System.err.println("round " + round + ": MacroReferenceExpander " + report(macroOneTime, macroAllTime)
+				+ ", CrossReferenceExpander " + report(crossrefOneTime, crossrefAllTime) + ", "
+				+ recordTime / 1000000 + " ms without copying, PersonListExpander "
+				+ report(personsOneTime, personsAllTime) + " (" + Math.round(personListExpander.getCacheHitRate() * 100)
+				+ "% hit rate), " + uncachedTime / 1000000 + " ms without the cache");
+		}
+		onePool.shutdown();
+	}
+
+	private static String report(long oneTime, long allTime) {
+		return oneTime / 1000000 + " ms on 1 thread, " + allTime / 1000000 + " ms on all";
+	}
+
+	/**
+	 * The crossrefs and person lists are expanded after the macros, like they
+	 * should be.
+	 *
+	 * @return how long expander takes on a freshly parsed file, in ns.
+	 */
+	private static long time(AbstractExpander expander, ForkJoinPool pool, File file, Charset charset)
+		throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(false).parse(bibtexFile, file.toPath(), charset);
+		if (expander instanceof CrossReferenceExpander || expander instanceof PersonListExpander)
+			new MacroReferenceExpander(true, true, false, false).expand(bibtexFile);
+		expander.setPool(pool);
+		long time = System.nanoTime();
+		((Expander) expander).expand(bibtexFile);
+		return System.nanoTime() - time;
+	}
+}
@@ -9,17 +9,17 @@ package bibtex;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Iterator;
 
-import bibtex.dom.BibtexEntry;
-import bibtex.dom.BibtexFile;
-import bibtex.dom.BibtexString;
+import bibtex.parser.BibtexHandlerAdapter;
 import bibtex.parser.BibtexParser;
+import bibtex.parser.BibtexValueTokens;
 import bibtex.parser.ParseException;
 
 /**
  * This is just for demonstrating how the parser works: the main method of this
- * class parses a bibtex file and prints the values of all author fields.
+ * class parses a bibtex file and prints the values of all author fields. Since
+ * we only need one field, we don't build a BibtexFile but listen to the
+ * parser instead.
  * @author henkel
  */
 public class ExtractAuthors {
@@ -33,23 +33,29 @@ public class ExtractAuthors {
         try {
             FileReader in = new FileReader(args[0]);
             BibtexParser parser = new BibtexParser(false);
-            BibtexFile file=new BibtexFile();
-            parser.parse(file,in);
-            for(Iterator it=file.getEntries().iterator();it.hasNext();){
-                Object potentialEntry = it.next();
-                if(!(potentialEntry instanceof BibtexEntry)) continue;
-                BibtexEntry entry = (BibtexEntry) potentialEntry;
-                BibtexString authorString=(BibtexString) entry.getFieldValue("author");
-                if(authorString==null) continue;
-                String content = authorString.getContent();
-                String tokens[] = content.split("\\s++");
-                for(int i=0;i<tokens.length;i++){
-                    if(tokens[i].toLowerCase().equals("and")) { System.out.println(); continue; }
-                    else if(tokens[i].toLowerCase().equals("others")) continue;
-                    System.out.print(tokens[i]+" ");
+            parser.parse(in, new BibtexHandlerAdapter() {
+                private boolean seenAuthor;
+
+                public void startEntry(String entryType, String entryKey) {
+                    seenAuthor = false;
+                }
+
+                public void field(String fieldName, BibtexValueTokens value) {
+                    if (seenAuthor || !fieldName.toLowerCase().equals("author"))
+                        return;
+                    seenAuthor = true;
+                    String content = value.getSimpleContent();
+                    if (content == null)
+                        return;
+                    String tokens[] = content.split("\\s++");
+                    for(int i=0;i<tokens.length;i++){
+                        if(tokens[i].toLowerCase().equals("and")) { System.out.println(); continue; }
+                        else if(tokens[i].toLowerCase().equals("others")) continue;
+                        System.out.print(tokens[i]+" ");
+                    }
+                    System.out.println();
                 }
-                System.out.println();
-            }
+            });
         } catch (FileNotFoundException e) {
             System.err.println("File '"+args[0]+"' not found.");
         } catch (ParseException e) {
@@ -59,4 +65,4 @@ public class ExtractAuthors {
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.expansions.CrossReferenceExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures field lookups on BibtexEntry against the same lookups on a
+ * LinkedHashMap (which is what entries used to keep their fields in), and how
+ * long the CrossReferenceExpander takes, since it is mostly field lookups. Run
+ * this with a large bibtex file, e.g.
+ *
+ * <pre>
+ * java -Xmx2g bibtex.FieldLookupBench merged.bib UTF-8 5
+ * </pre>
+ */
+public class FieldLookupBench {
+
+	// the usual ones, a few that most entries don't have, and one in upper
+	// case, which isn't a symbol.
+	private static final String[] FIELD_NAMES = { "author", "title", "year", "booktitle", "journal", "pages",
+		"crossref", "url", "ee", "volume", "publisher", "note", "Title" };
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: FieldLookupBench <file.bib> [charset] [iterations]");
+			return;
+		}
+		File file = new File(args[0]);
+		Charset charset = args.length > 1 ? Charset.forName(args[1]) : Charset.defaultCharset();
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(false).parse(bibtexFile, file.toPath(), charset);
+		List<BibtexEntry> entries = new ArrayList<BibtexEntry>();
+		List<Map<String, Object>> hashMaps = new ArrayList<Map<String, Object>>();
+		for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (entry instanceof BibtexEntry) {
+				entries.add((BibtexEntry) entry);
+				hashMaps.add(new LinkedHashMap<String, Object>(((BibtexEntry) entry).getFields()));
+			}
+		}
+		// the literals, and copies of them for names that come from
+		// somewhere else, e.g. the command line.
+		String[] copies = new String[FIELD_NAMES.length];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = new String(FIELD_NAMES[i]);
+		}
+		final long lookups = (long) entries.size() * FIELD_NAMES.length;
+
+		System.err.println(file + ": " + entries.size() + " entries, " + lookups + " lookups per round");
+		// the first round is just for warming up the JIT.
+		for (int round = 0; round <= iterations; round++) {
+			int found = 0;
+			long entryTime = System.nanoTime();
+			for (int i = 0; i < entries.size(); i++) {
+				found += lookUp(entries.get(i), FIELD_NAMES);
+			}
+			entryTime = System.nanoTime() - entryTime;
+
+			int copiesFound = 0;
+			long copiesTime = System.nanoTime();
+			for (int i = 0; i < entries.size(); i++) {
+				copiesFound += lookUp(entries.get(i), copies);
+			}
+			copiesTime = System.nanoTime() - copiesTime;
+
+			int hashMapFound = 0;
+			long hashMapTime = System.nanoTime();
+			for (int i = 0; i < hashMaps.size(); i++) {
+				Map<String, Object> fields = hashMaps.get(i);
+				for (int j = 0; j < FIELD_NAMES.length; j++) {
+					if (fields.get(FIELD_NAMES[j]) != null)
+						hashMapFound++;
+				}
+			}
+			hashMapTime = System.nanoTime() - hashMapTime;
+
+			if (found != hashMapFound || copiesFound != hashMapFound)
+				System.err.println("Lookups differ: BibtexEntry=" + found + " (copies " + copiesFound
+					+ ") LinkedHashMap=" + hashMapFound);
+
+			BibtexFile expanded = new BibtexFile();
+			new BibtexParser(false).parse(expanded, file.toPath(), charset);
+			long expanderTime = System.nanoTime();
+			new CrossReferenceExpander(false).expand(expanded);
+			expanderTime = System.nanoTime() - expanderTime;
+
+			if (round == 0)
+				continue;
+			System.err.println("round " + round + ": BibtexEntry " + report(entryTime, lookups) + ", copied names "
+				+ report(copiesTime, lookups) + ", LinkedHashMap " + report(hashMapTime, lookups)
+				+ ", CrossReferenceExpander " + expanderTime / 1000000 + " ms");
+		}
+	}
+
+	private static int lookUp(BibtexEntry entry, String[] names) {
+		int found = 0;
+		for (int j = 0; j < names.length; j++) {
+			if (entry.getFieldValue(names[j]) != null)
+				found++;
+		}
+		return found;
+	}
+
+	private static String report(long nanos, long lookups) {
+		return nanos / 1000000 + " ms (" + nanos / Math.max(1, lookups) + " ns/lookup)";
+	}
+}
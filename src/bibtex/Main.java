@@ -6,10 +6,14 @@
  */
 package bibtex;
 
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexSnapshot;
 import bibtex.expansions.CrossReferenceExpander;
 import bibtex.expansions.ExpansionException;
 import bibtex.expansions.MacroReferenceExpander;
@@ -29,11 +33,13 @@ public final class Main {
 		System.err.println(
 			"\nUsage: bibtex.Main [-expandStringDefinitions]\n"
 				+ "         [-expandAndDropMacroDefinitions] [-expandCrossReferences]\n"
-				+ "         [-expandPersonLists] [-noOutput] <file.bib>\n"
+				+ "         [-expandPersonLists] [-snapshot] [-noOutput] <file.bib>\n"
 				+ "\nNote: Selecting -expandCrossReferences implies that we will\n"
 				+ "      expand the string definitions as well (for consistency).\n"
 				+ "\nNote: Selecting -expandPersonLists implies that we will expand\n"
 				+ "      the string definitions as well (for consistency)."
+				+ "\n\nNote: Selecting -snapshot loads <file.bib>.snapshot instead of parsing"
+				+ "\n      and expanding, if it is up to date, and writes it otherwise.\n"
 				+ "\nThe output will be given on stdout, errors and messages will be printed to stderr.\n\n");
 	}
 
@@ -45,12 +51,15 @@ public final class Main {
 		}
 		BibtexFile bibtexFile = new BibtexFile();
 		BibtexParser parser = new BibtexParser(false);
+		Diagnostics diagnostics = new Diagnostics();
+		parser.setDiagnostics(diagnostics);
 		//parser.setMultipleFieldValuesPolicy(BibtexMultipleFieldValuesPolicy.KEEP_ALL);
 		boolean expandMacros = false;
 		boolean dropMacros = false;
 		boolean expandCrossrefs = false;
 		boolean expandPersonLists = false;
 		boolean noOutput = false;
+		boolean useSnapshot = false;
 		for (int argsIndex = 0; argsIndex < args.length - 1; argsIndex++) {
 			String argument = args[argsIndex];
 			if (argument.equals("-expandStringDefinitions")) {
@@ -63,53 +72,87 @@ public final class Main {
 				expandPersonLists = expandMacros = true;
 			} else if(argument.equals("-noOutput")){
 				noOutput = true;
+			} else if (argument.equals("-snapshot")) {
+				useSnapshot = true;
 			} else {
 				System.err.println("Illegal argument: " + argument);
 				usage();
 			}
 		}
 
+		Path path = Paths.get(args[args.length - 1]);
+		// the snapshot has to be made with the same expansions.
+		String snapshotTag = "macros=" + expandMacros + ",dropMacros=" + dropMacros + ",crossrefs=" + expandCrossrefs
+			+ ",personLists=" + expandPersonLists;
+		if (useSnapshot) {
+			try {
+				BibtexFile snapshot = BibtexSnapshot.read(path, snapshotTag);
+				if (snapshot != null) {
+					System.err.println("Loaded \"" + BibtexSnapshot.getSnapshotPath(path) + "\"");
+					print(snapshot, noOutput);
+					return;
+				}
+			} catch (IOException e) {
+				System.err.println("Can't load the snapshot, parsing instead: " + e);
+			}
+		}
+		// before parsing, so a change while parsing makes the snapshot stale.
+		long sourceSize = -1, sourceModified = -1;
+		if (useSnapshot) {
+			try {
+				sourceSize = Files.size(path);
+				sourceModified = Files.getLastModifiedTime(path).toMillis();
+			} catch (IOException e) {
+				System.err.println("Can't write a snapshot: " + e);
+				useSnapshot = false;
+			}
+		}
 		try {
-			String filename = args[args.length - 1];
-			System.err.println("Parsing \"" + filename + "\" ... ");
-			parser.parse(bibtexFile, new FileReader(args[args.length - 1]));
+			System.err.println("Parsing \"" + path + "\" ... ");
+			parser.parse(bibtexFile, path);
 		} catch (Exception e) {
 			System.err.println("Fatal exception: ");
 			e.printStackTrace();
 			return;
 		} finally {
-			printNonFatalExceptions(parser.getExceptions());
+			printDiagnostics(diagnostics);
 		}
 		try {
 			if (expandMacros) {
 				System.err.println("\n\nExpanding macros ...");
 				MacroReferenceExpander expander =
 					new MacroReferenceExpander(true, true, dropMacros,false);
+				expander.setDiagnostics(diagnostics);
 				expander.expand(bibtexFile);
-				printNonFatalExceptions(expander.getExceptions());
+				printDiagnostics(diagnostics);
 				
 			}
 			if (expandCrossrefs) {
 				System.err.println("\n\nExpanding crossrefs ...");
 				CrossReferenceExpander expander = new CrossReferenceExpander(false);
+				expander.setDiagnostics(diagnostics);
 				expander.expand(bibtexFile);
-				printNonFatalExceptions(expander.getExceptions());
+				printDiagnostics(diagnostics);
 			}
 			if (expandPersonLists) {
 				System.err.println("\n\nExpanding person lists ...");
 				PersonListExpander expander = new PersonListExpander(true, true, false);
+				expander.setDiagnostics(diagnostics);
 				expander.expand(bibtexFile);
-				printNonFatalExceptions(expander.getExceptions());
+				printDiagnostics(diagnostics);
 			}
 		} catch (ExpansionException e1) {
 			e1.printStackTrace();
 			return;
 		}
-		if(noOutput) return;
-		System.err.println("\n\nGenerating output ...");
-		PrintWriter out = new PrintWriter(System.out);
-		bibtexFile.printBibtex(out);
-		out.flush();
+		if (useSnapshot) {
+			try {
+				BibtexSnapshot.write(bibtexFile, path, snapshotTag, sourceSize, sourceModified);
+			} catch (IOException e) {
+				System.err.println("Can't write the snapshot: " + e);
+			}
+		}
+		print(bibtexFile, noOutput);
 		
 		//System.gc();
 		//System.err.println("Memory used:"+(Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory()));
@@ -118,13 +161,24 @@ public final class Main {
 		//try { System.in.read(); } catch(Exception e){ e.printStackTrace();}
 	}
 
-	private static void printNonFatalExceptions(Exception[] exceptions) {
-		if (exceptions.length > 0) {
-			System.err.println("Non-fatal exceptions: ");
-			for (int i = 0; i < exceptions.length; i++) {
-				exceptions[i].printStackTrace();
-				System.err.println("===================");
+	private static void print(BibtexFile bibtexFile, boolean noOutput) {
+		if(noOutput) return;
+		System.err.println("\n\nGenerating output ...");
+		PrintWriter out = new PrintWriter(System.out);
+		bibtexFile.printBibtex(out);
+		out.flush();
+	}
+
+	private static void printDiagnostics(Diagnostics diagnostics) {
+		if (diagnostics.getTotalCount() > 0) {
+			System.err.println("Non-fatal problems: ");
+			for (Diagnostic diagnostic : diagnostics.getDiagnostics()) {
+				System.err.println(diagnostic);
 			}
+			if (diagnostics.getDroppedCount() > 0)
+				System.err.println("... and " + diagnostics.getDroppedCount() + " more.");
+			System.err.println("Counts: " + diagnostics.getCounts());
+			diagnostics.clear();
 		}
 	}
 }
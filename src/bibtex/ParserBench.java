@@ -0,0 +1,234 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import bibtex.dom.BibtexCompactFile;
+import bibtex.dom.BibtexDiskFile;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexStringArena;
+import bibtex.dom.BibtexValuePool;
+import bibtex.parser.BibtexEntryIterator;
+import bibtex.parser.BibtexHandlerAdapter;
+import bibtex.parser.BibtexParser;
+import bibtex.parser.ParallelBibtexParser;
+
+/**
+ * Compares the different ways of feeding a bibtex file to the parser, and
+ * reports how much garbage the parser produces per entry. Run this with a large
+ * bibtex file, e.g.
+ *
+ * <pre>
+ * java -Xmx2g bibtex.ParserBench merged.bib UTF-8 5
+ * </pre>
+ */
+public class ParserBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: ParserBench <file.bib> [charset] [iterations]");
+			return;
+		}
+		File file = new File(args[0]);
+		Charset charset = args.length > 1 ? Charset.forName(args[1]) : Charset.defaultCharset();
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		System.err.println("Parsing " + file + " (" + (file.length() >> 20) + " MB, " + charset + ")");
+		// the first round is just for warming up the JIT.
+		for (int round = 0; round <= iterations; round++) {
+			long readerTime = System.nanoTime();
+			int readerEntries = parseWithReader(file, charset);
+			readerTime = System.nanoTime() - readerTime;
+
+			long mappedTime = System.nanoTime();
+			int mappedEntries = parseMapped(file, charset);
+			mappedTime = System.nanoTime() - mappedTime;
+
+			long lazyTime = System.nanoTime();
+			int lazyEntries = parseLazy(file, charset);
+			lazyTime = System.nanoTime() - lazyTime;
+
+			long parallelTime = System.nanoTime();
+			int parallelEntries = parseParallel(file, charset);
+			parallelTime = System.nanoTime() - parallelTime;
+
+			if (readerEntries != mappedEntries || readerEntries != parallelEntries || readerEntries != lazyEntries)
+				System.err.println("Entry counts differ: reader=" + readerEntries + " mapped=" + mappedEntries
+					+ " lazy=" + lazyEntries + " parallel=" + parallelEntries);
+			if (round == 0)
+				continue;
+			System.err.println("round " + round + ": Reader " + report(readerTime, file) + ", mapped "
+				+ report(mappedTime, file) + ", lazy " + report(lazyTime, file) + ", parallel "
+				+ report(parallelTime, file) + " (" + mappedEntries
+				+ " entries)");
+		}
+		reportAllocations(file, charset);
+		reportRetainedHeap(file, charset);
+	}
+
+	/**
+	 * Prints how much heap a parsed BibtexFile keeps, with field values parsed
+	 * eagerly, eagerly into a BibtexFile that shares values, lazily, and with
+	 * long strings off the heap, and how much a BibtexCompactFile and a
+	 * BibtexDiskFile keep.
+	 */
+	private static void reportRetainedHeap(File file, Charset charset) throws Exception {
+		long before = usedHeap();
+		BibtexFile eager = new BibtexFile();
+		new BibtexParser(false).parse(eager, file.toPath(), charset);
+		long eagerBytes = usedHeap() - before;
+		int entries = Math.max(1, eager.getEntries().size());
+		eager = null;
+
+		before = usedHeap();
+		BibtexFile shared = new BibtexFile(true);
+		new BibtexParser(false).parse(shared, file.toPath(), charset);
+		long sharedBytes = usedHeap() - before;
+		BibtexValuePool pool = shared.getValuePool();
+		shared = null;
+
+		before = usedHeap();
+		BibtexFile lazy = new BibtexFile();
+		BibtexParser parser = new BibtexParser(false);
+		parser.setLazyFieldValues(true);
+		parser.parse(lazy, file.toPath(), charset);
+		long lazyBytes = usedHeap() - before;
+		lazy = null;
+
+		before = usedHeap();
+		BibtexFile offHeap = new BibtexFile(false, true);
+		new BibtexParser(false).parse(offHeap, file.toPath(), charset);
+		long offHeapBytes = usedHeap() - before;
+		BibtexStringArena arena = offHeap.getStringArena();
+		String arenaUsage = arena.toString();
+		arena.close();
+		offHeap = null;
+
+		before = usedHeap();
+		BibtexCompactFile compact = new BibtexCompactFile();
+		BibtexEntryIterator it = new BibtexParser(false).iterator(new BibtexFile(), file.toPath(), charset, null);
+		try {
+			while (it.hasNext()) {
+				compact.addEntry(it.next());
+			}
+		} finally {
+			it.close();
+		}
+		long compactBytes = usedHeap() - before;
+		compact = null;
+
+		before = usedHeap();
+		File store = File.createTempFile("ParserBench", ".store");
+		BibtexDiskFile disk = new BibtexDiskFile(store.toPath());
+		new BibtexParser(false).parse(disk, file.toPath(), charset);
+		// the entries that have been collected are only let go of when the
+		// disk file gets to them.
+		usedHeap();
+		disk.flush();
+		long diskBytes = usedHeap() - before;
+		final long storeSize = disk.getStoreSize();
+		disk.close();
+		System.err.println("retained heap per entry: eager " + eagerBytes / entries + ", shared values "
+			+ sharedBytes / entries + ", lazy " + lazyBytes / entries + ", off-heap strings "
+			+ offHeapBytes / entries + ", compact " + compactBytes / entries + ", disk " + diskBytes / entries
+			+ " (" + entries + " entries, a store of " + (storeSize >> 20) + " MB)");
+		System.err.println("value pool: " + pool);
+		System.err.println("string arena: " + arenaUsage);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Prints the bytes allocated per entry, once for the lexer and parser alone
+	 * (with a handler that doesn't keep anything) and once including the
+	 * BibtexFile that is built.
+	 */
+	private static void reportAllocations(final File file, final Charset charset) throws Exception {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			System.err.println("Allocation counting is not supported by this JVM.");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported())
+			return;
+		threads.setThreadAllocatedMemoryEnabled(true);
+		final long threadId = Thread.currentThread().getId();
+
+		final int[] entries = new int[1];
+		BibtexHandlerAdapter counter = new BibtexHandlerAdapter() {
+			public void startEntry(String entryType, String entryKey) {
+				entries[0]++;
+			}
+		};
+		BibtexParser parser = new BibtexParser(false);
+
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		parser.parse(new InputStreamReader(new FileInputStream(file), charset), counter);
+		long readerHandler = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+		allocated = threads.getThreadAllocatedBytes(threadId);
+		parser.parse(file.toPath(), charset, counter);
+		long mappedHandler = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+		allocated = threads.getThreadAllocatedBytes(threadId);
+		parseWithReader(file, charset);
+		long readerDom = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+		allocated = threads.getThreadAllocatedBytes(threadId);
+		parseMapped(file, charset);
+		long mappedDom = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+		int perRun = Math.max(1, entries[0] / 2);
+		System.err.println("bytes allocated per entry: Reader " + readerHandler / perRun + " (handler) / "
+			+ readerDom / perRun + " (BibtexFile), mapped " + mappedHandler / perRun + " (handler) / "
+			+ mappedDom / perRun + " (BibtexFile)");
+	}
+
+	private static int parseWithReader(File file, Charset charset) throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		BibtexParser parser = new BibtexParser(false);
+		parser.parse(bibtexFile, new InputStreamReader(new FileInputStream(file), charset));
+		return bibtexFile.getEntries().size();
+	}
+
+	private static int parseMapped(File file, Charset charset) throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		BibtexParser parser = new BibtexParser(false);
+		parser.parse(bibtexFile, file.toPath(), charset);
+		return bibtexFile.getEntries().size();
+	}
+
+	private static int parseLazy(File file, Charset charset) throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		BibtexParser parser = new BibtexParser(false);
+		parser.setLazyFieldValues(true);
+		parser.parse(bibtexFile, file.toPath(), charset);
+		return bibtexFile.getEntries().size();
+	}
+
+	private static int parseParallel(File file, Charset charset) throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		ParallelBibtexParser parser = new ParallelBibtexParser(false);
+		parser.parse(bibtexFile, file.toPath(), charset);
+		return bibtexFile.getEntries().size();
+	}
+
+	private static String report(long nanos, File file) {
+		long millis = nanos / 1000000;
+		return millis + " ms (" + (file.length() * 1000L / Math.max(1, millis) >> 20) + " MB/s)";
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexPersonList;
+import bibtex.dom.BibtexString;
+import bibtex.expansions.MacroReferenceExpander;
+import bibtex.expansions.PersonListExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures how many names per second the person list parser gets through on
+ * one thread, with the author and editor fields of a bibtex file. The cache of
+ * the PersonListExpander is turned off, so every field is parsed. Run this
+ * with a large bibtex file, e.g.
+ *
+ * <pre>
+ * java -Xmx2g bibtex.PersonListBench merged.bib UTF-8 5
+ * </pre>
+ */
+public class PersonListBench {
+
+	// not more than the PersonListExpander expands on the calling thread.
+	private static final int BATCH_SIZE = 1000;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: PersonListBench <file.bib> [charset] [iterations]");
+			return;
+		}
+		File file = new File(args[0]);
+		Charset charset = args.length > 1 ? Charset.forName(args[1]) : Charset.defaultCharset();
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(false).parse(bibtexFile, file.toPath(), charset);
+		new MacroReferenceExpander(true, true, false, false).expand(bibtexFile);
+		// each author and editor field becomes the author of an entry of its own.
+		List<String> contents = new ArrayList<String>();
+		for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (!(entry instanceof BibtexEntry))
+				continue;
+			BibtexAbstractValue author = ((BibtexEntry) entry).getFieldValue("author");
+			BibtexAbstractValue editor = ((BibtexEntry) entry).getFieldValue("editor");
+			if (author instanceof BibtexString)
+				contents.add(((BibtexString) author).getContent());
+			if (editor instanceof BibtexString)
+				contents.add(((BibtexString) editor).getContent());
+		}
+		bibtexFile = null;
+
+		System.err.println(file + ": " + contents.size() + " author and editor fields");
+		// the first round is just for warming up the JIT.
+		for (int round = 0; round <= iterations; round++) {
+			long time = 0;
+			long names = 0;
+			int problems = 0;
+			// the fields are expanded a batch at a time, so that the person
+			// lists can be thrown away before there are too many of them.
+			for (int start = 0; start < contents.size(); start += BATCH_SIZE) {
+				BibtexFile persons = new BibtexFile();
+				final int end = Math.min(start + BATCH_SIZE, contents.size());
+				for (int i = start; i < end; i++) {
+					BibtexEntry entry = persons.makeEntry("misc", "p" + i);
+					entry.setField("author", persons.makeString(contents.get(i)));
+					persons.addEntry(entry);
+				}
+				PersonListExpander expander = new PersonListExpander(true, false, false);
+				expander.setCacheSize(0);
+				long batchTime = System.nanoTime();
+				expander.expand(persons);
+				time += System.nanoTime() - batchTime;
+
+				for (Iterator<BibtexAbstractEntry> it = persons.getEntries().iterator(); it.hasNext();) {
+					BibtexAbstractValue value = ((BibtexEntry) it.next()).getFieldValue("author");
+					if (value instanceof BibtexPersonList)
+						names += ((BibtexPersonList) value).getList().size();
+				}
+				problems += expander.getExceptions().length;
+			}
+			if (round == 0)
+				continue;
+			System.err.println("round " + round + ": " + names + " names in " + time / 1000000 + " ms, "
+				+ Math.round(names / (time / 1e9)) + " names/s (" + problems + " problems)");
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexSerializer;
+import bibtex.dom.ParallelBibtexSerializer;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Compares writing a BibtexFile with printBibtex(...) to writing it with a
+ * BibtexSerializer and a ParallelBibtexSerializer. All of them write the same
+ * bytes to a temporary file. Run this with a large bibtex file, e.g.
+ *
+ * <pre>
+ * java -Xmx2g bibtex.SerializerBench merged.bib UTF-8 5
+ * </pre>
+ */
+public class SerializerBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: SerializerBench <file.bib> [charset] [iterations]");
+			return;
+		}
+		File file = new File(args[0]);
+		Charset charset = args.length > 1 ? Charset.forName(args[1]) : Charset.defaultCharset();
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(false).parse(bibtexFile, file.toPath(), charset);
+		File output = File.createTempFile("SerializerBench", ".bib");
+		output.deleteOnExit();
+
+		System.err.println(file + ": " + bibtexFile.getEntries().size() + " entries");
+		// the first round is just for warming up the JIT.
+		for (int round = 0; round <= iterations; round++) {
+			long printTime = System.nanoTime();
+			PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				output), StandardCharsets.UTF_8), 1 << 16));
+			bibtexFile.printBibtex(writer);
+			writer.close();
+			printTime = System.nanoTime() - printTime;
+			final long printedBytes = output.length();
+
+			long serializerTime = System.nanoTime();
+			BibtexSerializer serializer = new BibtexSerializer(FileChannel.open(output.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+			serializer.write(bibtexFile);
+			serializer.close();
+			serializerTime = System.nanoTime() - serializerTime;
+
+			long parallelTime = System.nanoTime();
+			ParallelBibtexSerializer parallelSerializer = new ParallelBibtexSerializer();
+			parallelSerializer.write(bibtexFile, output.toPath());
+			parallelTime = System.nanoTime() - parallelTime;
+
+			if (serializer.getBytesWritten() != printedBytes || parallelSerializer.getBytesWritten() != printedBytes)
+				System.err.println("Sizes differ: printBibtex " + printedBytes + ", BibtexSerializer "
+					+ serializer.getBytesWritten() + ", ParallelBibtexSerializer "
+					+ parallelSerializer.getBytesWritten());
+			if (round == 0)
+				continue;
+			System.err.println("round " + round + ": printBibtex " + report(printTime, printedBytes)
+				+ ", BibtexSerializer " + report(serializerTime, printedBytes) + ", ParallelBibtexSerializer "
+				+ report(parallelTime, printedBytes));
+		}
+	}
+
+	private static String report(long nanos, long bytes) {
+		return nanos / 1000000 + " ms (" + (bytes * 1000 / Math.max(1, nanos)) + " MB/s)";
+	}
+}
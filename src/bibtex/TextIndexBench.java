@@ -0,0 +1,126 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexTextIndex;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures how long it takes to build a BibtexTextIndex, to search it and to
+ * remove and add entries. To get more entries than the file has, copies of the
+ * entries with just the indexed fields can be added, e.g. 4 copies of a file
+ * with 200000 entries for an index of a million:
+ *
+ * <pre>
+ * java -Xmx4g bibtex.TextIndexBench merged.bib UTF-8 5 4
+ * </pre>
+ */
+public class TextIndexBench {
+
+	private static final int QUERIES = 1000;
+
+	private static final int TOP = 10;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: TextIndexBench <file.bib> [charset] [iterations] [copies]");
+			return;
+		}
+		File file = new File(args[0]);
+		Charset charset = args.length > 1 ? Charset.forName(args[1]) : Charset.defaultCharset();
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int copies = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(false).parse(bibtexFile, file.toPath(), charset);
+		List<BibtexEntry> entries = new ArrayList<BibtexEntry>();
+		for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (entry instanceof BibtexEntry)
+				entries.add((BibtexEntry) entry);
+		}
+		final int original = entries.size();
+		for (int copy = 1; copy <= copies; copy++) {
+			for (int i = 0; i < original; i++) {
+				BibtexEntry entry = entries.get(i);
+				BibtexEntry entryCopy = bibtexFile.makeEntry(entry.getEntryType(), entry.getEntryKey() + "-" + copy);
+				for (int j = 0; j < BibtexTextIndex.DEFAULT_FIELD_NAMES.length; j++) {
+					BibtexAbstractValue value = entry.getFieldValue(BibtexTextIndex.DEFAULT_FIELD_NAMES[j]);
+					if (value != null)
+						entryCopy.setField(BibtexTextIndex.DEFAULT_FIELD_NAMES[j], value);
+				}
+				entries.add(entryCopy);
+			}
+		}
+		// the queries are two or three words from the titles of random entries.
+		Random random = new Random(42);
+		String[] queries = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			BibtexAbstractValue title = null;
+			while (title == null) {
+				title = entries.get(random.nextInt(original)).getFieldValue("title");
+			}
+			List<String> words = BibtexTextIndex.tokenize(title.toString());
+			StringBuffer query = new StringBuffer();
+			final int count = Math.min(words.size(), 2 + random.nextInt(2));
+			for (int j = 0; j < count; j++) {
+				query.append(words.get(random.nextInt(words.size()))).append(' ');
+			}
+			queries[i] = query.toString();
+		}
+
+		System.err.println(file + ": " + entries.size() + " entries, " + QUERIES + " queries for the top " + TOP
+			+ " per round");
+		// the first round is just for warming up the JIT.
+		for (int round = 0; round <= iterations; round++) {
+			long buildTime = System.nanoTime();
+			BibtexTextIndex index = new BibtexTextIndex();
+			for (int i = 0; i < entries.size(); i++) {
+				index.add(entries.get(i));
+			}
+			buildTime = System.nanoTime() - buildTime;
+
+			long[] queryTimes = new long[QUERIES];
+			int hits = 0;
+			for (int i = 0; i < QUERIES; i++) {
+				long queryTime = System.nanoTime();
+				hits += index.search(queries[i], TOP).size();
+				queryTimes[i] = System.nanoTime() - queryTime;
+			}
+			Arrays.sort(queryTimes);
+			long totalQueryTime = 0;
+			for (int i = 0; i < QUERIES; i++) {
+				totalQueryTime += queryTimes[i];
+			}
+
+			// a third of the entries changes, which makes the index purge once.
+			long updateTime = System.nanoTime();
+			for (int i = 0; i < entries.size(); i += 3) {
+				index.update(entries.get(i));
+			}
+			updateTime = System.nanoTime() - updateTime;
+
+			if (round == 0)
+				continue;
+			System.err.println("round " + round + ": build " + buildTime / 1000000 + " ms ("
+				+ index.getTermCount() + " words, " + index.getPostingsSize() / 1024 + " KB of postings), query "
+				+ totalQueryTime / QUERIES / 1000 + " us average, " + queryTimes[QUERIES / 2] / 1000 + " us median, "
+				+ queryTimes[QUERIES * 99 / 100] / 1000 + " us 99th percentile (" + hits + " hits), update "
+				+ updateTime / Math.max(1, (entries.size() + 2) / 3) + " ns/entry");
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A BibtexString whose content is in a BibtexStringArena, until it is changed.
+ */
+final class ArenaString extends BibtexString {
+
+	ArenaString(BibtexFile file, BibtexStringArena arena, String content) {
+		super(file, isNumber(content));
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		this.arena = arena;
+		this.address = arena.append(bytes);
+		this.length = bytes.length;
+	}
+
+	private final BibtexStringArena arena;
+
+	private final long address;
+
+	// -1 once the content has been set, and is on the heap.
+	private int length;
+
+	public String getContent() {
+		if (length < 0)
+			return super.getContent();
+		return arena.getString(address, length);
+	}
+
+	public void setContent(String content) {
+		super.setContent(content);
+		if (length >= 0) {
+			arena.release(length);
+			length = -1;
+		}
+	}
+}
@@ -17,4 +17,113 @@ public abstract class BibtexAbstractEntry extends BibtexNode {
 		super(file);
 	}
 
+	// the file this entry has been added to and its position there, so that
+	// the file can find and remove it quickly. An entry is usually in one
+	// file at most, the others are in moreFiles.
+	private BibtexFile file;
+	private int position = -1;
+	private BibtexFile[] moreFiles;
+	private int[] morePositions;
+
+	/**
+	 * @return the position of this entry in file (counting removed entries
+	 *         that haven't been compacted away), or -1.
+	 */
+	final int getPosition(BibtexFile file) {
+		if (this.file == file)
+			return position;
+		if (moreFiles != null) {
+			for (int i = 0; i < moreFiles.length; i++) {
+				if (moreFiles[i] == file)
+					return morePositions[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param position
+	 *            -1 if this entry has been removed from file.
+	 */
+	final void setPosition(BibtexFile file, int position) {
+		if (this.file == file) {
+			this.file = position >= 0 ? file : null;
+			this.position = position;
+			return;
+		}
+		if (moreFiles != null) {
+			for (int i = 0; i < moreFiles.length; i++) {
+				if (moreFiles[i] == file) {
+					if (position >= 0) {
+						morePositions[i] = position;
+					} else {
+						removeMoreFile(i);
+					}
+					return;
+				}
+			}
+		}
+		if (position < 0)
+			return;
+		if (this.file == null) {
+			this.file = file;
+			this.position = position;
+			return;
+		}
+		final int length = moreFiles == null ? 0 : moreFiles.length;
+		BibtexFile[] newMoreFiles = new BibtexFile[length + 1];
+		int[] newMorePositions = new int[length + 1];
+		if (length > 0) {
+			System.arraycopy(moreFiles, 0, newMoreFiles, 0, length);
+			System.arraycopy(morePositions, 0, newMorePositions, 0, length);
+		}
+		newMoreFiles[length] = file;
+		newMorePositions[length] = position;
+		moreFiles = newMoreFiles;
+		morePositions = newMorePositions;
+	}
+
+	private void removeMoreFile(int index) {
+		final int length = moreFiles.length - 1;
+		if (length == 0) {
+			moreFiles = null;
+			morePositions = null;
+			return;
+		}
+		BibtexFile[] newMoreFiles = new BibtexFile[length];
+		int[] newMorePositions = new int[length];
+		System.arraycopy(moreFiles, 0, newMoreFiles, 0, index);
+		System.arraycopy(moreFiles, index + 1, newMoreFiles, index, length - index);
+		System.arraycopy(morePositions, 0, newMorePositions, 0, index);
+		System.arraycopy(morePositions, index + 1, newMorePositions, index, length - index);
+		moreFiles = newMoreFiles;
+		morePositions = newMorePositions;
+	}
+
+	/**
+	 * Call this before something that the files index this entry by (its key
+	 * or type) changes ...
+	 */
+	final void removeFromIndexes() {
+		if (file != null)
+			file.removeFromIndexes(this);
+		if (moreFiles != null) {
+			for (int i = 0; i < moreFiles.length; i++) {
+				moreFiles[i].removeFromIndexes(this);
+			}
+		}
+	}
+
+	/**
+	 * ... and this afterwards.
+	 */
+	final void addToIndexes() {
+		if (file != null)
+			file.addToIndexes(this);
+		if (moreFiles != null) {
+			for (int i = 0; i < moreFiles.length; i++) {
+				moreFiles[i].addToIndexes(this);
+			}
+		}
+	}
 }
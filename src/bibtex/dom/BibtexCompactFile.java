@@ -0,0 +1,444 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.PrintWriter;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A bibliography that is stored column-wise, for when a BibtexFile would take
+ * up too much memory. There are no node objects: each entry is a row of int
+ * arrays (its type, key and fields), each field value is a short sequence of
+ * tokens, and all the text is kept as UTF-8 in one shared arena. That's
+ * around 100 bytes per entry plus the text, instead of a few KB.
+ *
+ * getEntry(int) makes a view of an entry when you ask for it: a BibtexEntry
+ * (or macro definition, preamble or comment) whose field values are decoded
+ * from the columns when they are used. The views are not kept, so changes to
+ * them are lost unless you store the entry again with setEntry(int,
+ * BibtexAbstractEntry).
+ *
+ * To fill a compact file without ever having the whole bibliography as nodes
+ * in memory, add the entries as they come from BibtexParser.iterator(...).
+ *
+ * Person lists (see PersonListExpander) are stored as strings. This class is
+ * not thread safe.
+ */
+public final class BibtexCompactFile {
+
+	private static final byte ENTRY = 0, MACRO_DEFINITION = 1, PREAMBLE = 2, TOPLEVEL_COMMENT = 3;
+
+	// the kinds of value tokens: values are stored in postfix order.
+	private static final byte STRING = 0, MACRO_REFERENCE = 1, CONCATENATION = 2, MULTIPLE_VALUES = 3;
+
+	public BibtexCompactFile() {
+	}
+
+	// makes the views, and owns the symbol table for entry types and field
+	// names.
+	private final BibtexFile factory = new BibtexFile();
+
+	private final ContentArena arena = new ContentArena();
+
+	// entry columns. The key is the macro name for macro definitions and the
+	// content for comments.
+	private int size;
+	private byte[] kinds = new byte[16];
+	private int[] types = new int[16];
+	private int[] keyStarts = new int[16];
+	private int[] keyLengths = new int[16];
+	private int[] firstFields = new int[16];
+	private int[] fieldCounts = new int[16];
+
+	// field columns. The tokens of field i go from firstTokens[i] to
+	// firstTokens[i + 1] (or tokenCount for the last field).
+	private int fieldCount;
+	private int[] fieldNames = new int[64];
+	private int[] firstTokens = new int[64];
+
+	// token columns. For strings and macro references, the text is in the
+	// arena; for concatenations and multiple values, tokenLengths holds the
+	// number of operands.
+	private int tokenCount;
+	private byte[] tokenKinds = new byte[64];
+	private int[] tokenStarts = new int[64];
+	private int[] tokenLengths = new int[64];
+
+	// the key index for entries: a hash table with chaining through
+	// nextWithHash.
+	private int[] buckets = new int[16];
+	private int[] keyHashes = new int[16];
+	private int[] nextWithHash = new int[16];
+	private int indexedCount;
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Stores a copy of entry at the end of this file.
+	 */
+	public void addEntry(BibtexAbstractEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+
+		if (size == kinds.length)
+			growEntries();
+		store(size++, entry);
+	}
+
+	/**
+	 * Replaces the entry at index with a copy of entry. The text of the old
+	 * entry stays in the arena.
+	 */
+	public void setEntry(int index, BibtexAbstractEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+		checkIndex(index);
+
+		if (kinds[index] == ENTRY)
+			unindex(index);
+		store(index, entry);
+	}
+
+	private void store(int index, BibtexAbstractEntry entry) {
+		firstFields[index] = fieldCount;
+		types[index] = -1;
+		if (entry instanceof BibtexEntry) {
+			BibtexEntry bibtexEntry = (BibtexEntry) entry;
+			kinds[index] = ENTRY;
+			types[index] = factory.getSymbolTable().getId(bibtexEntry.getEntryType());
+			setKey(index, bibtexEntry.getEntryKey());
+			Map<String, Object> fields = bibtexEntry.getFields();
+			for (Map.Entry<String, Object> field : fields.entrySet()) {
+				addField(factory.getSymbolTable().getId(field.getKey()), (BibtexAbstractValue) field.getValue());
+			}
+			fieldCounts[index] = fields.size();
+			index(index);
+		} else if (entry instanceof BibtexMacroDefinition) {
+			BibtexMacroDefinition definition = (BibtexMacroDefinition) entry;
+			kinds[index] = MACRO_DEFINITION;
+			setKey(index, definition.getKey());
+			addField(-1, definition.getValue());
+			fieldCounts[index] = 1;
+		} else if (entry instanceof BibtexPreamble) {
+			kinds[index] = PREAMBLE;
+			setKey(index, "");
+			addField(-1, ((BibtexPreamble) entry).getContent());
+			fieldCounts[index] = 1;
+		} else if (entry instanceof BibtexToplevelComment) {
+			kinds[index] = TOPLEVEL_COMMENT;
+			setKey(index, ((BibtexToplevelComment) entry).getContent());
+			fieldCounts[index] = 0;
+		} else {
+			throw new IllegalArgumentException("Can't store " + entry.getClass().getName() + ".");
+		}
+	}
+
+	private void setKey(int index, String key) {
+		keyStarts[index] = arena.append(key);
+		keyLengths[index] = arena.size() - keyStarts[index];
+	}
+
+	private void addField(int name, BibtexAbstractValue value) {
+		if (fieldCount == fieldNames.length) {
+			fieldNames = grow(fieldNames);
+			firstTokens = grow(firstTokens);
+		}
+		fieldNames[fieldCount] = name;
+		firstTokens[fieldCount] = tokenCount;
+		fieldCount++;
+		addTokens(value);
+	}
+
+	private void addTokens(BibtexAbstractValue value) {
+		if (value instanceof BibtexString) {
+			addToken(STRING, ((BibtexString) value).getContent());
+		} else if (value instanceof BibtexMacroReference) {
+			addToken(MACRO_REFERENCE, ((BibtexMacroReference) value).getKey());
+		} else if (value instanceof BibtexConcatenatedValue) {
+			BibtexConcatenatedValue concatenation = (BibtexConcatenatedValue) value;
+			addTokens(concatenation.getLeft());
+			addTokens(concatenation.getRight());
+			addOperator(CONCATENATION, 2);
+		} else if (value instanceof BibtexMultipleValues) {
+			List<?> values = ((BibtexMultipleValues) value).getValues();
+			for (Iterator<?> it = values.iterator(); it.hasNext();) {
+				addTokens((BibtexAbstractValue) it.next());
+			}
+			addOperator(MULTIPLE_VALUES, values.size());
+		} else {
+			// a person list: {Johannes Henkel and ...}
+			String printed = value.toString();
+			if (printed.startsWith("{") && printed.endsWith("}"))
+				printed = printed.substring(1, printed.length() - 1);
+			addToken(STRING, printed);
+		}
+	}
+
+	private void addToken(byte kind, String content) {
+		final int token = newToken(kind);
+		tokenStarts[token] = arena.append(content);
+		tokenLengths[token] = arena.size() - tokenStarts[token];
+	}
+
+	private void addOperator(byte kind, int operands) {
+		final int token = newToken(kind);
+		tokenStarts[token] = 0;
+		tokenLengths[token] = operands;
+	}
+
+	private int newToken(byte kind) {
+		if (tokenCount == tokenKinds.length) {
+			byte[] newKinds = new byte[tokenKinds.length * 2];
+			System.arraycopy(tokenKinds, 0, newKinds, 0, tokenCount);
+			tokenKinds = newKinds;
+			tokenStarts = grow(tokenStarts);
+			tokenLengths = grow(tokenLengths);
+		}
+		tokenKinds[tokenCount] = kind;
+		return tokenCount++;
+	}
+
+	private void growEntries() {
+		byte[] newKinds = new byte[size * 2];
+		System.arraycopy(kinds, 0, newKinds, 0, size);
+		kinds = newKinds;
+		types = grow(types);
+		keyStarts = grow(keyStarts);
+		keyLengths = grow(keyLengths);
+		firstFields = grow(firstFields);
+		fieldCounts = grow(fieldCounts);
+		keyHashes = grow(keyHashes);
+		nextWithHash = grow(nextWithHash);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] result = new int[array.length * 2];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	private static int hash(String key) {
+		final int hash = key.toLowerCase().hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	private void index(int index) {
+		if (indexedCount + 1 > buckets.length * 3 / 4)
+			rehash(buckets.length * 2, index);
+		final int hash = hash(getKey(index));
+		final int bucket = hash & (buckets.length - 1);
+		keyHashes[index] = hash;
+		nextWithHash[index] = buckets[bucket];
+		buckets[bucket] = index + 1;
+		indexedCount++;
+	}
+
+	private void unindex(int index) {
+		final int bucket = keyHashes[index] & (buckets.length - 1);
+		if (buckets[bucket] == index + 1) {
+			buckets[bucket] = nextWithHash[index];
+		} else {
+			int previous = buckets[bucket] - 1;
+			while (nextWithHash[previous] != index + 1)
+				previous = nextWithHash[previous] - 1;
+			nextWithHash[previous] = nextWithHash[index];
+		}
+		indexedCount--;
+	}
+
+	// rehashes all the entries but the one that's about to be indexed.
+	private void rehash(int capacity, int except) {
+		buckets = new int[capacity];
+		for (int i = 0; i < size; i++) {
+			if (kinds[i] == ENTRY && i != except) {
+				final int bucket = keyHashes[i] & (capacity - 1);
+				nextWithHash[i] = buckets[bucket];
+				buckets[bucket] = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 *            is case insensitive, like in bibtex.
+	 * @return the index of the first entry with that key, or -1.
+	 */
+	public int findEntry(String key) {
+		assert key != null : "key parameter may not be null.";
+
+		final int hash = hash(key);
+		int result = -1;
+		for (int i = buckets[hash & (buckets.length - 1)] - 1; i >= 0; i = nextWithHash[i] - 1) {
+			if (keyHashes[i] == hash && (result < 0 || i < result) && getKey(i).equalsIgnoreCase(key))
+				result = i;
+		}
+		return result;
+	}
+
+	/**
+	 * @return a view of the first entry with that key, or null.
+	 */
+	public BibtexEntry getEntryByKey(String key) {
+		final int index = findEntry(key);
+		return index < 0 ? null : (BibtexEntry) getEntry(index);
+	}
+
+	/**
+	 * @return the key of the entry at index, the name of a macro definition,
+	 *         "" for a preamble and the content of a comment.
+	 */
+	public String getKey(int index) {
+		checkIndex(index);
+
+		return arena.getString(keyStarts[index], keyLengths[index]);
+	}
+
+	/**
+	 * @return the type of the entry at index, or null if it's not a
+	 *         BibtexEntry.
+	 */
+	public String getEntryType(int index) {
+		checkIndex(index);
+
+		return types[index] < 0 ? null : factory.getSymbolTable().getName(types[index]);
+	}
+
+	/**
+	 * Decodes a single field, without making a view of the whole entry.
+	 *
+	 * @return the value of the field, or null if the entry at index doesn't
+	 *         have it.
+	 */
+	public BibtexAbstractValue getFieldValue(int index, String fieldName) {
+		checkIndex(index);
+		assert fieldName != null : "fieldName parameter may not be null.";
+
+		final int name = factory.getSymbolTable().findId(fieldName.toLowerCase());
+		if (name < 0 || kinds[index] != ENTRY)
+			return null;
+		for (int field = firstFields[index]; field < firstFields[index] + fieldCounts[index]; field++) {
+			if (fieldNames[field] == name)
+				return decodeValue(field);
+		}
+		return null;
+	}
+
+	/**
+	 * @return a new view of the entry at index.
+	 */
+	public BibtexAbstractEntry getEntry(int index) {
+		checkIndex(index);
+
+		switch (kinds[index]) {
+		case ENTRY:
+			BibtexEntry entry = factory.makeEntry(getEntryType(index), getKey(index));
+			entry.setSource(new ColumnSource(firstFields[index]));
+			for (int i = 0; i < fieldCounts[index]; i++) {
+				entry.setLazyField(factory.getSymbolTable().getName(fieldNames[firstFields[index] + i]), i);
+			}
+			return entry;
+		case MACRO_DEFINITION:
+			return factory.makeMacroDefinition(getKey(index), decodeValue(firstFields[index]));
+		case PREAMBLE:
+			return factory.makePreamble(decodeValue(firstFields[index]));
+		default:
+			return factory.makeToplevelComment(getKey(index));
+		}
+	}
+
+	/**
+	 * @return an unmodifiable list of views, see getEntry(int).
+	 */
+	public List<BibtexAbstractEntry> getEntries() {
+		return new EntryList();
+	}
+
+	private final class EntryList extends AbstractList<BibtexAbstractEntry> implements RandomAccess {
+
+		public BibtexAbstractEntry get(int index) {
+			return getEntry(index);
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Decodes the field values of a view.
+	 */
+	private final class ColumnSource extends BibtexEntrySource {
+
+		ColumnSource(int firstField) {
+			this.firstField = firstField;
+		}
+
+		private final int firstField;
+
+		protected BibtexAbstractValue decodeFieldValue(BibtexFile factory, int fieldIndex) {
+			return decodeValue(firstField + fieldIndex);
+		}
+	}
+
+	private BibtexAbstractValue decodeValue(int field) {
+		final int end = field + 1 < fieldCount ? firstTokens[field + 1] : tokenCount;
+		ArrayList<BibtexAbstractValue> stack = new ArrayList<BibtexAbstractValue>(4);
+		for (int token = firstTokens[field]; token < end; token++) {
+			switch (tokenKinds[token]) {
+			case STRING:
+				stack.add(factory.makeString(arena.getString(tokenStarts[token], tokenLengths[token])));
+				break;
+			case MACRO_REFERENCE:
+				stack.add(factory.makeMacroReference(arena.getString(tokenStarts[token], tokenLengths[token])));
+				break;
+			case CONCATENATION:
+				BibtexAbstractValue right = stack.remove(stack.size() - 1);
+				BibtexAbstractValue left = stack.remove(stack.size() - 1);
+				stack.add(factory.makeConcatenatedValue(left, right));
+				break;
+			default:
+				BibtexMultipleValues values = factory.makeBibtexMultipleValues();
+				final int first = stack.size() - tokenLengths[token];
+				for (int i = first; i < stack.size(); i++) {
+					values.addValue(stack.get(i));
+				}
+				stack.subList(first, stack.size()).clear();
+				stack.add(values);
+			}
+		}
+		return stack.get(0);
+	}
+
+	/**
+	 * @return roughly how many bytes the columns, the key index and the arena
+	 *         take up.
+	 */
+	public long getMemoryUsage() {
+		return kinds.length * 29L + fieldNames.length * 8L + tokenKinds.length * 9L + buckets.length * 4L
+			+ arena.getCapacity();
+	}
+
+	public void printBibtex(PrintWriter writer) {
+		assert writer != null : "writer parameter may not be null.";
+
+		for (int i = 0; i < size; i++) {
+			getEntry(i).printBibtex(writer);
+		}
+		writer.flush();
+	}
+}
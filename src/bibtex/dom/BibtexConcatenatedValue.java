@@ -56,6 +56,7 @@ public final class BibtexConcatenatedValue extends BibtexAbstractValue {
 	    assert !(left instanceof BibtexMultipleValues): "left parameter may not be an instance of BibtexMultipleValues."; 
 	    
 		this.left = left;
+		getOwnerFile().valueChanged();
 	}
 
 	/**
@@ -67,6 +68,7 @@ public final class BibtexConcatenatedValue extends BibtexAbstractValue {
 	    assert !(right instanceof BibtexMultipleValues): "right parameter may not be an instance of BibtexMultipleValues.";
 	    
 		this.right = right;
+		getOwnerFile().valueChanged();
 	}
 
 	/* (non-Javadoc)
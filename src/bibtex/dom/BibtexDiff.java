@@ -0,0 +1,253 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two BibtexFiles, e.g. a bibliography before and after cleaning, and
+ * reports the differences to a BibtexDiffHandler. Entries are matched by their
+ * key, ignoring case like bibtex does; if several entries have the same key,
+ * the first one in the old file is matched with the first one in the new file,
+ * and so on. Macro definitions are matched by their key, too. Preambles and
+ * comments aren't compared.
+ *
+ * Values are compared by what printBibtex(...) prints for them, so a value
+ * that has been expanded into a person list is the same as the string it came
+ * from if it prints the same way. For each entry, a 64 bit hash is computed
+ * for each field, and one for the entry from those: entries with the same hash
+ * are taken to be equal without looking at their fields, and for the others,
+ * only the fields whose hashes differ are reported.
+ *
+ * The added and changed entries are reported in the order of the new file,
+ * then the removed ones in the order of the old file. Only the macro
+ * definitions are kept in memory, so this works with BibtexDiskFiles, too.
+ *
+ * E.g.
+ *
+ * <pre>
+ * PrintWriter writer = new PrintWriter(System.out);
+ * new BibtexDiff().diff(dirtyFile, cleanedFile, new BibtexDiffPrinter(writer));
+ * writer.flush();
+ * </pre>
+ *
+ * This class is not thread safe.
+ */
+public final class BibtexDiff {
+
+	private int addedCount, removedCount, changedCount, unchangedCount;
+
+	private final ContentHasher hasher = new ContentHasher(false);
+
+	// the fields of the two entries that are being compared.
+	private final FieldHashes oldFields = new FieldHashes(), newFields = new FieldHashes();
+
+	/**
+	 * Reports how newFile differs from oldFile to handler. The counts are
+	 * reset first.
+	 */
+	public void diff(BibtexFile oldFile, BibtexFile newFile, BibtexDiffHandler handler) {
+		assert oldFile != null : "oldFile parameter may not be null.";
+		assert newFile != null : "newFile parameter may not be null.";
+		assert handler != null : "handler parameter may not be null.";
+
+		addedCount = removedCount = changedCount = unchangedCount = 0;
+		HashMap<String, List<BibtexMacroDefinition>> oldDefinitions = getMacroDefinitions(oldFile);
+		HashMap<String, List<BibtexMacroDefinition>> newDefinitions = getMacroDefinitions(newFile);
+		for (Iterator<BibtexAbstractEntry> it = newFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (entry instanceof BibtexEntry) {
+				BibtexEntry newEntry = (BibtexEntry) entry;
+				BibtexEntry oldEntry = getCounterpart(newEntry, newFile, oldFile);
+				if (oldEntry == null) {
+					addedCount++;
+					handler.entryAdded(newEntry);
+				} else {
+					compare(oldEntry, newEntry, handler);
+				}
+			} else if (entry instanceof BibtexMacroDefinition) {
+				BibtexMacroDefinition newDefinition = (BibtexMacroDefinition) entry;
+				BibtexMacroDefinition oldDefinition = getCounterpart(newDefinition, newDefinitions, oldDefinitions);
+				if (oldDefinition == null) {
+					addedCount++;
+					handler.entryAdded(newDefinition);
+				} else if (hasher.hash(oldDefinition.getValue()) != hasher.hash(newDefinition.getValue())) {
+					changedCount++;
+					handler.macroDefinitionChanged(oldDefinition, newDefinition);
+				} else {
+					unchangedCount++;
+				}
+			}
+		}
+		for (Iterator<BibtexAbstractEntry> it = oldFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (entry instanceof BibtexEntry) {
+				if (getCounterpart((BibtexEntry) entry, oldFile, newFile) == null) {
+					removedCount++;
+					handler.entryRemoved(entry);
+				}
+			} else if (entry instanceof BibtexMacroDefinition) {
+				if (getCounterpart((BibtexMacroDefinition) entry, oldDefinitions, newDefinitions) == null) {
+					removedCount++;
+					handler.entryRemoved(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the entry of otherFile that has the same key as entry, and comes
+	 *         at the same place among the ones with that key, or null.
+	 */
+	private static BibtexEntry getCounterpart(BibtexEntry entry, BibtexFile file, BibtexFile otherFile) {
+		final String key = entry.getEntryKey();
+		final int index = indexOf(file.getEntriesByKey(key), entry);
+		List<BibtexEntry> others = otherFile.getEntriesByKey(key);
+		return index < others.size() ? others.get(index) : null;
+	}
+
+	private static BibtexMacroDefinition getCounterpart(BibtexMacroDefinition definition,
+		HashMap<String, List<BibtexMacroDefinition>> definitions,
+		HashMap<String, List<BibtexMacroDefinition>> otherDefinitions) {
+		final String key = definition.getKey().toLowerCase();
+		final int index = indexOf(definitions.get(key), definition);
+		List<BibtexMacroDefinition> others = otherDefinitions.get(key);
+		return others != null && index < others.size() ? others.get(index) : null;
+	}
+
+	private static int indexOf(List<?> list, Object element) {
+		final int size = list.size();
+		for (int i = 0; i < size; i++) {
+			if (list.get(i) == element)
+				return i;
+		}
+		return size;
+	}
+
+	/**
+	 * @return lower case key -> the macro definitions with that key, in the
+	 *         order of the file.
+	 */
+	private static HashMap<String, List<BibtexMacroDefinition>> getMacroDefinitions(BibtexFile file) {
+		HashMap<String, List<BibtexMacroDefinition>> definitions = new HashMap<String, List<BibtexMacroDefinition>>();
+		for (Iterator<BibtexAbstractEntry> it = file.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (!(entry instanceof BibtexMacroDefinition))
+				continue;
+			BibtexMacroDefinition definition = (BibtexMacroDefinition) entry;
+			final String key = definition.getKey().toLowerCase();
+			List<BibtexMacroDefinition> withKey = definitions.get(key);
+			if (withKey == null) {
+				withKey = new ArrayList<BibtexMacroDefinition>(1);
+				definitions.put(key, withKey);
+			}
+			withKey.add(definition);
+		}
+		return definitions;
+	}
+
+	private void compare(BibtexEntry oldEntry, BibtexEntry newEntry, BibtexDiffHandler handler) {
+		if (oldFields.set(oldEntry) == newFields.set(newEntry)) {
+			unchangedCount++;
+			return;
+		}
+		changedCount++;
+		handler.entryChanged(oldEntry, newEntry);
+		for (int i = 0; i < newFields.count; i++) {
+			final int oldIndex = oldFields.indexOf(newFields.names[i]);
+			if (oldIndex < 0)
+				handler.fieldAdded(newFields.names[i], newFields.values[i]);
+			else if (oldFields.hashes[oldIndex] != newFields.hashes[i])
+				handler.fieldChanged(newFields.names[i], oldFields.values[oldIndex], newFields.values[i]);
+		}
+		for (int i = 0; i < oldFields.count; i++) {
+			if (newFields.indexOf(oldFields.names[i]) < 0)
+				handler.fieldRemoved(oldFields.names[i], oldFields.values[i]);
+		}
+	}
+
+	/**
+	 * The names, values and hashes of the fields of an entry.
+	 */
+	private final class FieldHashes {
+
+		String[] names = new String[16];
+
+		BibtexAbstractValue[] values = new BibtexAbstractValue[16];
+
+		long[] hashes = new long[16];
+
+		int count;
+
+		/**
+		 * @return the hash of entry: of its type, its key and its fields, in
+		 *         any order.
+		 */
+		long set(BibtexEntry entry) {
+			Map<String, Object> fields = entry.getFields();
+			if (fields.size() > names.length) {
+				names = new String[fields.size()];
+				values = new BibtexAbstractValue[fields.size()];
+				hashes = new long[fields.size()];
+			}
+			long entryHash = ContentHasher.mix(hasher.hash(entry.getEntryType()))
+				+ ContentHasher.mix(hasher.hash(entry.getEntryKey()) + 1);
+			count = 0;
+			for (Iterator<Map.Entry<String, Object>> it = fields.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, Object> field = it.next();
+				names[count] = field.getKey();
+				values[count] = (BibtexAbstractValue) field.getValue();
+				hashes[count] = hasher.hash(values[count]);
+				entryHash += ContentHasher.mix(hasher.hash(names[count]) * 31 + hashes[count]);
+				count++;
+			}
+			return entryHash;
+		}
+
+		int indexOf(String name) {
+			for (int i = 0; i < count; i++) {
+				if (names[i] == name || names[i].equals(name))
+					return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the number of entries and macro definitions that only the new
+	 *         file has, in the last diff.
+	 */
+	public int getAddedCount() {
+		return addedCount;
+	}
+
+	/**
+	 * @return the number of entries and macro definitions that only the old
+	 *         file has, in the last diff.
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * @return the number of entries and macro definitions that have changed,
+	 *         in the last diff.
+	 */
+	public int getChangedCount() {
+		return changedCount;
+	}
+
+	/**
+	 * @return the number of entries and macro definitions that are the same in
+	 *         both files, in the last diff.
+	 */
+	public int getUnchangedCount() {
+		return unchangedCount;
+	}
+}
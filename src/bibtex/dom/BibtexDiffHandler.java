@@ -0,0 +1,56 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+/**
+ * Receives the differences between two BibtexFiles from BibtexDiff, one at a
+ * time, so that the change set never has to be kept in memory. For an entry
+ * that is in both files but has changed, entryChanged(...) is called first,
+ * and then fieldAdded, fieldRemoved or fieldChanged for each field that
+ * differs.
+ *
+ * @see BibtexDiff
+ */
+public interface BibtexDiffHandler {
+
+	/**
+	 * Called for an entry or macro definition of the new file that doesn't
+	 * have a counterpart in the old one.
+	 */
+	public void entryAdded(BibtexAbstractEntry newEntry);
+
+	/**
+	 * Called for an entry or macro definition of the old file that doesn't
+	 * have a counterpart in the new one.
+	 */
+	public void entryRemoved(BibtexAbstractEntry oldEntry);
+
+	/**
+	 * Called for two entries with the same key (ignoring case) whose type, key
+	 * or fields differ. Their keys may differ in case.
+	 */
+	public void entryChanged(BibtexEntry oldEntry, BibtexEntry newEntry);
+
+	/**
+	 * Called for a field of the current entry that only the new one has.
+	 */
+	public void fieldAdded(String fieldName, BibtexAbstractValue newValue);
+
+	/**
+	 * Called for a field of the current entry that only the old one has.
+	 */
+	public void fieldRemoved(String fieldName, BibtexAbstractValue oldValue);
+
+	/**
+	 * Called for a field of the current entry whose value differs.
+	 */
+	public void fieldChanged(String fieldName, BibtexAbstractValue oldValue, BibtexAbstractValue newValue);
+
+	/**
+	 * Called for two macro definitions with the same key (ignoring case) whose
+	 * values differ.
+	 */
+	public void macroDefinitionChanged(BibtexMacroDefinition oldDefinition, BibtexMacroDefinition newDefinition);
+}
@@ -0,0 +1,124 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * A BibtexDiffHandler that prints the differences, a line for each, with the
+ * values as printBibtex(...) prints them, e.g.
+ *
+ * <pre>
+ * ~ &#064;string{pldi}: {PLDI} -&gt; {Programming Language Design and Implementation}
+ * ~ &#064;inproceedings{diwan98typebased}
+ *     ~ pages: {106--116} -&gt; {106--117}
+ *     + url={citeseer.nj.nec.com/diwan98typebased.html}
+ *     - note={to appear}
+ * ~ &#064;article{Henkel04} (was &#064;misc{henkel04})
+ * + &#064;article{henkel05}
+ * - &#064;string{jan}
+ * </pre>
+ *
+ * If the type or the key of an entry has changed, the old ones follow the new
+ * ones in parentheses.
+ *
+ * The writer is not flushed.
+ */
+public class BibtexDiffPrinter implements BibtexDiffHandler {
+
+	public BibtexDiffPrinter(PrintWriter writer) {
+		assert writer != null : "writer parameter may not be null.";
+
+		this.writer = writer;
+	}
+
+	private final PrintWriter writer;
+
+	// the values only know how to print themselves.
+	private final StringWriter valueText = new StringWriter();
+
+	private final PrintWriter valueWriter = new PrintWriter(valueText);
+
+	public void entryAdded(BibtexAbstractEntry newEntry) {
+		writer.print("+ ");
+		printHeader(newEntry);
+		writer.println();
+	}
+
+	public void entryRemoved(BibtexAbstractEntry oldEntry) {
+		writer.print("- ");
+		printHeader(oldEntry);
+		writer.println();
+	}
+
+	public void entryChanged(BibtexEntry oldEntry, BibtexEntry newEntry) {
+		writer.print("~ ");
+		printHeader(newEntry);
+		if (!oldEntry.getEntryType().equals(newEntry.getEntryType())
+			|| !oldEntry.getEntryKey().equals(newEntry.getEntryKey())) {
+			writer.print(" (was ");
+			printHeader(oldEntry);
+			writer.print(')');
+		}
+		writer.println();
+	}
+
+	public void fieldAdded(String fieldName, BibtexAbstractValue newValue) {
+		writer.print("    + ");
+		writer.print(fieldName);
+		writer.print('=');
+		writer.println(toText(newValue));
+	}
+
+	public void fieldRemoved(String fieldName, BibtexAbstractValue oldValue) {
+		writer.print("    - ");
+		writer.print(fieldName);
+		writer.print('=');
+		writer.println(toText(oldValue));
+	}
+
+	public void fieldChanged(String fieldName, BibtexAbstractValue oldValue, BibtexAbstractValue newValue) {
+		writer.print("    ~ ");
+		writer.print(fieldName);
+		writer.print(": ");
+		writer.print(toText(oldValue));
+		writer.print(" -> ");
+		writer.println(toText(newValue));
+	}
+
+	public void macroDefinitionChanged(BibtexMacroDefinition oldDefinition, BibtexMacroDefinition newDefinition) {
+		writer.print("~ ");
+		printHeader(newDefinition);
+		writer.print(": ");
+		writer.print(toText(oldDefinition.getValue()));
+		writer.print(" -> ");
+		writer.println(toText(newDefinition.getValue()));
+	}
+
+	private void printHeader(BibtexAbstractEntry entry) {
+		if (entry instanceof BibtexEntry) {
+			writer.print('@');
+			writer.print(((BibtexEntry) entry).getEntryType());
+			writer.print('{');
+			writer.print(((BibtexEntry) entry).getEntryKey());
+			writer.print('}');
+		} else if (entry instanceof BibtexMacroDefinition) {
+			writer.print("@string{");
+			writer.print(((BibtexMacroDefinition) entry).getKey());
+			writer.print('}');
+		} else {
+			writer.print(entry.getClass().getName());
+		}
+	}
+
+	private String toText(BibtexNode value) {
+		value.printBibtex(valueWriter);
+		valueWriter.flush();
+		String text = valueText.toString();
+		valueText.getBuffer().setLength(0);
+		return text;
+	}
+}
@@ -0,0 +1,922 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import bibtex.Assertions;
+
+/**
+ * A BibtexFile for bibliographies that don't fit into the heap. The
+ * BibtexEntries are kept in an append-only store on disk, one record for each,
+ * and are only made into objects when they are needed: getEntries(), the
+ * lookups by key and type, the expanders and printBibtex(...) work like with a
+ * BibtexFile, but they read the entries from the store as they go. The
+ * cacheSize entries that have been used last are kept in memory, and so is any
+ * entry that you still hold on to - you get the same object back for it.
+ *
+ * Changes to an entry are written to the store when the entry has been
+ * garbage collected, or when flush() is called: the entry is encoded again,
+ * and if that gives a different record, the new record is appended. The old
+ * one stays in the store as garbage.
+ *
+ * Records are appended to a page of PAGE_SIZE bytes in memory, which is
+ * written to the store when it is full. In memory, this takes about 40 bytes
+ * for each entry, for its position in the store and the key index. Macro
+ * definitions, preambles and comments are few, so they just stay in memory.
+ *
+ * Entries are stored as their values, not as their text, so a lazily parsed
+ * entry that hasn't changed is printed like an eagerly parsed one once it has
+ * been read from the store. ParallelBibtexSerializer works, but it reads all
+ * the entries into memory; use printBibtex(...) or BibtexSerializer instead.
+ *
+ * Close the file when you're done with it; that deletes the store. This class
+ * is not thread safe, not even for reading, since reading changes the cache.
+ *
+ * @see BibtexFile
+ */
+public final class BibtexDiskFile extends BibtexFile implements Closeable {
+
+	/**
+	 * the size of the page that records are appended to. Larger records are
+	 * written by themselves.
+	 */
+	public static final int PAGE_SIZE = 1 << 16;
+
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+
+	// the lengths of the positions that don't have a record.
+	private static final int REMOVED = -1, IN_MEMORY = -2;
+
+	// the kinds of values in a record.
+	private static final int STRING = 0, MACRO_REFERENCE = 1, CONCATENATION = 2, MULTIPLE_VALUES = 3,
+		PERSON_LIST = 4;
+
+	/**
+	 * Equivalent to BibtexDiskFile(path, DEFAULT_CACHE_SIZE).
+	 */
+	public BibtexDiskFile(Path path) throws IOException {
+		this(path, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param path
+	 *            the store; it is created, or truncated if it exists.
+	 * @param cacheSize
+	 *            the number of entries that are kept in memory after they
+	 *            have been used.
+	 */
+	public BibtexDiskFile(Path path, final int cacheSize) throws IOException {
+		super(false, false);
+		assert path != null : "path parameter may not be null.";
+		assert cacheSize > 0 : "cacheSize parameter must be positive.";
+
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.cacheSize = cacheSize;
+		this.cache = new LinkedHashMap<Integer, BibtexEntry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, BibtexEntry> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	private final Path path;
+
+	private final FileChannel channel;
+
+	private final int cacheSize;
+
+	// the page that records are appended to, and where it starts in the store.
+	private final byte[] page = new byte[PAGE_SIZE];
+
+	private int pageLength;
+
+	private long pageOffset;
+
+	// for each position: where its record is, and its checksum, the hash code
+	// of its lower case key and its type.
+	private int size;
+
+	private long[] offsets = new long[64];
+
+	private int[] lengths = new int[64];
+
+	private long[] checksums = new long[64];
+
+	private int[] keyHashes = new int[64];
+
+	private String[] types = new String[64];
+
+	private int removedCount;
+
+	private int compactionCount;
+
+	// the entries that aren't BibtexEntries.
+	private HashMap<Integer, BibtexAbstractEntry> inMemory = new HashMap<Integer, BibtexAbstractEntry>();
+
+	// open addressing: position + 1 of the BibtexEntries, by keyHashes.
+	private int[] keyTable = new int[128];
+
+	private int keyCount;
+
+	// the entries that have been used last, in the order of their use.
+	private final LinkedHashMap<Integer, BibtexEntry> cache;
+
+	// all the entries that have been read or added and may still be in use.
+	private HashMap<Integer, TrackedEntry> tracked = new HashMap<Integer, TrackedEntry>();
+
+	private final ReferenceQueue<BibtexEntry> collected = new ReferenceQueue<BibtexEntry>();
+
+	private final RecordWriter recordWriter = new RecordWriter();
+
+	private final RecordReader recordReader = new RecordReader();
+
+	private final EntryList entryList = new EntryList();
+
+	private boolean closed;
+
+	/**
+	 * The state of an entry that is needed to write it back, which outlives the
+	 * entry itself: the key and type are kept up to date by addToIndexes(...).
+	 */
+	private static final class TrackedEntry extends WeakReference<BibtexEntry> {
+
+		TrackedEntry(BibtexEntry entry, int position, ReferenceQueue<BibtexEntry> queue) {
+			super(entry, queue);
+			this.position = position;
+			this.entryType = entry.getEntryType();
+			this.entryKey = entry.getEntryKey();
+			this.fields = entry.getFieldMap();
+		}
+
+		int position;
+
+		String entryType;
+
+		String entryKey;
+
+		final Map<String, Object> fields;
+	}
+
+	public void addEntry(BibtexAbstractEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+		assert !Assertions.ENABLE_EXPENSIVE_ASSERTIONS || !containsEntry(entry) :
+			"entry parameter is already contained within this BibtexFile object.";
+
+		writeCollected();
+		if (size == lengths.length)
+			grow();
+		final int position = size++;
+		if (entry instanceof BibtexEntry) {
+			BibtexEntry bibtexEntry = (BibtexEntry) entry;
+			// decodes the values of lazily parsed entries.
+			bibtexEntry.getFields();
+			lengths[position] = REMOVED;
+			types[position] = bibtexEntry.getEntryType();
+			keyHashes[position] = bibtexEntry.getEntryKey().toLowerCase().hashCode();
+			TrackedEntry trackedEntry = new TrackedEntry(bibtexEntry, position, collected);
+			try {
+				write(trackedEntry);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			addToKeyTable(position);
+			tracked.put(Integer.valueOf(position), trackedEntry);
+		} else {
+			lengths[position] = IN_MEMORY;
+			inMemory.put(Integer.valueOf(position), entry);
+		}
+		entry.setPosition(this, position);
+	}
+
+	private void grow() {
+		final int capacity = lengths.length * 2;
+		offsets = Arrays.copyOf(offsets, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		checksums = Arrays.copyOf(checksums, capacity);
+		keyHashes = Arrays.copyOf(keyHashes, capacity);
+		types = Arrays.copyOf(types, capacity);
+	}
+
+	/**
+	 * You may remove entries while you iterate over getEntries().
+	 */
+	public void removeEntry(BibtexAbstractEntry entry) {
+		assert entry != null;
+
+		final int position = entry.getPosition(this);
+		boolean found = position >= 0;
+
+		assert found : "entry parameter was not found.";
+
+		if (!found)
+			return;
+		final Integer key = Integer.valueOf(position);
+		if (lengths[position] == IN_MEMORY) {
+			inMemory.remove(key);
+		} else {
+			removeFromKeyTable(position);
+			cache.remove(key);
+			TrackedEntry trackedEntry = tracked.remove(key);
+			if (trackedEntry != null)
+				trackedEntry.clear();
+		}
+		lengths[position] = REMOVED;
+		types[position] = null;
+		removedCount++;
+		entry.setPosition(this, -1);
+	}
+
+	/**
+	 * returns an unmodifiable view of the entries, which reads them from the
+	 * store as they are needed. Like for BibtexFile, you may remove entries
+	 * while you iterate, but don't call getEntries() again while you're
+	 * iterating over a list that you got earlier.
+	 */
+	public List<BibtexAbstractEntry> getEntries() {
+		compact();
+		return entryList;
+	}
+
+	/**
+	 * @return false, since reading an entry changes the cache.
+	 */
+	public boolean supportsConcurrentAccess() {
+		return false;
+	}
+
+	/**
+	 * @param key
+	 *            is case insensitive, like in bibtex.
+	 * @return the first entry with that key, or null.
+	 */
+	public BibtexEntry getEntryByKey(String key) {
+		assert key != null : "key parameter may not be null.";
+
+		int[] positions = findKey(key);
+		return positions.length == 0 ? null : (BibtexEntry) getEntry(positions[0]);
+	}
+
+	/**
+	 * @param key
+	 *            is case insensitive, like in bibtex.
+	 * @return the entries with that key, in the order of the file - usually
+	 *         just one.
+	 */
+	public List<BibtexEntry> getEntriesByKey(String key) {
+		assert key != null : "key parameter may not be null.";
+
+		int[] positions = findKey(key);
+		if (positions.length == 0)
+			return Collections.emptyList();
+		if (positions.length == 1)
+			return Collections.singletonList((BibtexEntry) getEntry(positions[0]));
+		ArrayList<BibtexEntry> result = new ArrayList<BibtexEntry>(positions.length);
+		for (int i = 0; i < positions.length; i++) {
+			result.add((BibtexEntry) getEntry(positions[i]));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @return the positions of the entries with that key, in the order of the
+	 *         file.
+	 */
+	private int[] findKey(String key) {
+		final String lowerCaseKey = key.toLowerCase();
+		final int hash = lowerCaseKey.hashCode();
+		final int mask = keyTable.length - 1;
+		int[] positions = new int[0];
+		for (int i = spread(hash) & mask; keyTable[i] != 0; i = (i + 1) & mask) {
+			final int position = keyTable[i] - 1;
+			if (keyHashes[position] == hash
+				&& ((BibtexEntry) getEntry(position)).getEntryKey().toLowerCase().equals(lowerCaseKey)) {
+				positions = Arrays.copyOf(positions, positions.length + 1);
+				positions[positions.length - 1] = position;
+			}
+		}
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	/**
+	 * @param entryType
+	 *            is case insensitive.
+	 * @return an unmodifiable list of the entries of this type, in the order
+	 *         of the file, which reads them as they are needed. Get a new one
+	 *         after you've changed this file.
+	 */
+	public List<BibtexEntry> getEntriesByType(String entryType) {
+		assert entryType != null : "entryType parameter may not be null.";
+
+		final String lowerCaseType = entryType.toLowerCase();
+		int[] positions = new int[16];
+		int count = 0;
+		for (int position = 0; position < size; position++) {
+			if (lengths[position] >= 0 && lowerCaseType.equals(types[position])) {
+				if (count == positions.length)
+					positions = Arrays.copyOf(positions, count * 2);
+				positions[count++] = position;
+			}
+		}
+		if (count == 0)
+			return Collections.emptyList();
+		return new TypeList(Arrays.copyOf(positions, count));
+	}
+
+	/**
+	 * Called by the entries when their key or type changes.
+	 */
+	void addToIndexes(BibtexAbstractEntry abstractEntry) {
+		if (!(abstractEntry instanceof BibtexEntry))
+			return;
+		final BibtexEntry entry = (BibtexEntry) abstractEntry;
+		final int position = entry.getPosition(this);
+		types[position] = entry.getEntryType();
+		keyHashes[position] = entry.getEntryKey().toLowerCase().hashCode();
+		addToKeyTable(position);
+		TrackedEntry trackedEntry = tracked.get(Integer.valueOf(position));
+		if (trackedEntry != null) {
+			trackedEntry.entryType = entry.getEntryType();
+			trackedEntry.entryKey = entry.getEntryKey();
+		}
+	}
+
+	/**
+	 * Called by the entries when their key or type changes.
+	 */
+	void removeFromIndexes(BibtexAbstractEntry abstractEntry) {
+		if (!(abstractEntry instanceof BibtexEntry))
+			return;
+		removeFromKeyTable(abstractEntry.getPosition(this));
+	}
+
+	// like HashMap does it, since the table is a power of two.
+	private static int spread(int hash) {
+		return hash ^ hash >>> 16;
+	}
+
+	private void addToKeyTable(int position) {
+		if ((keyCount + 1) * 2 > keyTable.length)
+			rebuildKeyTable(keyTable.length * 2, position);
+		final int mask = keyTable.length - 1;
+		int i = spread(keyHashes[position]) & mask;
+		while (keyTable[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		keyTable[i] = position + 1;
+		keyCount++;
+	}
+
+	private void removeFromKeyTable(int position) {
+		final int mask = keyTable.length - 1;
+		int i = spread(keyHashes[position]) & mask;
+		while (keyTable[i] != position + 1) {
+			if (keyTable[i] == 0)
+				return;
+			i = (i + 1) & mask;
+		}
+		// move the ones behind it up, if that brings them closer to where they
+		// belong, so that lookups don't stop at the gap.
+		for (int j = (i + 1) & mask; keyTable[j] != 0; j = (j + 1) & mask) {
+			final int home = spread(keyHashes[keyTable[j] - 1]) & mask;
+			if (i <= j ? i < home && home <= j : i < home || home <= j)
+				continue;
+			keyTable[i] = keyTable[j];
+			i = j;
+		}
+		keyTable[i] = 0;
+		keyCount--;
+	}
+
+	/**
+	 * @param except
+	 *            the position that is about to be added, or -1.
+	 */
+	private void rebuildKeyTable(int capacity, int except) {
+		keyTable = new int[capacity];
+		keyCount = 0;
+		for (int position = 0; position < size; position++) {
+			if (lengths[position] >= 0 && position != except)
+				addToKeyTable(position);
+		}
+	}
+
+	/**
+	 * Closes the gaps that removed entries left behind.
+	 */
+	private void compact() {
+		if (removedCount == 0)
+			return;
+		int[] newPositions = new int[size];
+		int newSize = 0;
+		for (int position = 0; position < size; position++) {
+			if (lengths[position] == REMOVED) {
+				newPositions[position] = -1;
+				continue;
+			}
+			newPositions[position] = newSize;
+			offsets[newSize] = offsets[position];
+			lengths[newSize] = lengths[position];
+			checksums[newSize] = checksums[position];
+			keyHashes[newSize] = keyHashes[position];
+			types[newSize] = types[position];
+			newSize++;
+		}
+		Arrays.fill(types, newSize, size, null);
+		size = newSize;
+		removedCount = 0;
+		compactionCount++;
+
+		HashMap<Integer, BibtexAbstractEntry> newInMemory = new HashMap<Integer, BibtexAbstractEntry>();
+		for (Iterator<BibtexAbstractEntry> it = inMemory.values().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			final int position = newPositions[entry.getPosition(this)];
+			entry.setPosition(this, position);
+			newInMemory.put(Integer.valueOf(position), entry);
+		}
+		inMemory = newInMemory;
+		HashMap<Integer, TrackedEntry> newTracked = new HashMap<Integer, TrackedEntry>();
+		for (Iterator<TrackedEntry> it = tracked.values().iterator(); it.hasNext();) {
+			TrackedEntry trackedEntry = it.next();
+			trackedEntry.position = newPositions[trackedEntry.position];
+			BibtexEntry entry = trackedEntry.get();
+			if (entry != null)
+				entry.setPosition(this, trackedEntry.position);
+			newTracked.put(Integer.valueOf(trackedEntry.position), trackedEntry);
+		}
+		tracked = newTracked;
+		// in the order of their use.
+		ArrayList<BibtexEntry> cached = new ArrayList<BibtexEntry>(cache.values());
+		cache.clear();
+		for (int i = 0; i < cached.size(); i++) {
+			cache.put(Integer.valueOf(cached.get(i).getPosition(this)), cached.get(i));
+		}
+		rebuildKeyTable(keyTable.length, -1);
+	}
+
+	/**
+	 * @return the entry at position, read from the store if it isn't in
+	 *         memory.
+	 */
+	private BibtexAbstractEntry getEntry(int position) {
+		try {
+			writeCollected();
+			final Integer key = Integer.valueOf(position);
+			if (lengths[position] == IN_MEMORY)
+				return inMemory.get(key);
+			BibtexEntry entry = cache.get(key);
+			if (entry != null)
+				return entry;
+			TrackedEntry trackedEntry = tracked.get(key);
+			if (trackedEntry != null) {
+				entry = trackedEntry.get();
+				if (entry != null) {
+					cache.put(key, entry);
+					return entry;
+				}
+				// collected, but not enqueued yet.
+				tracked.remove(key);
+				write(trackedEntry);
+			}
+			entry = read(position);
+			entry.setPosition(this, position);
+			cache.put(key, entry);
+			tracked.put(key, new TrackedEntry(entry, position, collected));
+			return entry;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the entries back that have been garbage collected since.
+	 */
+	private void writeCollected() {
+		for (Reference<? extends BibtexEntry> reference = collected.poll(); reference != null; reference = collected
+			.poll()) {
+			TrackedEntry trackedEntry = (TrackedEntry) reference;
+			final Integer key = Integer.valueOf(trackedEntry.position);
+			if (tracked.get(key) != trackedEntry)
+				continue;
+			tracked.remove(key);
+			try {
+				write(trackedEntry);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Appends a record for the entry if it differs from the one in the store.
+	 */
+	private void write(TrackedEntry trackedEntry) throws IOException {
+		final int position = trackedEntry.position;
+		if (position < 0 || lengths[position] == IN_MEMORY)
+			return;
+		recordWriter.writeEntry(trackedEntry.entryType, trackedEntry.entryKey, trackedEntry.fields);
+		final long checksum = recordWriter.getChecksum();
+		if (lengths[position] == recordWriter.length && checksums[position] == checksum)
+			return;
+		offsets[position] = append(recordWriter.bytes, recordWriter.length);
+		lengths[position] = recordWriter.length;
+		checksums[position] = checksum;
+	}
+
+	/**
+	 * @return the offset of the record in the store.
+	 */
+	private long append(byte[] bytes, int length) throws IOException {
+		if (pageLength + length > PAGE_SIZE)
+			writePage();
+		if (length > PAGE_SIZE) {
+			final long offset = pageOffset;
+			writeFully(ByteBuffer.wrap(bytes, 0, length), offset);
+			pageOffset += length;
+			return offset;
+		}
+		System.arraycopy(bytes, 0, page, pageLength, length);
+		pageLength += length;
+		return pageOffset + pageLength - length;
+	}
+
+	private void writePage() throws IOException {
+		writeFully(ByteBuffer.wrap(page, 0, pageLength), pageOffset);
+		pageOffset += pageLength;
+		pageLength = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+	}
+
+	private BibtexEntry read(int position) throws IOException {
+		final long offset = offsets[position];
+		final int length = lengths[position];
+		byte[] bytes = recordReader.reset(length);
+		if (offset >= pageOffset) {
+			System.arraycopy(page, (int) (offset - pageOffset), bytes, 0, length);
+		} else {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0)
+					throw new IOException("The store " + path + " ends in the middle of a record.");
+			}
+		}
+		return recordReader.readEntry(this);
+	}
+
+	/**
+	 * Writes the changes of the entries that are in memory to the store, and
+	 * lets go of the ones that have been garbage collected.
+	 */
+	public void flush() throws IOException {
+		writeCollected();
+		for (Iterator<TrackedEntry> it = tracked.values().iterator(); it.hasNext();) {
+			TrackedEntry trackedEntry = it.next();
+			write(trackedEntry);
+			// collected, but not enqueued yet.
+			if (trackedEntry.get() == null)
+				it.remove();
+		}
+		writePage();
+	}
+
+	/**
+	 * Deletes the store. Closing it again has no effect.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		cache.clear();
+		tracked.clear();
+		try {
+			channel.close();
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	/**
+	 * @return the number of bytes in the store, including the records that
+	 *         have been replaced since.
+	 */
+	public long getStoreSize() {
+		return pageOffset + pageLength;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public void printBibtex(PrintWriter writer) {
+		assert writer != null : "writer parameter may not be null.";
+
+		for (int position = 0; position < size; position++) {
+			if (lengths[position] != REMOVED)
+				getEntry(position).printBibtex(writer);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * The live view of the entries that getEntries() returns.
+	 */
+	private final class EntryList extends AbstractList<BibtexAbstractEntry> {
+
+		public BibtexAbstractEntry get(int index) {
+			compact();
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			return getEntry(index);
+		}
+
+		public int size() {
+			return size - removedCount;
+		}
+
+		public boolean contains(Object o) {
+			return o instanceof BibtexAbstractEntry && containsEntry((BibtexAbstractEntry) o);
+		}
+
+		public Iterator<BibtexAbstractEntry> iterator() {
+			return new Iterator<BibtexAbstractEntry>() {
+				private int position;
+
+				private final int expectedCompactionCount = compactionCount;
+
+				public boolean hasNext() {
+					if (compactionCount != expectedCompactionCount)
+						throw new ConcurrentModificationException();
+					while (position < size && lengths[position] == REMOVED)
+						position++;
+					return position < size;
+				}
+
+				public BibtexAbstractEntry next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return getEntry(position++);
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	/**
+	 * The entries of a type, which getEntriesByType(...) returns.
+	 */
+	private final class TypeList extends AbstractList<BibtexEntry> {
+
+		TypeList(int[] positions) {
+			this.positions = positions;
+		}
+
+		private final int[] positions;
+
+		private final int expectedCompactionCount = compactionCount;
+
+		public BibtexEntry get(int index) {
+			if (compactionCount != expectedCompactionCount)
+				throw new ConcurrentModificationException();
+			return (BibtexEntry) getEntry(positions[index]);
+		}
+
+		public int size() {
+			return positions.length;
+		}
+	}
+
+	/**
+	 * Encodes an entry into a record: counts as varints, and strings as their
+	 * length and their characters in one to three bytes each, so that any
+	 * string comes back the same, even with unpaired surrogates.
+	 */
+	private static final class RecordWriter {
+
+		byte[] bytes = new byte[1 << 12];
+
+		int length;
+
+		void writeEntry(String entryType, String entryKey, Map<String, Object> fields) {
+			length = 0;
+			writeString(entryType);
+			writeString(entryKey);
+			writeInt(fields.size());
+			for (Iterator<Map.Entry<String, Object>> it = fields.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, Object> field = it.next();
+				if (!(field.getValue() instanceof BibtexAbstractValue))
+					throw new IllegalStateException("The field " + field.getKey() + " of " + entryKey
+						+ " hasn't been decoded.");
+				writeString(field.getKey());
+				writeValue((BibtexAbstractValue) field.getValue());
+			}
+		}
+
+		private void writeValue(BibtexAbstractValue value) {
+			if (value instanceof BibtexString) {
+				writeInt(STRING);
+				writeString(((BibtexString) value).getContent());
+			} else if (value instanceof BibtexMacroReference) {
+				writeInt(MACRO_REFERENCE);
+				writeString(((BibtexMacroReference) value).getKey());
+			} else if (value instanceof BibtexConcatenatedValue) {
+				writeInt(CONCATENATION);
+				writeValue(((BibtexConcatenatedValue) value).getLeft());
+				writeValue(((BibtexConcatenatedValue) value).getRight());
+			} else if (value instanceof BibtexMultipleValues) {
+				List<?> values = ((BibtexMultipleValues) value).getValues();
+				writeInt(MULTIPLE_VALUES);
+				writeInt(values.size());
+				for (Iterator<?> it = values.iterator(); it.hasNext();) {
+					writeValue((BibtexAbstractValue) it.next());
+				}
+			} else if (value instanceof BibtexPersonList) {
+				List<?> persons = ((BibtexPersonList) value).getList();
+				writeInt(PERSON_LIST);
+				writeInt(persons.size());
+				for (Iterator<?> it = persons.iterator(); it.hasNext();) {
+					BibtexPerson person = (BibtexPerson) it.next();
+					writeInt(person.isOthers() ? 1 : 0);
+					writeString(person.getFirst());
+					writeString(person.getPreLast());
+					writeString(person.getLast());
+					writeString(person.getLineage());
+				}
+			} else {
+				throw new IllegalArgumentException("Can't write " + value.getClass().getName() + ".");
+			}
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+		}
+
+		private void writeInt(int value) {
+			ensureCapacity(length + 5);
+			while ((value & ~0x7f) != 0) {
+				bytes[length++] = (byte) (value & 0x7f | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		/**
+		 * null is written as 0, other strings as their length + 1.
+		 */
+		private void writeString(String string) {
+			if (string == null) {
+				writeInt(0);
+				return;
+			}
+			final int stringLength = string.length();
+			writeInt(stringLength + 1);
+			ensureCapacity(length + stringLength * 3);
+			for (int i = 0; i < stringLength; i++) {
+				final char c = string.charAt(i);
+				if (c < 0x80) {
+					bytes[length++] = (byte) c;
+				} else if (c < 0x800) {
+					bytes[length++] = (byte) (0xc0 | c >> 6);
+					bytes[length++] = (byte) (0x80 | c & 0x3f);
+				} else {
+					bytes[length++] = (byte) (0xe0 | c >> 12);
+					bytes[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+					bytes[length++] = (byte) (0x80 | c & 0x3f);
+				}
+			}
+		}
+
+		/**
+		 * @return a 64 bit FNV-1a hash of the record.
+		 */
+		long getChecksum() {
+			long hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < length; i++) {
+				hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+			}
+			return hash;
+		}
+	}
+
+	/**
+	 * Decodes what RecordWriter encodes.
+	 */
+	private static final class RecordReader {
+
+		private byte[] bytes = new byte[1 << 12];
+
+		private int position;
+
+		private char[] chars = new char[256];
+
+		/**
+		 * @return a buffer for the next record, of at least length bytes.
+		 */
+		byte[] reset(int length) {
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			position = 0;
+			return bytes;
+		}
+
+		BibtexEntry readEntry(BibtexFile factory) {
+			final String entryType = readString();
+			BibtexEntry entry = factory.makeEntry(entryType, readString());
+			for (int fieldCount = readInt(); fieldCount > 0; fieldCount--) {
+				final String name = readString();
+				entry.setField(name, readValue(factory));
+			}
+			return entry;
+		}
+
+		private BibtexAbstractValue readValue(BibtexFile factory) {
+			switch (readInt()) {
+			case STRING:
+				return factory.makeString(readString());
+			case MACRO_REFERENCE:
+				return factory.makeMacroReference(readString());
+			case CONCATENATION:
+				BibtexAbstractValue left = readValue(factory);
+				return factory.makeConcatenatedValue(left, readValue(factory));
+			case MULTIPLE_VALUES:
+				BibtexMultipleValues values = factory.makeBibtexMultipleValues();
+				for (int count = readInt(); count > 0; count--) {
+					values.addValue(readValue(factory));
+				}
+				return values;
+			default:
+				BibtexPersonList list = factory.makePersonList();
+				for (int count = readInt(); count > 0; count--) {
+					final boolean isOthers = readInt() != 0;
+					final String first = readString(), preLast = readString(), last = readString();
+					list.add(factory.makePerson(first, preLast, last, readString(), isOthers));
+				}
+				return list;
+			}
+		}
+
+		private int readInt() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				final byte b = bytes[position++];
+				value |= (b & 0x7f) << shift;
+				if (b >= 0)
+					return value;
+			}
+		}
+
+		private String readString() {
+			final int stringLength = readInt() - 1;
+			if (stringLength < 0)
+				return null;
+			if (stringLength > chars.length)
+				chars = new char[Math.max(stringLength, chars.length * 2)];
+			for (int i = 0; i < stringLength; i++) {
+				final int b = bytes[position++] & 0xff;
+				if (b < 0x80) {
+					chars[i] = (char) b;
+				} else if (b < 0xe0) {
+					chars[i] = (char) ((b & 0x1f) << 6 | bytes[position++] & 0x3f);
+				} else {
+					chars[i] = (char) ((b & 0x0f) << 12 | (bytes[position++] & 0x3f) << 6 | bytes[position++] & 0x3f);
+				}
+			}
+			return new String(chars, 0, stringLength);
+		}
+	}
+}
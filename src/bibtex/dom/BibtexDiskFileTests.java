@@ -0,0 +1,177 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import bibtex.expansions.MacroReferenceExpander;
+import bibtex.expansions.PersonListExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Checks that a BibtexDiskFile behaves like a BibtexFile with the same
+ * entries, with a cache that is much smaller than the file. Run main(...); it
+ * prints the tests that fail, and exits with 1 if there are any.
+ */
+class BibtexDiskFileTests {
+
+	private static final int ENTRY_COUNT = 300;
+
+	private static final int CACHE_SIZE = 8;
+
+	private static int count, failed;
+
+	private static void check(boolean condition, String description) {
+		count++;
+		if (!condition) {
+			failed++;
+			System.err.println("test failed: " + description);
+		}
+	}
+
+	private static String makeBibtex(int entryCount) {
+		StringBuffer text = new StringBuffer();
+		text.append("@string{acm = \"ACM\"}\n");
+		for (int i = 0; i < entryCount; i++) {
+			text.append('@').append(i % 3 == 0 ? "article" : "inproceedings").append("{Key").append(i).append(",\n");
+			text.append("\tauthor = {Author").append(i).append(", A. and van Other").append(i % 7).append(", B.},\n");
+			text.append("\ttitle = {Title number ").append(i).append("},\n");
+			text.append("\tpublisher = acm # \" Press\",\n");
+			text.append("\tyear = ").append(1990 + i % 30).append("\n}\n\n");
+		}
+		return text.toString();
+	}
+
+	private static void parse(BibtexFile bibtexFile, String text) throws Exception {
+		new BibtexParser(true).parse(bibtexFile, new StringReader(text));
+	}
+
+	private static String print(BibtexFile bibtexFile) {
+		StringWriter text = new StringWriter();
+		PrintWriter writer = new PrintWriter(text);
+		bibtexFile.printBibtex(writer);
+		writer.flush();
+		return text.toString();
+	}
+
+	private static void expand(BibtexFile bibtexFile) throws Exception {
+		new MacroReferenceExpander(true, true, true, false).expand(bibtexFile);
+		new PersonListExpander(true, true, true).expand(bibtexFile);
+	}
+
+	private static BibtexDiskFile makeDiskFile() throws Exception {
+		Path store = Files.createTempFile("bibtex", ".store");
+		BibtexDiskFile diskFile = new BibtexDiskFile(store, CACHE_SIZE);
+		parse(diskFile, makeBibtex(ENTRY_COUNT));
+		return diskFile;
+	}
+
+	private static void testRoundTrip() throws Exception {
+		BibtexFile memoryFile = new BibtexFile();
+		parse(memoryFile, makeBibtex(ENTRY_COUNT));
+		BibtexDiskFile diskFile = makeDiskFile();
+
+		check(diskFile.getEntries().size() == memoryFile.getEntries().size(), "round trip: number of entries");
+		check(print(diskFile).equals(print(memoryFile)), "round trip: printed as parsed");
+		expand(memoryFile);
+		expand(diskFile);
+		check(print(diskFile).equals(print(memoryFile)), "round trip: printed after expanding");
+
+		BibtexEntry entry = diskFile.getEntryByKey("KEY17");
+		check(entry != null && entry.getEntryKey().equals("Key17"), "round trip: lookup ignores case");
+		check(entry != null && entry.getFieldValue("author") instanceof BibtexPersonList,
+			"round trip: expanded values are stored");
+		check(diskFile.getEntryByKey("no such key") == null, "round trip: missing key");
+		check(diskFile.getEntriesByType("ARTICLE").size() == memoryFile.getEntriesByType("article").size(),
+			"round trip: lookup by type");
+		diskFile.close();
+	}
+
+	private static void testCompaction() throws Exception {
+		BibtexFile memoryFile = new BibtexFile();
+		parse(memoryFile, makeBibtex(ENTRY_COUNT));
+		BibtexDiskFile diskFile = makeDiskFile();
+
+		// removes two of every three entries, which makes the lists compact.
+		// The macro definition is the first, so Key2, Key5 ... are left.
+		List<BibtexAbstractEntry> memoryEntries = new ArrayList<BibtexAbstractEntry>(memoryFile.getEntries());
+		List<BibtexAbstractEntry> diskEntries = new ArrayList<BibtexAbstractEntry>(diskFile.getEntries());
+		for (int i = 0; i < memoryEntries.size(); i++) {
+			if (i % 3 != 0) {
+				memoryFile.removeEntry(memoryEntries.get(i));
+				diskFile.removeEntry(diskEntries.get(i));
+			}
+		}
+		memoryEntries = null;
+		diskEntries = null;
+
+		check(diskFile.getEntries().size() == memoryFile.getEntries().size(), "compaction: number of entries");
+		check(print(diskFile).equals(print(memoryFile)), "compaction: the entries that are left, in order");
+		check(diskFile.getEntryByKey("Key1") == null, "compaction: removed entry can't be found");
+		BibtexEntry left = diskFile.getEntryByKey("Key2");
+		check(left != null && left.getEntryKey().equals("Key2"), "compaction: entry that is left can be found");
+
+		BibtexEntry added = diskFile.makeEntry("misc", "Added");
+		added.setField("title", diskFile.makeString("added after the removals"));
+		diskFile.addEntry(added);
+		added = null;
+		check(diskFile.getEntries().size() == memoryFile.getEntries().size() + 1, "compaction: add after removals");
+		BibtexEntry found = diskFile.getEntryByKey("added");
+		check(found != null && found.getFieldValue("title").toString().equals("{added after the removals}"),
+			"compaction: added entry can be found");
+		diskFile.close();
+	}
+
+	private static void testWriteBack() throws Exception {
+		BibtexDiskFile diskFile = makeDiskFile();
+
+		BibtexEntry entry = diskFile.getEntryByKey("Key5");
+		entry.setField("note", diskFile.makeString("changed"));
+		WeakReference<BibtexEntry> reference = new WeakReference<BibtexEntry>(entry);
+		entry = null;
+		final long storeSize = diskFile.getStoreSize();
+		// pushes the entry out of the cache, so only the reference is left.
+		for (int i = 0; reference.get() != null && i < 100; i++) {
+			for (int j = 10; j < 10 + 2 * CACHE_SIZE; j++) {
+				diskFile.getEntryByKey("Key" + j);
+			}
+			System.gc();
+			Thread.sleep(10);
+		}
+		check(reference.get() == null, "write back: entry is garbage collected");
+		entry = diskFile.getEntryByKey("Key5");
+		check(entry != null && entry.getFieldValue("note") != null
+			&& entry.getFieldValue("note").toString().equals("{changed}"), "write back: change is read back");
+		check(diskFile.getStoreSize() > storeSize, "write back: the changed record is appended");
+
+		entry.setField("note", diskFile.makeString("flushed"));
+		diskFile.flush();
+		check(diskFile.getEntryByKey("Key5").getFieldValue("note").toString().equals("{flushed}"),
+			"write back: change is there after flush()");
+		entry = null;
+
+		Path store = Files.createTempFile("bibtex", ".store");
+		BibtexDiskFile closed = new BibtexDiskFile(store, CACHE_SIZE);
+		closed.close();
+		check(!Files.exists(store), "write back: close() deletes the store");
+		diskFile.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		testRoundTrip();
+		testCompaction();
+		testWriteBack();
+		System.out.println(count + " tests, " + failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+}
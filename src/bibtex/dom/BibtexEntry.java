@@ -9,7 +9,6 @@ package bibtex.dom;
 import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -40,15 +39,33 @@ public final class BibtexEntry extends BibtexAbstractEntry {
     BibtexEntry(BibtexFile file, String entryType, String entryKey) {
         super(file);
         this.entryKey = entryKey;
-        // we intern the entry type for space optimization.
-        this.entryType = entryType.toLowerCase().intern();
+        // we keep only one copy of each entry type for space optimization.
+        this.entryType = file.getSymbolTable().getSymbol(entryType.toLowerCase());
     }
 
     private String entryType;
 
     private String entryKey;
 
-    private LinkedHashMap<String,Object> fields = new LinkedHashMap<String,Object>();
+    // insertion ordered, see printBibtex.
+    private final FieldMap fields = new FieldMap();
+
+    // only for lazily parsed entries: the values of fields that haven't been
+    // decoded yet are Integers (indices for the source) in the fields map.
+    private BibtexEntrySource source;
+
+    private BibtexAbstractValue[] decodedValues;
+
+    private int lazyFieldCount;
+
+    private boolean modified;
+
+    // 0 if it hasn't been computed since the last change. It is only good if
+    // fingerprintVersion is the current value version of the file, see
+    // BibtexFile.getValueVersion().
+    private long fingerprint;
+
+    private int fingerprintVersion;
 
     /**
      * @return String
@@ -60,7 +77,85 @@ public final class BibtexEntry extends BibtexAbstractEntry {
     public BibtexAbstractValue getFieldValue(String name) {
         assert name != null : "name parameter has to be non null.";
 
-        return (BibtexAbstractValue) fields.get(name);
+        return resolve(name, fields.get(name));
+    }
+
+    /**
+     * Decodes the value if it hasn't been decoded yet.
+     */
+    private BibtexAbstractValue resolve(String name, Object value) {
+        if (!(value instanceof Integer))
+            return (BibtexAbstractValue) value;
+        BibtexAbstractValue decoded = decode(((Integer) value).intValue());
+        fields.put(name, decoded);
+        return decoded;
+    }
+
+    private BibtexAbstractValue decode(int fieldIndex) {
+        if (decodedValues == null)
+            decodedValues = new BibtexAbstractValue[lazyFieldCount];
+        BibtexAbstractValue decoded = source.decodeFieldValue(getOwnerFile(), fieldIndex);
+        decodedValues[fieldIndex] = decoded;
+        return decoded;
+    }
+
+    private void resolveAll() {
+        if (lazyFieldCount == 0)
+            return;
+        for (Iterator<Map.Entry<String,Object>> it = fields.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String,Object> field = it.next();
+            if (field.getValue() instanceof Integer)
+                field.setValue(decode(((Integer) field.getValue()).intValue()));
+        }
+    }
+
+    /**
+     * For parsers that decode field values on demand: makes this entry a
+     * lazily parsed one.
+     * 
+     * @see BibtexEntrySource
+     */
+    public void setSource(BibtexEntrySource source) {
+        assert source != null : "source parameter may not be null.";
+
+        this.source = source;
+    }
+
+    /**
+     * For parsers that decode field values on demand: the value of this field
+     * will be decoded by the source when it is asked for.
+     * 
+     * @param fieldName
+     * @param fieldIndex
+     *            passed to BibtexEntrySource.decodeFieldValue(...).
+     */
+    public void setLazyField(String fieldName, int fieldIndex) {
+        assert fieldName != null : "fieldName parameter has to be non null.";
+        assert source != null : "setSource has to be called first.";
+        assert fieldIndex >= 0 : "fieldIndex parameter may not be negative.";
+
+        fields.put(getOwnerFile().getSymbolTable().getSymbol(fieldName.toLowerCase()), Integer.valueOf(fieldIndex));
+        fingerprint = 0;
+        lazyFieldCount = Math.max(lazyFieldCount, fieldIndex + 1);
+    }
+
+    /**
+     * @return the text of this entry in the input if it can still be printed
+     *         that way, i.e. nothing has been set or removed, and all the
+     *         values that have been handed out are unchanged; null otherwise.
+     */
+    String getUnchangedText() {
+        if (source == null || modified)
+            return null;
+        final String text = source.getText();
+        if (text != null && decodedValues != null) {
+            for (int i = 0; i < decodedValues.length; i++) {
+                if (decodedValues[i] != null
+                        && !decodedValues[i].toString().equals(source.decodeFieldValue(getOwnerFile(), i).toString()))
+                    return null;
+            }
+        }
+        return text;
     }
     
     /**
@@ -73,7 +168,7 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         
         assert fieldName!=null: "fieldName parameter may not be null.";
         
-        Object value = this.fields.get(fieldName);
+        Object value = resolve(fieldName, this.fields.get(fieldName));
         if(value==null) return Collections.EMPTY_LIST;
         if(value instanceof BibtexMultipleValues){
             return ((BibtexMultipleValues)value).getValues();
@@ -100,6 +195,7 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         else if (currentValue instanceof BibtexMultipleValues) {
             BibtexMultipleValues multipleValues = (BibtexMultipleValues) currentValue;
             multipleValues.addValue(value);
+            fingerprint = 0;
         } else {
             BibtexMultipleValues multipleValues = this.getOwnerFile().makeBibtexMultipleValues();
             multipleValues.addValue(currentValue);
@@ -121,18 +217,67 @@ public final class BibtexEntry extends BibtexAbstractEntry {
      * java.lang.String instances (field names) to instances of
      * BibtexAbstractValue.
      * 
+     * For lazily parsed entries, this decodes all the values.
+     * 
      * @return HashMap
      */
     public Map<String,Object> getFields() {
+        resolveAll();
         return Collections.unmodifiableMap(fields);
     }
 
+    /**
+     * A 64 bit hash of the content of this entry, for telling entries apart
+     * cheaply, e.g. to find duplicates or to see whether an entry has changed
+     * since it was last looked at. It covers the type, the key (ignoring case,
+     * like bibtex does) and the fields in any order, with the values as they
+     * are printed, but with runs of whitespace counting as a single space. So a
+     * value that has been expanded into a person list has the same fingerprint
+     * as the string it came from, if it prints the same way.
+     * 
+     * The fingerprint is computed when it is first asked for, and is kept until
+     * this entry is changed through one of its methods, or until a value of
+     * the file is changed in place, e.g. with BibtexString.setContent(...).
+     * Since the values don't know which entries they belong to, such a change
+     * makes all the entries of the file compute their fingerprints again.
+     * 
+     * @see BibtexFingerprints
+     */
+    public long getFingerprint() {
+        final int version = getOwnerFile().getValueVersion();
+        long result = fingerprint;
+        if (result == 0 || fingerprintVersion != version) {
+            resolveAll();
+            ContentHasher hasher = new ContentHasher(true);
+            result = ContentHasher.mix(hasher.hash(entryType))
+                    + ContentHasher.mix(hasher.hash(entryKey.toLowerCase()) + 1);
+            for (Iterator<Map.Entry<String,Object>> it = fields.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String,Object> field = it.next();
+                result += ContentHasher.mix(hasher.hash(field.getKey()) * 31
+                        + hasher.hash((BibtexNode) field.getValue()));
+            }
+            fingerprint = result;
+            fingerprintVersion = version;
+        }
+        return result;
+    }
+
+    /**
+     * For BibtexDiskFile, which writes an entry back after the entry itself
+     * has been garbage collected: the fields themselves, not a view.
+     */
+    Map<String,Object> getFieldMap() {
+        return fields;
+    }
+
     public void setField(String fieldName, BibtexAbstractValue fieldValue) {
         assert fieldName != null : "fieldName parameter has to be non null.";
         assert fieldValue != null : "fieldValue parameter has to be non null.";
 
-        // we intern fieldName for space optimization.
-        fields.put(fieldName.toLowerCase().intern(), fieldValue);
+        // we keep only one copy of each field name for space optimization.
+        fields.put(getOwnerFile().getSymbolTable().getSymbol(fieldName.toLowerCase()), fieldValue);
+        modified = true;
+        fingerprint = 0;
     }
 
     /**
@@ -144,7 +289,11 @@ public final class BibtexEntry extends BibtexAbstractEntry {
     public void setEntryKey(String entryKey) {
         assert entryKey != null : "BibtexEntry.setEntryKey(String entryKey): encountered entryKey==null.";
         //UPDATE JOOS: please do not go to lowercase... I want to keep my old keys plz
+        removeFromIndexes();
         this.entryKey = entryKey;//entryKey.toLowerCase();
+        addToIndexes();
+        modified = true;
+        fingerprint = 0;
     }
 
     /**
@@ -155,7 +304,11 @@ public final class BibtexEntry extends BibtexAbstractEntry {
      */
     public void setEntryType(String entryType) {
         assert entryType != null : "BibtexEntry.setEntryType(String entryType): encountered entryType==null";
-        this.entryType = entryType.toLowerCase().intern();
+        removeFromIndexes();
+        this.entryType = getOwnerFile().getSymbolTable().getSymbol(entryType.toLowerCase());
+        addToIndexes();
+        modified = true;
+        fingerprint = 0;
     }
 
     /*
@@ -167,6 +320,12 @@ public final class BibtexEntry extends BibtexAbstractEntry {
 
         assert writer != null : "writer parameter has to be !=null.";
 
+        final String text = getUnchangedText();
+        if (text != null) {
+            writer.print(text);
+            writer.println();
+            return;
+        }
         writer.print('@');
         writer.print(this.entryType);
         writer.print('{');
@@ -178,7 +337,7 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         //Arrays.sort(keys);
         for (int i = 0; i < keys.length; i++) {
             String key = keys[i];
-            BibtexNode value = (BibtexNode) this.fields.get(key);
+            BibtexNode value = resolve(key, this.fields.get(key));
             if (value instanceof BibtexMultipleValues) {
                 BibtexMultipleValues values = (BibtexMultipleValues) value;
                 for (Iterator valuesIt = values.getValues().iterator(); valuesIt.hasNext();) {
@@ -208,6 +367,8 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         assert fieldName != null : "fieldName parameter has to be !=null.";
 
         this.fields.remove(fieldName);
+        modified = true;
+        fingerprint = 0;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+/**
+ * Where a lazily parsed BibtexEntry came from. The parser only records where
+ * the field values are in the input, and the entry asks its source to decode
+ * them when they are needed. As long as an entry is unchanged, it prints its
+ * original text instead of reformatting it.
+ *
+ * You only need this if you write a parser.
+ *
+ * @see BibtexEntry#setLazyField(String, int)
+ */
+public abstract class BibtexEntrySource {
+
+	protected BibtexEntrySource() {
+	}
+
+	/**
+	 * @param factory
+	 *            makes the nodes of the value.
+	 * @param fieldIndex
+	 *            as passed to BibtexEntry.setLazyField(...).
+	 * @return a new value every time this is called.
+	 */
+	protected abstract BibtexAbstractValue decodeFieldValue(BibtexFile factory, int fieldIndex);
+
+	/**
+	 * Override this if the source knows the original text of the entry.
+	 * 
+	 * @return the original text of the entry, from the &#064; to the closing
+	 *         bracket, or null if it isn't known, e.g. because the parser
+	 *         didn't get to its end. This implementation returns null.
+	 */
+	protected String getText() {
+		return null;
+	}
+}
@@ -7,10 +7,15 @@
 package bibtex.dom;
 
 import java.io.PrintWriter;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bibtex.Assertions;
 
@@ -19,39 +24,380 @@ import bibtex.Assertions;
  * the only way to create nodes. For an example, check out the documentation for
  * the constructor of BibtexNode.
  * 
+ * The entries are indexed by key and by type, see getEntryByKey(String) and
+ * getEntriesByType(String), and entries can be added and removed in constant
+ * time.
+ * 
+ * BibtexDiskFile keeps the entries on disk instead; it overrides the methods
+ * that deal with the entries and the indexes.
+ * 
  * @author henkel
  */
-public final class BibtexFile extends BibtexNode {
+public class BibtexFile extends BibtexNode {
 
+    // removed entries leave a null behind until the list is compacted, so that
+    // the positions of the others don't change.
     private final ArrayList<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>();
 
+    private int removedCount;
+
+    private int compactionCount;
+
+    private final EntryList entryList = new EntryList();
+
+    // lower case key -> the BibtexEntry, or an ArrayList of the entries in
+    // file order if there are several with that key.
+    private final HashMap<String, Object> entriesByKey = new HashMap<String, Object>();
+
+    // entry type -> entries. This is only built when it is needed, and it is
+    // dropped when an entry is removed or changes its type.
+    private HashMap<String, ArrayList<BibtexEntry>> entriesByType;
+
+    private final BibtexSymbolTable symbolTable = new BibtexSymbolTable();
+
+    private final BibtexValuePool valuePool;
+
+    private final BibtexStringArena stringArena;
+
+    // counts the changes made to values in place, e.g. with
+    // BibtexString.setContent(...), so that the entries can tell whether their
+    // fingerprints are still good. The version is odd once some fingerprint
+    // has been computed for it, and it is only counted up from an odd one, so
+    // that building values (e.g. person lists on several threads) only reads
+    // it. The expanders change values on several threads, and
+    // BibtexFingerprints computes fingerprints on several threads, so this is
+    // only ever changed with compareAndSet.
+    private final AtomicInteger valueVersion = new AtomicInteger();
+
     public BibtexFile() {
+        this(false, false);
+    }
+
+    /**
+     * @param shareValues
+     *            if true, makeString(...) and makeMacroReference(...) return
+     *            the same node for the same content, which saves a lot of
+     *            memory for large bibliographies. Such shared nodes can't be
+     *            changed, see BibtexValuePool.
+     */
+    public BibtexFile(boolean shareValues) {
+        this(shareValues, false);
+    }
+
+    /**
+     * @param shareValues
+     *            see BibtexFile(boolean).
+     * @param offHeapStrings
+     *            if true, makeString(...) keeps the content of long strings
+     *            outside of the Java heap, in a BibtexStringArena. Close it
+     *            when you're done with this file.
+     */
+    public BibtexFile(boolean shareValues, boolean offHeapStrings) {
         super(null);
+        this.valuePool = shareValues ? new BibtexValuePool(this) : null;
+        this.stringArena = offHeapStrings ? new BibtexStringArena() : null;
+    }
+
+    /**
+     * @return the names of the entry types and fields of this file.
+     */
+    public BibtexSymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * @return the pool of shared values, or null if this file was created with
+     *         shareValues == false.
+     */
+    public BibtexValuePool getValuePool() {
+        return valuePool;
+    }
+
+    /**
+     * @return the arena for the content of long strings, or null if this file
+     *         was created with offHeapStrings == false.
+     */
+    public BibtexStringArena getStringArena() {
+        return stringArena;
     }
 
     public void addEntry(BibtexAbstractEntry entry) {
         assert entry != null : "entry parameter may not be null.";
-        assert !Assertions.ENABLE_EXPENSIVE_ASSERTIONS || !this.entries.contains(entry) :
+        assert !Assertions.ENABLE_EXPENSIVE_ASSERTIONS || !containsEntry(entry) :
             "entry parameter is already contained within this BibtexFile object.";
 
+        entry.setPosition(this, this.entries.size());
         this.entries.add(entry);
+        addToIndexes(entry);
     }
 
+    /**
+     * You may remove entries while you iterate over getEntries().
+     */
     public void removeEntry(BibtexAbstractEntry entry) {
         assert entry != null;
 
-        boolean found = this.entries.remove(entry);
+        final int position = entry.getPosition(this);
+        boolean found = position >= 0;
 
         assert found : "entry parameter was not found.";
+
+        if (!found)
+            return;
+        removeFromIndexes(entry);
+        this.entries.set(position, null);
+        this.removedCount++;
+        entry.setPosition(this, -1);
+    }
+
+    public boolean containsEntry(BibtexAbstractEntry entry) {
+        return entry.getPosition(this) >= 0;
     }
 
     /**
      * returns an unmodifiable view of the entries.
      * 
+     * The iterator of the list doesn't mind if you remove entries (or add
+     * them) while you iterate. Don't call getEntries() again while you're
+     * iterating over a list that you got earlier, though: it closes the gaps
+     * that removed entries left behind, and the old iterator will throw a
+     * ConcurrentModificationException then.
+     * 
      * @return List
      */
     public List<BibtexAbstractEntry> getEntries() {
-        return Collections.unmodifiableList(entries);
+        compact();
+        return entryList;
+    }
+
+    /**
+     * tells whether the entries of this file may be read, and their fields
+     * changed, on several threads at once, as long as no two threads work on
+     * the same entry and nobody adds or removes entries meanwhile. The
+     * expanders and BibtexFingerprints only go parallel if this is true.
+     * 
+     * Override this to return false if reading an entry changes state that
+     * all entries share, e.g. a cache.
+     * 
+     * @return true
+     */
+    public boolean supportsConcurrentAccess() {
+        return true;
+    }
+
+    /**
+     * @param key
+     *            is case insensitive, like in bibtex.
+     * @return the first entry with that key, or null.
+     */
+    public BibtexEntry getEntryByKey(String key) {
+        assert key != null : "key parameter may not be null.";
+
+        Object indexed = entriesByKey.get(key.toLowerCase());
+        if (indexed instanceof BibtexEntry)
+            return (BibtexEntry) indexed;
+        return indexed == null ? null : asEntryList(indexed).get(0);
+    }
+
+    /**
+     * @param key
+     *            is case insensitive, like in bibtex.
+     * @return the entries with that key, in the order of the file - usually
+     *         just one.
+     */
+    public List<BibtexEntry> getEntriesByKey(String key) {
+        assert key != null : "key parameter may not be null.";
+
+        Object indexed = entriesByKey.get(key.toLowerCase());
+        if (indexed instanceof BibtexEntry)
+            return Collections.singletonList((BibtexEntry) indexed);
+        if (indexed == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(new ArrayList<BibtexEntry>(asEntryList(indexed)));
+    }
+
+    /**
+     * @param entryType
+     *            is case insensitive.
+     * @return an unmodifiable list of the entries of this type, in the order
+     *         of the file. Get a new one after you've changed this file.
+     */
+    public List<BibtexEntry> getEntriesByType(String entryType) {
+        assert entryType != null : "entryType parameter may not be null.";
+
+        if (entriesByType == null) {
+            entriesByType = new HashMap<String, ArrayList<BibtexEntry>>();
+            for (int i = 0; i < entries.size(); i++) {
+                BibtexAbstractEntry entry = entries.get(i);
+                if (entry instanceof BibtexEntry)
+                    addToTypeIndex((BibtexEntry) entry);
+            }
+        }
+        ArrayList<BibtexEntry> result = entriesByType.get(entryType.toLowerCase());
+        if (result == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(result);
+    }
+
+    private void addToTypeIndex(BibtexEntry entry) {
+        ArrayList<BibtexEntry> ofType = entriesByType.get(entry.getEntryType());
+        if (ofType == null) {
+            ofType = new ArrayList<BibtexEntry>();
+            entriesByType.put(entry.getEntryType(), ofType);
+        }
+        ofType.add(entry);
+    }
+
+    // the values of entriesByKey that aren't BibtexEntries are lists of them.
+    @SuppressWarnings("unchecked")
+    private static ArrayList<BibtexEntry> asEntryList(Object indexed) {
+        return (ArrayList<BibtexEntry>) indexed;
+    }
+
+    /**
+     * Called by addEntry, and by the entries when their key or type changes.
+     */
+    void addToIndexes(BibtexAbstractEntry abstractEntry) {
+        if (!(abstractEntry instanceof BibtexEntry))
+            return;
+        final BibtexEntry entry = (BibtexEntry) abstractEntry;
+        final String key = entry.getEntryKey().toLowerCase();
+        final Object indexed = entriesByKey.get(key);
+        if (indexed == null) {
+            entriesByKey.put(key, entry);
+        } else {
+            ArrayList<BibtexEntry> withKey;
+            if (indexed instanceof BibtexEntry) {
+                withKey = new ArrayList<BibtexEntry>(2);
+                withKey.add((BibtexEntry) indexed);
+                entriesByKey.put(key, withKey);
+            } else {
+                withKey = asEntryList(indexed);
+            }
+            // keep the order of the file - usually, the new entry is the last.
+            final int position = entry.getPosition(this);
+            int index = withKey.size();
+            while (index > 0 && withKey.get(index - 1).getPosition(this) > position)
+                index--;
+            withKey.add(index, entry);
+        }
+        if (entriesByType != null) {
+            if (entry.getPosition(this) == entries.size() - 1)
+                addToTypeIndex(entry);
+            else
+                entriesByType = null;
+        }
+    }
+
+    /**
+     * Called by removeEntry, and by the entries when their key or type
+     * changes.
+     */
+    void removeFromIndexes(BibtexAbstractEntry abstractEntry) {
+        if (!(abstractEntry instanceof BibtexEntry))
+            return;
+        final BibtexEntry entry = (BibtexEntry) abstractEntry;
+        final String key = entry.getEntryKey().toLowerCase();
+        final Object indexed = entriesByKey.get(key);
+        if (indexed == entry) {
+            entriesByKey.remove(key);
+        } else if (indexed instanceof ArrayList) {
+            ArrayList<BibtexEntry> withKey = asEntryList(indexed);
+            withKey.remove(entry);
+            if (withKey.size() == 1)
+                entriesByKey.put(key, withKey.get(0));
+        }
+        entriesByType = null;
+    }
+
+    /**
+     * Called by the values and persons of this file when they are changed in
+     * place.
+     */
+    void valueChanged() {
+        final int version = valueVersion.get();
+        // if this fails, another thread has counted it up already.
+        if ((version & 1) != 0)
+            valueVersion.compareAndSet(version, version + 1);
+    }
+
+    /**
+     * Called by the entries when they compute their fingerprints: a
+     * fingerprint that was computed for another version may be out of date.
+     */
+    int getValueVersion() {
+        while (true) {
+            final int version = valueVersion.get();
+            if ((version & 1) != 0 || valueVersion.compareAndSet(version, version + 1))
+                return version | 1;
+        }
+    }
+
+    /**
+     * Closes the gaps that removed entries left behind.
+     */
+    private void compact() {
+        if (removedCount == 0)
+            return;
+        int size = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            BibtexAbstractEntry entry = entries.get(i);
+            if (entry == null)
+                continue;
+            if (i != size) {
+                entries.set(size, entry);
+                entry.setPosition(this, size);
+            }
+            size++;
+        }
+        entries.subList(size, entries.size()).clear();
+        removedCount = 0;
+        compactionCount++;
+    }
+
+    /**
+     * The live view of the entries that getEntries() returns.
+     */
+    private final class EntryList extends AbstractList<BibtexAbstractEntry> {
+
+        public BibtexAbstractEntry get(int index) {
+            compact();
+            return entries.get(index);
+        }
+
+        public int size() {
+            return entries.size() - removedCount;
+        }
+
+        public boolean contains(Object o) {
+            return o instanceof BibtexAbstractEntry && containsEntry((BibtexAbstractEntry) o);
+        }
+
+        public Iterator<BibtexAbstractEntry> iterator() {
+            return new Iterator<BibtexAbstractEntry>() {
+                private int position;
+
+                private final int expectedCompactionCount = compactionCount;
+
+                public boolean hasNext() {
+                    if (compactionCount != expectedCompactionCount)
+                        throw new ConcurrentModificationException();
+                    while (position < entries.size() && entries.get(position) == null)
+                        position++;
+                    return position < entries.size();
+                }
+
+                public BibtexAbstractEntry next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return entries.get(position++);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 
     public BibtexConcatenatedValue makeConcatenatedValue(BibtexAbstractValue left, BibtexAbstractValue right) {
@@ -95,10 +441,16 @@ public final class BibtexFile extends BibtexNode {
     /**
      * @param content
      *            does not include the quotes or curly braces around the string!
+     * @return a shared string from the value pool, if this file has one, or a
+     *         string in the string arena if it is long.
      */
     public BibtexString makeString(String content) {
         assert content != null : "content parameter may not be null.";
 
+        if (valuePool != null && content.length() <= BibtexValuePool.MAX_POOLED_LENGTH)
+            return valuePool.getString(content);
+        if (stringArena != null && content.length() >= BibtexStringArena.MIN_LENGTH)
+            return new ArenaString(this, stringArena, content);
         return new BibtexString(this, content);
     }
 
@@ -115,9 +467,14 @@ public final class BibtexFile extends BibtexNode {
         return new BibtexMacroDefinition(this, key, value);
     }
 
+    /**
+     * @return a shared reference from the value pool, if this file has one.
+     */
     public BibtexMacroReference makeMacroReference(String key) {
         assert key != null : "key parameter may not be null.";
 
+        if (valuePool != null)
+            return valuePool.getMacroReference(key);
         return new BibtexMacroReference(this, key);
     }
 
@@ -132,7 +489,8 @@ public final class BibtexFile extends BibtexNode {
 
         for (Iterator iter = this.entries.iterator(); iter.hasNext();) {
             BibtexNode node = (BibtexNode) iter.next();
-            node.printBibtex(writer);
+            if (node != null)
+                node.printBibtex(writer);
         }
         writer.flush();
     }
@@ -0,0 +1,92 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the fingerprints of all the entries of a BibtexFile on several
+ * cores. The fingerprints are kept by the entries, too, so asking them for
+ * their fingerprint afterwards is cheap.
+ *
+ * @see BibtexEntry#getFingerprint()
+ */
+public final class BibtexFingerprints {
+
+	private BibtexFingerprints() {
+	}
+
+	// the entries are split into ranges of about this many.
+	private static final int BATCH_SIZE = 1024;
+
+	/**
+	 * Equivalent to compute(bibtexFile, ForkJoinPool.commonPool()).
+	 */
+	public static long[] compute(BibtexFile bibtexFile) {
+		return compute(bibtexFile, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The entries must not be changed while this runs. If the file doesn't
+	 * support concurrent access (see BibtexFile.supportsConcurrentAccess()),
+	 * its entries are fingerprinted one after the other, in this thread.
+	 *
+	 * @return the fingerprints of the entries of bibtexFile, in the order of
+	 *         getEntries(); 0 for the ones that aren't BibtexEntries.
+	 */
+	public static long[] compute(BibtexFile bibtexFile, ForkJoinPool pool) {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+		assert pool != null : "pool parameter may not be null.";
+
+		if (!bibtexFile.supportsConcurrentAccess()) {
+			long[] fingerprints = new long[bibtexFile.getEntries().size()];
+			int i = 0;
+			for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext(); i++) {
+				BibtexAbstractEntry entry = it.next();
+				if (entry instanceof BibtexEntry)
+					fingerprints[i] = ((BibtexEntry) entry).getFingerprint();
+			}
+			return fingerprints;
+		}
+		// a copy, since the tasks read it concurrently.
+		BibtexAbstractEntry[] entries = bibtexFile.getEntries().toArray(new BibtexAbstractEntry[0]);
+		long[] fingerprints = new long[entries.length];
+		pool.invoke(new FingerprintTask(entries, fingerprints, 0, entries.length));
+		return fingerprints;
+	}
+
+	private static final class FingerprintTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		FingerprintTask(BibtexAbstractEntry[] entries, long[] fingerprints, int start, int end) {
+			this.entries = entries;
+			this.fingerprints = fingerprints;
+			this.start = start;
+			this.end = end;
+		}
+
+		private final BibtexAbstractEntry[] entries;
+
+		private final long[] fingerprints;
+
+		private final int start, end;
+
+		protected void compute() {
+			if (end - start > BATCH_SIZE) {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new FingerprintTask(entries, fingerprints, start, middle), new FingerprintTask(entries,
+					fingerprints, middle, end));
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				if (entries[i] instanceof BibtexEntry)
+					fingerprints[i] = ((BibtexEntry) entries[i]).getFingerprint();
+			}
+		}
+	}
+}
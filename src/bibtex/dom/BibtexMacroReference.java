@@ -39,7 +39,17 @@ public final class BibtexMacroReference extends BibtexAbstractValue {
 	    
 	    assert key!=null: "key paramter may not be null.";
 	    
+		if (shared)
+			throw new UnsupportedOperationException("This reference is pooled and shared, make a new one instead.");
 		this.key = key;
+		getOwnerFile().valueChanged();
+	}
+
+	// true if this reference is in a BibtexValuePool
+	private boolean shared;
+
+	void setShared() {
+		this.shared = true;
 	}
 
 	/* (non-Javadoc)
@@ -67,6 +67,7 @@ public final class BibtexMultipleValues extends BibtexAbstractValue {
         assert !Assertions.ENABLE_EXPENSIVE_ASSERTIONS || !values.contains(value) : "value is already contained in this BibtexMultipleValues object.";
 
         values.add(value);
+        getOwnerFile().valueChanged();
     }
 
     /**
@@ -78,6 +79,7 @@ public final class BibtexMultipleValues extends BibtexAbstractValue {
         assert value != null : "value parameter may not be null.";
 
         boolean wasFound = values.remove(value);
+        getOwnerFile().valueChanged();
 
         assert wasFound : "value parameter was not found inside this BibtexMultipleValues object.";
     }
@@ -24,6 +24,9 @@ import java.io.PrintWriter;
  * Fields that are not used are set to null. If isAndOthers is true,
  * all fields are ignored (should be null).
  * 
+ * The persons of a shared BibtexPersonList can't be changed, the setters
+ * throw an UnsupportedOperationException.
+ * 
  * @author henkel
  */
 public final class BibtexPerson extends BibtexNode {
@@ -87,7 +90,9 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param first The first to set
 	 */
 	public void setFirst(String first) {
+		checkNotShared();
 		this.first = first;
+		getOwnerFile().valueChanged();
 	}
 
 	/**
@@ -95,7 +100,9 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param isAndOthers The isAndOthers to set
 	 */
 	public void setOthers(boolean isAndOthers) {
+		checkNotShared();
 		this.isOthers = isAndOthers;
+		getOwnerFile().valueChanged();
 	}
 
 	/**
@@ -103,8 +110,9 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param last The last to set
 	 */
 	public void setLast(String last) {
-    
+		checkNotShared();
 		this.last = last;
+		getOwnerFile().valueChanged();
 	}
 
 	/**
@@ -112,7 +120,9 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param lineage The lineage to set
 	 */
 	public void setLineage(String lineage) {
+		checkNotShared();
 		this.lineage = lineage;
+		getOwnerFile().valueChanged();
 	}
 
 	/**
@@ -120,7 +130,21 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param preLast The preLast to set; may be null.
 	 */
 	public void setPreLast(String preLast) {
+		checkNotShared();
 		this.preLast = preLast;
+		getOwnerFile().valueChanged();
+	}
+
+	// true if this person is in a shared BibtexPersonList
+	private boolean shared;
+
+	void setShared() {
+		this.shared = true;
+	}
+
+	private void checkNotShared() {
+		if (shared)
+			throw new UnsupportedOperationException("This person is shared, make a new one instead.");
 	}
 
 	/* (non-Javadoc)
@@ -40,7 +40,33 @@ public final class BibtexPersonList extends BibtexAbstractValue {
 	    
 	    assert bibtexPerson!=null: "bibtexPerson parameter may not be null.";
 	    
+		if (shared)
+			throw new UnsupportedOperationException("This person list is shared, make a new one instead.");
 		this.list.add(bibtexPerson);
+		getOwnerFile().valueChanged();
+	}
+
+	// true if this list is the value of more than one field
+	private boolean shared;
+
+	/**
+	 * Makes this list and its persons read-only, so that it can be the value
+	 * of several fields - the PersonListExpander does this for author and
+	 * editor fields with the same content. From then on, add(...) and the
+	 * setters of the persons throw an UnsupportedOperationException.
+	 */
+	public void setShared() {
+		this.shared = true;
+		for (Iterator<?> it = list.iterator(); it.hasNext();) {
+			((BibtexPerson) it.next()).setShared();
+		}
+	}
+
+	/**
+	 * @return true if this list can't be changed, see setShared().
+	 */
+	public boolean isShared() {
+		return shared;
 	}
 
 
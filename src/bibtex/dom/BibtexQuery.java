@@ -0,0 +1,252 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A condition on BibtexEntries, e.g. all inproceedings from 2010 to 2014 by
+ * van der Aalst at BPM:
+ *
+ * <pre>
+ * BibtexQuery query = BibtexQuery.and(BibtexQuery.type(&quot;inproceedings&quot;), BibtexQuery.yearBetween(2010, 2014),
+ * 	BibtexQuery.author(&quot;Aalst&quot;), BibtexQuery.fieldEquals(&quot;booktitle&quot;, &quot;BPM&quot;));
+ * </pre>
+ *
+ * Ask a BibtexQueryIndex for the entries that match, or check single entries
+ * with matches(BibtexEntry). Strings are compared ignoring case. The text of a
+ * value is the content of a string, and what printBibtex(...) prints for
+ * anything else. Queries can't be changed once they're made.
+ *
+ * @see BibtexQueryIndex
+ */
+public final class BibtexQuery {
+
+	// the kinds of queries.
+	static final int TYPE = 0, YEAR = 1, FIELD_EQUALS = 2, FIELD_PREFIX = 3, PERSON = 4, AND = 5;
+
+	private BibtexQuery(int kind, String fieldName, String text, int from, int to, BibtexQuery[] operands) {
+		this.kind = kind;
+		this.fieldName = fieldName;
+		this.text = text;
+		this.from = from;
+		this.to = to;
+		this.operands = operands;
+	}
+
+	final int kind;
+
+	// the field and the lower case text for FIELD_EQUALS, FIELD_PREFIX and
+	// PERSON, the lower case type for TYPE.
+	final String fieldName;
+
+	final String text;
+
+	// the years for YEAR, inclusive.
+	final int from, to;
+
+	final BibtexQuery[] operands;
+
+	/**
+	 * @return a query for the entries of that type.
+	 */
+	public static BibtexQuery type(String entryType) {
+		assert entryType != null : "entryType parameter may not be null.";
+
+		return new BibtexQuery(TYPE, null, entryType.toLowerCase(), 0, 0, null);
+	}
+
+	/**
+	 * @return a query for the entries with a year from from to to, inclusive.
+	 * @see #getYear(BibtexEntry)
+	 */
+	public static BibtexQuery yearBetween(int from, int to) {
+		return new BibtexQuery(YEAR, null, null, from, to, null);
+	}
+
+	public static BibtexQuery year(int year) {
+		return yearBetween(year, year);
+	}
+
+	/**
+	 * @return a query for the entries whose field fieldName has the text
+	 *         value.
+	 */
+	public static BibtexQuery fieldEquals(String fieldName, String value) {
+		assert fieldName != null : "fieldName parameter may not be null.";
+		assert value != null : "value parameter may not be null.";
+
+		return new BibtexQuery(FIELD_EQUALS, fieldName.toLowerCase(), value.toLowerCase(), 0, 0, null);
+	}
+
+	/**
+	 * @return a query for the entries whose field fieldName has a text that
+	 *         starts with prefix.
+	 */
+	public static BibtexQuery fieldStartsWith(String fieldName, String prefix) {
+		assert fieldName != null : "fieldName parameter may not be null.";
+		assert prefix != null : "prefix parameter may not be null.";
+
+		return new BibtexQuery(FIELD_PREFIX, fieldName.toLowerCase(), prefix.toLowerCase(), 0, 0, null);
+	}
+
+	/**
+	 * @return a query for the entries with an author with that last name, e.g.
+	 *         "Aalst" for "W.M.P. van der Aalst".
+	 * @see #person(String, String)
+	 */
+	public static BibtexQuery author(String lastName) {
+		return person("author", lastName);
+	}
+
+	/**
+	 * Only person lists are looked at, so run the PersonListExpander on the
+	 * file first.
+	 *
+	 * @return a query for the entries with a person with that last name in the
+	 *         field fieldName, e.g. "editor".
+	 */
+	public static BibtexQuery person(String fieldName, String lastName) {
+		assert fieldName != null : "fieldName parameter may not be null.";
+		assert lastName != null : "lastName parameter may not be null.";
+
+		return new BibtexQuery(PERSON, fieldName.toLowerCase(), lastName.toLowerCase(), 0, 0, null);
+	}
+
+	/**
+	 * @return a query for the entries that match all of queries.
+	 */
+	public static BibtexQuery and(BibtexQuery... queries) {
+		assert queries != null && queries.length > 0 : "queries parameter may not be empty.";
+
+		List<BibtexQuery> operands = new ArrayList<BibtexQuery>();
+		for (int i = 0; i < queries.length; i++) {
+			assert queries[i] != null : "queries parameter may not contain null.";
+			if (queries[i].kind == AND) {
+				for (int j = 0; j < queries[i].operands.length; j++) {
+					operands.add(queries[i].operands[j]);
+				}
+			} else {
+				operands.add(queries[i]);
+			}
+		}
+		return new BibtexQuery(AND, null, null, 0, 0, operands.toArray(new BibtexQuery[operands.size()]));
+	}
+
+	public boolean matches(BibtexEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+
+		switch (kind) {
+		case TYPE:
+			return entry.getEntryType().equals(text);
+		case YEAR:
+			final int year = getYear(entry);
+			return year != NO_YEAR && from <= year && year <= to;
+		case FIELD_EQUALS:
+		case FIELD_PREFIX:
+			BibtexAbstractValue value = entry.getFieldValue(fieldName);
+			if (value == null)
+				return false;
+			final String valueText = getText(value);
+			return kind == FIELD_EQUALS ? valueText.equals(text) : valueText.startsWith(text);
+		case PERSON:
+			for (Iterator<String> it = getLastNames(entry, fieldName).iterator(); it.hasNext();) {
+				if (it.next().equals(text))
+					return true;
+			}
+			return false;
+		default:
+			for (int i = 0; i < operands.length; i++) {
+				if (!operands[i].matches(entry))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * getYear(...) returns this for entries without a year.
+	 */
+	public static final int NO_YEAR = Integer.MIN_VALUE;
+
+	/**
+	 * @return the first number in the text of the year field of entry, e.g.
+	 *         2004 for {2004a}, or NO_YEAR.
+	 */
+	public static int getYear(BibtexEntry entry) {
+		BibtexAbstractValue value = entry.getFieldValue("year");
+		if (value == null)
+			return NO_YEAR;
+		final String yearText = getText(value);
+		int year = 0;
+		int digits = 0;
+		for (int i = 0; i < yearText.length(); i++) {
+			final char c = yearText.charAt(i);
+			if (c >= '0' && c <= '9' && digits < 9) {
+				year = year * 10 + c - '0';
+				digits++;
+			} else if (digits > 0) {
+				break;
+			}
+		}
+		return digits > 0 ? year : NO_YEAR;
+	}
+
+	/**
+	 * @return the lower case text of value.
+	 */
+	static String getText(BibtexAbstractValue value) {
+		if (value instanceof BibtexString)
+			return ((BibtexString) value).getContent().toLowerCase();
+		StringWriter text = new StringWriter();
+		value.printBibtex(new PrintWriter(text));
+		return text.toString().toLowerCase();
+	}
+
+	/**
+	 * @return the lower case last names of the persons in the field
+	 *         fieldName of entry, if it is a person list.
+	 */
+	static List<String> getLastNames(BibtexEntry entry, String fieldName) {
+		BibtexAbstractValue value = entry.getFieldValue(fieldName);
+		if (!(value instanceof BibtexPersonList))
+			return new ArrayList<String>(0);
+		List<?> persons = ((BibtexPersonList) value).getList();
+		List<String> lastNames = new ArrayList<String>(persons.size());
+		for (Iterator<?> it = persons.iterator(); it.hasNext();) {
+			BibtexPerson person = (BibtexPerson) it.next();
+			if (!person.isOthers() && person.getLast() != null)
+				lastNames.add(person.getLast().toLowerCase());
+		}
+		return lastNames;
+	}
+
+	public String toString() {
+		switch (kind) {
+		case TYPE:
+			return "type=" + text;
+		case YEAR:
+			return "year=" + from + ".." + to;
+		case FIELD_EQUALS:
+			return fieldName + "=" + text;
+		case FIELD_PREFIX:
+			return fieldName + "=" + text + "*";
+		case PERSON:
+			return fieldName + " has " + text;
+		default:
+			StringBuffer result = new StringBuffer();
+			for (int i = 0; i < operands.length; i++) {
+				if (i > 0)
+					result.append(" and ");
+				result.append(operands[i]);
+			}
+			return result.toString();
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers BibtexQueries over the entries of a BibtexFile with indexes, which
+ * are built the first time a query needs them: a hash index by type, a sorted
+ * index by year, a hash index for each field that is queried (sorted too, once
+ * a prefix is asked for), and an index by last name for each person field
+ * that is queried.
+ *
+ * For a query with several conditions, the condition that matches the fewest
+ * entries according to its index is used to find the candidates, and the
+ * candidates are checked against the other conditions, see explain(...).
+ *
+ * The indexes refer to the entries by their position in getEntries(), so they
+ * don't keep the entries in memory - this works with a BibtexDiskFile, too -
+ * but they don't notice when the file changes: make a new BibtexQueryIndex
+ * then. This class is not thread safe.
+ *
+ * @see BibtexQuery
+ */
+public final class BibtexQueryIndex {
+
+	public BibtexQueryIndex(BibtexFile bibtexFile) {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+
+		this.entries = bibtexFile.getEntries();
+	}
+
+	private final List<BibtexAbstractEntry> entries;
+
+	// lower case type -> positions.
+	private HashMap<String, int[]> typeIndex;
+
+	// year << 32 | position, sorted.
+	private long[] yearIndex;
+
+	// lower case field name -> its index.
+	private final HashMap<String, FieldIndex> fieldIndexes = new HashMap<String, FieldIndex>();
+
+	// lower case field name -> lower case last name -> positions.
+	private final HashMap<String, HashMap<String, int[]>> personIndexes = new HashMap<String, HashMap<String, int[]>>();
+
+	private static final int[] NO_POSITIONS = new int[0];
+
+	/**
+	 * The index of a field: lower case text -> positions, and the texts in
+	 * order once a prefix has been asked for.
+	 */
+	private static final class FieldIndex {
+
+		FieldIndex(HashMap<String, int[]> positions) {
+			this.positions = positions;
+		}
+
+		final HashMap<String, int[]> positions;
+
+		String[] sortedTexts;
+
+		String[] getSortedTexts() {
+			if (sortedTexts == null) {
+				sortedTexts = positions.keySet().toArray(new String[positions.size()]);
+				Arrays.sort(sortedTexts);
+			}
+			return sortedTexts;
+		}
+	}
+
+	/**
+	 * @return the entries that match query, in the order of the file.
+	 */
+	public List<BibtexEntry> find(BibtexQuery query) {
+		assert query != null : "query parameter may not be null.";
+
+		BibtexQuery[] conditions = query.kind == BibtexQuery.AND ? query.operands : new BibtexQuery[] { query };
+		final int best = plan(conditions);
+		int[] candidates = getPositions(conditions[best]);
+		int count = 0;
+		for (int i = 0; i < candidates.length; i++) {
+			BibtexEntry entry = (BibtexEntry) entries.get(candidates[i]);
+			boolean matches = true;
+			for (int j = 0; j < conditions.length && matches; j++) {
+				matches = j == best || conditions[j].matches(entry);
+			}
+			if (matches)
+				candidates[count++] = candidates[i];
+		}
+		return new EntryList(count == candidates.length ? candidates : Arrays.copyOf(candidates, count));
+	}
+
+	/**
+	 * @return the plan for query, e.g. "year=2010..2014 (1234 candidates),
+	 *         then check type=inproceedings and author has aalst".
+	 */
+	public String explain(BibtexQuery query) {
+		assert query != null : "query parameter may not be null.";
+
+		BibtexQuery[] conditions = query.kind == BibtexQuery.AND ? query.operands : new BibtexQuery[] { query };
+		final int best = plan(conditions);
+		StringBuffer result = new StringBuffer();
+		result.append(conditions[best]).append(" (").append(estimate(conditions[best])).append(" candidates)");
+		for (int i = 0, checked = 0; i < conditions.length; i++) {
+			if (i == best)
+				continue;
+			result.append(checked++ == 0 ? ", then check " : " and ").append(conditions[i]);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return the index of the condition that matches the fewest entries.
+	 */
+	private int plan(BibtexQuery[] conditions) {
+		int best = 0;
+		int bestEstimate = Integer.MAX_VALUE;
+		for (int i = 0; i < conditions.length; i++) {
+			final int estimate = estimate(conditions[i]);
+			if (estimate < bestEstimate) {
+				best = i;
+				bestEstimate = estimate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the number of entries that match condition, or an upper bound.
+	 */
+	private int estimate(BibtexQuery condition) {
+		switch (condition.kind) {
+		case BibtexQuery.YEAR:
+			long[] years = getYearIndex();
+			return yearEnd(years, condition.to) - yearStart(years, condition.from);
+		case BibtexQuery.FIELD_PREFIX:
+			FieldIndex fieldIndex = getFieldIndex(condition.fieldName);
+			String[] texts = fieldIndex.getSortedTexts();
+			int count = 0;
+			for (int i = prefixStart(texts, condition.text); i < texts.length
+				&& texts[i].startsWith(condition.text); i++) {
+				count += fieldIndex.positions.get(texts[i]).length;
+			}
+			return count;
+		default:
+			return lookUp(condition).length;
+		}
+	}
+
+	/**
+	 * @return the positions of the entries that match condition, sorted. The
+	 *         array may be changed by the caller.
+	 */
+	private int[] getPositions(BibtexQuery condition) {
+		int[] positions;
+		switch (condition.kind) {
+		case BibtexQuery.YEAR:
+			long[] years = getYearIndex();
+			final int start = yearStart(years, condition.from), end = yearEnd(years, condition.to);
+			positions = new int[Math.max(0, end - start)];
+			for (int i = start; i < end; i++) {
+				positions[i - start] = (int) years[i];
+			}
+			Arrays.sort(positions);
+			return positions;
+		case BibtexQuery.FIELD_PREFIX:
+			FieldIndex fieldIndex = getFieldIndex(condition.fieldName);
+			String[] texts = fieldIndex.getSortedTexts();
+			IntList union = new IntList();
+			for (int i = prefixStart(texts, condition.text); i < texts.length
+				&& texts[i].startsWith(condition.text); i++) {
+				int[] withText = fieldIndex.positions.get(texts[i]);
+				for (int j = 0; j < withText.length; j++) {
+					union.add(withText[j]);
+				}
+			}
+			positions = union.toArray();
+			Arrays.sort(positions);
+			return positions;
+		default:
+			return lookUp(condition).clone();
+		}
+	}
+
+	/**
+	 * @return the positions in the index for a TYPE, FIELD_EQUALS or PERSON
+	 *         condition; not a copy.
+	 */
+	private int[] lookUp(BibtexQuery condition) {
+		int[] positions;
+		switch (condition.kind) {
+		case BibtexQuery.TYPE:
+			positions = getTypeIndex().get(condition.text);
+			break;
+		case BibtexQuery.FIELD_EQUALS:
+			positions = getFieldIndex(condition.fieldName).positions.get(condition.text);
+			break;
+		case BibtexQuery.PERSON:
+			positions = getPersonIndex(condition.fieldName).get(condition.text);
+			break;
+		default:
+			// nested conditions are flattened by BibtexQuery.and(...).
+			throw new IllegalArgumentException("Can't look up " + condition + ".");
+		}
+		return positions == null ? NO_POSITIONS : positions;
+	}
+
+	private static int prefixStart(String[] texts, String prefix) {
+		final int index = Arrays.binarySearch(texts, prefix);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private static int yearStart(long[] years, int from) {
+		final int index = Arrays.binarySearch(years, (long) from << 32);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private static int yearEnd(long[] years, int to) {
+		if (to == Integer.MAX_VALUE)
+			return years.length;
+		return yearStart(years, to + 1);
+	}
+
+	private HashMap<String, int[]> getTypeIndex() {
+		if (typeIndex == null) {
+			HashMap<String, IntList> index = new HashMap<String, IntList>();
+			for (int position = 0; position < entries.size(); position++) {
+				BibtexAbstractEntry entry = entries.get(position);
+				if (entry instanceof BibtexEntry)
+					add(index, ((BibtexEntry) entry).getEntryType(), position);
+			}
+			typeIndex = toArrays(index);
+		}
+		return typeIndex;
+	}
+
+	private long[] getYearIndex() {
+		if (yearIndex == null) {
+			long[] years = new long[entries.size()];
+			int count = 0;
+			for (int position = 0; position < entries.size(); position++) {
+				BibtexAbstractEntry entry = entries.get(position);
+				if (!(entry instanceof BibtexEntry))
+					continue;
+				final int year = BibtexQuery.getYear((BibtexEntry) entry);
+				if (year != BibtexQuery.NO_YEAR)
+					years[count++] = (long) year << 32 | position;
+			}
+			yearIndex = Arrays.copyOf(years, count);
+			Arrays.sort(yearIndex);
+		}
+		return yearIndex;
+	}
+
+	private FieldIndex getFieldIndex(String fieldName) {
+		FieldIndex fieldIndex = fieldIndexes.get(fieldName);
+		if (fieldIndex == null) {
+			HashMap<String, IntList> index = new HashMap<String, IntList>();
+			for (int position = 0; position < entries.size(); position++) {
+				BibtexAbstractEntry entry = entries.get(position);
+				if (!(entry instanceof BibtexEntry))
+					continue;
+				BibtexAbstractValue value = ((BibtexEntry) entry).getFieldValue(fieldName);
+				if (value != null)
+					add(index, BibtexQuery.getText(value), position);
+			}
+			fieldIndex = new FieldIndex(toArrays(index));
+			fieldIndexes.put(fieldName, fieldIndex);
+		}
+		return fieldIndex;
+	}
+
+	private HashMap<String, int[]> getPersonIndex(String fieldName) {
+		HashMap<String, int[]> personIndex = personIndexes.get(fieldName);
+		if (personIndex == null) {
+			HashMap<String, IntList> index = new HashMap<String, IntList>();
+			for (int position = 0; position < entries.size(); position++) {
+				BibtexAbstractEntry entry = entries.get(position);
+				if (!(entry instanceof BibtexEntry))
+					continue;
+				List<String> lastNames = BibtexQuery.getLastNames((BibtexEntry) entry, fieldName);
+				for (int i = 0; i < lastNames.size(); i++) {
+					// a person may be in the list twice.
+					if (lastNames.indexOf(lastNames.get(i)) == i)
+						add(index, lastNames.get(i), position);
+				}
+			}
+			personIndex = toArrays(index);
+			personIndexes.put(fieldName, personIndex);
+		}
+		return personIndex;
+	}
+
+	private static void add(HashMap<String, IntList> index, String key, int position) {
+		IntList positions = index.get(key);
+		if (positions == null) {
+			positions = new IntList();
+			index.put(key, positions);
+		}
+		positions.add(position);
+	}
+
+	private static HashMap<String, int[]> toArrays(HashMap<String, IntList> index) {
+		HashMap<String, int[]> result = new HashMap<String, int[]>(index.size() * 2);
+		for (Iterator<Map.Entry<String, IntList>> it = index.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, IntList> entry = it.next();
+			result.put(entry.getKey(), entry.getValue().toArray());
+		}
+		return result;
+	}
+
+	/**
+	 * A growing array of ints.
+	 */
+	private static final class IntList {
+
+		private int[] values = new int[2];
+
+		private int size;
+
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * The result of find(...), which gets the entries from the file as they
+	 * are needed.
+	 */
+	private final class EntryList extends AbstractList<BibtexEntry> {
+
+		EntryList(int[] positions) {
+			this.positions = positions;
+		}
+
+		private final int[] positions;
+
+		public BibtexEntry get(int index) {
+			return (BibtexEntry) entries.get(positions[index]);
+		}
+
+		public int size() {
+			return positions.length;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import bibtex.expansions.MacroReferenceExpander;
+import bibtex.expansions.PersonListExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Checks that BibtexQueryIndex.find(...) gives the same entries, in the same
+ * order, as checking every entry with BibtexQuery.matches(...). Run
+ * main(...); it prints the tests that fail, and exits with 1 if there are
+ * any.
+ */
+class BibtexQueryIndexTests {
+
+	private static final int ENTRY_COUNT = 400;
+
+	private static final String[] TYPES = { "article", "inproceedings", "InProceedings", "book", "misc" };
+
+	private static int count, failed;
+
+	private static void check(boolean condition, String description) {
+		count++;
+		if (!condition) {
+			failed++;
+			System.err.println("test failed: " + description);
+		}
+	}
+
+	private static String makeBibtex(int entryCount) {
+		StringBuffer text = new StringBuffer();
+		text.append("@string{bpm = \"BPM\"}\n");
+		for (int i = 0; i < entryCount; i++) {
+			if (i % 50 == 0)
+				text.append("a comment between the entries ").append(i).append("\n\n");
+			text.append('@').append(TYPES[i % TYPES.length]).append("{Key").append(i).append(",\n");
+			if (i % 5 == 0)
+				text.append("\tauthor = {W.M.P. van der Aalst and Author").append(i % 9).append(", A.},\n");
+			else if (i % 5 == 1)
+				text.append("\tauthor = {Aalst, Jr., W. and others},\n");
+			else if (i % 5 == 2)
+				text.append("\tauthor = {Smith, J. and Smith, J.},\n");
+			else if (i % 5 == 3)
+				text.append("\teditor = {Author").append(i % 9).append(", E.},\n");
+			if (i % 7 != 0)
+				text.append("\ttitle = {Process Mining part ").append(i).append("},\n");
+			text.append("\tbooktitle = ").append(i % 4 == 0 ? "bpm" : "{ICSE " + i % 6 + "}").append(",\n");
+			if (i % 11 == 0)
+				text.append("\tyear = {in press}\n");
+			else if (i % 13 == 0)
+				text.append("\tyear = {2004a}\n");
+			else if (i % 17 != 0)
+				text.append("\tyear = ").append(2000 + i % 15).append('\n');
+			text.append("}\n\n");
+		}
+		return text.toString();
+	}
+
+	private static void parseAndExpand(BibtexFile bibtexFile) throws Exception {
+		new BibtexParser(true).parse(bibtexFile, new StringReader(makeBibtex(ENTRY_COUNT)));
+		new MacroReferenceExpander(true, true, true, false).expand(bibtexFile);
+		new PersonListExpander(true, true, false).expand(bibtexFile);
+	}
+
+	private static BibtexQuery[] makeQueries() {
+		return new BibtexQuery[] {
+			BibtexQuery.type("inproceedings"),
+			BibtexQuery.type("ARTICLE"),
+			BibtexQuery.type("phdthesis"),
+			BibtexQuery.year(2005),
+			BibtexQuery.year(2004),
+			BibtexQuery.yearBetween(2003, 2007),
+			BibtexQuery.yearBetween(2010, Integer.MAX_VALUE),
+			BibtexQuery.yearBetween(2007, 2003),
+			BibtexQuery.fieldEquals("booktitle", "bpm"),
+			BibtexQuery.fieldEquals("BookTitle", "ICSE 3"),
+			BibtexQuery.fieldEquals("title", "process mining part 10"),
+			BibtexQuery.fieldEquals("publisher", "ACM"),
+			BibtexQuery.fieldStartsWith("title", "Process Mining part 1"),
+			BibtexQuery.fieldStartsWith("title", ""),
+			BibtexQuery.fieldStartsWith("booktitle", "zzz"),
+			BibtexQuery.author("Aalst"),
+			BibtexQuery.author("smith"),
+			BibtexQuery.author("others"),
+			BibtexQuery.person("editor", "Author4"),
+			BibtexQuery.and(BibtexQuery.type("inproceedings"), BibtexQuery.yearBetween(2003, 2007),
+				BibtexQuery.author("aalst"), BibtexQuery.fieldEquals("booktitle", "bpm")),
+			BibtexQuery.and(BibtexQuery.and(BibtexQuery.type("misc"), BibtexQuery.year(2004)),
+				BibtexQuery.fieldStartsWith("title", "process")),
+			BibtexQuery.and(BibtexQuery.type("book"), BibtexQuery.type("article")) };
+	}
+
+	private static List<String> getKeys(List<? extends BibtexAbstractEntry> entries) {
+		List<String> keys = new ArrayList<String>();
+		for (Iterator<? extends BibtexAbstractEntry> it = entries.iterator(); it.hasNext();) {
+			keys.add(((BibtexEntry) it.next()).getEntryKey());
+		}
+		return keys;
+	}
+
+	private static List<BibtexEntry> findAll(BibtexFile bibtexFile, BibtexQuery query) {
+		List<BibtexEntry> result = new ArrayList<BibtexEntry>();
+		for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (entry instanceof BibtexEntry && query.matches((BibtexEntry) entry))
+				result.add((BibtexEntry) entry);
+		}
+		return result;
+	}
+
+	private static void testFind(BibtexFile bibtexFile, String name) {
+		BibtexQueryIndex index = new BibtexQueryIndex(bibtexFile);
+		BibtexQuery[] queries = makeQueries();
+		// twice, so the second round uses the indexes of the first.
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < queries.length; i++) {
+				List<String> expected = getKeys(findAll(bibtexFile, queries[i]));
+				List<String> found = getKeys(index.find(queries[i]));
+				check(found.equals(expected), name + ": " + queries[i] + " finds " + found.size() + " entries, not "
+					+ expected.size());
+			}
+		}
+	}
+
+	private static void testExamples(BibtexFile bibtexFile) {
+		BibtexQueryIndex index = new BibtexQueryIndex(bibtexFile);
+		check(index.find(BibtexQuery.year(2004)).size() > index.find(BibtexQuery.and(BibtexQuery.year(2004),
+			BibtexQuery.fieldEquals("year", "2004"))).size(), "examples: {2004a} is from 2004");
+		List<String> smiths = getKeys(index.find(BibtexQuery.author("Smith")));
+		check(smiths.size() == ENTRY_COUNT / 5 && smiths.get(0).equals("Key2") && smiths.get(1).equals("Key7"),
+			"examples: a person that is in the list twice is found once");
+		check(index.find(BibtexQuery.author("others")).isEmpty(), "examples: others is not a last name");
+
+		BibtexQuery query = BibtexQuery.and(BibtexQuery.type("inproceedings"),
+			BibtexQuery.fieldEquals("title", "Process Mining part 10"));
+		check(index.explain(query).equals("title=process mining part 10 (1 candidates), then check type=inproceedings"),
+			"examples: explain(...) starts with the condition that matches the fewest entries");
+		check(getKeys(index.find(query)).equals(getKeys(findAll(bibtexFile, query))), "examples: find(...) for explain");
+	}
+
+	public static void main(String[] args) throws Exception {
+		BibtexFile memoryFile = new BibtexFile();
+		parseAndExpand(memoryFile);
+		testFind(memoryFile, "memory");
+		testExamples(memoryFile);
+
+		BibtexDiskFile diskFile = new BibtexDiskFile(Files.createTempFile("bibtex", ".store"), 8);
+		parseAndExpand(diskFile);
+		testFind(diskFile, "disk");
+		diskFile.close();
+
+		System.out.println(count + " tests, " + failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes bibtex nodes to a channel in UTF-8, exactly like printBibtex(...)
+ * would through a PrintWriter on an UTF-8 stream, but a lot faster: the
+ * characters are encoded straight into a buffer, and whether a string is a
+ * number is known from when it was made (see BibtexString.isNumber()).
+ *
+ * E.g.
+ *
+ * <pre>
+ * BibtexSerializer serializer = new BibtexSerializer(FileChannel.open(path, StandardOpenOption.CREATE,
+ * 	StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+ * try {
+ * 	serializer.write(bibtexFile);
+ * } finally {
+ * 	serializer.close();
+ * }
+ * </pre>
+ *
+ * This class is not thread safe.
+ */
+public final class BibtexSerializer implements Flushable, Closeable {
+
+	public BibtexSerializer(WritableByteChannel channel) {
+		this(channel, 1 << 16);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            in bytes; at least 16.
+	 */
+	public BibtexSerializer(WritableByteChannel channel, int bufferSize) {
+		assert channel != null : "channel parameter may not be null.";
+		assert bufferSize >= 16 : "bufferSize parameter has to be at least 16.";
+
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.bytes = buffer.array();
+	}
+
+	private final WritableByteChannel channel;
+
+	private final ByteBuffer buffer;
+
+	private final byte[] bytes;
+
+	private int position;
+
+	private long bytesWritten;
+
+	// what PrintWriter.println() prints.
+	private final String lineSeparator = System.lineSeparator();
+
+	// the first half of a surrogate pair, if a string ended with one.
+	private char highSurrogate;
+
+	// for the things that only know how to print themselves.
+	private StringWriter fallback;
+
+	private PrintWriter fallbackWriter;
+
+	/**
+	 * Writes the entries of file, like file.printBibtex(...), and flushes.
+	 */
+	public void write(BibtexFile file) throws IOException {
+		assert file != null : "file parameter may not be null.";
+
+		List<BibtexAbstractEntry> entries = file.getEntries();
+		for (int i = 0; i < entries.size(); i++) {
+			write(entries.get(i));
+		}
+		flush();
+	}
+
+	/**
+	 * Writes node like node.printBibtex(...) prints it.
+	 */
+	public void write(BibtexNode node) throws IOException {
+		assert node != null : "node parameter may not be null.";
+
+		if (node instanceof BibtexString) {
+			BibtexString string = (BibtexString) node;
+			if (string.isNumber()) {
+				write(string.getContent());
+			} else {
+				write('{');
+				write(string.getContent());
+				write('}');
+			}
+		} else if (node instanceof BibtexMacroReference) {
+			write(((BibtexMacroReference) node).getKey());
+		} else if (node instanceof BibtexConcatenatedValue) {
+			BibtexConcatenatedValue concatenation = (BibtexConcatenatedValue) node;
+			write(concatenation.getLeft());
+			write('#');
+			write(concatenation.getRight());
+		} else if (node instanceof BibtexEntry) {
+			writeEntry((BibtexEntry) node);
+		} else if (node instanceof BibtexMacroDefinition) {
+			BibtexMacroDefinition definition = (BibtexMacroDefinition) node;
+			write("@string{");
+			write(definition.getKey());
+			write('=');
+			write(definition.getValue());
+			write('}');
+			writeLine();
+		} else if (node instanceof BibtexToplevelComment) {
+			write(((BibtexToplevelComment) node).getContent());
+			writeLine();
+		} else if (node instanceof BibtexPreamble) {
+			write("@preamble{");
+			writeLine();
+			write(((BibtexPreamble) node).getContent());
+			write('}');
+			writeLine();
+		} else if (node instanceof BibtexPersonList) {
+			write('{');
+			for (Iterator<?> it = ((BibtexPersonList) node).getList().iterator(); it.hasNext();) {
+				write((BibtexPerson) it.next());
+				if (it.hasNext())
+					write(" and ");
+			}
+			write('}');
+		} else if (node instanceof BibtexMultipleValues) {
+			for (Iterator<?> it = ((BibtexMultipleValues) node).getValues().iterator(); it.hasNext();) {
+				write((BibtexNode) it.next());
+				if (it.hasNext()) {
+					writeLine();
+					writeLine();
+				}
+			}
+		} else if (node instanceof BibtexPerson) {
+			writePerson((BibtexPerson) node);
+		} else {
+			writeFallback(node);
+		}
+	}
+
+	private void writeEntry(BibtexEntry entry) throws IOException {
+		final String text = entry.getUnchangedText();
+		if (text != null) {
+			// the original text, from the source.
+			write(text);
+			writeLine();
+			return;
+		}
+		write('@');
+		write(entry.getEntryType());
+		write('{');
+		write(entry.getEntryKey());
+		write(',');
+		writeLine();
+		for (Iterator<Map.Entry<String, Object>> it = entry.getFields().entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Object> field = it.next();
+			if (field.getValue() instanceof BibtexMultipleValues) {
+				for (Iterator<?> valueIt = ((BibtexMultipleValues) field.getValue()).getValues().iterator(); valueIt
+					.hasNext();) {
+					writeField(field.getKey(), (BibtexNode) valueIt.next());
+				}
+			} else {
+				writeField(field.getKey(), (BibtexNode) field.getValue());
+			}
+		}
+		write('}');
+		writeLine();
+	}
+
+	private void writeField(String name, BibtexNode value) throws IOException {
+		write('\t');
+		write(name);
+		write('=');
+		write(value);
+		write(',');
+		writeLine();
+	}
+
+	private void writePerson(BibtexPerson person) throws IOException {
+		if (person.isOthers()) {
+			write("others");
+			return;
+		}
+		if (person.getPreLast() != null) {
+			write(person.getPreLast());
+			write(' ');
+		}
+		if (person.getLast() != null)
+			write(person.getLast());
+		if (person.getLineage() != null || person.getFirst() != null)
+			write(", ");
+		if (person.getLineage() != null) {
+			write(person.getLineage());
+			write(", ");
+		}
+		if (person.getFirst() != null) {
+			write(person.getFirst());
+		} else if (person.getLineage() != null) {
+			write("{}");
+		}
+	}
+
+	private void writeFallback(BibtexNode node) throws IOException {
+		if (fallback == null) {
+			fallback = new StringWriter();
+			fallbackWriter = new PrintWriter(fallback);
+		}
+		node.printBibtex(fallbackWriter);
+		fallbackWriter.flush();
+		StringBuffer text = fallback.getBuffer();
+		write(text);
+		text.setLength(0);
+	}
+
+	private void writeLine() throws IOException {
+		write(lineSeparator);
+	}
+
+	private void write(char c) throws IOException {
+		if (c < 0x80 && highSurrogate == 0) {
+			if (position == bytes.length)
+				flushBuffer();
+			bytes[position++] = (byte) c;
+		} else {
+			write(String.valueOf(c));
+		}
+	}
+
+	/**
+	 * Encodes text like the UTF-8 encoder of an OutputStreamWriter does: a
+	 * surrogate that isn't part of a pair is written as '?'.
+	 */
+	private void write(CharSequence text) throws IOException {
+		if (text == null)
+			text = "null";
+		final int length = text.length();
+		for (int i = 0; i < length; i++) {
+			// 4 bytes is the most a character can take.
+			if (bytes.length - position < 4)
+				flushBuffer();
+			final char c = text.charAt(i);
+			if (highSurrogate != 0) {
+				if (Character.isLowSurrogate(c)) {
+					final int codePoint = Character.toCodePoint(highSurrogate, c);
+					highSurrogate = 0;
+					bytes[position++] = (byte) (0xf0 | codePoint >> 18);
+					bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+					bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+					bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+					continue;
+				}
+				highSurrogate = 0;
+				bytes[position++] = '?';
+				if (bytes.length - position < 4)
+					flushBuffer();
+			}
+			if (c < 0x80) {
+				bytes[position++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[position++] = (byte) (0xc0 | c >> 6);
+				bytes[position++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c)) {
+				highSurrogate = c;
+			} else if (Character.isLowSurrogate(c)) {
+				bytes[position++] = '?';
+			} else {
+				bytes[position++] = (byte) (0xe0 | c >> 12);
+				bytes[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+				bytes[position++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.clear().limit(position);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		bytesWritten += position;
+		position = 0;
+	}
+
+	/**
+	 * Writes what has been buffered to the channel.
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	/**
+	 * Flushes, and closes the channel.
+	 */
+	public void close() throws IOException {
+		try {
+			if (highSurrogate != 0) {
+				highSurrogate = 0;
+				write('?');
+			}
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the number of bytes that have been written to the channel so far.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+}
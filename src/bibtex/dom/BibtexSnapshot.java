@@ -0,0 +1,598 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed (and usually expanded) bibliography in a binary file, so that it
+ * can be loaded again without parsing and expanding the bibtex file. Loading a
+ * snapshot takes a fraction of the time.
+ *
+ * A snapshot file has a header with the version of the format, the size and
+ * modification time of the bibtex file it was made from and a tag (e.g. which
+ * expansions were done), followed by the node records of the entries, a
+ * string table that each distinct string is stored in once, the offsets of
+ * the records, and a hash table from the (case insensitive) keys to the
+ * entries. The file is memory-mapped, and entries can be read one at a time
+ * by key, without loading the others.
+ *
+ * Snapshots store the nodes, not the text they were parsed from, so lazily
+ * parsed entries are printed like expanded ones after they have been loaded.
+ * Snapshots can't be larger than 2GB. This class is not thread safe.
+ *
+ * Usually, read(...) is all you need:
+ *
+ * <pre>
+ * BibtexFile bibtexFile = BibtexSnapshot.read(path, &quot;expanded&quot;);
+ * if (bibtexFile == null) {
+ * 	long size = Files.size(path), modified = Files.getLastModifiedTime(path).toMillis();
+ * 	bibtexFile = new BibtexFile();
+ * 	// parse and expand ...
+ * 	BibtexSnapshot.write(bibtexFile, path, &quot;expanded&quot;, size, modified);
+ * }
+ * </pre>
+ */
+public final class BibtexSnapshot {
+
+	private static final int MAGIC = 0x62696273; // "bibs"
+
+	private static final int VERSION = 1;
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	// the header: magic, version, source size and modification time, the
+	// offsets of the sections and the counts, then the tag.
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * 4 + 4 * 3;
+
+	// records
+	private static final int ENTRY = 0, MACRO_DEFINITION = 1, PREAMBLE = 2, TOPLEVEL_COMMENT = 3;
+
+	// values
+	private static final int STRING = 0, MACRO_REFERENCE = 1, CONCATENATION = 2, MULTIPLE_VALUES = 3,
+		PERSON_LIST = 4;
+
+	// person flags
+	private static final int OTHERS = 1;
+
+	// for parts of persons that are null.
+	private static final int NO_STRING = -1;
+
+	/**
+	 * @return where the snapshot of the bibtex file at path is stored: in the
+	 *         same directory, with .snapshot appended to the name.
+	 */
+	public static Path getSnapshotPath(Path path) {
+		return path.resolveSibling(path.getFileName() + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * Loads the snapshot of the bibtex file at path into a new BibtexFile.
+	 *
+	 * @param tag
+	 *            has to be the same as when the snapshot was written.
+	 * @return null if there is no snapshot, or if it was made with another
+	 *         version of this class, with another tag, or from an older
+	 *         version of the bibtex file, or if it is broken.
+	 */
+	public static BibtexFile read(Path path, String tag) throws IOException {
+		assert tag != null : "tag parameter may not be null.";
+
+		BibtexSnapshot snapshot;
+		try {
+			snapshot = open(getSnapshotPath(path));
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			// another version, or a broken file.
+			return null;
+		}
+		if (!snapshot.getTag().equals(tag) || !snapshot.isUpToDate(path))
+			return null;
+		BibtexFile bibtexFile = new BibtexFile();
+		try {
+			snapshot.addEntriesTo(bibtexFile);
+		} catch (IndexOutOfBoundsException e) {
+			// a truncated or corrupt file.
+			return null;
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+		return bibtexFile;
+	}
+
+	/**
+	 * Writes a snapshot of bibtexFile, which was made from the bibtex file at
+	 * path, to getSnapshotPath(path). It is written to a temporary file first,
+	 * so that nobody ever sees half a snapshot.
+	 *
+	 * @param sourceSize
+	 *            the size of the bibtex file before it was parsed.
+	 * @param sourceModified
+	 *            the modification time of the bibtex file before it was
+	 *            parsed, in ms. If the file changes while it is parsed and
+	 *            expanded, the snapshot is then out of date right away,
+	 *            instead of passing for the new content.
+	 */
+	public static void write(BibtexFile bibtexFile, Path path, String tag, long sourceSize, long sourceModified)
+		throws IOException {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+		assert tag != null : "tag parameter may not be null.";
+
+		final Path snapshotPath = getSnapshotPath(path);
+		final Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+		new Writer(bibtexFile).write(tempPath, sourceSize, sourceModified, tag);
+		Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Maps a snapshot file.
+	 *
+	 * @throws IOException
+	 *             also if the file is not a snapshot, or one that was made with
+	 *             another version of this class.
+	 */
+	public static BibtexSnapshot open(Path snapshotPath) throws IOException {
+		assert snapshotPath != null : "snapshotPath parameter may not be null.";
+
+		final MappedByteBuffer buffer;
+		FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE || channel.size() < HEADER_SIZE + 4)
+				throw new IOException("Not a snapshot: " + snapshotPath);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		if (buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a snapshot: " + snapshotPath);
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Snapshot version " + buffer.getInt(4) + " is not supported: " + snapshotPath);
+		return new BibtexSnapshot(buffer);
+	}
+
+	private BibtexSnapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		this.sourceSize = buffer.getLong(8);
+		this.sourceModified = buffer.getLong(16);
+		final int recordsStart = buffer.getInt(24);
+		final int stringsStart = buffer.getInt(28);
+		final int offsetsStart = buffer.getInt(32);
+		final int keysStart = buffer.getInt(36);
+		this.size = buffer.getInt(40);
+		this.stringCount = buffer.getInt(44);
+		this.keySlots = buffer.getInt(48);
+		// the key table has a free slot at least, and a power of 2 of them.
+		if (size < 0 || stringCount < 0 || keySlots <= size || (keySlots & (keySlots - 1)) != 0)
+			throw new IOException("Broken snapshot.");
+		this.records = slice(recordsStart, stringsStart);
+		this.stringOffsets = slice(stringsStart, stringsStart + 4L * (stringCount + 1));
+		this.stringsStart = stringsStart + 4 * (stringCount + 1);
+		this.recordOffsets = slice(offsetsStart, offsetsStart + 4L * size);
+		this.keyTable = slice(keysStart, keysStart + 8L * keySlots);
+		this.strings = new String[stringCount];
+		final int tagLength = buffer.getInt(HEADER_SIZE);
+		if (tagLength < 0 || tagLength > buffer.limit() - HEADER_SIZE - 4)
+			throw new IOException("Broken snapshot.");
+		byte[] tag = new byte[tagLength];
+		buffer.get(HEADER_SIZE + 4, tag);
+		this.tag = new String(tag, StandardCharsets.UTF_8);
+	}
+
+	private IntBuffer slice(int start, long end) throws IOException {
+		if (start < 0 || end < start || end > buffer.limit())
+			throw new IOException("Broken snapshot.");
+		return buffer.slice(start, (int) (end - start)).asIntBuffer();
+	}
+
+	private final ByteBuffer buffer;
+
+	private final long sourceSize, sourceModified;
+
+	private final String tag;
+
+	private final int size, stringCount, keySlots, stringsStart;
+
+	private final IntBuffer records, stringOffsets, recordOffsets, keyTable;
+
+	// the strings that have been decoded so far.
+	private final String[] strings;
+
+	/**
+	 * @return the tag the snapshot was written with.
+	 */
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return false if the bibtex file at path has changed since the snapshot
+	 *         was made from it.
+	 */
+	public boolean isUpToDate(Path path) throws IOException {
+		return Files.size(path) == sourceSize && Files.getLastModifiedTime(path).toMillis() == sourceModified;
+	}
+
+	/**
+	 * @param key
+	 *            is case insensitive, like in bibtex.
+	 * @return the index of the first entry with that key, or -1.
+	 */
+	public int findEntry(String key) {
+		assert key != null : "key parameter may not be null.";
+
+		final String lowerCaseKey = key.toLowerCase();
+		final int hash = lowerCaseKey.hashCode();
+		// a table that was written by this class is never full.
+		for (int probe = 0, slot = hash & (keySlots - 1); probe < keySlots; probe++, slot = (slot + 1) & (keySlots - 1)) {
+			final int index = keyTable.get(2 * slot + 1) - 1;
+			if (index < 0)
+				return -1;
+			if (keyTable.get(2 * slot) == hash && getString(records.get(recordOffsets.get(index) + 2)).toLowerCase()
+				.equals(lowerCaseKey))
+				return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the entry at index.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             also if the snapshot is broken.
+	 * @param factory
+	 *            makes the nodes - the entry is not added to it.
+	 */
+	public BibtexAbstractEntry getEntry(BibtexFile factory, int index) {
+		assert factory != null : "factory parameter may not be null.";
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		return new Reader(factory, recordOffsets.get(index)).readEntry();
+	}
+
+	/**
+	 * Reads all the entries and adds them to bibtexFile.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if the snapshot is broken.
+	 */
+	public void addEntriesTo(BibtexFile bibtexFile) {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+
+		// the records are next to each other.
+		Reader reader = new Reader(bibtexFile, 0);
+		for (int i = 0; i < size; i++) {
+			bibtexFile.addEntry(reader.readEntry());
+		}
+	}
+
+	private String getString(int id) {
+		if (id == NO_STRING)
+			return null;
+		String string = strings[id];
+		if (string == null) {
+			final int start = stringOffsets.get(id), end = stringOffsets.get(id + 1);
+			if (start < 0 || end < start || end > buffer.limit() - stringsStart)
+				throw new IndexOutOfBoundsException("Broken snapshot: string " + id + " is out of bounds.");
+			byte[] bytes = new byte[end - start];
+			buffer.get(stringsStart + start, bytes);
+			string = new String(bytes, StandardCharsets.UTF_8);
+			strings[id] = string;
+		}
+		return string;
+	}
+
+	/**
+	 * Reads records from a position on.
+	 */
+	private final class Reader {
+
+		Reader(BibtexFile factory, int position) {
+			this.factory = factory;
+			this.position = position;
+		}
+
+		private final BibtexFile factory;
+
+		private int position;
+
+		private int next() {
+			return records.get(position++);
+		}
+
+		private String nextString() {
+			return getString(next());
+		}
+
+		private String nextRequiredString() {
+			final String string = nextString();
+			if (string == null)
+				throw new IndexOutOfBoundsException("Broken snapshot: a string is missing at " + (position - 1) + ".");
+			return string;
+		}
+
+		BibtexAbstractEntry readEntry() {
+			switch (next()) {
+			case ENTRY:
+				BibtexEntry entry = factory.makeEntry(nextRequiredString(), nextRequiredString());
+				for (int fieldCount = next(); fieldCount > 0; fieldCount--) {
+					final String name = nextRequiredString();
+					entry.setField(name, readValue());
+				}
+				return entry;
+			case MACRO_DEFINITION:
+				final String key = nextRequiredString();
+				return factory.makeMacroDefinition(key, readValue());
+			case PREAMBLE:
+				return factory.makePreamble(readValue());
+			default:
+				return factory.makeToplevelComment(nextRequiredString());
+			}
+		}
+
+		/**
+		 * Reads a value inside a concatenation or multiple values, which
+		 * can't be multiple values itself.
+		 */
+		private BibtexAbstractValue readInnerValue() {
+			final BibtexAbstractValue value = readValue();
+			if (value instanceof BibtexMultipleValues)
+				throw new IndexOutOfBoundsException("Broken snapshot: nested multiple values before " + position + ".");
+			return value;
+		}
+
+		private BibtexAbstractValue readValue() {
+			switch (next()) {
+			case STRING:
+				return factory.makeString(nextRequiredString());
+			case MACRO_REFERENCE:
+				return factory.makeMacroReference(nextRequiredString());
+			case CONCATENATION:
+				BibtexAbstractValue left = readInnerValue();
+				return factory.makeConcatenatedValue(left, readInnerValue());
+			case MULTIPLE_VALUES:
+				BibtexMultipleValues values = factory.makeBibtexMultipleValues();
+				for (int count = next(); count > 0; count--) {
+					values.addValue(readInnerValue());
+				}
+				return values;
+			default:
+				BibtexPersonList list = factory.makePersonList();
+				for (int count = next(); count > 0; count--) {
+					final boolean isOthers = (next() & OTHERS) != 0;
+					final String first = nextString(), preLast = nextString(), last = nextString();
+					if (last == null && !isOthers)
+						throw new IndexOutOfBoundsException("Broken snapshot: a person without a last name at "
+							+ (position - 1) + ".");
+					list.add(factory.makePerson(first, preLast, last, nextString(), isOthers));
+				}
+				return list;
+			}
+		}
+	}
+
+	/**
+	 * Writes the records while it collects the strings, and writes the other
+	 * sections after that.
+	 */
+	private static final class Writer {
+
+		Writer(BibtexFile bibtexFile) {
+			this.entries = bibtexFile.getEntries();
+		}
+
+		private final List<BibtexAbstractEntry> entries;
+
+		private final HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+
+		private final ArrayList<String> strings = new ArrayList<String>();
+
+		private DataOutputStream out;
+
+		void write(Path path, long sourceSize, long sourceModified, String tag) throws IOException {
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+				out.write(new byte[HEADER_SIZE]);
+				byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(tagBytes.length);
+				out.write(tagBytes);
+				// the records are ints, so they are aligned.
+				while (out.size() % 4 != 0) {
+					out.write(0);
+				}
+
+				final int recordsStart = out.size();
+				int[] recordOffsets = new int[entries.size()];
+				int[] keyIds = new int[entries.size()];
+				for (int i = 0; i < recordOffsets.length; i++) {
+					recordOffsets[i] = (out.size() - recordsStart) / 4;
+					keyIds[i] = writeEntry(entries.get(i));
+				}
+
+				final int stringsStart = out.size();
+				int offset = 0;
+				byte[][] stringBytes = new byte[strings.size()][];
+				for (int i = 0; i < stringBytes.length; i++) {
+					stringBytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+					out.writeInt(offset);
+					offset += stringBytes[i].length;
+				}
+				out.writeInt(offset);
+				for (int i = 0; i < stringBytes.length; i++) {
+					out.write(stringBytes[i]);
+				}
+				while (out.size() % 4 != 0) {
+					out.write(0);
+				}
+
+				final int offsetsStart = out.size();
+				for (int i = 0; i < recordOffsets.length; i++) {
+					out.writeInt(recordOffsets[i]);
+				}
+
+				final int keysStart = out.size();
+				final int keySlots = writeKeyTable(keyIds);
+				out.flush();
+				// DataOutputStream stops counting there.
+				if (out.size() == Integer.MAX_VALUE)
+					throw new IOException("Can't write snapshots larger than 2GB.");
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(sourceModified);
+				header.putInt(recordsStart).putInt(stringsStart).putInt(offsetsStart).putInt(keysStart);
+				header.putInt(recordOffsets.length).putInt(strings.size()).putInt(keySlots);
+				header.flip();
+				channel.write(header, 0);
+			} finally {
+				channel.close();
+			}
+		}
+
+		/**
+		 * @return the id of the key of entry, or NO_STRING if it's not a
+		 *         BibtexEntry.
+		 */
+		private int writeEntry(BibtexAbstractEntry entry) throws IOException {
+			if (entry instanceof BibtexEntry) {
+				BibtexEntry bibtexEntry = (BibtexEntry) entry;
+				out.writeInt(ENTRY);
+				writeString(bibtexEntry.getEntryType());
+				final int keyId = writeString(bibtexEntry.getEntryKey());
+				Map<String, Object> fields = bibtexEntry.getFields();
+				out.writeInt(fields.size());
+				for (Iterator<Map.Entry<String, Object>> it = fields.entrySet().iterator(); it.hasNext();) {
+					Map.Entry<String, Object> field = it.next();
+					writeString(field.getKey());
+					writeValue((BibtexAbstractValue) field.getValue());
+				}
+				return keyId;
+			} else if (entry instanceof BibtexMacroDefinition) {
+				BibtexMacroDefinition definition = (BibtexMacroDefinition) entry;
+				out.writeInt(MACRO_DEFINITION);
+				writeString(definition.getKey());
+				writeValue(definition.getValue());
+			} else if (entry instanceof BibtexPreamble) {
+				out.writeInt(PREAMBLE);
+				writeValue(((BibtexPreamble) entry).getContent());
+			} else if (entry instanceof BibtexToplevelComment) {
+				out.writeInt(TOPLEVEL_COMMENT);
+				writeString(((BibtexToplevelComment) entry).getContent());
+			} else {
+				throw new IllegalArgumentException("Can't write " + entry.getClass().getName() + ".");
+			}
+			return NO_STRING;
+		}
+
+		private void writeValue(BibtexAbstractValue value) throws IOException {
+			if (value instanceof BibtexString) {
+				out.writeInt(STRING);
+				writeString(((BibtexString) value).getContent());
+			} else if (value instanceof BibtexMacroReference) {
+				out.writeInt(MACRO_REFERENCE);
+				writeString(((BibtexMacroReference) value).getKey());
+			} else if (value instanceof BibtexConcatenatedValue) {
+				out.writeInt(CONCATENATION);
+				writeValue(((BibtexConcatenatedValue) value).getLeft());
+				writeValue(((BibtexConcatenatedValue) value).getRight());
+			} else if (value instanceof BibtexMultipleValues) {
+				List<?> values = ((BibtexMultipleValues) value).getValues();
+				out.writeInt(MULTIPLE_VALUES);
+				out.writeInt(values.size());
+				for (Iterator<?> it = values.iterator(); it.hasNext();) {
+					writeValue((BibtexAbstractValue) it.next());
+				}
+			} else if (value instanceof BibtexPersonList) {
+				List<?> persons = ((BibtexPersonList) value).getList();
+				out.writeInt(PERSON_LIST);
+				out.writeInt(persons.size());
+				for (Iterator<?> it = persons.iterator(); it.hasNext();) {
+					BibtexPerson person = (BibtexPerson) it.next();
+					out.writeInt(person.isOthers() ? OTHERS : 0);
+					writeString(person.getFirst());
+					writeString(person.getPreLast());
+					writeString(person.getLast());
+					writeString(person.getLineage());
+				}
+			} else {
+				throw new IllegalArgumentException("Can't write " + value.getClass().getName() + ".");
+			}
+		}
+
+		private int writeString(String string) throws IOException {
+			int id = NO_STRING;
+			if (string != null) {
+				Integer knownId = stringIds.get(string);
+				if (knownId == null) {
+					id = strings.size();
+					strings.add(string);
+					stringIds.put(string, Integer.valueOf(id));
+				} else {
+					id = knownId.intValue();
+				}
+			}
+			out.writeInt(id);
+			return id;
+		}
+
+		/**
+		 * An open addressing hash table of (hash of the lower case key, index
+		 * + 1) pairs, filled in file order, so that looking up a key finds the
+		 * first entry with that key.
+		 *
+		 * @return the number of slots.
+		 */
+		private int writeKeyTable(int[] keyIds) throws IOException {
+			int slots = 16;
+			while (slots < 2 * keyIds.length) {
+				slots *= 2;
+			}
+			int[] table = new int[2 * slots];
+			for (int i = 0; i < keyIds.length; i++) {
+				if (keyIds[i] == NO_STRING)
+					continue;
+				final int hash = strings.get(keyIds[i]).toLowerCase().hashCode();
+				int slot = hash & (slots - 1);
+				while (table[2 * slot + 1] != 0) {
+					slot = (slot + 1) & (slots - 1);
+				}
+				table[2 * slot] = hash;
+				table[2 * slot + 1] = i + 1;
+			}
+			for (int i = 0; i < table.length; i++) {
+				out.writeInt(table[i]);
+			}
+			return slots;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import bibtex.expansions.MacroReferenceExpander;
+import bibtex.expansions.PersonListExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Checks that a snapshot gives back the bibliography it was made from, and
+ * that read(...) returns null instead of wrong entries or an exception when
+ * the snapshot doesn't fit the bibtex file or is broken. Run main(...); it
+ * prints the tests that fail, and exits with 1 if there are any.
+ */
+class BibtexSnapshotTests {
+
+	private static final String TAG = "expanded";
+
+	private static int count, failed;
+
+	private static void check(boolean condition, String description) {
+		count++;
+		if (!condition) {
+			failed++;
+			System.err.println("test failed: " + description);
+		}
+	}
+
+	private static String makeBibtex(int entryCount) {
+		StringBuffer text = new StringBuffer();
+		text.append("@string{acm = \"ACM\"}\n");
+		text.append("@preamble{\"\\newcommand{\\noop}[1]{}\"}\n");
+		for (int i = 0; i < entryCount; i++) {
+			text.append("@inproceedings{Key").append(i).append(",\n");
+			text.append("\tauthor = {M\u00fcller").append(i).append(", J. and de la Fontaine, Jr., Jean},\n");
+			text.append("\ttitle = {Title {with} braces ").append(i).append("},\n");
+			text.append("\tbooktitle = acm # \" Conference\",\n");
+			text.append("\tmonth = jan,\n");
+			text.append("\tyear = ").append(2000 + i % 20).append("\n}\n\n");
+		}
+		text.append("% a comment at the end\n");
+		return text.toString();
+	}
+
+	private static BibtexFile parseAndExpand(Path path) throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(true).parse(bibtexFile, path, StandardCharsets.UTF_8);
+		new MacroReferenceExpander(true, true, false, true).expand(bibtexFile);
+		new PersonListExpander(true, true, true).expand(bibtexFile);
+		return bibtexFile;
+	}
+
+	private static String print(BibtexFile bibtexFile) {
+		StringWriter text = new StringWriter();
+		PrintWriter writer = new PrintWriter(text);
+		bibtexFile.printBibtex(writer);
+		writer.flush();
+		return text.toString();
+	}
+
+	private static void write(BibtexFile bibtexFile, Path path) throws Exception {
+		BibtexSnapshot.write(bibtexFile, path, TAG, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+	}
+
+	private static void testRoundTrip(Path path) throws Exception {
+		BibtexFile bibtexFile = parseAndExpand(path);
+		write(bibtexFile, path);
+
+		BibtexFile read = BibtexSnapshot.read(path, TAG);
+		check(read != null, "round trip: snapshot is read");
+		check(read != null && print(read).equals(print(bibtexFile)), "round trip: same entries");
+		check(read != null && read.getEntryByKey("key7").getFieldValue("author") instanceof BibtexPersonList,
+			"round trip: person lists stay person lists");
+
+		BibtexSnapshot snapshot = BibtexSnapshot.open(BibtexSnapshot.getSnapshotPath(path));
+		check(snapshot.size() == bibtexFile.getEntries().size(), "round trip: size()");
+		final int index = snapshot.findEntry("KEY42");
+		check(index >= 0 && ((BibtexEntry) snapshot.getEntry(new BibtexFile(), index)).getEntryKey().equals("Key42"),
+			"round trip: findEntry(...) ignores case");
+		check(snapshot.findEntry("no such key") == -1, "round trip: missing key");
+	}
+
+	private static void testOutOfDate(Path path) throws Exception {
+		write(parseAndExpand(path), path);
+		check(BibtexSnapshot.read(path, "another tag") == null, "out of date: another tag");
+
+		Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+		check(BibtexSnapshot.read(path, TAG) == null, "out of date: bibtex file modified");
+
+		Files.delete(BibtexSnapshot.getSnapshotPath(path));
+		check(BibtexSnapshot.read(path, TAG) == null, "out of date: no snapshot");
+	}
+
+	private static void testBroken(Path path) throws Exception {
+		write(parseAndExpand(path), path);
+		final Path snapshotPath = BibtexSnapshot.getSnapshotPath(path);
+		final byte[] bytes = Files.readAllBytes(snapshotPath);
+
+		final int[] lengths = { 0, 3, 40, bytes.length / 3, bytes.length / 2, bytes.length - 1 };
+		for (int i = 0; i < lengths.length; i++) {
+			Files.write(snapshotPath, Arrays.copyOf(bytes, lengths[i]));
+			check(BibtexSnapshot.read(path, TAG) == null, "broken: truncated to " + lengths[i] + " bytes");
+		}
+
+		byte[] header = bytes.clone();
+		header[0] ^= 0xFF;
+		Files.write(snapshotPath, header);
+		check(BibtexSnapshot.read(path, TAG) == null, "broken: not a snapshot");
+
+		// the string table and the offsets are checked, so a corrupt snapshot
+		// either reads as entries or not at all.
+		Random random = new Random(1);
+		int exceptions = 0;
+		for (int i = 0; i < 200; i++) {
+			byte[] corrupt = bytes.clone();
+			for (int j = 0; j < 4; j++) {
+				corrupt[random.nextInt(corrupt.length)] = (byte) random.nextInt(256);
+			}
+			Files.write(snapshotPath, corrupt);
+			try {
+				BibtexSnapshot.read(path, TAG);
+			} catch (RuntimeException e) {
+				exceptions++;
+			} catch (AssertionError e) {
+				exceptions++;
+			}
+		}
+		check(exceptions == 0, "broken: " + exceptions + " of 200 corrupt snapshots threw an exception");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("snapshots");
+		Path path = directory.resolve("test.bib");
+		Files.write(path, makeBibtex(200).getBytes(StandardCharsets.UTF_8));
+		try {
+			testRoundTrip(path);
+			testOutOfDate(path);
+			testBroken(path);
+		} finally {
+			Files.deleteIfExists(BibtexSnapshot.getSnapshotPath(path));
+			Files.delete(path);
+			Files.delete(directory);
+		}
+		System.out.println(count + " tests, " + failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+}
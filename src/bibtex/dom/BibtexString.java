@@ -31,6 +31,53 @@ public class BibtexString extends BibtexAbstractValue {
 	BibtexString(BibtexFile file, String content) {
 		super(file);
 		this.content = content;
+		this.number = isNumber(content);
+	}
+
+	/**
+	 * For subclasses that keep the content somewhere else.
+	 */
+	BibtexString(BibtexFile file, boolean number) {
+		super(file);
+		this.number = number;
+	}
+
+	// whether content is an int, which is printed without braces. This is
+	// decided when the content is set, not each time it's printed.
+	private boolean number;
+
+	/**
+	 * @return true if the content is a number, i.e. Integer.parseInt(...)
+	 *         would accept it - then it is printed without braces.
+	 */
+	public boolean isNumber() {
+		return number;
+	}
+
+	/**
+	 * The same as Integer.parseInt(content) not throwing an exception.
+	 */
+	static boolean isNumber(String content) {
+		final int length = content.length();
+		if (length == 0)
+			return false;
+		int i = 0;
+		final char sign = content.charAt(0);
+		if (sign == '-' || sign == '+') {
+			if (length == 1)
+				return false;
+			i++;
+		}
+		long value = 0;
+		for (; i < length; i++) {
+			final int digit = Character.digit(content.charAt(i), 10);
+			if (digit < 0)
+				return false;
+			value = value * 10 + digit;
+			if (value > 1L + Integer.MAX_VALUE)
+				return false;
+		}
+		return value <= Integer.MAX_VALUE || sign == '-';
 	}
 
 	/**
@@ -50,7 +97,18 @@ public class BibtexString extends BibtexAbstractValue {
 	    
 	    assert content!=null: "content parameter may not be null.";
 	    
+		if (shared)
+			throw new UnsupportedOperationException("This string is pooled and shared, make a new one instead.");
 		this.content = content;
+		this.number = isNumber(content);
+		getOwnerFile().valueChanged();
+	}
+
+	// true if this string is in a BibtexValuePool
+	private boolean shared;
+
+	void setShared() {
+		this.shared = true;
 	}
 
 	/* (non-Javadoc)
@@ -60,11 +118,10 @@ public class BibtexString extends BibtexAbstractValue {
 	    
 	    assert writer!=null: "writer parameter may not be null.";
 	    
-		// is this really a number?
-		try {
-			Integer.parseInt(content);
+		final String content = getContent();
+		if (number) {
 			writer.print(content);
-		} catch (NumberFormatException nfe) {
+		} else {
 			writer.print('{');
 //			for (int begin = 0; begin < content.length();) {
 //				int end = content.indexOf('\n', begin);
@@ -0,0 +1,224 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Keeps the content of long BibtexStrings (titles, abstracts, notes ...) as
+ * UTF-8 outside of the Java heap, in direct ByteBuffers of CHUNK_SIZE bytes.
+ * The strings are decoded each time getContent() is called. If setContent is
+ * called on such a string, the new content is kept on the heap like for any
+ * other BibtexString, and the old bytes stay in the arena until it is closed;
+ * getReleasedBytes() tells how many bytes that is.
+ *
+ * Close the arena when you're done with the BibtexFile - it frees the memory
+ * right away instead of whenever the garbage collector gets to the buffers.
+ * After that, reading the content of a string that was in the arena throws an
+ * IllegalStateException.
+ *
+ * Adding strings is thread safe, and so is reading them, also while the arena
+ * is being closed: close() waits for the reads that have started, so no
+ * string is ever read from memory that has been freed.
+ *
+ * @see BibtexFile#BibtexFile(boolean, boolean)
+ */
+public final class BibtexStringArena implements Closeable {
+
+	/**
+	 * strings with fewer characters than this are kept on the heap.
+	 */
+	public static final int MIN_LENGTH = 32;
+
+	/**
+	 * the size of the buffers. Longer strings get a buffer of their own.
+	 */
+	public static final int CHUNK_SIZE = 1 << 20;
+
+	BibtexStringArena() {
+	}
+
+	private volatile ByteBuffer[] chunks = new ByteBuffer[16];
+
+	private int chunkCount;
+
+	// the chunk that strings are added to, and the end of its used part.
+	private ByteBuffer current;
+
+	private int currentIndex, currentEnd;
+
+	private long capacity, usedBytes, releasedBytes;
+
+	private int stringCount;
+
+	private boolean closed;
+
+	// read locked while a string is copied out of a chunk, write locked while
+	// the chunks are freed.
+	private final StampedLock freeLock = new StampedLock();
+
+	/**
+	 * @return the address of content: the index of its chunk in the upper 32
+	 *         bits, its offset there in the lower ones.
+	 */
+	synchronized long append(byte[] content) {
+		if (closed)
+			throw new IllegalStateException("This arena has been closed.");
+		usedBytes += content.length;
+		stringCount++;
+		if (content.length > CHUNK_SIZE) {
+			addChunk(content.length).put(0, content);
+			return (long) (chunkCount - 1) << 32;
+		}
+		if (current == null || currentEnd + content.length > CHUNK_SIZE) {
+			current = addChunk(CHUNK_SIZE);
+			currentIndex = chunkCount - 1;
+			currentEnd = 0;
+		}
+		final int offset = currentEnd;
+		current.put(offset, content);
+		currentEnd += content.length;
+		return (long) currentIndex << 32 | offset;
+	}
+
+	private ByteBuffer addChunk(int size) {
+		ByteBuffer[] chunks = this.chunks;
+		if (chunkCount == chunks.length) {
+			ByteBuffer[] newChunks = new ByteBuffer[chunkCount * 2];
+			System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+			chunks = newChunks;
+		}
+		ByteBuffer chunk = ByteBuffer.allocateDirect(size);
+		chunks[chunkCount++] = chunk;
+		this.chunks = chunks;
+		capacity += size;
+		return chunk;
+	}
+
+	String getString(long address, int length) {
+		byte[] bytes = new byte[length];
+		final long stamp = freeLock.readLock();
+		try {
+			final ByteBuffer[] chunks = this.chunks;
+			if (chunks == null)
+				throw new IllegalStateException("This arena has been closed.");
+			chunks[(int) (address >>> 32)].get((int) address, bytes);
+		} finally {
+			freeLock.unlockRead(stamp);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A string in this arena has got new content; its old bytes are garbage.
+	 */
+	synchronized void release(int length) {
+		releasedBytes += length;
+	}
+
+	/**
+	 * Frees the memory of this arena. Closing it again has no effect.
+	 */
+	public void close() {
+		final long stamp = freeLock.writeLock();
+		try {
+			ByteBuffer[] chunks;
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				chunks = this.chunks;
+				this.chunks = null;
+				current = null;
+			}
+			for (int i = 0; i < chunks.length && chunks[i] != null; i++) {
+				free(chunks[i]);
+			}
+		} finally {
+			freeLock.unlockWrite(stamp);
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	// sun.misc.Unsafe.invokeCleaner(ByteBuffer), if this JVM has it.
+	private static Object unsafe;
+
+	private static Method invokeCleaner;
+
+	static {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			// the buffers are freed by the garbage collector then.
+			invokeCleaner = null;
+		}
+	}
+
+	private static void free(ByteBuffer buffer) {
+		if (invokeCleaner == null)
+			return;
+		try {
+			invokeCleaner.invoke(unsafe, buffer);
+		} catch (Exception e) {
+			// same as above.
+		}
+	}
+
+	/**
+	 * @return the number of strings that have been added.
+	 */
+	public synchronized int getStringCount() {
+		return stringCount;
+	}
+
+	/**
+	 * @return the number of buffers.
+	 */
+	public synchronized int getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * @return the number of bytes that have been allocated outside of the
+	 *         heap, or 0 if the arena has been closed.
+	 */
+	public synchronized long getCapacity() {
+		return closed ? 0 : capacity;
+	}
+
+	/**
+	 * @return the number of bytes that strings have been stored in, including
+	 *         the released ones.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return the number of bytes of strings that have got new content since.
+	 */
+	public synchronized long getReleasedBytes() {
+		return releasedBytes;
+	}
+
+	public synchronized String toString() {
+		if (closed)
+			return "closed arena";
+		return stringCount + " strings, " + (usedBytes >> 10) + " KB used (" + (releasedBytes >> 10)
+			+ " KB released) of " + (capacity >> 10) + " KB in " + chunkCount + " buffers";
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The names of the entry types and fields of a BibtexFile. Each name is stored
+ * once, and has a small integer id - the names are numbered in the order they
+ * are added, and ids are never reused.
+ *
+ * This replaces String.intern(), which puts the names into the JVM-wide string
+ * table, where they live on after the BibtexFile is gone. The standard bibtex
+ * names are in every table from the start, as the string literals, so that
+ * looking up a field like getFieldValue("author") finds it by identity.
+ *
+ * The table is thread safe, since ParallelBibtexParser fills one BibtexFile
+ * from several threads.
+ *
+ * @see BibtexFile#getSymbolTable()
+ */
+public final class BibtexSymbolTable {
+
+	// the fields and entry types from the bibtex documentation, plus the most
+	// common others.
+	private static final String[] STANDARD_NAMES = { "address", "annote", "author", "booktitle", "chapter",
+		"crossref", "edition", "editor", "howpublished", "institution", "journal", "key", "month", "note",
+		"number", "organization", "pages", "publisher", "school", "series", "title", "type", "volume", "year",
+		"url", "ee", "doi", "isbn", "issn", "abstract", "keywords", "article", "book", "booklet", "conference",
+		"inbook", "incollection", "inproceedings", "manual", "mastersthesis", "misc", "phdthesis",
+		"proceedings", "techreport", "unpublished" };
+
+	BibtexSymbolTable() {
+		for (int i = 0; i < STANDARD_NAMES.length; i++) {
+			add(STANDARD_NAMES[i]);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	// written only while holding the lock, after the array has been filled in.
+	private volatile String[] names = new String[64];
+
+	private int size;
+
+	/**
+	 * @param name
+	 *            is case sensitive - BibtexEntry passes lower case names.
+	 * @return the id of name, which is added to the table if necessary.
+	 */
+	public int getId(String name) {
+		assert name != null : "name parameter may not be null.";
+
+		Integer id = ids.get(name);
+		if (id != null)
+			return id.intValue();
+		return add(name);
+	}
+
+	/**
+	 * @return the id of name, or -1 if name is not in the table.
+	 */
+	public int findId(String name) {
+		assert name != null : "name parameter may not be null.";
+
+		Integer id = ids.get(name);
+		return id == null ? -1 : id.intValue();
+	}
+
+	/**
+	 * @return the name with the given id.
+	 */
+	public String getName(int id) {
+		final String[] names = this.names;
+		assert id >= 0 && id < names.length && names[id] != null : "id parameter is not in this symbol table.";
+
+		return names[id];
+	}
+
+	/**
+	 * @return the copy of name that is kept in the table - use it instead of
+	 *         name to avoid keeping the same string many times.
+	 */
+	public String getSymbol(String name) {
+		return getName(getId(name));
+	}
+
+	/**
+	 * @return the number of names in the table.
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	private synchronized int add(String name) {
+		Integer id = ids.get(name);
+		if (id != null)
+			return id.intValue();
+		String[] names = this.names;
+		if (size == names.length) {
+			String[] newNames = new String[size * 2];
+			System.arraycopy(names, 0, newNames, 0, size);
+			names = newNames;
+		}
+		names[size] = name;
+		this.names = names;
+		ids.put(name, Integer.valueOf(size));
+		return size++;
+	}
+}
@@ -0,0 +1,734 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A full text index over some fields of BibtexEntries - by default title,
+ * abstract and keywords - for finding entries by words, ranked with BM25.
+ *
+ * The text is split into words with tokenize(String), which knows about
+ * LaTeX: braces don't split words, accents are dropped (M\"{u}ller and M&uuml;ller
+ * are both muller), and commands like \emph are skipped. For each word, the
+ * entries that contain it and how often are kept as a posting list: the
+ * differences between the ids of the entries and the counts as varints, in a
+ * byte array. The lists are split into blocks, and for each block the highest
+ * score its entries can have is known, so search(...) can skip the blocks that
+ * can't make it into the top.
+ *
+ * Entries can be added and removed at any time. Removed entries stay in the
+ * posting lists until a quarter of the entries in there have been removed;
+ * then the lists are rewritten without them, and the entries that are left
+ * are numbered again, so an index that is updated over and over doesn't keep
+ * growing. Until then, removed entries still count for how rare a word is.
+ * refresh(BibtexFile) brings the index up to date with a file, using the
+ * fingerprints of the entries to see which ones have changed.
+ *
+ * The index keeps the entries that are in it. This class is not thread safe.
+ */
+public final class BibtexTextIndex {
+
+	public static final String[] DEFAULT_FIELD_NAMES = { "title", "abstract", "keywords" };
+
+	// the usual parameters of BM25.
+	private static final float K1 = 1.2f, B = 0.75f;
+
+	/**
+	 * Equivalent to BibtexTextIndex(DEFAULT_FIELD_NAMES).
+	 */
+	public BibtexTextIndex() {
+		this(DEFAULT_FIELD_NAMES);
+	}
+
+	/**
+	 * @param fieldNames
+	 *            the fields whose text is indexed.
+	 */
+	public BibtexTextIndex(String[] fieldNames) {
+		assert fieldNames != null && fieldNames.length > 0 : "fieldNames parameter may not be empty.";
+
+		this.fieldNames = new String[fieldNames.length];
+		for (int i = 0; i < fieldNames.length; i++) {
+			this.fieldNames[i] = fieldNames[i].toLowerCase();
+		}
+	}
+
+	private final String[] fieldNames;
+
+	// word -> its id.
+	private final HashMap<String, Integer> termIds = new HashMap<String, Integer>();
+
+	// the entries are split into blocks of this many in the posting lists.
+	private static final int BLOCK_SIZE = 128;
+
+	// for each word: its posting list, the length of that and the number of
+	// entries in it, and for each block of the list: the last entry, where the
+	// block starts, and the highest count and the lowest number of words of
+	// its entries, which give the highest score in the block.
+	private byte[][] postings = new byte[256][];
+
+	private int[] postingsLengths = new int[256];
+
+	private int[] documentFrequencies = new int[256];
+
+	private int[][] blocks = new int[256][];
+
+	private int termCount;
+
+	// for each id: the entry, the number of words it has (-1 if it has been
+	// removed) and its fingerprint when it was added. The ids are in the order
+	// the entries were added, and purge() renumbers them.
+	private BibtexEntry[] documents = new BibtexEntry[256];
+
+	private int[] documentLengths = new int[256];
+
+	private long[] fingerprints = new long[256];
+
+	private int documentCount;
+
+	private final IdentityHashMap<BibtexEntry, Integer> documentIds = new IdentityHashMap<BibtexEntry, Integer>();
+
+	private long totalLength;
+
+	// the removed entries that are still in the posting lists.
+	private int removedCount;
+
+	// for search(...): the scores by id, and which ones have been set.
+	private float[] scores = new float[256];
+
+	private int[] scored = new int[256];
+
+	/**
+	 * A search result.
+	 */
+	public static final class Hit {
+
+		Hit(BibtexEntry entry, float score) {
+			this.entry = entry;
+			this.score = score;
+		}
+
+		private final BibtexEntry entry;
+
+		private final float score;
+
+		public BibtexEntry getEntry() {
+			return entry;
+		}
+
+		public float getScore() {
+			return score;
+		}
+
+		public String toString() {
+			return entry.getEntryKey() + " (" + score + ")";
+		}
+	}
+
+	/**
+	 * Adds the entries of bibtexFile that aren't in this index yet.
+	 */
+	public void addAll(BibtexFile bibtexFile) {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+
+		for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry entry = it.next();
+			if (entry instanceof BibtexEntry && !contains((BibtexEntry) entry))
+				add((BibtexEntry) entry);
+		}
+	}
+
+	/**
+	 * Makes this index contain the entries of bibtexFile, with their current
+	 * content: adds the new ones, indexes the ones whose fingerprint has
+	 * changed again, and removes the ones that aren't in the file any more.
+	 */
+	public void refresh(BibtexFile bibtexFile) {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+
+		// no ids are kept while removing, since remove(...) may renumber them.
+		IdentityHashMap<BibtexEntry, BibtexEntry> unchanged = new IdentityHashMap<BibtexEntry, BibtexEntry>();
+		ArrayList<BibtexEntry> added = new ArrayList<BibtexEntry>();
+		for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+			BibtexAbstractEntry abstractEntry = it.next();
+			if (!(abstractEntry instanceof BibtexEntry))
+				continue;
+			BibtexEntry entry = (BibtexEntry) abstractEntry;
+			Integer id = documentIds.get(entry);
+			if (id != null && fingerprints[id.intValue()] == entry.getFingerprint())
+				unchanged.put(entry, entry);
+			else
+				added.add(entry);
+		}
+		ArrayList<BibtexEntry> removed = new ArrayList<BibtexEntry>();
+		for (int id = 0; id < documentCount; id++) {
+			if (documentLengths[id] >= 0 && !unchanged.containsKey(documents[id]))
+				removed.add(documents[id]);
+		}
+		for (int i = 0; i < removed.size(); i++) {
+			remove(removed.get(i));
+		}
+		for (int i = 0; i < added.size(); i++) {
+			// an entry may be in the file twice.
+			if (!contains(added.get(i)))
+				add(added.get(i));
+		}
+	}
+
+	public boolean contains(BibtexEntry entry) {
+		return documentIds.containsKey(entry);
+	}
+
+	public void add(BibtexEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+		assert !contains(entry) : "entry parameter is already in this index.";
+
+		if (documentCount == documents.length) {
+			final int capacity = documentCount * 2;
+			documents = Arrays.copyOf(documents, capacity);
+			documentLengths = Arrays.copyOf(documentLengths, capacity);
+			fingerprints = Arrays.copyOf(fingerprints, capacity);
+		}
+		final int id = documentCount++;
+		// word -> how often it occurs, in the order they come first.
+		HashMap<String, int[]> counts = new HashMap<String, int[]>();
+		ArrayList<String> words = new ArrayList<String>();
+		int length = 0;
+		for (int i = 0; i < fieldNames.length; i++) {
+			BibtexAbstractValue value = entry.getFieldValue(fieldNames[i]);
+			if (value == null)
+				continue;
+			List<String> tokens = tokenize(BibtexQuery.getText(value));
+			length += tokens.size();
+			for (int j = 0; j < tokens.size(); j++) {
+				int[] count = counts.get(tokens.get(j));
+				if (count == null) {
+					counts.put(tokens.get(j), new int[] { 1 });
+					words.add(tokens.get(j));
+				} else {
+					count[0]++;
+				}
+			}
+		}
+		for (int i = 0; i < words.size(); i++) {
+			addPosting(getTermId(words.get(i)), id, counts.get(words.get(i))[0], length);
+		}
+		documents[id] = entry;
+		documentLengths[id] = length;
+		fingerprints[id] = entry.getFingerprint();
+		documentIds.put(entry, Integer.valueOf(id));
+		totalLength += length;
+	}
+
+	private int getTermId(String word) {
+		Integer id = termIds.get(word);
+		if (id != null)
+			return id.intValue();
+		if (termCount == postings.length) {
+			final int capacity = termCount * 2;
+			postings = Arrays.copyOf(postings, capacity);
+			postingsLengths = Arrays.copyOf(postingsLengths, capacity);
+			documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+			blocks = Arrays.copyOf(blocks, capacity);
+		}
+		postings[termCount] = new byte[8];
+		blocks[termCount] = new int[4];
+		termIds.put(word, Integer.valueOf(termCount));
+		return termCount++;
+	}
+
+	private void addPosting(int termId, int documentId, int count, int length) {
+		final int frequency = documentFrequencies[termId];
+		final int block = frequency / BLOCK_SIZE;
+		int[] info = blocks[termId];
+		final int previous = frequency == 0 ? 0 : info[(frequency - 1) / BLOCK_SIZE * 4];
+		if (frequency % BLOCK_SIZE == 0) {
+			if (block * 4 == info.length)
+				blocks[termId] = info = Arrays.copyOf(info, info.length * 2);
+			info[block * 4 + 1] = postingsLengths[termId];
+			info[block * 4 + 2] = 0;
+			info[block * 4 + 3] = Integer.MAX_VALUE;
+		}
+		byte[] bytes = postings[termId];
+		final int position = postingsLengths[termId];
+		// two varints of at most five bytes each.
+		if (position + 10 > bytes.length)
+			postings[termId] = bytes = Arrays.copyOf(bytes, Math.max(position + 10, bytes.length * 2));
+		postingsLengths[termId] = writeVarint(bytes, writeVarint(bytes, position, documentId - previous), count);
+		info[block * 4] = documentId;
+		info[block * 4 + 2] = Math.max(info[block * 4 + 2], count);
+		info[block * 4 + 3] = Math.min(info[block * 4 + 3], length);
+		documentFrequencies[termId]++;
+	}
+
+	private static int writeVarint(byte[] bytes, int position, int value) {
+		while ((value & ~0x7f) != 0) {
+			bytes[position++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+		return position;
+	}
+
+	public void remove(BibtexEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+
+		Integer id = documentIds.remove(entry);
+		assert id != null : "entry parameter is not in this index.";
+
+		if (id == null)
+			return;
+		totalLength -= documentLengths[id.intValue()];
+		documentLengths[id.intValue()] = -1;
+		documents[id.intValue()] = null;
+		if (++removedCount * 4 > documentIds.size() + removedCount)
+			purge();
+	}
+
+	/**
+	 * Equivalent to remove(entry) and add(entry): call this after entry has
+	 * changed.
+	 */
+	public void update(BibtexEntry entry) {
+		remove(entry);
+		add(entry);
+	}
+
+	/**
+	 * Rewrites the posting lists without the removed entries, and numbers the
+	 * entries that are left from 0 in the same order.
+	 */
+	private void purge() {
+		int[] newIds = new int[documentCount];
+		int liveCount = 0;
+		for (int id = 0; id < documentCount; id++) {
+			if (documentLengths[id] < 0) {
+				newIds[id] = -1;
+				continue;
+			}
+			newIds[id] = liveCount;
+			documents[liveCount] = documents[id];
+			documentLengths[liveCount] = documentLengths[id];
+			fingerprints[liveCount] = fingerprints[id];
+			documentIds.put(documents[liveCount], Integer.valueOf(liveCount));
+			liveCount++;
+		}
+		Arrays.fill(documents, liveCount, documentCount, null);
+		documentCount = liveCount;
+		if (documents.length > 256 && documentCount * 4 < documents.length) {
+			final int capacity = Math.max(256, documentCount * 2);
+			documents = Arrays.copyOf(documents, capacity);
+			documentLengths = Arrays.copyOf(documentLengths, capacity);
+			fingerprints = Arrays.copyOf(fingerprints, capacity);
+			scores = new float[capacity];
+			scored = new int[capacity];
+		}
+		Cursor cursor = new Cursor();
+		for (int termId = 0; termId < termCount; termId++) {
+			cursor.start(termId, 0);
+			// the new postings are written over the old ones, which have been
+			// read by then, and never take more bytes: the new ids are in the
+			// same order and not further apart.
+			postingsLengths[termId] = 0;
+			documentFrequencies[termId] = 0;
+			blocks[termId] = new int[4];
+			for (; !cursor.isDone(); cursor.block++) {
+				cursor.decode();
+				for (int i = 0; i < cursor.decodedCount; i++) {
+					final int newId = newIds[cursor.ids[i]];
+					if (newId >= 0)
+						addPosting(termId, newId, cursor.counts[i], documentLengths[newId]);
+				}
+			}
+		}
+		removedCount = 0;
+	}
+
+	/**
+	 * Walks through the blocks of the posting list of a word. It has the
+	 * posting list and its blocks as they were when it started.
+	 */
+	private final class Cursor {
+
+		private byte[] bytes;
+
+		private int[] info;
+
+		private int frequency;
+
+		float idf;
+
+		int block, blockCount;
+
+		// the ids and counts of the entries of the block that has been
+		// decoded last.
+		final int[] ids = new int[BLOCK_SIZE], counts = new int[BLOCK_SIZE];
+
+		int decodedCount;
+
+		// the first of those that hasn't been passed by hasEntries(...).
+		int next;
+
+		private int decodedBlock;
+
+		void start(int termId, float idf) {
+			this.bytes = postings[termId];
+			this.info = blocks[termId];
+			this.frequency = documentFrequencies[termId];
+			this.idf = idf;
+			block = 0;
+			blockCount = (frequency + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			decodedBlock = -1;
+		}
+
+		boolean isDone() {
+			return block == blockCount;
+		}
+
+		/**
+		 * @return the lowest id the block can have.
+		 */
+		int getFirst() {
+			return block == 0 ? 0 : info[(block - 1) * 4] + 1;
+		}
+
+		int getLast() {
+			return info[block * 4];
+		}
+
+		/**
+		 * @return the highest score an entry in the block can have.
+		 */
+		float getUpperBound(float averageLength) {
+			return score(idf, info[block * 4 + 2], info[block * 4 + 3], averageLength);
+		}
+
+		void decode() {
+			if (decodedBlock == block)
+				return;
+			int position = info[block * 4 + 1];
+			int documentId = block == 0 ? 0 : info[(block - 1) * 4];
+			decodedCount = Math.min(BLOCK_SIZE, frequency - block * BLOCK_SIZE);
+			for (int i = 0; i < decodedCount; i++) {
+				int delta = 0, count = 0;
+				for (int shift = 0;; shift += 7) {
+					final byte b = bytes[position++];
+					delta |= (b & 0x7f) << shift;
+					if (b >= 0)
+						break;
+				}
+				for (int shift = 0;; shift += 7) {
+					final byte b = bytes[position++];
+					count |= (b & 0x7f) << shift;
+					if (b >= 0)
+						break;
+				}
+				documentId += delta;
+				ids[i] = documentId;
+				counts[i] = count;
+			}
+			decodedBlock = block;
+			next = 0;
+		}
+
+		/**
+		 * @return whether the block has entries from start to end. start may
+		 *         not go down between calls for the same block.
+		 */
+		boolean hasEntries(int start, int end) {
+			decode();
+			while (next < decodedCount && ids[next] < start) {
+				next++;
+			}
+			return next < decodedCount && ids[next] <= end;
+		}
+	}
+
+	// the BM25 score of a word that occurs count times in an entry with
+	// length words. It is higher for higher counts and lower lengths, also
+	// when it's rounded, so the score of a block is an upper bound.
+	private static float score(float idf, int count, int length, float averageLength) {
+		return idf * count * (K1 + 1) / (count + K1 * (1 - B + B * length / averageLength));
+	}
+
+	/**
+	 * Goes through the entries that have the words of query in the order they
+	 * were added, in windows from one block end to the next. A window is
+	 * skipped if the sum of the highest scores of the blocks in it isn't
+	 * higher than the lowest score in the top k, so common words don't make
+	 * the search look at all their entries.
+	 *
+	 * @return the entries with the highest BM25 scores for the words of query,
+	 *         at most k of them, the best first.
+	 */
+	public List<Hit> search(String query, int k) {
+		assert query != null : "query parameter may not be null.";
+		assert k > 0 : "k parameter must be positive.";
+
+		if (scores.length < documentCount) {
+			scores = new float[documents.length];
+			scored = new int[documents.length];
+		}
+		final int liveCount = documentIds.size();
+		final float averageLength = liveCount == 0 ? 1 : Math.max(1, (float) totalLength / liveCount);
+		// the entries in the posting lists, like the document frequencies.
+		final int postedCount = liveCount + removedCount;
+		ArrayList<Cursor> cursorList = new ArrayList<Cursor>();
+		List<String> words = tokenize(query);
+		for (int i = 0; i < words.size(); i++) {
+			Integer termId = termIds.get(words.get(i));
+			if (termId == null || words.indexOf(words.get(i)) < i)
+				continue;
+			final int frequency = documentFrequencies[termId.intValue()];
+			Cursor cursor = new Cursor();
+			cursor.start(termId.intValue(), (float) Math.log(1 + (postedCount - frequency + 0.5) / (frequency + 0.5)));
+			cursorList.add(cursor);
+		}
+		Cursor[] cursors = cursorList.toArray(new Cursor[cursorList.size()]);
+		TopHits top = new TopHits(k);
+		int start = 0;
+		while (true) {
+			int end = -1;
+			for (int i = 0; i < cursors.length; i++) {
+				if (!cursors[i].isDone() && (end < 0 || cursors[i].getLast() < end))
+					end = cursors[i].getLast();
+			}
+			if (end < 0)
+				break;
+			// the blocks of rare words are long, so they are only counted
+			// if they have entries in the window. The scores are added up in
+			// the same order as the upper bounds, so they can't be higher
+			// because of rounding.
+			float upperBound = 0;
+			for (int i = 0; i < cursors.length; i++) {
+				Cursor cursor = cursors[i];
+				if (cursor.isDone() || cursor.getFirst() > end)
+					continue;
+				if (cursor.getLast() > end && !cursor.hasEntries(start, end))
+					continue;
+				upperBound += cursor.getUpperBound(averageLength);
+			}
+			// entries with the same score as the worst in the top come after
+			// it, so they don't get in.
+			if (top.size < k || upperBound > top.scores[0]) {
+				int scoredCount = 0;
+				for (int i = 0; i < cursors.length; i++) {
+					Cursor cursor = cursors[i];
+					if (cursor.isDone() || cursor.getFirst() > end || !cursor.hasEntries(start, end))
+						continue;
+					for (int j = cursor.next; j < cursor.decodedCount; j++) {
+						final int documentId = cursor.ids[j];
+						if (documentId > end)
+							break;
+						final int length = documentLengths[documentId];
+						if (length < 0)
+							continue;
+						if (scores[documentId] == 0)
+							scored[scoredCount++] = documentId;
+						scores[documentId] += score(cursor.idf, cursor.counts[j], length, averageLength);
+					}
+				}
+				for (int i = 0; i < scoredCount; i++) {
+					top.offer(scored[i], scores[scored[i]]);
+					scores[scored[i]] = 0;
+				}
+			}
+			for (int i = 0; i < cursors.length; i++) {
+				if (!cursors[i].isDone() && cursors[i].getLast() == end)
+					cursors[i].block++;
+			}
+			start = end + 1;
+		}
+		Hit[] hits = new Hit[top.size];
+		while (top.size > 0) {
+			hits[top.size - 1] = new Hit(documents[top.ids[0]], top.scores[0]);
+			top.removeWorst();
+		}
+		return Arrays.asList(hits);
+	}
+
+	/**
+	 * The best k entries so far, in a heap with the worst on top.
+	 */
+	private static final class TopHits {
+
+		TopHits(int k) {
+			ids = new int[k];
+			scores = new float[k];
+		}
+
+		final int[] ids;
+
+		final float[] scores;
+
+		int size;
+
+		void offer(int documentId, float score) {
+			if (size < ids.length) {
+				int index = size++;
+				while (index > 0) {
+					final int parent = (index - 1) >>> 1;
+					if (!isBetter(ids[parent], scores[parent], documentId, score))
+						break;
+					ids[index] = ids[parent];
+					scores[index] = scores[parent];
+					index = parent;
+				}
+				ids[index] = documentId;
+				scores[index] = score;
+			} else if (isBetter(documentId, score, ids[0], scores[0])) {
+				siftDown(documentId, score);
+			}
+		}
+
+		void removeWorst() {
+			size--;
+			if (size > 0)
+				siftDown(ids[size], scores[size]);
+		}
+
+		private void siftDown(int documentId, float score) {
+			int index = 0;
+			while (true) {
+				int child = 2 * index + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && isBetter(ids[child], scores[child], ids[child + 1], scores[child + 1]))
+					child++;
+				if (!isBetter(documentId, score, ids[child], scores[child]))
+					break;
+				ids[index] = ids[child];
+				scores[index] = scores[child];
+				index = child;
+			}
+			ids[index] = documentId;
+			scores[index] = score;
+		}
+
+		// higher scores first, then the ones that were added first.
+		private static boolean isBetter(int documentId, float score, int otherId, float otherScore) {
+			return score > otherScore || score == otherScore && documentId < otherId;
+		}
+	}
+
+	/**
+	 * @return the number of entries in this index.
+	 */
+	public int size() {
+		return documentIds.size();
+	}
+
+	/**
+	 * @return the number of different words.
+	 */
+	public int getTermCount() {
+		return termCount;
+	}
+
+	/**
+	 * @return the number of bytes in the posting lists.
+	 */
+	public long getPostingsSize() {
+		long size = 0;
+		for (int termId = 0; termId < termCount; termId++) {
+			size += postingsLengths[termId];
+		}
+		return size;
+	}
+
+	// commands that stand for letters, e.g. Stra\ss e.
+	private static final HashMap<String, String> LETTER_COMMANDS = new HashMap<String, String>();
+
+	// commands that put an accent on the letter after them, e.g. \v{s}.
+	private static final String ACCENT_COMMANDS = " c v u H d b r k t ";
+
+	// and the ones that aren't letters, e.g. \"{o}.
+	private static final String ACCENT_SYMBOLS = "\"'`^~=.";
+
+	static {
+		String[] letters = { "ss", "ss", "o", "o", "O", "o", "ae", "ae", "AE", "ae", "oe", "oe", "OE", "oe", "aa",
+			"a", "AA", "a", "l", "l", "L", "l", "i", "i", "j", "j" };
+		for (int i = 0; i < letters.length; i += 2) {
+			LETTER_COMMANDS.put(letters[i], letters[i + 1]);
+		}
+	}
+
+	/**
+	 * Splits text into lower case words of letters and digits, without
+	 * accents. Braces don't split words, LaTeX commands for letters and
+	 * accents become part of the word, and other commands split words and
+	 * are dropped themselves.
+	 */
+	public static List<String> tokenize(String text) {
+		assert text != null : "text parameter may not be null.";
+
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringBuffer token = new StringBuffer();
+		final int length = text.length();
+		int i = 0;
+		while (i < length) {
+			final char c = text.charAt(i++);
+			if (c == '{' || c == '}')
+				continue;
+			if (c != '\\') {
+				if (Character.isLetterOrDigit(c))
+					token.append(c);
+				else
+					addToken(token, tokens);
+				continue;
+			}
+			if (i == length)
+				break;
+			final char next = text.charAt(i);
+			if (!Character.isLetter(next)) {
+				i++;
+				if (ACCENT_SYMBOLS.indexOf(next) < 0)
+					addToken(token, tokens);
+				continue;
+			}
+			final int start = i;
+			while (i < length && Character.isLetter(text.charAt(i))) {
+				i++;
+			}
+			final String command = text.substring(start, i);
+			final String letters = LETTER_COMMANDS.get(command);
+			if (letters == null && ACCENT_COMMANDS.indexOf(' ' + command + ' ') < 0) {
+				addToken(token, tokens);
+				continue;
+			}
+			// like LaTeX, skip the spaces after the command.
+			while (i < length && text.charAt(i) == ' ') {
+				i++;
+			}
+			if (letters != null)
+				token.append(letters);
+		}
+		addToken(token, tokens);
+		return tokens;
+	}
+
+	private static void addToken(StringBuffer token, List<String> tokens) {
+		if (token.length() == 0)
+			return;
+		String word = token.toString().toLowerCase();
+		token.setLength(0);
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) >= 0x80) {
+				// e.g. u-umlaut is u and a combining diaeresis.
+				word = Normalizer.normalize(word, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+				break;
+			}
+		}
+		if (word.length() > 0)
+			tokens.add(word);
+	}
+}
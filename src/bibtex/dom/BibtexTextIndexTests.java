@@ -0,0 +1,235 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import bibtex.parser.BibtexParser;
+
+/**
+ * Checks the words tokenize(...) finds, that search(...) finds and ranks the
+ * entries, also with a small k, that remove(...), update(...) and
+ * refresh(...) keep it up to date, and that an index that has purged the
+ * removed entries gives the same scores as a new one for the same entries.
+ * Run main(...); it prints the tests that fail, and exits with 1 if there are
+ * any.
+ */
+class BibtexTextIndexTests {
+
+	// more than a few blocks of the posting lists.
+	private static final int ENTRY_COUNT = 600;
+
+	private static int count, failed;
+
+	private static void check(boolean condition, String description) {
+		count++;
+		if (!condition) {
+			failed++;
+			System.err.println("test failed: " + description);
+		}
+	}
+
+	private static String makeBibtex(int entryCount) {
+		StringBuffer text = new StringBuffer();
+		for (int i = 0; i < entryCount; i++) {
+			text.append("@article{Key").append(i).append(",\n");
+			text.append("\ttitle = {Common Words and Unique").append(i).append(" in group").append(i % 10);
+			if (i % 3 == 0)
+				text.append(" with a much longer title that has process mining in it");
+			text.append("},\n");
+			if (i % 4 == 0)
+				text.append("\tkeywords = {mining, mining, ").append(i % 20 == 0 ? "rare" : "data").append("},\n");
+			text.append("\tyear = 2010\n}\n\n");
+		}
+		return text.toString();
+	}
+
+	private static BibtexFile parse(String text) throws Exception {
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(true).parse(bibtexFile, new StringReader(text));
+		return bibtexFile;
+	}
+
+	private static List<String> getKeys(List<BibtexTextIndex.Hit> hits) {
+		List<String> keys = new ArrayList<String>();
+		for (Iterator<BibtexTextIndex.Hit> it = hits.iterator(); it.hasNext();) {
+			keys.add(it.next().getEntry().getEntryKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * @return whether index and newIndex give the same scores for the entries
+	 *         that have the words of query.
+	 */
+	private static boolean haveSameScores(BibtexTextIndex index, BibtexTextIndex newIndex, String query) {
+		HashMap<String, Float> expected = new HashMap<String, Float>();
+		for (Iterator<BibtexTextIndex.Hit> it = newIndex.search(query, ENTRY_COUNT).iterator(); it.hasNext();) {
+			BibtexTextIndex.Hit hit = it.next();
+			expected.put(hit.getEntry().getEntryKey(), Float.valueOf(hit.getScore()));
+		}
+		List<BibtexTextIndex.Hit> hits = index.search(query, ENTRY_COUNT);
+		if (hits.size() != expected.size())
+			return false;
+		for (Iterator<BibtexTextIndex.Hit> it = hits.iterator(); it.hasNext();) {
+			BibtexTextIndex.Hit hit = it.next();
+			Float score = expected.get(hit.getEntry().getEntryKey());
+			if (score == null || score.floatValue() != hit.getScore())
+				return false;
+		}
+		return true;
+	}
+
+	private static void testTokenize() {
+		check(BibtexTextIndex.tokenize("Process-Mining: {T}he 2nd  book").equals(
+			Arrays.asList("process", "mining", "the", "2nd", "book")), "tokenize: words, braces and case");
+		check(BibtexTextIndex.tokenize("M\\\"{u}ller M\\\"uller M\u00fcller").equals(
+			Arrays.asList("muller", "muller", "muller")), "tokenize: accents are dropped");
+		check(BibtexTextIndex.tokenize("Stra\\ss e \\v{S}koda \\O{}rsted").equals(
+			Arrays.asList("strasse", "skoda", "orsted")), "tokenize: letter and accent commands");
+		check(BibtexTextIndex.tokenize("\\emph{Process} Mining\\footnote{note}").equals(
+			Arrays.asList("process", "mining", "note")), "tokenize: other commands are dropped");
+		check(BibtexTextIndex.tokenize(" {} \\ ").isEmpty(), "tokenize: no words");
+	}
+
+	private static void testSearch() throws Exception {
+		BibtexFile bibtexFile = parse(makeBibtex(ENTRY_COUNT));
+		BibtexTextIndex index = new BibtexTextIndex();
+		index.addAll(bibtexFile);
+		check(index.size() == ENTRY_COUNT, "search: size()");
+		index.addAll(bibtexFile);
+		check(index.size() == ENTRY_COUNT, "search: addAll(...) skips the entries that are in the index");
+
+		check(getKeys(index.search("unique42", 10)).equals(Arrays.asList("Key42")), "search: a word of one entry");
+		check(getKeys(index.search("UNIQUE42 nowhere", 10)).equals(Arrays.asList("Key42")),
+			"search: words that aren't in the index");
+		check(index.search("nowhere", 10).isEmpty(), "search: no entries");
+		check(index.search("rare", ENTRY_COUNT).size() == ENTRY_COUNT / 20, "search: keywords are indexed");
+		check(index.search("2010", 10).isEmpty(), "search: other fields are not indexed");
+
+		List<BibtexTextIndex.Hit> hits = index.search("unique7 common", 3);
+		check(hits.size() == 3 && hits.get(0).getEntry().getEntryKey().equals("Key7")
+			&& hits.get(0).getScore() > hits.get(1).getScore(), "search: the rare word counts most");
+
+		// the blocks that can't make it into the top are skipped, which must
+		// not change the top.
+		String[] queries = { "common", "mining", "process mining", "group3 mining", "rare data common", "unique9 group9" };
+		for (int i = 0; i < queries.length; i++) {
+			List<BibtexTextIndex.Hit> all = index.search(queries[i], ENTRY_COUNT);
+			for (int k = 1; k <= 64; k *= 4) {
+				check(getKeys(index.search(queries[i], k)).equals(getKeys(all.subList(0, Math.min(k, all.size())))),
+					"search: top " + k + " for " + queries[i]);
+			}
+			for (int j = 1; j < all.size(); j++) {
+				if (all.get(j).getScore() > all.get(j - 1).getScore()) {
+					check(false, "search: the best first for " + queries[i]);
+					break;
+				}
+			}
+		}
+
+		BibtexFile ranked = parse("@misc{Twice, title = {alpha alpha beta}}\n"
+			+ "@misc{Once, title = {alpha beta gamma}}\n@misc{None, title = {beta gamma delta}}\n");
+		BibtexTextIndex rankedIndex = new BibtexTextIndex();
+		rankedIndex.addAll(ranked);
+		check(getKeys(rankedIndex.search("alpha", 10)).equals(Arrays.asList("Twice", "Once")),
+			"search: more often ranks higher");
+	}
+
+	private static void testChanges() throws Exception {
+		BibtexFile bibtexFile = parse(makeBibtex(ENTRY_COUNT));
+		BibtexTextIndex index = new BibtexTextIndex();
+		index.addAll(bibtexFile);
+
+		BibtexEntry removed = bibtexFile.getEntryByKey("Key42");
+		index.remove(removed);
+		check(!index.contains(removed) && index.size() == ENTRY_COUNT - 1, "changes: remove(...)");
+		check(index.search("unique42", 10).isEmpty(), "changes: removed entry is not found");
+
+		BibtexEntry changed = bibtexFile.getEntryByKey("Key43");
+		changed.setField("title", bibtexFile.makeString("Renamed entry"));
+		index.update(changed);
+		check(getKeys(index.search("renamed", 10)).equals(Arrays.asList("Key43")), "changes: update(...) adds the new words");
+		check(index.search("unique43", 10).isEmpty(), "changes: update(...) drops the old words");
+
+		index.add(removed);
+		check(getKeys(index.search("unique42", 10)).equals(Arrays.asList("Key42")), "changes: add(...) after remove(...)");
+	}
+
+	private static void testRefresh() throws Exception {
+		BibtexFile bibtexFile = parse(makeBibtex(ENTRY_COUNT));
+		BibtexTextIndex index = new BibtexTextIndex();
+		index.refresh(bibtexFile);
+		check(index.size() == ENTRY_COUNT, "refresh: adds the entries");
+
+		// changes the string in place, so only the fingerprint shows it.
+		((BibtexString) bibtexFile.getEntryByKey("Key10").getFieldValue("title")).setContent("Changed in place");
+		BibtexEntry removed = bibtexFile.getEntryByKey("Key11");
+		bibtexFile.removeEntry(removed);
+		BibtexEntry added = bibtexFile.makeEntry("misc", "Added");
+		added.setField("title", bibtexFile.makeString("A new entry"));
+		bibtexFile.addEntry(added);
+		index.refresh(bibtexFile);
+
+		check(getKeys(index.search("place", 10)).equals(Arrays.asList("Key10")), "refresh: changed content is indexed");
+		check(index.search("unique10", 10).isEmpty(), "refresh: old content is dropped");
+		check(!index.contains(removed) && index.search("unique11", 10).isEmpty(), "refresh: removed entry is dropped");
+		check(getKeys(index.search("new", 10)).equals(Arrays.asList("Added")), "refresh: added entry is indexed");
+		check(index.size() == ENTRY_COUNT, "refresh: size()");
+		check(getKeys(index.search("unique12", 10)).equals(Arrays.asList("Key12")), "refresh: unchanged entry stays");
+	}
+
+	private static void testPurge() throws Exception {
+		BibtexFile bibtexFile = parse(makeBibtex(ENTRY_COUNT));
+		BibtexTextIndex index = new BibtexTextIndex();
+		index.addAll(bibtexFile);
+		final long postingsSize = index.getPostingsSize();
+
+		// the index purges when more than a quarter of its entries have been
+		// removed, so after this many there are no removed entries left.
+		final int removedCount = ENTRY_COUNT / 4 + 1;
+		List<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>(bibtexFile.getEntries());
+		for (int i = 0; i < removedCount; i++) {
+			index.remove((BibtexEntry) entries.get(3 * i + 1));
+			bibtexFile.removeEntry(entries.get(3 * i + 1));
+		}
+		BibtexTextIndex newIndex = new BibtexTextIndex();
+		newIndex.addAll(bibtexFile);
+		check(index.size() == ENTRY_COUNT - removedCount, "purge: size()");
+		check(index.getPostingsSize() < postingsSize && index.getPostingsSize() == newIndex.getPostingsSize(),
+			"purge: removed entries are dropped from the postings");
+		String[] queries = { "common", "mining rare", "process mining group4", "unique3 unique4 unique5" };
+		for (int i = 0; i < queries.length; i++) {
+			check(haveSameScores(index, newIndex, queries[i]), "purge: scores for " + queries[i]);
+		}
+		check(getKeys(index.search("unique300", 10)).equals(Arrays.asList("Key300")), "purge: entry that is left");
+		check(index.search("unique301", 10).isEmpty(), "purge: removed entry");
+
+		// entries can be changed and added after the purge.
+		BibtexEntry changed = bibtexFile.getEntryByKey("Key302");
+		changed.setField("keywords", bibtexFile.makeString("rare rare"));
+		index.update(changed);
+		index.add((BibtexEntry) entries.get(1));
+		check(getKeys(index.search("unique1", 10)).equals(Arrays.asList("Key1")), "purge: add(...) after the purge");
+		check(getKeys(index.search("rare", 1)).equals(Arrays.asList("Key302")), "purge: update(...) after the purge");
+		check(index.size() == ENTRY_COUNT - removedCount + 1, "purge: size() after the purge");
+	}
+
+	public static void main(String[] args) throws Exception {
+		testTokenize();
+		testSearch();
+		testChanges();
+		testRefresh();
+		testPurge();
+		System.out.println(count + " tests, " + failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out the same BibtexString and BibtexMacroReference nodes for the same
+ * content, so that values that occur over and over again in a bibliography
+ * (publishers, venues, years, month macros ...) are only stored once. Pooled
+ * nodes are shared between entries, so they can't be changed - setContent and
+ * setKey throw an UnsupportedOperationException. Make a new value with the
+ * factory instead.
+ *
+ * Strings longer than MAX_POOLED_LENGTH characters are not pooled; they are
+ * hardly ever repeated (titles, abstracts) and would only fill up the pool.
+ *
+ * The pool is thread safe.
+ *
+ * @see BibtexFile#BibtexFile(boolean)
+ */
+public final class BibtexValuePool {
+
+	/**
+	 * strings with more characters than this are not pooled.
+	 */
+	public static final int MAX_POOLED_LENGTH = 100;
+
+	BibtexValuePool(BibtexFile factory) {
+		this.factory = factory;
+	}
+
+	private final BibtexFile factory;
+
+	private final ConcurrentHashMap<String, BibtexString> strings = new ConcurrentHashMap<String, BibtexString>();
+
+	private final ConcurrentHashMap<String, BibtexMacroReference> macroReferences =
+		new ConcurrentHashMap<String, BibtexMacroReference>();
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	BibtexString getString(String content) {
+		if (content.length() > MAX_POOLED_LENGTH)
+			return new BibtexString(factory, content);
+		BibtexString string = strings.get(content);
+		if (string == null) {
+			BibtexString newString = new BibtexString(factory, content);
+			newString.setShared();
+			string = strings.putIfAbsent(content, newString);
+			if (string == null) {
+				misses.increment();
+				return newString;
+			}
+		}
+		hits.increment();
+		return string;
+	}
+
+	BibtexMacroReference getMacroReference(String key) {
+		final String lowerCaseKey = key.toLowerCase();
+		BibtexMacroReference reference = macroReferences.get(lowerCaseKey);
+		if (reference == null) {
+			BibtexMacroReference newReference = new BibtexMacroReference(factory, lowerCaseKey);
+			newReference.setShared();
+			reference = macroReferences.putIfAbsent(lowerCaseKey, newReference);
+			if (reference == null) {
+				misses.increment();
+				return newReference;
+			}
+		}
+		hits.increment();
+		return reference;
+	}
+
+	/**
+	 * @return the number of nodes in the pool.
+	 */
+	public int size() {
+		return strings.size() + macroReferences.size();
+	}
+
+	/**
+	 * @return how often a node was found in the pool. Strings that are too
+	 *         long to be pooled don't count as hits or misses.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return how often a new node had to be made and put into the pool.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return hits / (hits + misses), or 0 if the pool hasn't been used yet.
+	 */
+	public double getHitRate() {
+		final long hits = getHits(), requests = hits + getMisses();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	public String toString() {
+		return size() + " pooled values, " + getHits() + " hits, " + getMisses() + " misses ("
+			+ Math.round(getHitRate() * 100) + "% hit rate)";
+	}
+}
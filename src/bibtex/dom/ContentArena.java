@@ -0,0 +1,139 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An append-only store for strings, in UTF-8, so that ASCII text takes one
+ * byte per character. The bytes are kept in pages of a fixed size, so the
+ * arena never has to copy what it already holds when it grows. A string is
+ * addressed by the position of its first byte and its length in bytes; it may
+ * span several pages.
+ */
+final class ContentArena {
+
+	private static final int PAGE_BITS = 16;
+
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private byte[][] pages = new byte[16][];
+
+	private int size;
+
+	// for strings that span pages, and for non-ASCII strings
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * @return the position of the first byte of content. Its length is size()
+	 *         minus that.
+	 */
+	int append(String content) {
+		final int start = size;
+		final int length = content.length();
+		int i = 0;
+		while (i < length) {
+			final char c = content.charAt(i);
+			if (c >= 0x80)
+				break;
+			ensurePage(size);
+			final byte[] page = pages[size >>> PAGE_BITS];
+			// copy as much as fits into this page.
+			int offset = size & PAGE_MASK;
+			final int end = Math.min(length, i + PAGE_SIZE - offset);
+			while (i < end) {
+				final char d = content.charAt(i);
+				if (d >= 0x80)
+					break;
+				page[offset++] = (byte) d;
+				i++;
+			}
+			size += offset - (size & PAGE_MASK);
+		}
+		if (i < length) {
+			final byte[] bytes = content.substring(i).getBytes(StandardCharsets.UTF_8);
+			append(bytes, 0, bytes.length);
+		}
+		if (size < start)
+			throw new IllegalStateException("The arena can't hold more than 2GB.");
+		return start;
+	}
+
+	private void append(byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			ensurePage(size);
+			final int pageOffset = size & PAGE_MASK;
+			final int chunk = Math.min(length, PAGE_SIZE - pageOffset);
+			System.arraycopy(bytes, offset, pages[size >>> PAGE_BITS], pageOffset, chunk);
+			size += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	private void ensurePage(int position) {
+		final int page = position >>> PAGE_BITS;
+		if (page == pages.length) {
+			byte[][] newPages = new byte[pages.length * 2][];
+			System.arraycopy(pages, 0, newPages, 0, pages.length);
+			pages = newPages;
+		}
+		if (pages[page] == null)
+			pages[page] = new byte[PAGE_SIZE];
+	}
+
+	String getString(int start, int length) {
+		if (length == 0)
+			return "";
+		final int pageOffset = start & PAGE_MASK;
+		final byte[] page = pages[start >>> PAGE_BITS];
+		if (pageOffset + length <= PAGE_SIZE) {
+			if (isAscii(page, pageOffset, length))
+				return new String(page, pageOffset, length, StandardCharsets.ISO_8859_1);
+			return new String(page, pageOffset, length, StandardCharsets.UTF_8);
+		}
+		synchronized (this) {
+			if (scratch.length < length)
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			int position = start, copied = 0;
+			while (copied < length) {
+				final int offset = position & PAGE_MASK;
+				final int chunk = Math.min(length - copied, PAGE_SIZE - offset);
+				System.arraycopy(pages[position >>> PAGE_BITS], offset, scratch, copied, chunk);
+				copied += chunk;
+				position += chunk;
+			}
+			return new String(scratch, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static boolean isAscii(byte[] bytes, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (bytes[i] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of bytes that have been appended.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes that have been allocated.
+	 */
+	long getCapacity() {
+		long capacity = 0;
+		for (int i = 0; i < pages.length && pages[i] != null; i++) {
+			capacity += pages[i].length;
+		}
+		return capacity;
+	}
+}
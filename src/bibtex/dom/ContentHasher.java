@@ -0,0 +1,131 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Computes a 64 bit hash of text, or of what a node prints, without keeping
+ * the text: the characters are taken four at a time into a 64 bit word, which
+ * is mixed into the hash with a multiplication and a rotation, and the result
+ * is finalized like in MurmurHash3. Not cryptographic, but fast and good
+ * enough to tell contents apart.
+ *
+ * If whitespace is normalized, leading and trailing whitespace is dropped and
+ * any other run of whitespace counts as a single space.
+ */
+final class ContentHasher extends Writer {
+
+	ContentHasher(boolean normalizeWhitespace) {
+		this.normalizeWhitespace = normalizeWhitespace;
+	}
+
+	private final boolean normalizeWhitespace;
+
+	private final PrintWriter printWriter = new PrintWriter(this);
+
+	private long hash;
+
+	// the characters that haven't been mixed in yet, and how many there are.
+	private long word;
+
+	private int wordLength;
+
+	private long length;
+
+	// whether whitespace has been skipped since the last character.
+	private boolean pendingSpace;
+
+	long hash(String text) {
+		reset();
+		write(text, 0, text.length());
+		return getHash();
+	}
+
+	long hash(BibtexNode node) {
+		reset();
+		node.printBibtex(printWriter);
+		printWriter.flush();
+		return getHash();
+	}
+
+	private void reset() {
+		hash = 0x9e3779b97f4a7c15L;
+		word = 0;
+		wordLength = 0;
+		length = 0;
+		pendingSpace = false;
+	}
+
+	private long getHash() {
+		long result = hash;
+		if (wordLength > 0)
+			result = mixWord(result, word);
+		return mix(result ^ length);
+	}
+
+	private void add(char c) {
+		if (normalizeWhitespace) {
+			if (Character.isWhitespace(c)) {
+				pendingSpace = length > 0;
+				return;
+			}
+			if (pendingSpace) {
+				pendingSpace = false;
+				addChar(' ');
+			}
+		}
+		addChar(c);
+	}
+
+	private void addChar(char c) {
+		word |= (long) c << (wordLength << 4);
+		length++;
+		if (++wordLength == 4) {
+			hash = mixWord(hash, word);
+			word = 0;
+			wordLength = 0;
+		}
+	}
+
+	private static long mixWord(long hash, long word) {
+		return Long.rotateLeft(hash ^ word * 0x9e3779b97f4a7c15L, 31) * 0xbf58476d1ce4e5b9L;
+	}
+
+	/**
+	 * The finalizer of MurmurHash3: every bit of hash affects every bit of the
+	 * result.
+	 */
+	static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ hash >>> 33;
+	}
+
+	public void write(int c) {
+		add((char) c);
+	}
+
+	public void write(char[] buffer, int offset, int count) {
+		for (int i = offset; i < offset + count; i++) {
+			add(buffer[i]);
+		}
+	}
+
+	public void write(String text, int offset, int count) {
+		for (int i = offset; i < offset + count; i++) {
+			add(text.charAt(i));
+		}
+	}
+
+	public void flush() {
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The fields of a BibtexEntry: a map that keeps its keys in insertion order,
+ * in arrays instead of a hash table. Entries rarely have more than 20
+ * fields, so a linear search is about as fast as hashing the name, and since
+ * field names come from the symbol table (and the standard ones are string
+ * literals), comparing them by identity finds most of them before equals(...)
+ * has to be called.
+ */
+final class FieldMap extends AbstractMap<String, Object> {
+
+	private String[] keys;
+
+	private Object[] values;
+
+	// the hash codes of the keys, so that a search doesn't have to touch the
+	// key strings.
+	private int[] hashes;
+
+	private int size;
+
+	// for failing fast in iterators
+	private int modCount;
+
+	private Set<Map.Entry<String, Object>> entrySet;
+
+	FieldMap() {
+		keys = new String[8];
+		values = new Object[8];
+		hashes = new int[8];
+	}
+
+	private int indexOf(Object key) {
+		if (!(key instanceof String))
+			return -1;
+		final int hash = key.hashCode();
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == key || hashes[i] == hash && keys[i].equals(key))
+				return i;
+		}
+		return -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	public Object get(Object key) {
+		final int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	/**
+	 * Replaces the value of key, or adds key at the end.
+	 */
+	public Object put(String key, Object value) {
+		final int index = indexOf(key);
+		if (index >= 0) {
+			final Object old = values[index];
+			values[index] = value;
+			return old;
+		}
+		if (size == keys.length) {
+			String[] newKeys = new String[size * 2];
+			Object[] newValues = new Object[size * 2];
+			int[] newHashes = new int[size * 2];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			System.arraycopy(hashes, 0, newHashes, 0, size);
+			keys = newKeys;
+			values = newValues;
+			hashes = newHashes;
+		}
+		keys[size] = key;
+		values[size] = value;
+		hashes[size] = key.hashCode();
+		size++;
+		modCount++;
+		return null;
+	}
+
+	public Object remove(Object key) {
+		final int index = indexOf(key);
+		if (index < 0)
+			return null;
+		final Object old = values[index];
+		removeAt(index);
+		return old;
+	}
+
+	private void removeAt(int index) {
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		System.arraycopy(hashes, index + 1, hashes, index, size - index - 1);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		modCount++;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+		modCount++;
+	}
+
+	public Set<Map.Entry<String, Object>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new EntryIterator();
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+		private int next;
+
+		private int last = -1;
+
+		private int expectedModCount = modCount;
+
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		public Map.Entry<String, Object> next() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if (next >= size)
+				throw new NoSuchElementException();
+			last = next++;
+			return new Field(last);
+		}
+
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	private final class Field implements Map.Entry<String, Object> {
+
+		Field(int index) {
+			this.index = index;
+			this.key = keys[index];
+		}
+
+		private final int index;
+
+		private final String key;
+
+		public String getKey() {
+			return key;
+		}
+
+		public Object getValue() {
+			return keys[index] == key ? values[index] : get(key);
+		}
+
+		public Object setValue(Object value) {
+			if (keys[index] == key) {
+				final Object old = values[index];
+				values[index] = value;
+				return old;
+			}
+			return put(key, value);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			return key.equals(other.getKey())
+				&& (getValue() == null ? other.getValue() == null : getValue().equals(other.getValue()));
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+		}
+
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+}
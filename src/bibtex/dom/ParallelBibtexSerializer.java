@@ -0,0 +1,226 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Writes a BibtexFile like BibtexSerializer does, but renders the entries on
+ * several cores. The entries are split into batches, each batch is rendered
+ * into a byte array on the pool (with a buffer for each entry), and the
+ * buffers are written to the channel in the order of the file, with gathering
+ * writes if the channel supports them. The output is the same as with
+ * BibtexSerializer.write(BibtexFile).
+ *
+ * At most getWindowSize() batches are rendered or waiting to be written at a
+ * time, which bounds the memory that is needed; a batch that is done before
+ * the ones in front of it waits for them.
+ *
+ * The entries must not be changed while they are written.
+ *
+ * @see BibtexSerializer
+ */
+public final class ParallelBibtexSerializer {
+
+	/**
+	 * Equivalent to ParallelBibtexSerializer(ForkJoinPool.commonPool()).
+	 */
+	public ParallelBibtexSerializer() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool
+	 *            the entries are rendered on this pool.
+	 */
+	public ParallelBibtexSerializer(ForkJoinPool pool) {
+		assert pool != null : "pool parameter may not be null.";
+
+		this.pool = pool;
+		this.windowSize = 2 * pool.getParallelism() + 2;
+	}
+
+	private static final int DEFAULT_BATCH_SIZE = 512;
+
+	private final ForkJoinPool pool;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private int windowSize;
+
+	private long bytesWritten;
+
+	/**
+	 * The entries are rendered in batches of this many. The default is 512.
+	 */
+	public void setBatchSize(int batchSize) {
+		assert batchSize > 0 : "batchSize parameter must be positive.";
+
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * At most this many batches are kept in memory. The default is twice the
+	 * parallelism of the pool, plus two.
+	 */
+	public void setWindowSize(int windowSize) {
+		assert windowSize > 0 : "windowSize parameter must be positive.";
+
+		this.windowSize = windowSize;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Writes bibtexFile to path, in UTF-8. The file is created or truncated.
+	 */
+	public void write(BibtexFile bibtexFile, Path path) throws IOException {
+		assert path != null : "path parameter may not be null.";
+
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			write(bibtexFile, channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the entries of bibtexFile to channel, in UTF-8. The channel is not
+	 * closed.
+	 */
+	public void write(BibtexFile bibtexFile, WritableByteChannel channel) throws IOException {
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+		assert channel != null : "channel parameter may not be null.";
+
+		// a copy, since the tasks read it concurrently.
+		final List<BibtexAbstractEntry> entries = Arrays.asList(bibtexFile.getEntries().toArray(
+			new BibtexAbstractEntry[0]));
+		final int size = entries.size();
+		ArrayDeque<ForkJoinTask<ByteBuffer[]>> window = new ArrayDeque<ForkJoinTask<ByteBuffer[]>>();
+		int next = 0;
+		try {
+			while (next < size || !window.isEmpty()) {
+				while (next < size && window.size() < windowSize) {
+					final int end = Math.min(size, next + batchSize);
+					window.addLast(pool.submit(new RenderTask(entries.subList(next, end))));
+					next = end;
+				}
+				write(channel, window.removeFirst().join());
+			}
+		} finally {
+			for (ForkJoinTask<ByteBuffer[]> task : window) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	private void write(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+			int first = 0;
+			while (first < buffers.length) {
+				bytesWritten += gatheringChannel.write(buffers, first, buffers.length - first);
+				while (first < buffers.length && !buffers[first].hasRemaining()) {
+					first++;
+				}
+			}
+		} else {
+			for (int i = 0; i < buffers.length; i++) {
+				while (buffers[i].hasRemaining()) {
+					bytesWritten += channel.write(buffers[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes that have been written by this serializer.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Renders a batch into one array, and returns a buffer for each entry.
+	 */
+	private static final class RenderTask extends RecursiveTask<ByteBuffer[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		RenderTask(List<BibtexAbstractEntry> entries) {
+			this.entries = entries;
+		}
+
+		private final List<BibtexAbstractEntry> entries;
+
+		protected ByteBuffer[] compute() {
+			ByteArrayChannel output = new ByteArrayChannel();
+			BibtexSerializer serializer = new BibtexSerializer(output, 1 << 13);
+			int[] ends = new int[entries.size()];
+			try {
+				for (int i = 0; i < ends.length; i++) {
+					serializer.write(entries.get(i));
+					serializer.flush();
+					ends[i] = output.size;
+				}
+			} catch (IOException e) {
+				// ByteArrayChannel doesn't throw any.
+				throw new IllegalStateException(e);
+			}
+			ByteBuffer[] buffers = new ByteBuffer[ends.length];
+			for (int i = 0; i < ends.length; i++) {
+				final int start = i == 0 ? 0 : ends[i - 1];
+				buffers[i] = ByteBuffer.wrap(output.bytes, start, ends[i] - start);
+			}
+			return buffers;
+		}
+	}
+
+	private static final class ByteArrayChannel implements WritableByteChannel {
+
+		byte[] bytes = new byte[1 << 16];
+
+		int size;
+
+		public int write(ByteBuffer source) {
+			final int length = source.remaining();
+			if (size + length > bytes.length) {
+				byte[] newBytes = new byte[Math.max(size + length, bytes.length * 2)];
+				System.arraycopy(bytes, 0, newBytes, 0, size);
+				bytes = newBytes;
+			}
+			source.get(bytes, size, length);
+			size += length;
+			return length;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -6,7 +6,15 @@
  */
 package bibtex.expansions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import bibtex.Diagnostic;
+import bibtex.Diagnostics;
 
 /**
  * @author henkel
@@ -15,19 +23,25 @@ public abstract class AbstractExpander {
 
 	/**
 	 * @param throwAllExpansionExceptions
-	 *            Setting this to true means that all exceptions will be thrown
-	 *            immediately. Otherwise, the expander will skip over things it
-	 *            can't expand and you can use getExceptions to retrieve the
-	 *            exceptions later
+	 *            Setting this to true means that a problem is thrown as an
+	 *            exception when it is reported. The expanders in this package
+	 *            report their problems once everything has been expanded, so
+	 *            the first one is thrown then. Otherwise, the expander will skip
+	 *            over things it can't expand and you can use getExceptions to
+	 *            retrieve the exceptions later
 	 */
 
 	protected AbstractExpander(boolean throwAllExpansionExceptions) {
 		this.throwAllExpansionExceptions = throwAllExpansionExceptions;
-		this.exceptions = throwAllExpansionExceptions ? null : new LinkedList();
+		this.exceptions = throwAllExpansionExceptions ? null : new LinkedList<ExpansionException>();
 	}
 
 	private final boolean throwAllExpansionExceptions;
 
+	private Diagnostics diagnostics;
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -37,6 +51,39 @@ public abstract class AbstractExpander {
 		return this.exceptionsAsArrays;
 	}
 
+	/**
+	 * Problems that the expander skips over are reported to diagnostics
+	 * instead of being collected as exceptions (see getExceptions()), which is
+	 * a lot cheaper if there are many of them. This has no effect if
+	 * throwAllExpansionExceptions is set. The default is null.
+	 * 
+	 * @param diagnostics
+	 *            may be null.
+	 */
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * Expanders that work on several cores run on this pool. The default is
+	 * ForkJoinPool.commonPool().
+	 * 
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		assert pool != null : "pool parameter may not be null.";
+
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
 	/**
 	 * Call this at the end of your expand(BibtexFile) implementation.
 	 */
@@ -55,15 +102,7 @@ public abstract class AbstractExpander {
 	 * @throws ExpansionException
 	 */
 	protected void throwExpansionException(String message) throws ExpansionException {
-		if (this.throwAllExpansionExceptions)
-			throw new ExpansionException(message);
-		else {
-			try {
-				throw new ExpansionException(message);
-			} catch (ExpansionException e) {
-				this.exceptions.add(e);
-			}
-		}
+		reportProblem(Diagnostic.ERROR, Diagnostic.EXPANSION_ERROR, null, message);
 	}
 
 	/**
@@ -74,19 +113,120 @@ public abstract class AbstractExpander {
 	 * @throws ExpansionException
 	 */
 	protected void throwExpansionException(Exception cause) throws ExpansionException {
+		reportProblem(Diagnostic.ERROR, Diagnostic.EXPANSION_ERROR, null, cause);
+	}
+
+	/**
+	 * Call this whenever the expander runs into a problem. If
+	 * throwAllExpansionExceptions is set, an ExpansionException with the
+	 * message is thrown. Otherwise the problem is reported to the diagnostics,
+	 * or collected as an exception (without a stack trace) if there are none.
+	 * 
+	 * @param severity
+	 *            Diagnostic.ERROR or Diagnostic.WARNING.
+	 * @param code
+	 *            e.g. Diagnostic.UNDEFINED_MACRO.
+	 * @param entryKey
+	 *            may be null.
+	 * @param message
+	 * @throws ExpansionException
+	 */
+	protected void reportProblem(int severity, String code, String entryKey, String message)
+		throws ExpansionException {
+		if (this.throwAllExpansionExceptions)
+			throw new ExpansionException(message);
+		else if (this.diagnostics != null)
+			this.diagnostics.report(severity, code, entryKey, -1, -1, message);
+		else
+			this.exceptions.add(new ExpansionException(message, false));
+	}
+
+	/**
+	 * Like reportProblem(int, String, String, String), but the
+	 * ExpansionException wraps cause, and the message of cause is reported.
+	 */
+	protected void reportProblem(int severity, String code, String entryKey, Exception cause)
+		throws ExpansionException {
 		if (this.throwAllExpansionExceptions)
 			throw new ExpansionException(cause);
-		else {
-			try {
-				throw new ExpansionException(cause);
-			} catch (ExpansionException e) {
-				this.exceptions.add(e);
+		else if (this.diagnostics != null)
+			this.diagnostics.report(severity, code, entryKey, -1, -1, String.valueOf(cause.getMessage()));
+		else
+			this.exceptions.add(new ExpansionException(cause, false));
+	}
+
+	/**
+	 * A problem that was found on another thread, or before its turn, to be
+	 * reported with reportProblems(List).
+	 */
+	protected static final class Problem {
+
+		/**
+		 * @param position
+		 *            the position in the file of the entry the problem is
+		 *            about, which decides the order of the problems.
+		 * @see AbstractExpander#reportProblem(int, String, String, String)
+		 */
+		public Problem(int position, int severity, String code, String entryKey, String message) {
+			this.position = position;
+			this.severity = severity;
+			this.code = code;
+			this.entryKey = entryKey;
+			this.message = message;
+			this.cause = null;
+		}
+
+		/**
+		 * @see AbstractExpander#reportProblem(int, String, String, Exception)
+		 */
+		public Problem(int position, int severity, String code, String entryKey, Exception cause) {
+			this.position = position;
+			this.severity = severity;
+			this.code = code;
+			this.entryKey = entryKey;
+			this.message = null;
+			this.cause = cause;
+		}
+
+		final int position;
+
+		final int severity;
+
+		final String code;
+
+		final String entryKey;
+
+		final String message;
+
+		// null if the problem is reported with its message.
+		final Exception cause;
+	}
+
+	/**
+	 * Reports problems with reportProblem(...), in the order of their
+	 * positions; problems with the same position in the order of the list.
+	 * 
+	 * @param problems
+	 * @throws ExpansionException
+	 */
+	protected void reportProblems(List<Problem> problems) throws ExpansionException {
+		List<Problem> sorted = new ArrayList<Problem>(problems);
+		// this sort is stable.
+		Collections.sort(sorted, new Comparator<Problem>() {
+			public int compare(Problem problem, Problem other) {
+				return problem.position < other.position ? -1 : problem.position == other.position ? 0 : 1;
 			}
+		});
+		for (int i = 0; i < sorted.size(); i++) {
+			Problem problem = sorted.get(i);
+			if (problem.cause != null)
+				reportProblem(problem.severity, problem.code, problem.entryKey, problem.cause);
+			else
+				reportProblem(problem.severity, problem.code, problem.entryKey, problem.message);
 		}
 	}
 
-	
-	private final LinkedList exceptions;
+	private final LinkedList<ExpansionException> exceptions;
 	private ExpansionException[] exceptionsAsArrays;
 
 }
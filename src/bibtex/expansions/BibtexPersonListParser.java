@@ -6,13 +6,18 @@
  */
 package bibtex.expansions;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
 import bibtex.dom.*;
 import bibtex.dom.BibtexString;
 
 /**
+ * Splits author and editor lists into persons. The content is tokenized once
+ * into the offsets of its tokens, each with its kind, and the names are cut
+ * out of the content at the end - the only strings that are made are the
+ * parts of the names.
+ * 
  * @author henkel
  */
 final class BibtexPersonListParser {
@@ -23,9 +28,18 @@ final class BibtexPersonListParser {
 
         private int pos;
 
-        StringIterator(String string) {
-            chars = string.toCharArray();
-            pos = 0;
+        private int end;
+
+        StringIterator(char[] chars) {
+            this.chars = chars;
+        }
+
+        /**
+         * Iterates over the characters from start to end.
+         */
+        void reset(int start, int end) {
+            this.pos = start;
+            this.end = end;
         }
 
         char next() {
@@ -41,38 +55,151 @@ final class BibtexPersonListParser {
         }
 
         void skipWhiteSpace() {
-            while (pos < chars.length && Character.isWhitespace(chars[pos]))
+            while (pos < end && Character.isWhitespace(chars[pos]))
                 pos++;
         }
 
         boolean hasNext() {
-            return pos + 1 < chars.length;
+            return pos + 1 < end;
+        }
+    }
+
+    // the kinds of tokens.
+
+    private static final byte WORD = 0;
+
+    // a word whose first letter at brace level 0 is lower case, e.g. "van".
+    private static final byte LOWER_CASE_WORD = 1;
+
+    private static final byte COMMA = 2;
+
+    private static final byte MINUS = 3;
+
+    /**
+     * The tokens of a person list: token i is the characters from starts[i]
+     * to ends[i] of the content, and kinds[i] is one of the kinds above.
+     */
+    static final class Tokens {
+
+        Tokens(String content) {
+            this.content = content;
+            this.chars = content.toCharArray();
+            this.stringIt = new StringIterator(chars);
+        }
+
+        final String content;
+
+        private final char[] chars;
+
+        private final StringIterator stringIt;
+
+        private int[] starts = new int[16], ends = new int[16];
+
+        private byte[] kinds = new byte[16];
+
+        int size;
+
+        // for names of more than one token.
+        private char[] buffer;
+
+        void add(byte kind, int start, int end) {
+            if (size == kinds.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            kinds[size] = kind;
+            size++;
+        }
+
+        /**
+         * Adds the word from start to end without the white space around it,
+         * like String.trim(), unless that leaves nothing.
+         * 
+         * @return true if a word was added.
+         */
+        boolean addWord(int start, int end) {
+            while (start < end && chars[start] <= ' ')
+                start++;
+            while (end > start && chars[end - 1] <= ' ')
+                end--;
+            if (start == end)
+                return false;
+            stringIt.reset(start, end);
+            add(firstCharAtBracelevel0IsLowerCase(stringIt) ? LOWER_CASE_WORD : WORD, start, end);
+            return true;
+        }
+
+        boolean isLowerCase(int index) {
+            return kinds[index] == LOWER_CASE_WORD;
+        }
+
+        boolean isAnd(int index) {
+            if (kinds[index] == COMMA || kinds[index] == MINUS || ends[index] - starts[index] != 3)
+                return false;
+            final int start = starts[index];
+            return (chars[start] == 'a' || chars[start] == 'A') && (chars[start + 1] == 'n' || chars[start + 1] == 'N')
+                    && (chars[start + 2] == 'd' || chars[start + 2] == 'D');
+        }
+
+        boolean isOthers(int index) {
+            return ends[index] - starts[index] == 6 && content.startsWith("others", starts[index]);
+        }
+
+        /**
+         * @return the tokens from beginIndex to endIndex separated by blanks,
+         *         or by '-' where there was one, or null if there are none.
+         */
+        String getString(int beginIndex, int endIndex) {
+            if (!(beginIndex < endIndex))
+                return null;
+            assert beginIndex >= 0;
+            assert endIndex >= 0;
+            if (endIndex - beginIndex == 1 && kinds[beginIndex] != MINUS)
+                return content.substring(starts[beginIndex], ends[beginIndex]);
+            if (buffer == null)
+                buffer = new char[chars.length];
+            int length = 0;
+            for (int i = beginIndex; i < endIndex; i++) {
+                if (kinds[i] == MINUS) {
+                    if (i == beginIndex || i == endIndex - 1)
+                        continue;
+                    buffer[length++] = '-';
+                    continue;
+                }
+                if (i > beginIndex && kinds[i - 1] != MINUS)
+                    buffer[length++] = ' ';
+                System.arraycopy(chars, starts[i], buffer, length, ends[i] - starts[i]);
+                length += ends[i] - starts[i];
+            }
+            return new String(buffer, 0, length);
         }
     }
 
     public static BibtexPersonList parse(BibtexString personList,String entryKey) throws PersonListParserException {
 
         String content = personList.getContent();
-        String[] tokens = tokenize(content);
+        Tokens tokens = tokenize(content);
 
         BibtexPersonList result = personList.getOwnerFile().makePersonList();
-        if (tokens.length == 0) {
+        if (tokens.size == 0) {
             return result;
         }
         int begin = 0;
-        for (int i = 0; i < tokens.length; i++) {
-            if (tokens[i].toLowerCase().equals(AND) && begin < i) {
-                result.add(makePerson(tokens, begin, i, content, entryKey, personList.getOwnerFile()));
+        for (int i = 0; i < tokens.size; i++) {
+            if (tokens.isAnd(i) && begin < i) {
+                result.add(makePerson(tokens, begin, i, entryKey, personList.getOwnerFile()));
                 begin = i + 1;
             }
         }
-        if (begin < tokens.length)
-            result.add(makePerson(tokens, begin, tokens.length, content, entryKey, personList.getOwnerFile()));
+        if (begin < tokens.size)
+            result.add(makePerson(tokens, begin, tokens.size, entryKey, personList.getOwnerFile()));
         return result;
     }
 
-    private static boolean firstCharAtBracelevel0IsLowerCase(final String string) {
-        StringIterator stringIt =new StringIterator(string);
+    private static boolean firstCharAtBracelevel0IsLowerCase(final StringIterator stringIt) {
         if (Character.isLowerCase(stringIt.current()))
             return true;
         while (stringIt.hasNext()) {
@@ -140,54 +267,36 @@ final class BibtexPersonListParser {
         return false;
     }
 
-    private static String getString(String[] tokens, int beginIndex, int endIndex) {
-        if (!(beginIndex < endIndex))
-            return null;
-        assert beginIndex >= 0;
-        assert endIndex >= 0;
-        StringBuffer result = new StringBuffer();
-        for (int i = beginIndex; i < endIndex; i++) {
-            if (tokens[i] == MINUS) {
-                if (i == beginIndex || i == endIndex - 1)
-                    continue;
-                result.append('-');
-                continue;
-            }
-            if (i > beginIndex && tokens[i - 1] != MINUS)
-                result.append(' ');
-            result.append(tokens[i]);
-        }
-        return result.toString();
-    }
 
-    private static BibtexPerson makePerson(String[] tokens, int begin, int end, String fullEntry, String entryKey, BibtexFile factory)
+    private static BibtexPerson makePerson(Tokens tokens, int begin, int end, String entryKey, BibtexFile factory)
             throws PersonListParserException {
-        if (tokens[begin].equals("others")) {
+        final String fullEntry = tokens.content;
+        if (tokens.isOthers(begin)) {
             return factory.makePerson(null, null, null, null, true);
-        } else if (tokens[end - 1] == COMMA)
+        } else if (tokens.kinds[end - 1] == COMMA)
             throw new PersonListParserException("Name ends with comma: '" + fullEntry + "' - in '"+entryKey+"'");
         else {
             int numberOfCommas = 0;
             for (int i = begin; i < end; i++) {
-                if (tokens[i] == COMMA)
+                if (tokens.kinds[i] == COMMA)
                     numberOfCommas++;
             }
             if (numberOfCommas == 0) {
                 int lastNameBegin = end - 1;
                 while (true) {
-                    if (lastNameBegin - 1 >= begin && !firstCharAtBracelevel0IsLowerCase(tokens[lastNameBegin - 1])) {
+                    if (lastNameBegin - 1 >= begin && !tokens.isLowerCase(lastNameBegin - 1)) {
                         lastNameBegin -= 1;
-                    } else if (lastNameBegin - 2 >= begin && tokens[lastNameBegin - 1] == MINUS
-                            && !firstCharAtBracelevel0IsLowerCase(tokens[lastNameBegin - 2])) {
+                    } else if (lastNameBegin - 2 >= begin && tokens.kinds[lastNameBegin - 1] == MINUS
+                            && !tokens.isLowerCase(lastNameBegin - 2)) {
                         lastNameBegin -= 2;
                     } else
                         break;
                 }
                 int firstLowerCase = -1;
                 for (int i = begin; i < end; i++) {
-                    if (tokens[i] == MINUS)
+                    if (tokens.kinds[i] == MINUS)
                         continue;
-                    if (firstCharAtBracelevel0IsLowerCase(tokens[i])) {
+                    if (tokens.isLowerCase(i)) {
                         firstLowerCase = i;
                         break;
                     }
@@ -197,18 +306,18 @@ final class BibtexPersonListParser {
                     //there is no preLast part
 
                     lastNameBegin = end - 1;
-                    while (lastNameBegin - 2 >= begin && tokens[lastNameBegin - 1] == MINUS
-                            && !firstCharAtBracelevel0IsLowerCase(tokens[lastNameBegin - 2]))
+                    while (lastNameBegin - 2 >= begin && tokens.kinds[lastNameBegin - 1] == MINUS
+                            && !tokens.isLowerCase(lastNameBegin - 2))
                         lastNameBegin -= 2;
-                    last = getString(tokens, lastNameBegin, end);
-                    first = getString(tokens, begin, lastNameBegin);
+                    last = tokens.getString(lastNameBegin, end);
+                    first = tokens.getString(begin, lastNameBegin);
                     lineage = null;
                     preLast = null;
                 } else {
-                    last = getString(tokens, lastNameBegin, end);
-                    first = getString(tokens, begin, firstLowerCase);
+                    last = tokens.getString(lastNameBegin, end);
+                    first = tokens.getString(begin, firstLowerCase);
                     lineage = null;
-                    preLast = getString(tokens, firstLowerCase, lastNameBegin);
+                    preLast = tokens.getString(firstLowerCase, lastNameBegin);
                 }
                 if (last == null)
                     throw new PersonListParserException("Found an empty last name in '" + fullEntry + "' in '"+entryKey+"'.");
@@ -218,7 +327,7 @@ final class BibtexPersonListParser {
                 if (numberOfCommas == 1) {
                     int commaIndex = -1;
                     for (int i = begin; i < end; i++) {
-                        if (tokens[i] == COMMA) {
+                        if (tokens.kinds[i] == COMMA) {
                             commaIndex = i;
                             break;
                         }
@@ -226,18 +335,18 @@ final class BibtexPersonListParser {
                     final int preLastBegin = begin;
                     int preLastEnd = begin;
                     for (int i = preLastEnd; i < commaIndex; i++) {
-                        if (tokens[i] == MINUS)
+                        if (tokens.kinds[i] == MINUS)
                             continue;
-                        if (firstCharAtBracelevel0IsLowerCase(tokens[i])) {
+                        if (tokens.isLowerCase(i)) {
                             preLastEnd = i + 1;
                         }
                     }
                     if (preLastEnd == commaIndex && preLastEnd > preLastBegin) {
                         preLastEnd--;
                     }
-                    final String preLast = getString(tokens, preLastBegin, preLastEnd);
-                    final String last = getString(tokens, preLastEnd, commaIndex);
-                    final String first = getString(tokens, commaIndex + 1, end);
+                    final String preLast = tokens.getString(preLastBegin, preLastEnd);
+                    final String last = tokens.getString(preLastEnd, commaIndex);
+                    final String first = tokens.getString(commaIndex + 1, end);
                     if (last == null)
                         throw new PersonListParserException("Found an empty last name in '" + fullEntry + "' in '"+entryKey+"'.");
                     return factory.makePerson(first, preLast, last, null, false);
@@ -245,7 +354,7 @@ final class BibtexPersonListParser {
                     int firstComma = -1;
                     int secondComma = -1;
                     for (int i = begin; i < end; i++) {
-                        if (tokens[i] == COMMA) {
+                        if (tokens.kinds[i] == COMMA) {
                             if (firstComma == -1) {
                                 firstComma = i;
                             } else {
@@ -257,19 +366,19 @@ final class BibtexPersonListParser {
                     final int preLastBegin = begin;
                     int preLastEnd = begin;
                     for (int i = preLastEnd; i < firstComma; i++) {
-                        if (tokens[i] == MINUS)
+                        if (tokens.kinds[i] == MINUS)
                             continue;
-                        if (firstCharAtBracelevel0IsLowerCase(tokens[i])) {
+                        if (tokens.isLowerCase(i)) {
                             preLastEnd = i + 1;
                         }
                     }
                     if (preLastEnd == firstComma && preLastEnd > preLastBegin) {
                         preLastEnd--;
                     }
-                    final String preLast = getString(tokens, preLastBegin, preLastEnd);
-                    final String last = getString(tokens, preLastEnd, firstComma);
-                    String lineage = getString(tokens, firstComma + 1, secondComma);
-                    String first = getString(tokens, secondComma + 1, end);
+                    final String preLast = tokens.getString(preLastBegin, preLastEnd);
+                    final String last = tokens.getString(preLastEnd, firstComma);
+                    String lineage = tokens.getString(firstComma + 1, secondComma);
+                    String first = tokens.getString(secondComma + 1, end);
                     if (first == null && lineage != null) {
                         String tmp = lineage;
                         lineage = first;
@@ -285,26 +394,23 @@ final class BibtexPersonListParser {
         }
     }
 
-    private static final String COMMA = ",".intern();
-
-    private static final String AND = "and".intern();
-
-    private static final String MINUS = "-".intern();
-
     /**
-     * 
+     * Splits stringContent at white space, '~', '-', ',' and unmatched '}' on
+     * brace level 0.
+     * The commas are tokens, and so is a '-' right after a word.
      * 
      * @param stringContent
-     * @return String[]
+     * @return Tokens
      */
-    private static String[] tokenize(String stringContent) {
+    private static Tokens tokenize(String stringContent) {
+        Tokens tokens = new Tokens(stringContent);
+        final char[] chars = tokens.chars;
         int numberOfOpenBraces = 0;
         int tokenBegin = 0;
-        stringContent = stringContent + " ";
-        // make sure the last character is whitespace ;-)
-        LinkedList tokens = new LinkedList(); // just some strings ...
-        for (int currentPos = 0; currentPos < stringContent.length(); currentPos++) {
-            switch (stringContent.charAt(currentPos)) {
+        // the end counts as white space.
+        for (int currentPos = 0; currentPos <= chars.length; currentPos++) {
+            final char currentChar = currentPos < chars.length ? chars[currentPos] : ' ';
+            switch (currentChar) {
             case '{':
                 numberOfOpenBraces++;
                 break;
@@ -312,44 +418,28 @@ final class BibtexPersonListParser {
                 if(numberOfOpenBraces>0){
                     numberOfOpenBraces--;
                 } else{
-                    if (tokenBegin <= currentPos - 1) {
-                        String potentialToken = stringContent.substring(tokenBegin, currentPos).trim();
-                        if (!potentialToken.equals("")) {
-                            tokens.add(potentialToken);
-                        }
-                    }
+                    tokens.addWord(tokenBegin, currentPos);
                     tokenBegin = currentPos + 1;
                 }
                 break;
             case ',':
                 if (numberOfOpenBraces == 0) {
-                    if (tokenBegin <= currentPos - 1) {
-                        String potentialToken = stringContent.substring(tokenBegin, currentPos).trim();
-                        if (!potentialToken.equals("")) {
-                            tokens.add(potentialToken);
-                        }
-                    }
-                    tokens.add(COMMA);
+                    tokens.addWord(tokenBegin, currentPos);
+                    tokens.add(COMMA, currentPos, currentPos + 1);
                     tokenBegin = currentPos + 1;
                 }
+                break;
             default:
-                char currentChar = stringContent.charAt(currentPos);
                 if (Character.isWhitespace(currentChar) || (currentChar == '~') || (currentChar == '-')) {
-                    if (numberOfOpenBraces == 0 && tokenBegin <= currentPos) {
-                        String potentialToken = stringContent.substring(tokenBegin, currentPos).trim();
-                        if (!potentialToken.equals("")) {
-                            tokens.add(potentialToken);
-                            if (currentChar == '-')
-                                tokens.add(MINUS);
-                        }
+                    if (numberOfOpenBraces == 0) {
+                        if (tokens.addWord(tokenBegin, currentPos) && currentChar == '-')
+                            tokens.add(MINUS, currentPos, currentPos + 1);
                         tokenBegin = currentPos + 1;
                     }
                 }
             }
         }
-        String[] result = new String[tokens.size()];
-        tokens.toArray(result);
-        return result;
+        return tokens;
     }
 
     private static boolean isEqual(String str1, String str2) {
@@ -372,6 +462,7 @@ final class BibtexPersonListParser {
 
     public static void main(String args[]) {
         BibtexPersonListParserTests.Test [] tests = BibtexPersonListParserTests.tests;
+        int failed = 0;
         for (int i = 0; i < tests.length; i++) {
             BibtexFile file = new BibtexFile();
             
@@ -381,15 +472,19 @@ final class BibtexPersonListParser {
                 personList = parse(string,"testCase"+i).getList();
             } catch (PersonListParserException e) {
                 e.printStackTrace();
+                failed++;
                 continue;
             }
-            assert personList.size() == 1;
             BibtexPerson person = (BibtexPerson) personList.get(0);
-            if (!isEqual(tests[i], person)) {
+            final int size = tests[i].isOthers() ? 2 : 1;
+            if (personList.size() != size || !isEqual(tests[i], person)
+                    || tests[i].isOthers() && !((BibtexPerson) personList.get(1)).isOthers()) {
                 System.err.println("\ntest failed:");
                 System.err.println(tests[i].getString());
                 dumpCompare(tests[i], person);
+                failed++;
             }
         }
+        System.out.println(tests.length + " tests, " + failed + " failed");
     }
 }
\ No newline at end of file
@@ -7,10 +7,14 @@
 package bibtex.expansions;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
 
 /**
+ * The test cases for BibtexPersonListParser.main(...): the ones in CASES, and
+ * the ones in RESULTS_FILE if it is there.
+ * 
  * @author henkel
  */
 class BibtexPersonListParserTests {
@@ -21,13 +25,24 @@ class BibtexPersonListParserTests {
         private final String last;
         private final String lineage;
         private final String first;
+        private final boolean others;
 
         public Test(String string,String preLast, String last, String lineage, String first){
+            this(string, preLast, last, lineage, first, false);
+        }
+
+        /**
+         * @param others
+         *            true if the string ends with "and others", i.e. the
+         *            person is followed by an others person.
+         */
+        public Test(String string, String preLast, String last, String lineage, String first, boolean others) {
             this.string = string;
             this.preLast = preLast;
             this.last = last;
             this.lineage = lineage;
             this.first = first;
+            this.others = others;
         }
         
         
@@ -61,16 +76,63 @@ class BibtexPersonListParserTests {
         public String getString() {
             return string;
         }
+        /**
+         * @return true if the person is followed by an others person.
+         */
+        public boolean isOthers() {
+            return others;
+        }
     }
-    
+
+    /**
+     * The expected results of bibtex itself, in the order string, preLast,
+     * last, lineage, first.
+     */
+    private static final Test[] CASES = {
+        new Test("Donald E. Knuth", null, "Knuth", null, "Donald E."),
+        new Test("Knuth", null, "Knuth", null, null),
+        new Test("  Alan   Turing  ", null, "Turing", null, "Alan"),
+        new Test("Jean-Paul Sartre", null, "Sartre", null, "Jean-Paul"),
+        new Test("J.-P. Sartre", null, "Sartre", null, "J.-P."),
+        // von parts
+        new Test("Ludwig van Beethoven", "van", "Beethoven", null, "Ludwig"),
+        new Test("Charles Louis Xavier Joseph de la Vall{\\'e}e Poussin", "de la", "Vall{\\'e}e Poussin", null,
+                "Charles Louis Xavier Joseph"),
+        new Test("jean de la fontaine", "jean de la", "fontaine", null, null),
+        // comma forms
+        new Test("van Beethoven, Ludwig", "van", "Beethoven", null, "Ludwig"),
+        new Test("Brinch Hansen, Per", null, "Brinch Hansen", null, "Per"),
+        new Test("Ford, Jr., Henry", null, "Ford", "Jr.", "Henry"),
+        new Test("de la Fontaine, Jr., Jean", "de la", "Fontaine", "Jr.", "Jean"),
+        // braces
+        new Test("{Barnes and Noble, Inc.}", null, "{Barnes and Noble, Inc.}", null, null),
+        new Test("{von Neumann}, John", null, "{von Neumann}", null, "John"),
+        new Test("Juan {de la} Cierva", null, "Cierva", null, "Juan {de la}"),
+        // and others
+        new Test("Johannes Henkel and others", null, "Henkel", null, "Johannes", true),
+        new Test("Ford, Jr., Henry and others", null, "Ford", "Jr.", "Henry", true),
+    };
+
+    private static final String RESULTS_FILE = "/home/machine/henkel/projects/26_javabib/personparsing/RESULTS.txt";
+
     public static Test [] tests;
     
     static {
+        ArrayList<Test> testsAsList = new ArrayList<Test>();
+        for (int i = 0; i < CASES.length; i++) {
+            testsAsList.add(CASES[i]);
+        }
+        if (new File(RESULTS_FILE).exists())
+            readResultsFile(testsAsList);
+        tests = new Test[testsAsList.size()];
+        testsAsList.toArray(tests);
+    }
+
+    private static void readResultsFile(ArrayList<Test> testsAsList) {
         try {
             BufferedReader in = 
-                new BufferedReader(new FileReader("/home/machine/henkel/projects/26_javabib/personparsing/RESULTS.txt"));
+                new BufferedReader(new FileReader(RESULTS_FILE));
             String line;
-            ArrayList testsAsList = new ArrayList();
             int count=0;
             while((line=in.readLine())!=null){
                 System.out.print("."); count++; count%=80; if(count==0) System.out.println();
@@ -92,8 +154,7 @@ class BibtexPersonListParserTests {
                   components[1]
                 ));
             }
-            tests = new Test[testsAsList.size()];
-            testsAsList.toArray(tests);
+            in.close();
         } catch(Exception e){
             e.printStackTrace();
         }
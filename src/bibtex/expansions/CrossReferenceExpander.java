@@ -7,10 +7,13 @@
 package bibtex.expansions;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RecursiveAction;
 
+import bibtex.Diagnostic;
 import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexEntry;
@@ -31,61 +34,229 @@ public final class CrossReferenceExpander extends AbstractExpander implements Ex
 	}
 	
 	/**
-	 * @param throwAllExpansionExceptions
-	 *            Setting this to true means that all exceptions will be thrown
-	 *            immediately. Otherwise, the expander will skip over things it
-	 *            can't expand and you can use getExceptions to retrieve the
-	 *            exceptions later
+	 * Equivalent to CrossReferenceExpander(throwAllExpansionExceptions, true)
 	 */
 	public CrossReferenceExpander(boolean throwAllExpansionExceptions) {
+		this(throwAllExpansionExceptions, true);
+	}
+
+	/**
+	 * @param throwAllExpansionExceptions
+	 *            Setting this to true means that the first problem is thrown
+	 *            as an exception once everything has been expanded, see
+	 *            expand(BibtexFile). Otherwise, the expander will skip over
+	 *            things it can't expand and you can use getExceptions to
+	 *            retrieve the exceptions later
+	 * @param copyFields
+	 *            Copy the inherited fields into the entries and remove the
+	 *            crossref fields. Otherwise, the entries aren't changed, and
+	 *            getCrossReferences() tells which fields they inherit.
+	 */
+	public CrossReferenceExpander(boolean throwAllExpansionExceptions, boolean copyFields) {
 		super(throwAllExpansionExceptions);
+		this.copyFields = copyFields;
 	}
 
+	private final boolean copyFields;
+
+	private CrossReferences crossReferences;
+
+	// the entries are expanded in batches of about this many.
+	private static final int BATCH_SIZE = 1024;
+
 	/**
 	 * Note: If you don't use the MacroReferenceExpander first, this function
 	 * may lead to inconsistent macro references.
 	 * 
+	 * A crossref refers to the last entry with that key. Crossrefs to entries
+	 * that have a crossref themselves are followed: the entries inherit in
+	 * the order of the chains, an entry before the ones that refer to it, so
+	 * the fields are passed on all the way down. A chain that leads back to
+	 * where it started is reported as a Diagnostic.CYCLIC_CROSSREF, and the
+	 * crossref that closes the circle (counting from the first entry of the
+	 * circle in the file) is ignored.
+	 * 
+	 * The entries that are as far down their chains are expanded together,
+	 * in batches on the pool (see setPool(...)), unless the file doesn't
+	 * support that (see BibtexFile.supportsConcurrentAccess()).
+	 * 
 	 * If you use the flag throwAllExpansionExceptions set to false, you can
-	 * retrieve all the exceptions using getExceptions()
+	 * retrieve all the exceptions using getExceptions(). The problems are
+	 * reported in the order of the file once everything has been expanded, so
+	 * with the flag set to true, the first problem is thrown then.
 	 * 
 	 * @param bibtexFile
 	 */
 	public void expand(BibtexFile bibtexFile) throws ExpansionException {
-		HashMap entryKey2Entry = new HashMap();
-		ArrayList entriesWithCrossReference = new ArrayList();
-		for (Iterator entryIt = bibtexFile.getEntries().iterator(); entryIt.hasNext();) {
-			BibtexAbstractEntry abstractEntry = (BibtexAbstractEntry) entryIt.next();
+		List<BibtexEntry> entries = new ArrayList<BibtexEntry>();
+		List<Integer> positions = new ArrayList<Integer>();
+		int position = 0;
+		for (Iterator<BibtexAbstractEntry> entryIt = bibtexFile.getEntries().iterator(); entryIt.hasNext(); position++) {
+			BibtexAbstractEntry abstractEntry = entryIt.next();
 			if (!(abstractEntry instanceof BibtexEntry))
 				continue;
 			BibtexEntry entry = (BibtexEntry) abstractEntry;
-			entryKey2Entry.put(entry.getEntryKey().toLowerCase(), abstractEntry);
-			if (entry.getFields().containsKey("crossref")) {
-				entriesWithCrossReference.add(entry);
+			if (entry.getFieldValue("crossref") != null) {
+				entries.add(entry);
+				positions.add(Integer.valueOf(position));
+			}
+		}
+		final int count = entries.size();
+		List<Problem> problems = new ArrayList<Problem>();
+		IdentityHashMap<BibtexEntry, BibtexEntry> parents = new IdentityHashMap<BibtexEntry, BibtexEntry>();
+		IdentityHashMap<BibtexEntry, Integer> indexes = new IdentityHashMap<BibtexEntry, Integer>();
+		for (int i = 0; i < count; i++) {
+			indexes.put(entries.get(i), Integer.valueOf(i));
+		}
+		// the index of the entry each one inherits from, or -1 if that one
+		// doesn't have a crossref, or there is none.
+		int[] parentIndexes = new int[count];
+		for (int i = 0; i < count; i++) {
+			BibtexEntry entry = entries.get(i);
+			parentIndexes[i] = -1;
+			BibtexAbstractValue crossref = entry.getFieldValue("crossref");
+			if (!(crossref instanceof BibtexString)) {
+				problems.add(new Problem(positions.get(i).intValue(), Diagnostic.ERROR, Diagnostic.UNSUPPORTED_NODE,
+					entry.getEntryKey(), "Crossref is not a string: " + crossref));
+				continue;
 			}
+			String crossrefKey = ((BibtexString) crossref).getContent().toLowerCase();
+			// if the key occurs more than once, the last entry wins.
+			List<BibtexEntry> entriesWithKey = bibtexFile.getEntriesByKey(crossrefKey);
+			if (entriesWithKey.isEmpty()) {
+				problems.add(new Problem(positions.get(i).intValue(), Diagnostic.ERROR, Diagnostic.MISSING_CROSSREF,
+					entry.getEntryKey(), "Crossref key not found: \"" + crossrefKey + "\""));
+				continue;
+			}
+			BibtexEntry crossrefEntry = entriesWithKey.get(entriesWithKey.size() - 1);
+			parents.put(entry, crossrefEntry);
+			Integer parentIndex = indexes.get(crossrefEntry);
+			if (parentIndex != null)
+				parentIndexes[i] = parentIndex.intValue();
+			// decodes the fields of a lazily parsed entry now, before they
+			// are read by several threads.
+			crossrefEntry.getFields();
 		}
-		for (Iterator entryIt = entriesWithCrossReference.iterator(); entryIt.hasNext();) {
-			BibtexEntry entry = (BibtexEntry) entryIt.next();
-			String crossrefKey = ((BibtexString) entry.getFields().get("crossref")).getContent().toLowerCase();
-			entry.undefineField("crossref");
-			BibtexEntry crossrefEntry = (BibtexEntry) entryKey2Entry.get(crossrefKey);
-			if (crossrefEntry == null)
-				throwExpansionException("Crossref key not found: \"" + crossrefKey + "\"");
-			if (crossrefEntry.getFields().containsKey("crossref"))
-				throwExpansionException(
-					"Nested crossref: \""
-						+ crossrefKey
-						+ "\" is crossreferenced but crossreferences itself \""
-						+ ((BibtexString) crossrefEntry.getFields().get("crossref")).getContent()
-						+ "\"");
-			Map entryFields = entry.getFields();
-			Map crossrefFields = crossrefEntry.getFields();
-			for (Iterator fieldIt = crossrefFields.keySet().iterator(); fieldIt.hasNext();) {
-				String key = (String) fieldIt.next();
-				if (!entryFields.containsKey(key)) {
-					entry.setField(key, (BibtexAbstractValue) crossrefFields.get(key));
+
+		// depths[i] - 1 is the number of crossrefs from entry i to the end of
+		// its chain; 0 means it hasn't been seen yet, -1 that it's on the
+		// path that is being followed.
+		int[] depths = new int[count];
+		int maximumDepth = 1;
+		List<Integer> path = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			if (depths[i] != 0)
+				continue;
+			path.clear();
+			int current = i;
+			while (current >= 0 && depths[current] == 0) {
+				depths[current] = -1;
+				path.add(Integer.valueOf(current));
+				current = parentIndexes[current];
+			}
+			if (current >= 0 && depths[current] == -1) {
+				final int last = path.get(path.size() - 1).intValue();
+				StringBuffer cycle = new StringBuffer();
+				for (int j = path.indexOf(Integer.valueOf(current)); j < path.size(); j++) {
+					cycle.append(entries.get(path.get(j).intValue()).getEntryKey()).append(" -> ");
 				}
+				cycle.append(entries.get(current).getEntryKey());
+				problems.add(new Problem(positions.get(last).intValue(), Diagnostic.WARNING,
+					Diagnostic.CYCLIC_CROSSREF, entries.get(last).getEntryKey(), "Cyclic crossref: " + cycle));
+				parents.remove(entries.get(last));
+				parentIndexes[last] = -1;
+				current = -1;
+			}
+			int depth = current >= 0 ? depths[current] : 1;
+			for (int j = path.size() - 1; j >= 0; j--) {
+				final int index = path.get(j).intValue();
+				depth = parents.containsKey(entries.get(index)) ? depth + 1 : 1;
+				depths[index] = depth;
+				maximumDepth = Math.max(maximumDepth, depth);
+			}
+		}
+		crossReferences = new CrossReferences(parents);
+
+		if (copyFields) {
+			// the entries by depth; each level only reads from the ones
+			// before it.
+			int[][] levels = new int[maximumDepth + 1][];
+			int[] levelSizes = new int[maximumDepth + 1];
+			for (int i = 0; i < count; i++) {
+				levelSizes[depths[i]]++;
+			}
+			for (int depth = 2; depth <= maximumDepth; depth++) {
+				levels[depth] = new int[levelSizes[depth]];
+				levelSizes[depth] = 0;
+			}
+			for (int i = 0; i < count; i++) {
+				if (depths[i] > 1)
+					levels[depths[i]][levelSizes[depths[i]]++] = i;
+			}
+			for (int depth = 2; depth <= maximumDepth; depth++) {
+				if (!bibtexFile.supportsConcurrentAccess() || levels[depth].length <= BATCH_SIZE)
+					new CopyTask(entries, parents, levels[depth], 0, levels[depth].length).compute();
+				else
+					getPool().invoke(new CopyTask(entries, parents, levels[depth], 0, levels[depth].length));
+			}
+			for (int i = 0; i < count; i++) {
+				entries.get(i).undefineField("crossref");
 			}
 		}
+		reportProblems(problems);
 		finishExpansion();
 	}
+
+	/**
+	 * @return the crossrefs that were resolved by the last call to
+	 *         expand(...), or null.
+	 */
+	public CrossReferences getCrossReferences() {
+		return crossReferences;
+	}
+
+	/**
+	 * Copies the fields that the entries indexes[start] to indexes[end - 1]
+	 * inherit into them, in halves until there are at most BATCH_SIZE.
+	 */
+	private static final class CopyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		CopyTask(List<BibtexEntry> entries, Map<BibtexEntry, BibtexEntry> parents, int[] indexes, int start, int end) {
+			this.entries = entries;
+			this.parents = parents;
+			this.indexes = indexes;
+			this.start = start;
+			this.end = end;
+		}
+
+		private final List<BibtexEntry> entries;
+
+		private final Map<BibtexEntry, BibtexEntry> parents;
+
+		private final int[] indexes;
+
+		private final int start, end;
+
+		protected void compute() {
+			if (end - start > BATCH_SIZE) {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new CopyTask(entries, parents, indexes, start, middle), new CopyTask(entries, parents,
+					indexes, middle, end));
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				BibtexEntry entry = entries.get(indexes[i]);
+				Map<String, Object> entryFields = entry.getFields();
+				Map<String, Object> crossrefFields = parents.get(entry).getFields();
+				for (Iterator<String> fieldIt = crossrefFields.keySet().iterator(); fieldIt.hasNext();) {
+					String key = fieldIt.next();
+					if (!entryFields.containsKey(key) && !key.equals("crossref")) {
+						entry.setField(key, (BibtexAbstractValue) crossrefFields.get(key));
+					}
+				}
+			}
+		}
+	}
 }
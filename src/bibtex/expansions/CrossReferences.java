@@ -0,0 +1,86 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.expansions;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntry;
+
+/**
+ * The crossrefs of a BibtexFile as the CrossReferenceExpander resolved them:
+ * for each entry with a crossref, the entry it inherits from. The fields an
+ * entry inherits can be asked for here, so they don't have to be copied into
+ * the entry (see CrossReferenceExpander(boolean, boolean)).
+ *
+ * The chains of crossrefs don't go round in circles; the expander has broken
+ * those up. This keeps the entries with a crossref and the ones they refer to
+ * in memory.
+ *
+ * @see CrossReferenceExpander#getCrossReferences()
+ */
+public final class CrossReferences {
+
+	CrossReferences(IdentityHashMap<BibtexEntry, BibtexEntry> parents) {
+		this.parents = parents;
+	}
+
+	private final IdentityHashMap<BibtexEntry, BibtexEntry> parents;
+
+	/**
+	 * @return the entry that entry inherits fields from, or null.
+	 */
+	public BibtexEntry getCrossReferencedEntry(BibtexEntry entry) {
+		return parents.get(entry);
+	}
+
+	/**
+	 * @return the value of the field of entry, or else the one it inherits
+	 *         through its chain of crossrefs, or null. The crossref field
+	 *         itself isn't inherited.
+	 */
+	public BibtexAbstractValue getFieldValue(BibtexEntry entry, String name) {
+		assert entry != null : "entry parameter may not be null.";
+		assert name != null : "name parameter may not be null.";
+
+		BibtexAbstractValue value = entry.getFieldValue(name);
+		if (value != null || name.equals("crossref"))
+			return value;
+		for (BibtexEntry parent = parents.get(entry); parent != null; parent = parents.get(parent)) {
+			value = parent.getFieldValue(name);
+			if (value != null)
+				return value;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the fields of entry, followed by the ones it inherits through
+	 *         its chain of crossrefs, as if they had been copied into it.
+	 */
+	public Map<String, BibtexAbstractValue> getFields(BibtexEntry entry) {
+		assert entry != null : "entry parameter may not be null.";
+
+		Map<String, BibtexAbstractValue> fields = new LinkedHashMap<String, BibtexAbstractValue>();
+		for (BibtexEntry current = entry; current != null; current = parents.get(current)) {
+			for (Iterator<Map.Entry<String, Object>> it = current.getFields().entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, Object> field = it.next();
+				if (!fields.containsKey(field.getKey()) && (current == entry || !field.getKey().equals("crossref")))
+					fields.put(field.getKey(), (BibtexAbstractValue) field.getValue());
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * @return the number of entries that inherit from another one.
+	 */
+	public int size() {
+		return parents.size();
+	}
+}
@@ -19,4 +19,17 @@ public class ExpansionException extends Exception {
 	ExpansionException(String message) {
 		super(message);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @param stackTrace
+	 *            false for exceptions that are only collected, never thrown -
+	 *            filling in the stack trace is the expensive part.
+	 */
+	ExpansionException(Throwable cause, boolean stackTrace) {
+		super(cause == null ? null : cause.toString(), cause, false, stackTrace);
+	}
+
+	ExpansionException(String message, boolean stackTrace) {
+		super(message, null, false, stackTrace);
+	}
+}
@@ -6,10 +6,14 @@
  */
 package bibtex.expansions;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RecursiveAction;
 
+import bibtex.Diagnostic;
 import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexConcatenatedValue;
@@ -55,10 +59,11 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 	 * @param removeMacros
 	 *            Remove all macros from the bibtex model.
 	 * @param throwAllExpansionExceptions
-	 *            Setting this to true means that all exceptions will be thrown
-	 *            immediately. Otherwise, the expander will skip over things it
-	 *            can't expand and you can use getExceptions to retrieve the
-	 *            exceptions later
+	 *            Setting this to true means that the first problem is thrown
+	 *            as an exception once everything has been expanded, see
+	 *            expand(BibtexFile). Otherwise, the expander will skip over
+	 *            things it can't expand and you can use getExceptions to
+	 *            retrieve the exceptions later
 	 */
 	public MacroReferenceExpander(
 		boolean expandStandardMacros,
@@ -75,6 +80,8 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 	private final boolean expandMonthAbbreviations;
 	private final boolean removeMacros;
 
+	// the entries are expanded in batches of about this many.
+	private static final int BATCH_SIZE = 1024;
 
 	/**
 	 * This method walks over all entries in a BibtexFile and expands macro
@@ -83,28 +90,196 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 	 * 3-letter month abbreviations and standard macros, if specified in the
 	 * constructor (MacroReferenceExpander).
 	 * 
+	 * The macro definitions are expanded first, each one once and after the
+	 * ones it refers to. A reference is to the last definition of the macro
+	 * before it, or to the first one after it if there is none (bibtex itself
+	 * doesn't allow these forward references). A definition that refers to
+	 * itself, directly or through other macros, is reported as a
+	 * Diagnostic.CYCLIC_MACRO, and that reference expands to an empty string.
+	 * Then the entries are expanded in batches on the pool (see setPool(...)),
+	 * unless the file doesn't support that (see
+	 * BibtexFile.supportsConcurrentAccess()).
+	 * 
 	 * If you use the flag throwAllExpansionExceptions set to false, you can
-	 * retrieve all the exceptions using getExceptions()
+	 * retrieve all the exceptions using getExceptions(). The problems are
+	 * reported in the order of the file once everything has been expanded, so
+	 * with the flag set to true, the first problem is thrown then.
 	 * 
 	 * @param bibtexFile
 	 */
 	public void expand(BibtexFile bibtexFile) throws ExpansionException {
-		HashMap stringKey2StringValue = new HashMap();
-		for (Iterator entryIt = bibtexFile.getEntries().iterator(); entryIt.hasNext();) {
-			BibtexAbstractEntry abstractEntry = (BibtexAbstractEntry) entryIt.next();
-			if (abstractEntry instanceof BibtexMacroDefinition) {
-				BibtexMacroDefinition bibtexStringDefinition = (BibtexMacroDefinition) abstractEntry;
-				BibtexAbstractValue simplifiedValue =
-					simplify(bibtexFile, bibtexStringDefinition.getValue(), stringKey2StringValue);
-				bibtexStringDefinition.setValue(simplifiedValue);
-				if (removeMacros) {
-					bibtexFile.removeEntry(bibtexStringDefinition);
-				};
-				stringKey2StringValue.put(bibtexStringDefinition.getKey().toLowerCase(), simplifiedValue);
+		Expansion expansion = new Expansion(bibtexFile);
+		List<Problem> problems = new ArrayList<Problem>();
+		expansion.expandDefinitions(problems);
+		if (!bibtexFile.supportsConcurrentAccess() || bibtexFile.getEntries().size() <= BATCH_SIZE) {
+			int position = 0;
+			for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext(); position++) {
+				expansion.expand(it.next(), position, problems);
+			}
+		} else {
+			// a copy, since the tasks read it concurrently.
+			BibtexAbstractEntry[] entries = bibtexFile.getEntries().toArray(new BibtexAbstractEntry[0]);
+			EntryTask task = new EntryTask(expansion, entries, 0, entries.length);
+			getPool().invoke(task);
+			problems.addAll(task.problems);
+		}
+		if (removeMacros) {
+			for (Iterator<Definition[]> it = expansion.definitions.values().iterator(); it.hasNext();) {
+				Definition[] withKey = it.next();
+				for (int i = 0; i < withKey.length; i++) {
+					bibtexFile.removeEntry(withKey[i].node);
+				}
+			}
+		}
+		reportProblems(problems);
+		finishExpansion();
+	}
+
+	/**
+	 * A macro definition and its expanded value, once it has been expanded.
+	 */
+	private static final class Definition {
+
+		Definition(BibtexMacroDefinition node, int position) {
+			this.node = node;
+			this.position = position;
+			this.key = node.getKey().toLowerCase();
+		}
+
+		final BibtexMacroDefinition node;
 
+		final int position;
+
+		final String key;
+
+		// the definitions the value refers to, and how many of them have
+		// been looked at, while this is being expanded.
+		Definition[] dependencies;
+
+		int dependencyCount;
+
+		// null until this has been expanded.
+		BibtexAbstractValue value;
+	}
+
+	/**
+	 * The state of one call to expand(BibtexFile). Once the definitions have
+	 * been expanded, it is only read, by several threads.
+	 */
+	private final class Expansion {
+
+		Expansion(BibtexFile factory) {
+			this.factory = factory;
+			HashMap<String, List<Definition>> lists = new HashMap<String, List<Definition>>();
+			int position = 0;
+			for (Iterator<BibtexAbstractEntry> it = factory.getEntries().iterator(); it.hasNext(); position++) {
+				BibtexAbstractEntry entry = it.next();
+				if (!(entry instanceof BibtexMacroDefinition))
+					continue;
+				Definition definition = new Definition((BibtexMacroDefinition) entry, position);
+				List<Definition> withKey = lists.get(definition.key);
+				if (withKey == null) {
+					withKey = new ArrayList<Definition>(1);
+					lists.put(definition.key, withKey);
+				}
+				withKey.add(definition);
+				order.add(definition);
+			}
+			for (Iterator<Map.Entry<String, List<Definition>>> it = lists.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, List<Definition>> withKey = it.next();
+				definitions.put(withKey.getKey(), withKey.getValue().toArray(new Definition[withKey.getValue().size()]));
+			}
+		}
+
+		final BibtexFile factory;
+
+		// lower case key -> the definitions, in the order of the file.
+		final HashMap<String, Definition[]> definitions = new HashMap<String, Definition[]>();
+
+		// all definitions, in the order of the file.
+		private final List<Definition> order = new ArrayList<Definition>();
+
+		// the definitions that are being expanded, each one refers to the
+		// next one.
+		private final List<Definition> stack = new ArrayList<Definition>();
+
+		/**
+		 * @return the definition a reference to key at position refers to:
+		 *         the last one before it, or else the first one; or null.
+		 */
+		Definition lookUp(String key, int position) {
+			Definition[] withKey = definitions.get(key);
+			if (withKey == null)
+				return null;
+			int low = 0, high = withKey.length - 1;
+			while (low < high) {
+				final int middle = (low + high + 1) >>> 1;
+				if (withKey[middle].position < position)
+					low = middle;
+				else
+					high = middle - 1;
+			}
+			return withKey[low];
+		}
+
+		/**
+		 * Expands the definitions in topological order: a definition is only
+		 * expanded when the ones it refers to have been. This is a depth first
+		 * search with a stack of its own, so long chains of macros don't
+		 * overflow the thread's stack.
+		 */
+		void expandDefinitions(List<Problem> problems) throws ExpansionException {
+			for (int i = 0; i < order.size(); i++) {
+				Definition definition = order.get(i);
+				if (definition.dependencies != null)
+					continue;
+				push(definition);
+				while (!stack.isEmpty()) {
+					Definition top = stack.get(stack.size() - 1);
+					if (top.dependencyCount < top.dependencies.length) {
+						Definition dependency = top.dependencies[top.dependencyCount++];
+						// the ones on the stack make a cycle, simplify(...)
+						// reports it.
+						if (dependency.dependencies == null)
+							push(dependency);
+						continue;
+					}
+					top.value = simplify(top.node.getValue(), top.position, top.node.getKey(), problems);
+					top.node.setValue(top.value);
+					top.dependencies = NO_DEPENDENCIES;
+					stack.remove(stack.size() - 1);
+				}
+			}
+		}
+
+		private void push(Definition definition) {
+			List<Definition> dependencies = new ArrayList<Definition>();
+			addDependencies(definition.node.getValue(), definition.position, dependencies);
+			definition.dependencies = dependencies.toArray(new Definition[dependencies.size()]);
+			stack.add(definition);
+		}
+
+		private void addDependencies(BibtexAbstractValue value, int position, List<Definition> dependencies) {
+			if (value instanceof BibtexMacroReference) {
+				Definition dependency = lookUp(((BibtexMacroReference) value).getKey(), position);
+				if (dependency != null)
+					dependencies.add(dependency);
+			} else if (value instanceof BibtexConcatenatedValue) {
+				addDependencies(((BibtexConcatenatedValue) value).getLeft(), position, dependencies);
+				addDependencies(((BibtexConcatenatedValue) value).getRight(), position, dependencies);
+			}
+		}
+
+		/**
+		 * Expands the macro references in entry, unless it is a macro
+		 * definition; those have been expanded already.
+		 */
+		void expand(BibtexAbstractEntry abstractEntry, int position, List<Problem> problems) {
+			if (abstractEntry instanceof BibtexMacroDefinition) {
+				// see expandDefinitions(...)
 			} else if (abstractEntry instanceof BibtexPreamble) {
 				BibtexPreamble preamble = (BibtexPreamble) abstractEntry;
-				preamble.setContent(simplify(bibtexFile, preamble.getContent(), stringKey2StringValue));
+				preamble.setContent(simplify(preamble.getContent(), position, null, problems));
 			} else if (abstractEntry instanceof BibtexEntry) {
 				BibtexEntry entry = (BibtexEntry) abstractEntry;
 				for (Iterator fieldIt = entry.getFields().entrySet().iterator(); fieldIt.hasNext();) {
@@ -112,70 +287,179 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 					if (!(field.getValue() instanceof BibtexString)) {
 						entry.setField(
 							(String) field.getKey(),
-							simplify(bibtexFile, (BibtexAbstractValue) field.getValue(), stringKey2StringValue));
+							simplify((BibtexAbstractValue) field.getValue(), position, entry.getEntryKey(), problems));
 					}
 				}
 			} else if (abstractEntry instanceof BibtexToplevelComment) {
 				// don't do anything here ...
 			} else {
-				throwExpansionException(
+				problems.add(new Problem(
+					position,
+					Diagnostic.ERROR,
+					Diagnostic.UNSUPPORTED_NODE,
+					null,
 					"MacroReferenceExpander.expand(): I don't support \""
 						+ abstractEntry.getClass().getName()
-						+ "\". Use the force, read the source!");
+						+ "\". Use the force, read the source!"));
 			}
 		}
-		finishExpansion();
-	}
 
-	private BibtexAbstractValue simplify(
-		BibtexFile factory,
-		BibtexAbstractValue compositeValue,
-		HashMap stringKey2StringValue)
-		throws ExpansionException {
-		if (compositeValue instanceof BibtexString)
-			return (BibtexString) compositeValue;
-		if (compositeValue instanceof BibtexMacroReference) {
-			BibtexMacroReference reference = (BibtexMacroReference) compositeValue;
-			String key = reference.getKey();
+		private BibtexAbstractValue simplify(
+			BibtexAbstractValue compositeValue,
+			int position,
+			String entryKey,
+			List<Problem> problems) {
+			if (compositeValue instanceof BibtexString)
+				return (BibtexString) compositeValue;
+			if (compositeValue instanceof BibtexMacroReference)
+				return resolve((BibtexMacroReference) compositeValue, position, entryKey, problems);
+			if (compositeValue instanceof BibtexConcatenatedValue) {
+				// usually, everything expands to strings, and then we make
+				// one string, not one for each # on the way.
+				if (isString(compositeValue, position)) {
+					StringBuffer content = new StringBuffer();
+					appendContent(compositeValue, position, entryKey, problems, content);
+					return factory.makeString(content.toString());
+				}
+				BibtexConcatenatedValue concatenatedValue = (BibtexConcatenatedValue) compositeValue;
+				BibtexAbstractValue left = simplify(concatenatedValue.getLeft(), position, entryKey, problems);
+				BibtexAbstractValue right = simplify(concatenatedValue.getRight(), position, entryKey, problems);
+				if (left instanceof BibtexString && right instanceof BibtexString)
+					return factory.makeString(
+						((BibtexString) left).getContent() + ((BibtexString) right).getContent());
+				else
+					return factory.makeConcatenatedValue(left, right);
+			}
+			problems.add(new Problem(
+				position,
+				Diagnostic.ERROR,
+				Diagnostic.UNSUPPORTED_NODE,
+				entryKey,
+				"MacroReferenceExpander.simplify(): I don't support \""
+					+ compositeValue.getClass().getName()
+					+ "\". Use the force, read the source!"));
+			return factory.makeString(""); // so we don't know what to do, let's
+			// use the empty string
+		}
 
-			BibtexString simplifiedValue = (BibtexString) stringKey2StringValue.get(key);
-			if (simplifiedValue == null) {
-
-				if (!this.expandMonthAbbreviations && BibtexStandardMacros.isMonthAbbreviation(key))
-					return reference;
-				if (!this.expandStandardMacros && BibtexStandardMacros.isStandardMacro(key))
-					return reference;
-
-				if (BibtexStandardMacros.isStandardMacro(key)) {
-					return factory.makeString(BibtexStandardMacros.resolveStandardMacro(key));
-				} else {
-					throwExpansionException(
-						"Invalid macro reference (target does not exist): \"" + reference.getKey() + "\"");
-					return factory.makeString(""); // if target does not exist:
-					// resolve to empty string.
+		private BibtexAbstractValue resolve(
+			BibtexMacroReference reference,
+			int position,
+			String entryKey,
+			List<Problem> problems) {
+			String key = reference.getKey();
+			Definition definition = lookUp(key, position);
+			if (definition != null) {
+				if (definition.value != null)
+					return definition.value;
+				// it's on the stack, see expandDefinitions(...)
+				StringBuffer cycle = new StringBuffer();
+				for (int i = stack.indexOf(definition); i < stack.size(); i++) {
+					cycle.append(stack.get(i).node.getKey()).append(" -> ");
 				}
+				cycle.append(key);
+				problems.add(new Problem(
+					position,
+					Diagnostic.WARNING,
+					Diagnostic.CYCLIC_MACRO,
+					entryKey,
+					"Cyclic macro reference: " + cycle));
+				return factory.makeString("");
+			}
+
+			if (!expandMonthAbbreviations && BibtexStandardMacros.isMonthAbbreviation(key))
+				return reference;
+			if (!expandStandardMacros && BibtexStandardMacros.isStandardMacro(key))
+				return reference;
+
+			if (BibtexStandardMacros.isStandardMacro(key)) {
+				return factory.makeString(BibtexStandardMacros.resolveStandardMacro(key));
+			} else {
+				problems.add(new Problem(
+					position,
+					Diagnostic.WARNING,
+					Diagnostic.UNDEFINED_MACRO,
+					entryKey,
+					"Invalid macro reference (target does not exist): \"" + reference.getKey() + "\""));
+				return factory.makeString(""); // if target does not exist:
+				// resolve to empty string.
 			}
-			return simplifiedValue;
 		}
-		if (compositeValue instanceof BibtexConcatenatedValue) {
-			BibtexConcatenatedValue concatenatedValue = (BibtexConcatenatedValue) compositeValue;
-			BibtexAbstractValue left = simplify(factory, concatenatedValue.getLeft(), stringKey2StringValue);
-			BibtexAbstractValue right = simplify(factory, concatenatedValue.getRight(), stringKey2StringValue);
-			if (left instanceof BibtexString && right instanceof BibtexString)
-				return factory.makeString(
-					((BibtexString) left).getContent() + ((BibtexString) right).getContent());
-			else
-				return factory.makeConcatenatedValue(left, right);
+
+		/**
+		 * @return whether simplify(value, position, ...) returns a string.
+		 */
+		private boolean isString(BibtexAbstractValue value, int position) {
+			if (value instanceof BibtexString)
+				return true;
+			if (value instanceof BibtexMacroReference) {
+				final String key = ((BibtexMacroReference) value).getKey();
+				Definition definition = lookUp(key, position);
+				if (definition != null)
+					return definition.value == null || definition.value instanceof BibtexString;
+				if (!expandMonthAbbreviations && BibtexStandardMacros.isMonthAbbreviation(key))
+					return false;
+				return expandStandardMacros || !BibtexStandardMacros.isStandardMacro(key);
+			}
+			if (value instanceof BibtexConcatenatedValue)
+				return isString(((BibtexConcatenatedValue) value).getLeft(), position)
+					&& isString(((BibtexConcatenatedValue) value).getRight(), position);
+			return false;
+		}
+
+		private void appendContent(
+			BibtexAbstractValue value,
+			int position,
+			String entryKey,
+			List<Problem> problems,
+			StringBuffer content) {
+			if (value instanceof BibtexConcatenatedValue) {
+				appendContent(((BibtexConcatenatedValue) value).getLeft(), position, entryKey, problems, content);
+				appendContent(((BibtexConcatenatedValue) value).getRight(), position, entryKey, problems, content);
+			} else {
+				content.append(((BibtexString) simplify(value, position, entryKey, problems)).getContent());
+			}
 		}
-		throwExpansionException(
-			"MacroReferenceExpander.simplify(): I don't support \""
-				+ compositeValue.getClass().getName()
-				+ "\". Use the force, read the source!");
-		return factory.makeString(""); // so we don't know what to do, let's
-		// use the empty string
 	}
 
-	
+	private static final Definition[] NO_DEPENDENCIES = new Definition[0];
 
+	/**
+	 * Expands the entries from start to end, in halves until there are at
+	 * most BATCH_SIZE, and collects the problems in the order of the file.
+	 */
+	private static final class EntryTask extends RecursiveAction {
 
+		private static final long serialVersionUID = 1L;
+
+		EntryTask(Expansion expansion, BibtexAbstractEntry[] entries, int start, int end) {
+			this.expansion = expansion;
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+		}
+
+		private final Expansion expansion;
+
+		private final BibtexAbstractEntry[] entries;
+
+		private final int start, end;
+
+		final List<Problem> problems = new ArrayList<Problem>();
+
+		protected void compute() {
+			if (end - start > BATCH_SIZE) {
+				final int middle = (start + end) >>> 1;
+				EntryTask first = new EntryTask(expansion, entries, start, middle);
+				EntryTask second = new EntryTask(expansion, entries, middle, end);
+				invokeAll(first, second);
+				problems.addAll(first.problems);
+				problems.addAll(second.problems);
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				expansion.expand(entries[i], i, problems);
+			}
+		}
+	}
 }
@@ -6,16 +6,29 @@
  */
 package bibtex.expansions;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
+import bibtex.Diagnostic;
+import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexPersonList;
 import bibtex.dom.BibtexString;
 
 /**
  * This expander will convert author/editor field values into BibtexPersonList
  * objects.
  * 
+ * The same author line often occurs many times in a large bibliography, so
+ * each content is parsed once and the BibtexPersonList is shared between the
+ * fields with that content (see BibtexPersonList.setShared()). At most
+ * getCacheSize() different contents are remembered per file.
+ * 
  * @author henkel
  */
 public class PersonListExpander extends AbstractExpander implements Expander {
@@ -35,10 +48,11 @@ public class PersonListExpander extends AbstractExpander implements Expander {
 	 * @param expandAuthors
 	 * @param expandEditors
 	 * @param throwAllExpansionExceptions
-	 *            Setting this to true means that all exceptions will be thrown
-	 *            immediately. Otherwise, the expander will skip over things it
-	 *            can't expand and you can use getExceptions to retrieve the
-	 *            exceptions later
+	 *            Setting this to true means that the first problem is thrown
+	 *            as an exception once everything has been expanded, see
+	 *            expand(BibtexFile). Otherwise, the expander will skip over
+	 *            things it can't expand and you can use getExceptions to
+	 *            retrieve the exceptions later
 	 */
 	public PersonListExpander(
 		boolean expandAuthors,
@@ -51,42 +65,185 @@ public class PersonListExpander extends AbstractExpander implements Expander {
 
 	private boolean expandAuthors, expandEditors;
 
+	/**
+	 * The number of different author/editor contents that are remembered by
+	 * default.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 65536;
+
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+
+	private final LongAdder cacheHits = new LongAdder(), cacheMisses = new LongAdder();
+
+	private static final int BATCH_SIZE = 1024;
+
+	/**
+	 * Sets the number of different author/editor contents that are remembered
+	 * while expanding a file. Once that many are remembered, the person lists
+	 * of other contents are parsed for each field and not shared. 0 turns
+	 * sharing off.
+	 * 
+	 * @param cacheSize
+	 */
+	public void setCacheSize(int cacheSize) {
+		assert cacheSize >= 0 : "cacheSize parameter may not be negative.";
+
+		this.cacheSize = cacheSize;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @return the number of fields that got a person list that was parsed
+	 *         before, over all calls of expand(...).
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return the number of fields that had to be parsed, over all calls of
+	 *         expand(...).
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * @return hits / (hits + misses), or 0 if nothing has been expanded yet.
+	 */
+	public double getCacheHitRate() {
+		final long hits = getCacheHits(), requests = hits + getCacheMisses();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
 	/**
 	 * This method will expand all author and editor fields (if configured in
 	 * the constructor) into BibtexPersonList values. Before you call this
 	 * method, please make sure you have used the MacroReferenceExpander.
 	 * 
+	 * The entries are expanded in batches on the pool (see setPool(...)),
+	 * unless the file doesn't support that (see
+	 * BibtexFile.supportsConcurrentAccess()).
+	 * 
 	 * If you use the flag throwAllExpansionExceptions set to false, you can
-	 * retrieve all the exceptions using getExceptions()
+	 * retrieve all the exceptions using getExceptions(). The problems are
+	 * reported in the order of the file once everything has been expanded, so
+	 * with the flag set to true, the first problem is thrown then.
 	 * 
 	 * @param file
 	 */
 	public void expand(BibtexFile file) throws ExpansionException {
-		for (Iterator entryIt = file.getEntries().iterator(); entryIt.hasNext();) {
-			Object next = entryIt.next();
-			if (!(next instanceof BibtexEntry))
-				continue;
-			BibtexEntry entry = (BibtexEntry) next;
-			if (expandAuthors && entry.getFieldValue("author") != null) {
-				try {
-					entry.setField(
-						"author",
-						BibtexPersonListParser.parse((BibtexString) entry.getFieldValue("author"),""+entry.getEntryKey()));
-				} catch (PersonListParserException e) {
-					throwExpansionException(e);
-				}
-			}
-			if (expandEditors && entry.getFieldValue("editor") != null) {
-				try {
-					entry.setField(
-						"editor",
-						BibtexPersonListParser.parse((BibtexString) entry.getFieldValue("editor"),""+entry.getEntryKey()));
-				} catch (PersonListParserException e) {
-					throwExpansionException(e);
-				}
+		Expansion expansion = new Expansion();
+		List<Problem> problems = new ArrayList<Problem>();
+		if (!file.supportsConcurrentAccess() || file.getEntries().size() <= BATCH_SIZE) {
+			int position = 0;
+			for (Iterator<BibtexAbstractEntry> it = file.getEntries().iterator(); it.hasNext(); position++) {
+				expansion.expand(it.next(), position, problems);
 			}
+		} else {
+			// a copy, since the tasks read it concurrently.
+			BibtexAbstractEntry[] entries = file.getEntries().toArray(new BibtexAbstractEntry[0]);
+			EntryTask task = new EntryTask(expansion, entries, 0, entries.length);
+			getPool().invoke(task);
+			problems.addAll(task.problems);
 		}
+		reportProblems(problems);
 		finishExpansion();
 	}
 
+	/**
+	 * The person lists of one file by content. The lists in the cache are
+	 * shared, so they are never changed and can be handed out to any thread.
+	 * Contents that can't be parsed aren't cached: the message of the problem
+	 * names the entry.
+	 */
+	private final class Expansion {
+
+		private final ConcurrentHashMap<String, BibtexPersonList> cache =
+			new ConcurrentHashMap<String, BibtexPersonList>();
+
+		void expand(BibtexAbstractEntry abstractEntry, int position, List<Problem> problems) {
+			if (!(abstractEntry instanceof BibtexEntry))
+				return;
+			BibtexEntry entry = (BibtexEntry) abstractEntry;
+			if (expandAuthors)
+				expand(entry, "author", position, problems);
+			if (expandEditors)
+				expand(entry, "editor", position, problems);
+		}
+
+		private void expand(BibtexEntry entry, String fieldName, int position, List<Problem> problems) {
+			BibtexString value = (BibtexString) entry.getFieldValue(fieldName);
+			if (value == null)
+				return;
+			try {
+				entry.setField(fieldName, getPersonList(value, entry.getEntryKey()));
+			} catch (PersonListParserException e) {
+				problems.add(new Problem(position, Diagnostic.ERROR, Diagnostic.INVALID_PERSON_LIST, entry
+					.getEntryKey(), e));
+			}
+		}
+
+		private BibtexPersonList getPersonList(BibtexString value, String entryKey)
+			throws PersonListParserException {
+			final String content = value.getContent();
+			BibtexPersonList personList = cache.get(content);
+			if (personList != null) {
+				cacheHits.increment();
+				return personList;
+			}
+			cacheMisses.increment();
+			personList = BibtexPersonListParser.parse(value, "" + entryKey);
+			if (cache.size() < cacheSize) {
+				// another thread may have parsed the same content meanwhile.
+				personList.setShared();
+				BibtexPersonList cached = cache.putIfAbsent(content, personList);
+				if (cached != null)
+					return cached;
+			}
+			return personList;
+		}
+	}
+
+	/**
+	 * Expands the entries from start to end, in halves until there are at
+	 * most BATCH_SIZE, and collects the problems in the order of the file.
+	 */
+	private static final class EntryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		EntryTask(Expansion expansion, BibtexAbstractEntry[] entries, int start, int end) {
+			this.expansion = expansion;
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+		}
+
+		private final Expansion expansion;
+
+		private final BibtexAbstractEntry[] entries;
+
+		private final int start, end;
+
+		final List<Problem> problems = new ArrayList<Problem>();
+
+		protected void compute() {
+			if (end - start > BATCH_SIZE) {
+				final int middle = (start + end) >>> 1;
+				EntryTask first = new EntryTask(expansion, entries, start, middle);
+				EntryTask second = new EntryTask(expansion, entries, middle, end);
+				invokeAll(first, second);
+				problems.addAll(first.problems);
+				problems.addAll(second.problems);
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				expansion.expand(entries[i], i, problems);
+			}
+		}
+	}
 }
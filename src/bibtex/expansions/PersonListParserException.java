@@ -7,10 +7,13 @@
 package bibtex.expansions;
 
 /**
+ * This exception never leaves the package - the PersonListExpander wraps it
+ * into an ExpansionException, so it doesn't need a stack trace of its own.
+ * 
  * @author henkel
  */
 class PersonListParserException extends java.lang.Exception {
 	PersonListParserException(String message) {
-		super(message);
+		super(message, null, false, false);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.util.HashSet;
+import java.util.List;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * The BibtexHandler that builds the bibtex model for BibtexParser.parse(...).
+ *
+ * If the parser is set to lazy field values and reads a LookAheadByteBuffer,
+ * the entries only get the positions of their field values (see
+ * LazyEntrySource). This doesn't work with
+ * BibtexMultipleFieldValuesPolicy.KEEP_ALL, so then the values are built
+ * right away.
+ */
+final class BibtexDomBuilder implements BibtexHandler {
+
+	/**
+	 * @param factory
+	 *            makes the nodes.
+	 * @param entries
+	 *            the entries are appended to this list - if it is null, they
+	 *            are added to the factory.
+	 * @param exceptionListener
+	 *            gets the non-fatal exceptions; may be null.
+	 * @param parser
+	 *            the parser that calls this handler - we get its multiple field
+	 *            values policy and, for lazy field values, the positions from
+	 *            it.
+	 */
+	BibtexDomBuilder(BibtexFile factory, List<BibtexAbstractEntry> entries,
+		ParseExceptionListener exceptionListener, BibtexParser parser) {
+		this.factory = factory;
+		this.entries = entries;
+		this.exceptionListener = exceptionListener;
+		this.parser = parser;
+		this.multipleFieldValuesPolicy = parser.getMultipleFieldValuesPolicy();
+		this.lazy = parser.getLazyFieldValues()
+			&& multipleFieldValuesPolicy != BibtexMultipleFieldValuesPolicy.KEEP_ALL;
+	}
+
+	private final BibtexFile factory;
+	private final List<BibtexAbstractEntry> entries;
+	private final ParseExceptionListener exceptionListener;
+	private final BibtexParser parser;
+	private final int multipleFieldValuesPolicy;
+	private final boolean lazy;
+
+	private BibtexEntry currentEntry;
+
+	// for lazy field values
+	private LazyEntrySource currentSource;
+	private final HashSet<String> currentFieldNames = new HashSet<String>();
+
+	private void addEntry(BibtexAbstractEntry entry) {
+		if (entries != null)
+			entries.add(entry);
+		else
+			factory.addEntry(entry);
+	}
+
+	/**
+	 * a # b # c becomes a # (b # c), just like it always did.
+	 */
+	BibtexAbstractValue makeValue(BibtexValueTokens tokens) {
+		return makeValue(factory, tokens);
+	}
+
+	static BibtexAbstractValue makeValue(BibtexFile factory, BibtexValueTokens tokens) {
+		int index = tokens.size() - 1;
+		BibtexAbstractValue result = makeValue(factory, tokens, index);
+		while (--index >= 0) {
+			result = factory.makeConcatenatedValue(makeValue(factory, tokens, index), result);
+		}
+		return result;
+	}
+
+	private static BibtexAbstractValue makeValue(BibtexFile factory, BibtexValueTokens tokens, int index) {
+		if (tokens.getKind(index) == BibtexValueTokens.MACRO_REFERENCE)
+			return factory.makeMacroReference(tokens.getContent(index));
+		else
+			return factory.makeString(tokens.getContent(index));
+	}
+
+	public void startEntry(String entryType, String entryKey) {
+		currentEntry = factory.makeEntry(entryType, entryKey);
+		addEntry(currentEntry);
+		LookAheadByteBuffer input;
+		if (lazy && (input = parser.getByteInput()) != null) {
+			currentSource = new LazyEntrySource(input.getBuffer(), input.getEncoding(), parser.getItemStart(),
+				parser.getItemLine());
+			currentEntry.setSource(currentSource);
+			currentFieldNames.clear();
+		}
+	}
+
+	public void field(String fieldName, BibtexValueTokens value) {
+		if (currentSource != null) {
+			// BibtexEntry.getFieldValue would decode the value, so we keep
+			// track of the names ourselves - the lower case ones, since that's
+			// what the entry would have compared the name with.
+			if (multipleFieldValuesPolicy == BibtexMultipleFieldValuesPolicy.KEEP_LAST
+				|| !currentFieldNames.contains(fieldName))
+				currentEntry.setLazyField(fieldName, currentSource.addField(value.getStart(), value.getEnd()));
+			currentFieldNames.add(fieldName.toLowerCase());
+			return;
+		}
+		switch (this.multipleFieldValuesPolicy) {
+		case BibtexMultipleFieldValuesPolicy.KEEP_FIRST:
+			if (currentEntry.getFieldValue(fieldName) == null)
+				currentEntry.setField(fieldName, makeValue(value));
+			break;
+		case BibtexMultipleFieldValuesPolicy.KEEP_LAST:
+			currentEntry.setField(fieldName, makeValue(value));
+			break;
+		case BibtexMultipleFieldValuesPolicy.KEEP_ALL:
+			currentEntry.addFieldValue(fieldName, makeValue(value));
+			break;
+		default:
+			assert false : "this should not happen.";
+		}
+	}
+
+	public void endEntry() {
+		if (currentSource != null) {
+			currentSource.setEnd(parser.getPosition());
+			currentSource = null;
+		}
+		currentEntry = null;
+	}
+
+	public void macroDefinition(String key, BibtexValueTokens value) {
+		addEntry(factory.makeMacroDefinition(key, makeValue(value)));
+	}
+
+	public void preamble(BibtexValueTokens value) {
+		addEntry(factory.makePreamble(makeValue(value)));
+	}
+
+	public void comment(String content) {
+		addEntry(factory.makeToplevelComment(content));
+	}
+
+	public void error(ParseException exception) {
+		currentEntry = null;
+		currentSource = null;
+		if (exceptionListener != null)
+			exceptionListener.exceptionOccurred(exception);
+	}
+}
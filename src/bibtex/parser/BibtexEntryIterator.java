@@ -0,0 +1,112 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Parses its input one top level entry at a time, as you ask for them. The
+ * entries come in the same order as in BibtexFile.getEntries() after
+ * BibtexParser.parse(...), but neither the iterator nor the factory keeps a
+ * reference to them - so you can walk through bibliographies that don't fit
+ * into the heap, and start working before the whole file has been read.
+ *
+ * The input is closed when the end is reached, when a parse exception is
+ * thrown (in throwAllParseExceptions mode) or when you call close(). Call
+ * close() if you stop early.
+ *
+ * Since Iterator doesn't allow checked exceptions, ParseExceptions are thrown
+ * as UncheckedParseException and IOExceptions as UncheckedIOException.
+ *
+ * @see BibtexParser#iterator(BibtexFile, java.io.Reader,
+ *      ParseExceptionListener)
+ */
+public final class BibtexEntryIterator implements Iterator<BibtexAbstractEntry>, Closeable {
+
+	/**
+	 * @param parser
+	 *            a parser that is used by this iterator only.
+	 * @param input
+	 *            is closed together with this iterator.
+	 */
+	BibtexEntryIterator(BibtexParser parser, BibtexFile factory, PseudoLexer lexer, Closeable input,
+		ParseExceptionListener exceptionListener) {
+		this.parser = parser;
+		this.input = input;
+		parser.start(lexer, new BibtexDomBuilder(factory, pending, exceptionListener, parser));
+	}
+
+	private final BibtexParser parser;
+
+	private final Closeable input;
+
+	/**
+	 * the entries of the current top level item - usually just one.
+	 */
+	private final LinkedList<BibtexAbstractEntry> pending = new LinkedList<BibtexAbstractEntry>();
+
+	private boolean closed;
+
+	public boolean hasNext() {
+		while (pending.isEmpty() && !closed) {
+			boolean more = false;
+			try {
+				more = parser.parseTopLevelItem();
+			} catch (ParseException e) {
+				closeQuietly();
+				throw new UncheckedParseException(e);
+			} catch (IOException e) {
+				closeQuietly();
+				throw new UncheckedIOException(e);
+			}
+			if (!more) {
+				try {
+					close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+		return !pending.isEmpty();
+	}
+
+	public BibtexAbstractEntry next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return pending.removeFirst();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops parsing and closes the input. Entries that have already been
+	 * parsed are still returned by next().
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		parser.finish();
+		input.close();
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// we're about to throw the more interesting exception.
+		}
+	}
+}
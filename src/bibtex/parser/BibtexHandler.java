@@ -0,0 +1,91 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+/**
+ * Receives the contents of a bibtex file from the BibtexParser as it is
+ * parsed, without a BibtexFile being built. This is the way to go for tools
+ * that only look at a few fields or that stream through bibliographies that
+ * are too large for the heap. For example,
+ *
+ * <pre>
+ *   &#064;article{henkel04,
+ *      author = "Johannes Henkel",
+ *      year = 2004
+ *   }
+ * </pre>
+ *
+ * results in startEntry("article", "henkel04"), field("author", ...),
+ * field("year", ...), endEntry().
+ *
+ * The parser itself builds its BibtexFile on top of this interface. If you only
+ * care about some of the events, extend BibtexHandlerAdapter.
+ *
+ * @see BibtexParser#parse(java.io.Reader, BibtexHandler)
+ * @see BibtexHandlerAdapter
+ */
+public interface BibtexHandler {
+
+	/**
+	 * Called for every entry that is not a macro definition or a preamble.
+	 *
+	 * @param entryType
+	 *            the entry type in lower case, e.g. inproceedings.
+	 * @param entryKey
+	 *            the key; empty if the entry doesn't have one.
+	 */
+	public void startEntry(String entryType, String entryKey);
+
+	/**
+	 * Called for every field of the current entry, in the order of the input.
+	 * Multiple values for the same field are all reported.
+	 *
+	 * @param fieldName
+	 *            the field name as it appears in the input.
+	 * @param value
+	 *            only valid until this method returns.
+	 */
+	public void field(String fieldName, BibtexValueTokens value);
+
+	/**
+	 * Called after the closing bracket of the current entry has been parsed. If
+	 * the entry can't be parsed, error is called instead.
+	 */
+	public void endEntry();
+
+	/**
+	 * Called for every &#064;string definition.
+	 *
+	 * @param key
+	 *            the name of the macro as it appears in the input.
+	 * @param value
+	 *            only valid until this method returns.
+	 */
+	public void macroDefinition(String key, BibtexValueTokens value);
+
+	/**
+	 * Called for every &#064;preamble.
+	 *
+	 * @param value
+	 *            only valid until this method returns.
+	 */
+	public void preamble(BibtexValueTokens value);
+
+	/**
+	 * Called for everything at the top level that is not an entry.
+	 *
+	 * @param content
+	 */
+	public void comment(String content);
+
+	/**
+	 * Called for every non-fatal exception, i.e. if the parser was not
+	 * configured to throw all parse exceptions. The parser will then treat the
+	 * remainder of the broken entry as a top level comment.
+	 *
+	 * @param exception
+	 */
+	public void error(ParseException exception);
+}
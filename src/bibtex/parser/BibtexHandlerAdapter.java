@@ -0,0 +1,33 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+/**
+ * A BibtexHandler that ignores everything - extend this and override the
+ * methods you're interested in.
+ */
+public class BibtexHandlerAdapter implements BibtexHandler {
+
+	public void startEntry(String entryType, String entryKey) {
+	}
+
+	public void field(String fieldName, BibtexValueTokens value) {
+	}
+
+	public void endEntry() {
+	}
+
+	public void macroDefinition(String key, BibtexValueTokens value) {
+	}
+
+	public void preamble(BibtexValueTokens value) {
+	}
+
+	public void comment(String content) {
+	}
+
+	public void error(ParseException exception) {
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Knows where each entry of a bibtex file is, by citation key, so that single
+ * entries can be parsed without parsing the whole file - see
+ * BibtexParser.parseEntry(BibtexFile, BibtexKeyIndex, String). The byte offset,
+ * length and line number of every entry and of every &#064;string definition
+ * are recorded.
+ *
+ * The index is kept in a file next to the bibtex file (see getIndexPath), and
+ * it is rebuilt whenever the size or the modification time of the bibtex file
+ * changes. Only UTF-8, ISO-8859-1 and US-ASCII files of up to 2GB can be
+ * indexed.
+ *
+ * Keys are case insensitive, like in bibtex and BibtexFile.getEntryByKey. If a
+ * key occurs more than once, the first entry is indexed. Entries that can't be
+ * parsed are not indexed.
+ */
+public final class BibtexKeyIndex {
+
+	private static final int MAGIC = 0x62696278; // "bibx"
+
+	private static final int VERSION = 1;
+
+	private static final String INDEX_SUFFIX = ".keyidx";
+
+	private static final byte ENTRY = 0;
+
+	private static final byte MACRO_DEFINITION = 1;
+
+	/**
+	 * Loads the index of the bibtex file at path, or builds it (and saves it)
+	 * if there is none yet or if it is out of date. If the index can't be
+	 * saved, e.g. because the directory is read-only, it is only kept in
+	 * memory.
+	 *
+	 * @param path
+	 * @param charset
+	 *            the encoding of the bibtex file.
+	 * @return the index.
+	 * @throws IOException
+	 *             if the bibtex file can't be read.
+	 */
+	public static BibtexKeyIndex open(Path path, Charset charset) throws IOException {
+
+		assert path != null : "path parameter may not be null.";
+		assert charset != null : "charset parameter may not be null.";
+
+		if (!LookAheadByteBuffer.canDecode(charset))
+			throw new IllegalArgumentException("Can't index files in " + charset + ".");
+
+		BibtexKeyIndex index = new BibtexKeyIndex(path, charset);
+		if (!index.load())
+			index.rebuild();
+		return index;
+	}
+
+	/**
+	 * @return where the index of the bibtex file at path is stored: in the same
+	 *         directory, with .keyidx appended to the name.
+	 */
+	public static Path getIndexPath(Path path) {
+		return path.resolveSibling(path.getFileName() + INDEX_SUFFIX);
+	}
+
+	private BibtexKeyIndex(Path path, Charset charset) {
+		this.path = path;
+		this.charset = charset;
+	}
+
+	private final Path path;
+
+	private final Charset charset;
+
+	// the state of the bibtex file when it was indexed
+	private long fileSize, fileModified;
+
+	// the entries and macro definitions in the order of the file
+	private int size;
+	private byte[] kinds;
+	private String[] keys;
+	private long[] offsets;
+	private int[] lengths;
+	private int[] lines;
+
+	// lower case key -> the index of the first entry with it
+	private HashMap<String, Integer> entriesByKey;
+
+	// lower case macro name -> the indices of its definitions, in file order
+	private HashMap<String, List<Integer>> macroDefinitionsByName;
+
+	public Path getPath() {
+		return path;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return the number of indexed entries.
+	 */
+	public int size() {
+		return entriesByKey.size();
+	}
+
+	/**
+	 * @param key
+	 *            is case insensitive.
+	 */
+	public boolean containsKey(String key) {
+		return entriesByKey.containsKey(key.toLowerCase());
+	}
+
+	/**
+	 * @return the keys of the indexed entries, in lower case.
+	 */
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(entriesByKey.keySet());
+	}
+
+	/**
+	 * @return false if the bibtex file has changed since it was indexed.
+	 */
+	public boolean isUpToDate() throws IOException {
+		return Files.size(path) == fileSize && Files.getLastModifiedTime(path).toMillis() == fileModified;
+	}
+
+	/**
+	 * Rebuilds the index if the bibtex file has changed since it was indexed.
+	 *
+	 * @return true if the index was rebuilt.
+	 */
+	public boolean refresh() throws IOException {
+		if (isUpToDate())
+			return false;
+		rebuild();
+		return true;
+	}
+
+	/**
+	 * @return the index of the entry with the given key (case insensitive), or
+	 *         -1.
+	 */
+	int findEntry(String key) {
+		Integer item = entriesByKey.get(key.toLowerCase());
+		return item == null ? -1 : item.intValue();
+	}
+
+	/**
+	 * @return the index of the definition of the macro that is in effect at
+	 *         offset, i.e. the last one before it, or -1 if there is none.
+	 */
+	int findMacroDefinition(String name, long offset) {
+		List<Integer> definitions = macroDefinitionsByName.get(name.toLowerCase());
+		if (definitions == null)
+			return -1;
+		for (int i = definitions.size() - 1; i >= 0; i--) {
+			int item = definitions.get(i).intValue();
+			if (offsets[item] < offset)
+				return item;
+		}
+		return -1;
+	}
+
+	long getOffset(int item) {
+		return offsets[item];
+	}
+
+	int getLength(int item) {
+		return lengths[item];
+	}
+
+	int getLine(int item) {
+		return lines[item];
+	}
+
+	private void rebuild() throws IOException {
+		final long fileModified = Files.getLastModifiedTime(path).toMillis();
+		final MappedByteBuffer buffer;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Can't index files larger than 2GB: " + path);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		clear(Math.max(16, buffer.limit() >> 9));
+		this.fileSize = buffer.limit();
+		this.fileModified = fileModified;
+
+		final LookAheadByteBuffer input = new LookAheadByteBuffer(buffer, LookAheadByteBuffer.getEncoding(charset), 1);
+		final KeyCollector collector = new KeyCollector();
+		final BibtexParser parser = new BibtexParser(false);
+		parser.start(new PseudoLexer(input), collector);
+		try {
+			while (true) {
+				collector.key = null;
+				collector.failed = false;
+				if (!parser.parseTopLevelItem())
+					break;
+				if (collector.key != null && !collector.failed) {
+					final int start = parser.getItemStart();
+					add(collector.kind, collector.key, start, input.getPosition() - start, parser.getItemLine());
+				}
+			}
+		} catch (ParseException e) {
+			// can't happen, we don't throw parse exceptions.
+			throw new IOException(e);
+		} finally {
+			parser.finish();
+		}
+
+		try {
+			save();
+		} catch (IOException e) {
+			// we still have the index in memory.
+		}
+	}
+
+	/**
+	 * Remembers the key of the current top level item.
+	 */
+	private static final class KeyCollector extends BibtexHandlerAdapter {
+		byte kind;
+		String key;
+		boolean failed;
+
+		public void startEntry(String entryType, String entryKey) {
+			kind = ENTRY;
+			key = entryKey;
+		}
+
+		public void macroDefinition(String key, BibtexValueTokens value) {
+			kind = MACRO_DEFINITION;
+			this.key = key;
+		}
+
+		public void error(ParseException exception) {
+			failed = true;
+		}
+	}
+
+	private void clear(int capacity) {
+		size = 0;
+		kinds = new byte[capacity];
+		keys = new String[capacity];
+		offsets = new long[capacity];
+		lengths = new int[capacity];
+		lines = new int[capacity];
+		entriesByKey = new HashMap<String, Integer>();
+		macroDefinitionsByName = new HashMap<String, List<Integer>>();
+	}
+
+	private void add(byte kind, String key, long offset, int length, int line) {
+		if (size == kinds.length) {
+			final int capacity = size * 2;
+			byte[] newKinds = new byte[capacity];
+			String[] newKeys = new String[capacity];
+			long[] newOffsets = new long[capacity];
+			int[] newLengths = new int[capacity];
+			int[] newLines = new int[capacity];
+			System.arraycopy(kinds, 0, newKinds, 0, size);
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(offsets, 0, newOffsets, 0, size);
+			System.arraycopy(lengths, 0, newLengths, 0, size);
+			System.arraycopy(lines, 0, newLines, 0, size);
+			kinds = newKinds;
+			keys = newKeys;
+			offsets = newOffsets;
+			lengths = newLengths;
+			lines = newLines;
+		}
+		final int item = size++;
+		kinds[item] = kind;
+		keys[item] = key;
+		offsets[item] = offset;
+		lengths[item] = length;
+		lines[item] = line;
+		if (kind == ENTRY) {
+			final String lowerCaseKey = key.toLowerCase();
+			if (!entriesByKey.containsKey(lowerCaseKey))
+				entriesByKey.put(lowerCaseKey, Integer.valueOf(item));
+		} else {
+			final String name = key.toLowerCase();
+			List<Integer> definitions = macroDefinitionsByName.get(name);
+			if (definitions == null) {
+				definitions = new ArrayList<Integer>(1);
+				macroDefinitionsByName.put(name, definitions);
+			}
+			definitions.add(Integer.valueOf(item));
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file first, so that nobody ever sees half
+	 * an index.
+	 */
+	private void save() throws IOException {
+		final Path indexPath = getIndexPath(path);
+		final Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(charset.name());
+			out.writeLong(fileSize);
+			out.writeLong(fileModified);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeByte(kinds[i]);
+				out.writeUTF(keys[i]);
+				out.writeLong(offsets[i]);
+				out.writeInt(lengths[i]);
+				out.writeInt(lines[i]);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return false if there is no usable index file.
+	 */
+	private boolean load() throws IOException {
+		final long fileSize = Files.size(path);
+		final long fileModified = Files.getLastModifiedTime(path).toMillis();
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getIndexPath(path))));
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(charset.name())
+				|| in.readLong() != fileSize || in.readLong() != fileModified)
+				return false;
+			final int size = in.readInt();
+			clear(Math.max(16, size));
+			this.fileSize = fileSize;
+			this.fileModified = fileModified;
+			for (int i = 0; i < size; i++) {
+				final byte kind = in.readByte();
+				final String key = in.readUTF();
+				final long offset = in.readLong();
+				final int length = in.readInt();
+				final int line = in.readInt();
+				add(kind, key, offset, length, line);
+			}
+			return true;
+		} catch (IOException e) {
+			// a truncated or otherwise broken index - just build a new one.
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+}
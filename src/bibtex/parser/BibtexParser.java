@@ -6,10 +6,35 @@
  */
 package bibtex.parser;
 
+import java.io.EOFException;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import bibtex.Diagnostic;
+import bibtex.Diagnostics;
+import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
@@ -36,20 +61,40 @@ public final class BibtexParser {
 
     private PseudoLexer lexer;
 
-    private BibtexFile bibtexFile;
+    private BibtexHandler handler;
 
-    private LinkedList exceptions;
+    private final BibtexValueTokens valueTokens = new BibtexValueTokens();
+
+    private LinkedList<ParseException> exceptions;
+
+    private boolean inputContinuesAfterChunk;
+
+    private boolean chunkEndedInsideEntry;
 
     private boolean throwAllParseExceptions;
 
+    private int itemStart, itemLine;
+
     private int multipleFieldValuesPolicy = BibtexMultipleFieldValuesPolicy.KEEP_FIRST;
 
+    private boolean lazyFieldValues;
+
+    private Diagnostics diagnostics;
+
+    // the key of the entry that is being parsed, for the exceptions.
+    private String entryKey;
+
     /**
      * Returns the list of non-fatal exceptions that occured during parsing.
      * Usually, these occur while parsing an entry. Usually, the remainder of
      * the entry will be treated as part of a comment - thus the following entry
      * will be parsed again.
      * 
+     * The exceptions are only collected by the parse methods that fill a
+     * BibtexFile - if you pass your own BibtexHandler, it gets them instead.
+     * If you have set Diagnostics, the problems are reported there, and
+     * nothing is collected here.
+     * 
      * @return List
      */
     public ParseException[] getExceptions() {
@@ -76,33 +121,549 @@ public final class BibtexParser {
         assert bibtexFile != null : "bibtexFile parameter may not be null.";
         assert input != null : "input parameter may not be null.";
 
-        this.lexer = new PseudoLexer(input);
-        this.bibtexFile = bibtexFile;
-        this.exceptions = new LinkedList();
-        while (true) {
-            PseudoLexer.Token token = lexer.scanTopLevelCommentOrAtOrEOF();
-            switch (token.choice) {
-            case 0: // top level comment
-                bibtexFile.addEntry(bibtexFile.makeToplevelComment(token.content));
-                break;
-            case 1: // @ sign
-                if (throwAllParseExceptions)
-                    parseEntry();
-                else {
-                    try {
-                        parseEntry();
-                    } catch (ParseException parseException) {
-                        exceptions.add(parseException);
-                    }
+        parse(new PseudoLexer(input), makeDomBuilder(bibtexFile, null));
+    }
+
+    /**
+     * Equivalent to parse(bibtexFile, path, Charset.defaultCharset()), which
+     * is the charset a FileReader would use.
+     * 
+     * @param bibtexFile
+     * @param path
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void parse(BibtexFile bibtexFile, Path path) throws ParseException, IOException {
+        parse(bibtexFile, path, Charset.defaultCharset());
+    }
+
+    /**
+     * Parses the file at path into bibtexFile. The file is memory-mapped and
+     * scanned directly, which is a lot faster than going through a Reader for
+     * large files. Line and column numbers in the exceptions are the same as
+     * with parse(BibtexFile, Reader).
+     * 
+     * @param bibtexFile
+     * @param path
+     * @param charset
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void parse(BibtexFile bibtexFile, Path path, Charset charset) throws ParseException, IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+
+        parseFile(path, charset, makeDomBuilder(bibtexFile, null));
+    }
+
+    /**
+     * Equivalent to parse(bibtexFile, channel, Charset.defaultCharset()).
+     * 
+     * @param bibtexFile
+     * @param channel
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void parse(BibtexFile bibtexFile, FileChannel channel) throws ParseException, IOException {
+        parse(bibtexFile, channel, Charset.defaultCharset());
+    }
+
+    /**
+     * Parses everything from the current position of channel to the end of
+     * the file into bibtexFile. The channel is not closed.
+     * 
+     * UTF-8, ISO-8859-1 and US-ASCII input is memory-mapped and scanned
+     * without a Reader. Other charsets, and files too large to be mapped in
+     * one piece (2GB), are read through a Reader on top of the channel.
+     * 
+     * @param bibtexFile
+     * @param channel
+     * @param charset
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void parse(BibtexFile bibtexFile, FileChannel channel, Charset charset) throws ParseException,
+            IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+
+        parseChannel(channel, charset, makeDomBuilder(bibtexFile, null));
+    }
+
+    /**
+     * Parses the input and reports its contents to handler, without building
+     * a BibtexFile. Non-fatal exceptions are passed to handler.error(...)
+     * instead of being collected.
+     * 
+     * @param input
+     * @param handler
+     * @throws ParseException
+     *             if throwAllParseExceptions is set.
+     * @throws IOException
+     */
+    public void parse(Reader input, BibtexHandler handler) throws ParseException, IOException {
+
+        assert input != null : "input parameter may not be null.";
+        assert handler != null : "handler parameter may not be null.";
+
+        this.exceptions = null;
+        parse(new PseudoLexer(input), handler);
+    }
+
+    /**
+     * Like parse(Reader, BibtexHandler), but maps the file like
+     * parse(BibtexFile, Path, Charset) does.
+     * 
+     * @param path
+     * @param charset
+     * @param handler
+     * @throws ParseException
+     *             if throwAllParseExceptions is set.
+     * @throws IOException
+     */
+    public void parse(Path path, Charset charset, BibtexHandler handler) throws ParseException, IOException {
+
+        assert handler != null : "handler parameter may not be null.";
+
+        this.exceptions = null;
+        parseFile(path, charset, handler);
+    }
+
+    /**
+     * Returns an iterator that parses the input lazily, one entry at a time.
+     * The entries are made by factory, but they are not added to it. Non-fatal
+     * exceptions are passed to exceptionListener as they occur - they are not
+     * collected, i.e. getExceptions() doesn't return them.
+     * 
+     * The iterator has its own copy of this parser's configuration, so this
+     * parser can be used for other things meanwhile.
+     * 
+     * @param factory
+     * @param input
+     * @param exceptionListener
+     *            may be null, in which case non-fatal exceptions are ignored.
+     * @return an iterator that must be closed if you don't read all of it.
+     * @throws IOException
+     *             if the beginning of the input can't be read.
+     */
+    public BibtexEntryIterator iterator(BibtexFile factory, Reader input, ParseExceptionListener exceptionListener)
+            throws IOException {
+
+        assert factory != null : "factory parameter may not be null.";
+        assert input != null : "input parameter may not be null.";
+
+        return new BibtexEntryIterator(copy(), factory, new PseudoLexer(input), input, exceptionListener);
+    }
+
+    /**
+     * Like iterator(BibtexFile, Reader, ParseExceptionListener), but maps the
+     * file like parse(BibtexFile, Path, Charset) does.
+     * 
+     * @param factory
+     * @param path
+     * @param charset
+     * @param exceptionListener
+     *            may be null, in which case non-fatal exceptions are ignored.
+     * @return an iterator that must be closed if you don't read all of it.
+     * @throws IOException
+     *             if the file can't be opened.
+     */
+    public BibtexEntryIterator iterator(BibtexFile factory, Path path, Charset charset,
+            ParseExceptionListener exceptionListener) throws IOException {
+
+        assert factory != null : "factory parameter may not be null.";
+        assert path != null : "path parameter may not be null.";
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BibtexEntryIterator(copy(), factory, makeLexer(channel, charset), channel,
+                    exceptionListener);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The entries of iterator(factory, input, exceptionListener) as a
+     * sequential Stream. Closing the stream closes the input.
+     */
+    public Stream<BibtexAbstractEntry> stream(BibtexFile factory, Reader input,
+            ParseExceptionListener exceptionListener) throws IOException {
+        return stream(iterator(factory, input, exceptionListener));
+    }
+
+    /**
+     * The entries of iterator(factory, path, charset, exceptionListener) as a
+     * sequential Stream. Closing the stream closes the file.
+     */
+    public Stream<BibtexAbstractEntry> stream(BibtexFile factory, Path path, Charset charset,
+            ParseExceptionListener exceptionListener) throws IOException {
+        return stream(iterator(factory, path, charset, exceptionListener));
+    }
+
+    private static Stream<BibtexAbstractEntry> stream(final BibtexEntryIterator iterator) {
+        Stream<BibtexAbstractEntry> stream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return stream.onClose(new Runnable() {
+            public void run() {
+                try {
+                    iterator.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-                break;
-            case 2: // EOF
-                return;
+            }
+        });
+    }
+
+    /**
+     * Equivalent to parseEntries(bibtexFile, index, Collections.singleton(key)).
+     * 
+     * @return the entry, or null if there is no entry with that key.
+     */
+    public BibtexEntry parseEntry(BibtexFile bibtexFile, BibtexKeyIndex index, String key) throws ParseException,
+            IOException {
+        List<BibtexEntry> entries = parseEntries(bibtexFile, index, Collections.singleton(key));
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    /**
+     * Parses only the entries with the given keys out of the file that index
+     * belongs to, together with the &#064;string definitions they use
+     * (directly or through other definitions). Everything is added to
+     * bibtexFile in the order of the file, so the MacroReferenceExpander works
+     * as usual. The index is rebuilt first if the file has changed.
+     * 
+     * Line numbers in the exceptions are the same as when parsing the whole
+     * file.
+     * 
+     * @param bibtexFile
+     * @param index
+     * @param keys
+     *            case insensitive; keys that are not in the index are ignored.
+     * @return the entries that were found, in the order of the file.
+     * @throws ParseException
+     * @throws IOException
+     */
+    public List<BibtexEntry> parseEntries(BibtexFile bibtexFile, BibtexKeyIndex index, Collection<String> keys)
+            throws ParseException, IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+        assert index != null : "index parameter may not be null.";
+        assert keys != null : "keys parameter may not be null.";
+
+        index.refresh();
+        final byte encoding = LookAheadByteBuffer.getEncoding(index.getCharset());
+        final List<BibtexAbstractEntry> itemEntries = new ArrayList<BibtexAbstractEntry>();
+        final MacroReferenceCollector collector = new MacroReferenceCollector(makeDomBuilder(bibtexFile,
+                itemEntries));
+        // item index (which is in file order) -> what we parsed there
+        final TreeMap<Integer, List<BibtexAbstractEntry>> items = new TreeMap<Integer, List<BibtexAbstractEntry>>();
+        final LinkedList<Integer> pendingItems = new LinkedList<Integer>();
+        final HashSet<Integer> entryItems = new HashSet<Integer>();
+
+        FileChannel channel = FileChannel.open(index.getPath(), StandardOpenOption.READ);
+        try {
+            for (String key : keys) {
+                int item = index.findEntry(key);
+                if (item >= 0) {
+                    pendingItems.add(Integer.valueOf(item));
+                    entryItems.add(Integer.valueOf(item));
+                }
+            }
+            while (!pendingItems.isEmpty()) {
+                final Integer item = pendingItems.removeFirst();
+                if (items.containsKey(item))
+                    continue;
+                final int itemIndex = item.intValue();
+                ByteBuffer buffer = ByteBuffer.allocate(index.getLength(itemIndex));
+                final long offset = index.getOffset(itemIndex);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0)
+                        throw new EOFException(index.getPath() + " is shorter than its index says.");
+                }
+                buffer.flip();
+                parse(new PseudoLexer(new LookAheadByteBuffer(buffer, encoding, index.getLine(itemIndex))), collector);
+                items.put(item, new ArrayList<BibtexAbstractEntry>(itemEntries));
+                itemEntries.clear();
+
+                // macros have to be defined before they are used
+                for (String reference : collector.references) {
+                    int definition = index.findMacroDefinition(reference, offset);
+                    if (definition >= 0)
+                        pendingItems.add(Integer.valueOf(definition));
+                }
+                collector.references.clear();
+            }
+        } finally {
+            channel.close();
+        }
+
+        List<BibtexEntry> result = new ArrayList<BibtexEntry>();
+        for (Map.Entry<Integer, List<BibtexAbstractEntry>> item : items.entrySet()) {
+            for (BibtexAbstractEntry entry : item.getValue()) {
+                bibtexFile.addEntry(entry);
+                if (entry instanceof BibtexEntry && entryItems.contains(item.getKey()))
+                    result.add((BibtexEntry) entry);
             }
         }
+        return result;
     }
 
-    private final static char[] EXCEPTION_SET_NAMES = new char[] { '"', '#', '%', '\'', '(', ')', ',', '=', '{', '}' };
+    /**
+     * Passes everything on to target, and remembers the names of the macros
+     * that are referenced.
+     */
+    private static final class MacroReferenceCollector implements BibtexHandler {
+
+        MacroReferenceCollector(BibtexHandler target) {
+            this.target = target;
+        }
+
+        private final BibtexHandler target;
+
+        final List<String> references = new ArrayList<String>();
+
+        private void collect(BibtexValueTokens value) {
+            for (int i = 0; i < value.size(); i++) {
+                if (value.getKind(i) == BibtexValueTokens.MACRO_REFERENCE)
+                    references.add(value.getContent(i));
+            }
+        }
+
+        public void startEntry(String entryType, String entryKey) {
+            target.startEntry(entryType, entryKey);
+        }
+
+        public void field(String fieldName, BibtexValueTokens value) {
+            collect(value);
+            target.field(fieldName, value);
+        }
+
+        public void endEntry() {
+            target.endEntry();
+        }
+
+        public void macroDefinition(String key, BibtexValueTokens value) {
+            collect(value);
+            target.macroDefinition(key, value);
+        }
+
+        public void preamble(BibtexValueTokens value) {
+            collect(value);
+            target.preamble(value);
+        }
+
+        public void comment(String content) {
+            target.comment(content);
+        }
+
+        public void error(ParseException exception) {
+            target.error(exception);
+        }
+    }
+
+    private BibtexParser copy() {
+        BibtexParser result = new BibtexParser(throwAllParseExceptions);
+        result.setMultipleFieldValuesPolicy(multipleFieldValuesPolicy);
+        result.setLazyFieldValues(lazyFieldValues);
+        result.setDiagnostics(diagnostics);
+        return result;
+    }
+
+    private void parseFile(Path path, Charset charset, BibtexHandler handler) throws ParseException, IOException {
+
+        assert path != null : "path parameter may not be null.";
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            parseChannel(channel, charset, handler);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void parseChannel(FileChannel channel, Charset charset, BibtexHandler handler) throws ParseException,
+            IOException {
+        parse(makeLexer(channel, charset), handler);
+    }
+
+    /**
+     * UTF-8, ISO-8859-1 and US-ASCII input is memory-mapped and scanned
+     * without a Reader. Other charsets, and files too large to be mapped in
+     * one piece (2GB), are read through a Reader on top of the channel. The
+     * channel is not closed by the lexer.
+     */
+    private static PseudoLexer makeLexer(FileChannel channel, Charset charset) throws IOException {
+
+        assert channel != null : "channel parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+
+        final long position = channel.position();
+        final long length = channel.size() - position;
+        if (LookAheadByteBuffer.canDecode(charset) && length <= Integer.MAX_VALUE) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            return new PseudoLexer(new LookAheadByteBuffer(buffer, LookAheadByteBuffer.getEncoding(charset), 1));
+        }
+        Reader reader = Channels.newReader(channel, charset.newDecoder().onMalformedInput(
+                CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), -1);
+        // the LookAheadReader closes its input at EOF, but the channel is not ours.
+        return new PseudoLexer(new FilterReader(reader) {
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * Used by the ParallelBibtexParser to parse one chunk of a larger input.
+     * The nodes are made by factory, but they are appended to chunkEntries
+     * instead of being added to factory.
+     * 
+     * @param lastChunk
+     *            if false, the input continues after the end of this chunk.
+     * @return false if the chunk ended in the middle of an entry and isn't the
+     *         last one - this means that the chunk boundary was not at the
+     *         top level, and that the chunk needs to be parsed again together
+     *         with the next one.
+     */
+    boolean parseChunk(BibtexFile factory, LookAheadInput input, List<BibtexAbstractEntry> chunkEntries,
+            boolean lastChunk) throws ParseException, IOException {
+
+        this.inputContinuesAfterChunk = !lastChunk;
+        this.chunkEndedInsideEntry = false;
+        try {
+            parse(new PseudoLexer(input), makeDomBuilder(factory, chunkEntries));
+        } finally {
+            this.inputContinuesAfterChunk = false;
+        }
+        return !this.chunkEndedInsideEntry;
+    }
+
+    private BibtexDomBuilder makeDomBuilder(BibtexFile bibtexFile, List<BibtexAbstractEntry> entries) {
+        final LinkedList<ParseException> exceptions = new LinkedList<ParseException>();
+        this.exceptions = exceptions;
+        return new BibtexDomBuilder(bibtexFile, entries, new ParseExceptionListener() {
+            public void exceptionOccurred(ParseException exception) {
+                if (diagnostics == null)
+                    exceptions.add(exception);
+            }
+        }, this);
+    }
+
+    private void parse(PseudoLexer lexer, BibtexHandler handler) throws ParseException, IOException {
+        start(lexer, handler);
+        try {
+            while (parseTopLevelItem())
+                ;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * @return the position (see LookAheadInput) where the last top level item
+     *         started.
+     */
+    int getItemStart() {
+        return itemStart;
+    }
+
+    int getItemLine() {
+        return itemLine;
+    }
+
+    /**
+     * @return the position of the lexer.
+     */
+    int getPosition() {
+        return lexer.getPosition();
+    }
+
+    /**
+     * @return the input of the lexer if it is a LookAheadByteBuffer, null
+     *         otherwise.
+     */
+    LookAheadByteBuffer getByteInput() {
+        LookAheadInput input = lexer.getInput();
+        return input instanceof LookAheadByteBuffer ? (LookAheadByteBuffer) input : null;
+    }
+
+    /**
+     * Parses the value at the beginning of input - this is how lazily parsed
+     * field values are decoded. The input must continue after the value.
+     */
+    BibtexAbstractValue parseValue(BibtexFile factory, LookAheadInput input) throws ParseException, IOException {
+        start(new PseudoLexer(input), null);
+        try {
+            parseValue();
+            return BibtexDomBuilder.makeValue(factory, valueTokens);
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Prepares this parser for calls to parseTopLevelItem().
+     */
+    void start(PseudoLexer lexer, BibtexHandler handler) {
+        this.lexer = lexer;
+        this.handler = handler;
+        this.valueTokens.setSource(lexer);
+        lexer.setStackTraces(throwAllParseExceptions);
+    }
+
+    void finish() {
+        this.lexer = null;
+        this.handler = null;
+        this.valueTokens.setSource(null);
+    }
+
+    /**
+     * Parses the next top level comment or entry and reports it to the
+     * handler.
+     * 
+     * @return false if the end of the input (or of the chunk) was reached.
+     */
+    boolean parseTopLevelItem() throws ParseException, IOException {
+        PseudoLexer.Token token = lexer.scanTopLevelCommentOrAtOrEOF();
+        this.itemStart = token.start;
+        this.itemLine = token.line;
+        switch (token.choice) {
+        case 0: // top level comment
+            handler.comment(lexer.getContent(token));
+            return true;
+        case 1: // @ sign
+            entryKey = null;
+            try {
+                parseEntry();
+            } catch (ParseException parseException) {
+                if (inputContinuesAfterChunk && lexer.eof()) {
+                    // the rest of this entry is in the next chunk.
+                    this.chunkEndedInsideEntry = true;
+                    return false;
+                }
+                parseException.setEntryKey(entryKey);
+                if (throwAllParseExceptions)
+                    throw parseException;
+                if (diagnostics != null)
+                    report(diagnostics, parseException);
+                handler.error(parseException);
+            }
+            return true;
+        default: // EOF
+            return false;
+        }
+    }
+
+    private final static PseudoLexer.TerminationSet EXCEPTION_SET_NAMES = new PseudoLexer.TerminationSet(new char[] {
+            '"', '#', '%', '\'', '(', ')', ',', '=', '{', '}' });
+
+    private final static PseudoLexer.TerminationSet COMMA = new PseudoLexer.TerminationSet(new char[] { ',' });
+
+    private final static char[] LBRACE_LPAREN = new char[] { '{', '(' };
 
     private final static String[] ENTRY_TYPES = new String[] { "string", "preamble", "article", "book", "booklet",
             "conference", "inbook", "incollection", "inproceedings", "manual", "mastersthesis", "misc", "phdthesis",
@@ -119,21 +680,26 @@ public final class BibtexParser {
      */
     private void parseEntry() throws ParseException, IOException {
         String entryType = lexer.scanEntryTypeName().toLowerCase();
-        final int bracketChoice = lexer.scanAlternatives(new char[] { '{', '(' }, false);
+        final int bracketChoice = lexer.scanAlternatives(LBRACE_LPAREN, false);
+        final boolean isRegularEntry;
 
         if (entryType.equals("string")) {
+            isRegularEntry = false;
             String stringName = lexer.scanLiteral(EXCEPTION_SET_NAMES, true, true);
+            entryKey = stringName;
             lexer.scan('=');
-            BibtexAbstractValue value = parseValue();
-            bibtexFile.addEntry(bibtexFile.makeMacroDefinition(stringName, value));
+            parseValue();
+            handler.macroDefinition(stringName, valueTokens);
         } else if (entryType.equals("preamble")) {
-            BibtexAbstractValue value = parseValue();
-            bibtexFile.addEntry(bibtexFile.makePreamble(value));
+            isRegularEntry = false;
+            parseValue();
+            handler.preamble(valueTokens);
         } else { // all others
+            isRegularEntry = true;
             lexer.skipWhitespace();
-            String bibkey = (lexer.currentInputChar() == ',') ? "" : lexer.scanLiteral(new char[] { ',' }, true, true);
-            final BibtexEntry entry = bibtexFile.makeEntry(entryType, bibkey);
-            bibtexFile.addEntry(entry);
+            String bibkey = (lexer.currentInputChar() == ',') ? "" : lexer.scanLiteral(COMMA, true, true);
+            entryKey = bibkey;
+            handler.startEntry(entryType, bibkey);
             while (true) {
                 lexer.enforceNoEof("',' or corresponding closing bracket", true);
                 //System.out.println("---------->'"+lexer.currentInputChar()+"'");
@@ -144,21 +710,8 @@ public final class BibtexParser {
                         break;
                     String fieldName = lexer.scanLiteral(EXCEPTION_SET_NAMES, true, true);
                     lexer.scan('=');
-                    BibtexAbstractValue value = parseValue();
-                    switch (this.multipleFieldValuesPolicy) {
-                    case BibtexMultipleFieldValuesPolicy.KEEP_FIRST:
-                        if (entry.getFieldValue(fieldName) == null)
-                            entry.setField(fieldName, value);
-                        break;
-                    case BibtexMultipleFieldValuesPolicy.KEEP_LAST:
-                        entry.setField(fieldName, value);
-                        break;
-                    case BibtexMultipleFieldValuesPolicy.KEEP_ALL:
-                        entry.addFieldValue(fieldName,value);
-                        break;
-                    default:
-                        assert false : "this should not happen.";
-                    }
+                    parseValue();
+                    handler.field(fieldName, valueTokens);
                 } else
                     break;
             }
@@ -168,6 +721,8 @@ public final class BibtexParser {
             lexer.scan('}');
         else
             lexer.scan(')');
+        if (isRegularEntry)
+            handler.endEntry();
     }
 
     private static boolean isNumber(String string) {
@@ -180,49 +735,38 @@ public final class BibtexParser {
     }
 
     /**
-     *  
+     * Parses a value into valueTokens.
      */
-    private BibtexAbstractValue parseValue() throws ParseException, IOException {
-        lexer.enforceNoEof("[STRING] or [STRINGREFERENCE] or [NUMBER]", true);
-        char inputCharacter = lexer.currentInputChar();
-        BibtexAbstractValue result;
+    private void parseValue() throws ParseException, IOException {
+        valueTokens.clear();
+        while (true) {
+            lexer.enforceNoEof("[STRING] or [STRINGREFERENCE] or [NUMBER]", true);
+            if (valueTokens.size() == 0)
+                valueTokens.setStart(lexer.getPosition());
+            char inputCharacter = lexer.currentInputChar();
 
-        if (inputCharacter == '"') {
-            result = parseQuotedString();
-        } else if (inputCharacter == '{') {
-            result = parseBracketedString();
-        } else {
-            String stringContent = lexer.scanLiteral(EXCEPTION_SET_NAMES, false, true).trim();
-            if (isNumber(stringContent))
-                result = bibtexFile.makeString(stringContent);
-            else
-                result = bibtexFile.makeMacroReference(stringContent);
-        }
+            if (inputCharacter == '"') {
+                PseudoLexer.Token token = lexer.scanQuotedString();
+                valueTokens.add(BibtexValueTokens.STRING, token.start, token.end);
+            } else if (inputCharacter == '{') {
+                PseudoLexer.Token token = lexer.scanBracketedString();
+                valueTokens.add(BibtexValueTokens.STRING, token.start, token.end);
+            } else {
+                String stringContent = lexer.scanLiteral(EXCEPTION_SET_NAMES, false, true).trim();
+                if (isNumber(stringContent))
+                    valueTokens.add(BibtexValueTokens.NUMBER, stringContent);
+                else
+                    valueTokens.add(BibtexValueTokens.MACRO_REFERENCE, stringContent);
+            }
 
-        lexer.enforceNoEof("'#' or something else", true);
-        if (lexer.currentInputChar() == '#') {
-            lexer.scan('#');
-            return bibtexFile.makeConcatenatedValue(result, parseValue());
-        } else {
-            return result;
+            lexer.enforceNoEof("'#' or something else", true);
+            if (lexer.currentInputChar() == '#') {
+                lexer.scan('#');
+            } else {
+                valueTokens.setEnd(lexer.getPosition());
+                return;
+            }
         }
-
-    }
-
-    /**
-     * @return BibtexAbstractValue
-     */
-    private BibtexAbstractValue parseBracketedString() throws ParseException, IOException {
-        StringBuffer buffer = new StringBuffer();
-        lexer.scanBracketedString(buffer, false);
-        return bibtexFile.makeString(buffer.toString());
-    }
-
-    /**
-     * @return BibtexAbstractValue
-     */
-    private BibtexAbstractValue parseQuotedString() throws IOException, ParseException {
-        return bibtexFile.makeString(lexer.scanQuotedString());
     }
 
     /**
@@ -243,4 +787,50 @@ public final class BibtexParser {
 
         this.multipleFieldValuesPolicy = multipleFieldValuesPolicy;
     }
-}
\ No newline at end of file
+
+    int getMultipleFieldValuesPolicy() {
+        return multipleFieldValuesPolicy;
+    }
+
+    /**
+     * If this is set, the entries only remember where their field values are
+     * in the input, and decode them when they are asked for. Entries that
+     * haven't been changed are printed exactly as they were in the input.
+     * This saves a lot of time and memory if only a few fields are used.
+     * 
+     * It only works with the parse methods that map the file (the parsed
+     * entries keep the mapping alive), and not with
+     * BibtexMultipleFieldValuesPolicy.KEEP_ALL. The default is false.
+     * 
+     * @param lazyFieldValues
+     */
+    public void setLazyFieldValues(boolean lazyFieldValues) {
+        this.lazyFieldValues = lazyFieldValues;
+    }
+
+    boolean getLazyFieldValues() {
+        return lazyFieldValues;
+    }
+
+    /**
+     * Non-fatal problems are reported to diagnostics instead of being
+     * collected as exceptions (see getExceptions()), which is a lot cheaper
+     * if there are many of them. Handlers still get them in
+     * BibtexHandler.error(...). The default is null.
+     * 
+     * @param diagnostics
+     *            may be null.
+     */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    static void report(Diagnostics diagnostics, ParseException exception) {
+        diagnostics.report(Diagnostic.ERROR, Diagnostic.SYNTAX_ERROR, exception.getEntryKey(), exception.getLine(),
+                exception.getColumn(), exception.getDescription());
+    }
+}
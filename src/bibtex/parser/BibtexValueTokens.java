@@ -0,0 +1,191 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+/**
+ * A field value (or macro body, or preamble) as it is passed to a
+ * BibtexHandler: the atoms that are concatenated with the hash-operator (#).
+ * For example,
+ *
+ * <pre>
+ *   acm # " SIGPLAN " # 1998
+ * </pre>
+ *
+ * consists of three tokens: the macro reference acm, the string " SIGPLAN "
+ * and the number 1998.
+ *
+ * The parser reuses one instance of this class for all values, so don't hold
+ * on to it after the handler method returns - copy out what you need instead.
+ * The contents of strings are only extracted from the input when you ask for
+ * them.
+ *
+ * @see BibtexHandler
+ */
+public final class BibtexValueTokens {
+
+	/**
+	 * A quoted or bracketed string. The content does not include the quotes
+	 * or the outer braces.
+	 */
+	public static final int STRING = 0;
+
+	/**
+	 * An unquoted number, e.g. the 1998 in year=1998.
+	 */
+	public static final int NUMBER = 1;
+
+	/**
+	 * A reference to a macro defined with &#064;string (or to a standard macro
+	 * like jan).
+	 */
+	public static final int MACRO_REFERENCE = 2;
+
+	BibtexValueTokens() {
+	}
+
+	private int[] kinds = new int[4];
+
+	private String[] contents = new String[4];
+
+	// where the contents that haven't been asked for yet are in the input
+	private int[] starts = new int[4];
+
+	private int[] ends = new int[4];
+
+	private PseudoLexer source;
+
+	// where the whole value is in the input
+	private int start, end;
+
+	private int size;
+
+	/**
+	 * @return the number of concatenated tokens, at least 1.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return one of STRING, NUMBER, MACRO_REFERENCE.
+	 */
+	public int getKind(int index) {
+
+		assert index >= 0 && index < size : "index parameter out of bounds.";
+
+		return kinds[index];
+	}
+
+	public String getContent(int index) {
+
+		assert index >= 0 && index < size : "index parameter out of bounds.";
+
+		String content = contents[index];
+		if (content == null) {
+			content = source.substring(starts[index], ends[index]);
+			contents[index] = content;
+		}
+		return content;
+	}
+
+	/**
+	 * A convenience method for the frequent case of a value that consists of a
+	 * single string or number.
+	 *
+	 * @return the content if this value is just one STRING or NUMBER token,
+	 *         null otherwise.
+	 */
+	public String getSimpleContent() {
+		if (size == 1 && kinds[0] != MACRO_REFERENCE)
+			return getContent(0);
+		return null;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			contents[i] = null;
+		}
+		size = 0;
+	}
+
+	void setSource(PseudoLexer source) {
+		this.source = source;
+	}
+
+	int getStart() {
+		return start;
+	}
+
+	void setStart(int start) {
+		this.start = start;
+	}
+
+	/**
+	 * @return the position of whatever follows the value, i.e. the ',' or the
+	 *         closing bracket.
+	 */
+	int getEnd() {
+		return end;
+	}
+
+	void setEnd(int end) {
+		this.end = end;
+	}
+
+	void add(int kind, String content) {
+		grow();
+		kinds[size] = kind;
+		contents[size] = content;
+		size++;
+	}
+
+	/**
+	 * Adds a token whose content is the slice from start to end of the
+	 * source.
+	 */
+	void add(int kind, int start, int end) {
+		grow();
+		kinds[size] = kind;
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+
+	private void grow() {
+		if (size < kinds.length)
+			return;
+		int[] newKinds = new int[size * 2];
+		String[] newContents = new String[size * 2];
+		int[] newStarts = new int[size * 2];
+		int[] newEnds = new int[size * 2];
+		System.arraycopy(kinds, 0, newKinds, 0, size);
+		System.arraycopy(contents, 0, newContents, 0, size);
+		System.arraycopy(starts, 0, newStarts, 0, size);
+		System.arraycopy(ends, 0, newEnds, 0, size);
+		kinds = newKinds;
+		contents = newContents;
+		starts = newStarts;
+		ends = newEnds;
+	}
+
+	/**
+	 * @return the value in bibtex syntax, e.g. acm # {SIGPLAN}.
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				buffer.append(" # ");
+			if (kinds[i] == STRING) {
+				buffer.append('{');
+				buffer.append(getContent(i));
+				buffer.append('}');
+			} else {
+				buffer.append(getContent(i));
+			}
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntrySource;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Remembers where an entry and its field values are in a (mapped) byte
+ * buffer, and parses the values when the entry asks for them. Each call gets
+ * its own parser, so entries can be used from different threads just like
+ * eagerly parsed ones.
+ */
+final class LazyEntrySource extends BibtexEntrySource {
+
+	LazyEntrySource(ByteBuffer buffer, byte encoding, int start, int line) {
+		this.buffer = buffer;
+		this.encoding = encoding;
+		this.start = start;
+		this.line = line;
+	}
+
+	private final ByteBuffer buffer;
+	private final byte encoding;
+	private final int start, line;
+
+	// -1 as long as we haven't seen the end of the entry
+	private int end = -1;
+
+	private int fieldCount;
+	private int[] valueStarts = new int[8];
+	private int[] valueEnds = new int[8];
+
+	/**
+	 * @return the index to pass to decodeFieldValue(...).
+	 */
+	int addField(int valueStart, int valueEnd) {
+		if (fieldCount == valueStarts.length) {
+			int[] newStarts = new int[fieldCount * 2];
+			int[] newEnds = new int[fieldCount * 2];
+			System.arraycopy(valueStarts, 0, newStarts, 0, fieldCount);
+			System.arraycopy(valueEnds, 0, newEnds, 0, fieldCount);
+			valueStarts = newStarts;
+			valueEnds = newEnds;
+		}
+		valueStarts[fieldCount] = valueStart;
+		valueEnds[fieldCount] = valueEnd;
+		return fieldCount++;
+	}
+
+	void setEnd(int end) {
+		this.end = end;
+	}
+
+	protected BibtexAbstractValue decodeFieldValue(BibtexFile factory, int fieldIndex) {
+
+		assert fieldIndex >= 0 && fieldIndex < fieldCount : "fieldIndex parameter out of bounds.";
+
+		// the parser wants to see what comes after the value, so we include
+		// the ',' or the closing bracket.
+		final int valueEnd = Math.min(valueEnds[fieldIndex] + 1, buffer.limit());
+		try {
+			return new BibtexParser(true).parseValue(factory,
+				new LookAheadByteBuffer(buffer, valueStarts[fieldIndex], valueEnd, encoding, line));
+		} catch (ParseException e) {
+			// we've parsed this before, so the file must have changed.
+			throw new IllegalStateException("Can't decode a lazily parsed field value: " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected String getText() {
+		if (end < 0)
+			return null;
+		return new LookAheadByteBuffer(buffer, start, end, encoding, line).substring(start, end);
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Scans a ByteBuffer (usually a memory-mapped file) directly, without going
+ * through a Reader. UTF-8 is decoded inline - all the characters that matter
+ * to the lexer are ASCII, so the common case is a single byte read. Malformed
+ * sequences, and bytes above 127 in US-ASCII, are replaced by U+FFFD, just like
+ * InputStreamReader does it.
+ * Characters outside the BMP are returned as two surrogate chars, so line and
+ * column numbers come out the same as with the LookAheadReader.
+ */
+final class LookAheadByteBuffer extends LookAheadInput {
+
+	private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+	/**
+	 * The encodings this class can scan, see getEncoding(Charset).
+	 */
+	static final byte UTF_8 = 0, ISO_8859_1 = 1, US_ASCII = 2;
+
+	/**
+	 * @param buffer
+	 *            is scanned from its position to its limit. Neither is
+	 *            modified.
+	 * @param encoding
+	 *            UTF_8, ISO_8859_1 or US_ASCII.
+	 * @param firstLine
+	 *            the line number of the first character in the buffer - this is
+	 *            not 1 if the buffer is a slice of a larger file.
+	 */
+	LookAheadByteBuffer(ByteBuffer buffer, byte encoding, int firstLine) {
+		this(buffer, buffer.position(), buffer.limit(), encoding, firstLine);
+	}
+
+	/**
+	 * Scans the bytes from start to end of buffer - positions are indices into
+	 * buffer.
+	 */
+	LookAheadByteBuffer(ByteBuffer buffer, int start, int end, byte encoding, int firstLine) {
+		super(firstLine);
+
+		assert start >= 0 && start <= end && end <= buffer.limit() : "start or end parameter out of bounds.";
+
+		this.buffer = buffer;
+		this.encoding = encoding;
+		this.next = start;
+		this.limit = end;
+		step();
+	}
+
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	byte getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * @return true for the charsets this class can scan: UTF-8, ISO-8859-1 and
+	 *         US-ASCII.
+	 */
+	static boolean canDecode(Charset charset) {
+		final String charsetName = charset.name();
+		return charsetName.equals("UTF-8") || charsetName.equals("ISO-8859-1") || charsetName.equals("US-ASCII");
+	}
+
+	/**
+	 * @return UTF_8, ISO_8859_1 or US_ASCII; charset has to be one that
+	 *         canDecode(Charset) accepts.
+	 */
+	static byte getEncoding(Charset charset) {
+		final String charsetName = charset.name();
+		if (charsetName.equals("UTF-8"))
+			return UTF_8;
+		return charsetName.equals("ISO-8859-1") ? ISO_8859_1 : US_ASCII;
+	}
+
+	private final ByteBuffer buffer;
+	private final byte encoding;
+	private final int limit;
+
+	// index of the first byte of the current character
+	private int currentStart;
+	// index of the first byte after the current character
+	private int next;
+	private char current;
+	private char pendingLowSurrogate;
+
+	// the result of decode(...)
+	private char decoded;
+	private char decodedLowSurrogate;
+
+	// reused by substring(...)
+	private char[] chars = new char[64];
+
+	public void step() {
+		if (this.eof)
+			return;
+		if (this.pendingLowSurrogate != 0) {
+			this.current = this.pendingLowSurrogate;
+			this.pendingLowSurrogate = 0;
+		} else if (this.next >= this.limit) {
+			this.eof = true;
+			this.currentStart = this.limit;
+			column++;
+			return;
+		} else {
+			this.currentStart = this.next;
+			this.next = decode(this.next);
+			this.current = this.decoded;
+			this.pendingLowSurrogate = this.decodedLowSurrogate;
+		}
+		advancePosition(this.current);
+	}
+
+	public char getCurrent() {
+		assert (!this.eof);
+		return this.current;
+	}
+
+	public int getPosition() {
+		return this.currentStart;
+	}
+
+	public String substring(int start, int end) {
+
+		assert start >= 0 && start <= end && end <= this.limit : "start or end parameter out of bounds.";
+
+		// never more chars than bytes
+		if (this.chars.length < end - start)
+			this.chars = new char[Math.max(end - start, this.chars.length * 2)];
+		final char[] chars = this.chars;
+		int length = 0;
+		int index = start;
+		while (index < end) {
+			final byte b = this.buffer.get(index);
+			if (b >= 0) {
+				chars[length++] = (char) b;
+				index++;
+			} else {
+				index = decode(index);
+				chars[length++] = this.decoded;
+				if (this.decodedLowSurrogate != 0)
+					chars[length++] = this.decodedLowSurrogate;
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Decodes the character at index into decoded (and decodedLowSurrogate,
+	 * which is 0 for characters in the BMP).
+	 *
+	 * @return the index of the next character.
+	 */
+	private int decode(int index) {
+		final byte b = this.buffer.get(index++);
+		this.decodedLowSurrogate = 0;
+		if (b >= 0) {
+			this.decoded = (char) b;
+			return index;
+		}
+		if (this.encoding != UTF_8) {
+			this.decoded = this.encoding == ISO_8859_1 ? (char) (b & 0xFF) : REPLACEMENT_CHAR;
+			return index;
+		}
+		int codePoint, trailingBytes;
+		if ((b & 0xE0) == 0xC0) {
+			codePoint = b & 0x1F;
+			trailingBytes = 1;
+		} else if ((b & 0xF0) == 0xE0) {
+			codePoint = b & 0x0F;
+			trailingBytes = 2;
+		} else if ((b & 0xF8) == 0xF0) {
+			codePoint = b & 0x07;
+			trailingBytes = 3;
+		} else {
+			this.decoded = REPLACEMENT_CHAR;
+			return index;
+		}
+		for (int i = 0; i < trailingBytes; i++) {
+			if (index >= this.limit) {
+				this.decoded = REPLACEMENT_CHAR;
+				return index;
+			}
+			final byte trailingByte = this.buffer.get(index);
+			if ((trailingByte & 0xC0) != 0x80) {
+				this.decoded = REPLACEMENT_CHAR;
+				return index;
+			}
+			codePoint = (codePoint << 6) | (trailingByte & 0x3F);
+			index++;
+		}
+		if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			if (codePoint > Character.MAX_CODE_POINT) {
+				this.decoded = REPLACEMENT_CHAR;
+			} else {
+				this.decoded = Character.highSurrogate(codePoint);
+				this.decodedLowSurrogate = Character.lowSurrogate(codePoint);
+			}
+			return index;
+		}
+		this.decoded = (char) codePoint;
+		return index;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.IOException;
+
+/**
+ * The character source the PseudoLexer scans. There is always exactly one
+ * current character (unless we're at the end of the input), and line and
+ * column always refer to that character.
+ *
+ * @see LookAheadReader
+ * @see LookAheadByteBuffer
+ */
+abstract class LookAheadInput {
+
+	protected boolean eof;
+
+	protected int line, column;
+
+	protected LookAheadInput() {
+		this(1);
+	}
+
+	protected LookAheadInput(int firstLine) {
+		this.eof = false;
+		this.line = firstLine;
+		this.column = 0;
+	}
+
+	public abstract void step() throws IOException;
+
+	public abstract char getCurrent();
+
+	/**
+	 * @return the position of the current character (or of the end of the
+	 *         input), in whatever unit the implementation likes - use it only
+	 *         for substring(...) and for comparing positions.
+	 */
+	public abstract int getPosition();
+
+	/**
+	 * @return the characters from start (inclusive) to end (exclusive), which
+	 *         both must have been returned by getPosition() since the last
+	 *         call of mark().
+	 */
+	public abstract String substring(int start, int end);
+
+	/**
+	 * Tells the input that substring(...) won't be called for anything before
+	 * the current character anymore. Inputs that don't keep everything in
+	 * memory can drop the older characters then.
+	 */
+	public void mark() {
+	}
+
+	public final boolean eof() {
+		return eof;
+	}
+
+	public final int getLine() {
+		return line;
+	}
+
+	public final int getColumn() {
+		return column;
+	}
+
+	/**
+	 * Call this from step() whenever a new current character has been read.
+	 *
+	 * @param currentChar
+	 */
+	protected final void advancePosition(char currentChar) {
+		if (currentChar == '\n') {
+			line++;
+			column = 0;
+		} else {
+			column++;
+		}
+	}
+}
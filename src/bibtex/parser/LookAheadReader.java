@@ -11,57 +11,78 @@ import java.io.Reader;
  * This implementation now features a buffer. This is more efficient than
  * relying on BufferedReader since BufferedReader is synchronized.
  * 
+ * The buffer keeps everything since the last mark(), so that the lexer can
+ * take substrings instead of copying characters around. It grows if a
+ * single entry doesn't fit.
+ * 
  * @author henkel
  */
-final class LookAheadReader {
+final class LookAheadReader extends LookAheadInput {
 	private final int BUFFERLEN = 512;
 	public LookAheadReader(Reader input) throws IOException {
 		this.input = input;
 		this.bufferPos = -1;
 		this.bufferFilledUntil = 0;
 		this.buffer = new char[BUFFERLEN];
-		this.eof = false;
-		this.line = 1;
-		this.column = 0;
 		step();
 	}
 	private final Reader input;
-	private boolean eof;
-	private int line, column;
 	private char buffer[];
 	private int bufferFilledUntil;
 	private int bufferPos;
+	// the position of buffer[0] - positions may wrap around for huge inputs,
+	// but only their differences matter.
+	private int bufferStart;
+	private int markPos;
+	private boolean marked;
 	public void step() throws IOException {
 		if (this.eof)
 			return;
 		this.bufferPos++;
 		if (this.bufferFilledUntil <= this.bufferPos) {
-			this.bufferFilledUntil = input.read(buffer);
-			if (this.bufferFilledUntil == -1) {
-				this.eof = true;
-				input.close();
+			fillBuffer();
+			if (this.eof) {
+				column++;
+				return;
 			}
-			this.bufferPos = 0;
 		}
-		char currentChar = this.buffer[bufferPos];
-		if (currentChar == '\n') {
-			line++;
-			column = 0;
+		advancePosition(this.buffer[bufferPos]);
+	}
+	private void fillBuffer() throws IOException {
+		final int keepFrom = this.marked ? this.markPos - this.bufferStart : this.bufferPos;
+		final int kept = this.bufferFilledUntil - keepFrom;
+		if (keepFrom > 0) {
+			System.arraycopy(this.buffer, keepFrom, this.buffer, 0, kept);
+			this.bufferStart += keepFrom;
+			this.bufferPos -= keepFrom;
+		} else if (kept == this.buffer.length) {
+			char[] newBuffer = new char[this.buffer.length * 2];
+			System.arraycopy(this.buffer, 0, newBuffer, 0, kept);
+			this.buffer = newBuffer;
+		}
+		this.bufferFilledUntil = kept;
+		final int read = input.read(this.buffer, kept, this.buffer.length - kept);
+		if (read == -1) {
+			this.eof = true;
+			input.close();
 		} else {
-			column++;
+			this.bufferFilledUntil += read;
 		}
 	}
 	public char getCurrent() {
 		assert (!this.eof);
 		return this.buffer[this.bufferPos];
 	}
-	public boolean eof() {
-		return this.eof;
+	public int getPosition() {
+		return this.bufferStart + this.bufferPos;
 	}
-	public int getLine() {
-		return line;
+	public String substring(int start, int end) {
+		assert start - this.bufferStart >= 0 : "start parameter is before the mark.";
+		assert end - start >= 0 && end - this.bufferStart <= this.bufferFilledUntil : "end parameter out of bounds.";
+		return new String(this.buffer, start - this.bufferStart, end - start);
 	}
-	public int getColumn() {
-		return column;
+	public void mark() {
+		this.marked = true;
+		this.markPos = getPosition();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,343 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import bibtex.Diagnostics;
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Parses large bibtex files on several cores. The memory-mapped input is split
+ * into chunks at lines that start with an '@', the chunks are parsed
+ * concurrently, and the entries are added to the BibtexFile in the order in
+ * which they appear in the file. The result (including the exceptions and
+ * their line numbers) is the same as with BibtexParser.parse(BibtexFile,
+ * Path).
+ *
+ * A line starting with '@' is not necessarily at the top level - it may just as
+ * well be inside a field value. If a chunk turns out to end in the middle of an
+ * entry, it is parsed again together with the next chunk.
+ *
+ * Parsing doesn't need the macro definitions (they are only resolved by the
+ * MacroReferenceExpander), so the chunks are independent of each other.
+ *
+ * @see BibtexParser
+ */
+public final class ParallelBibtexParser {
+
+	/**
+	 * Equivalent to ParallelBibtexParser(throwAllParseExceptions,
+	 * ForkJoinPool.commonPool()).
+	 */
+	public ParallelBibtexParser(boolean throwAllParseExceptions) {
+		this(throwAllParseExceptions, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param throwAllParseExceptions
+	 *            see BibtexParser(boolean)
+	 * @param pool
+	 *            the chunks are parsed on this pool.
+	 */
+	public ParallelBibtexParser(boolean throwAllParseExceptions, ForkJoinPool pool) {
+
+		assert pool != null : "pool parameter may not be null.";
+
+		this.throwAllParseExceptions = throwAllParseExceptions;
+		this.pool = pool;
+	}
+
+	private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+	private final boolean throwAllParseExceptions;
+
+	private final ForkJoinPool pool;
+
+	private int multipleFieldValuesPolicy = BibtexMultipleFieldValuesPolicy.KEEP_FIRST;
+
+	private boolean lazyFieldValues;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private LinkedList<ParseException> exceptions;
+
+	private Diagnostics diagnostics;
+
+	/**
+	 * @see BibtexParser#getExceptions()
+	 */
+	public ParseException[] getExceptions() {
+		if (exceptions == null)
+			return new ParseException[0];
+		ParseException[] result = new ParseException[exceptions.size()];
+		exceptions.toArray(result);
+		return result;
+	}
+
+	/**
+	 * @see BibtexParser#setMultipleFieldValuesPolicy(int)
+	 */
+	public void setMultipleFieldValuesPolicy(int multipleFieldValuesPolicy) {
+		this.multipleFieldValuesPolicy = multipleFieldValuesPolicy;
+	}
+
+	/**
+	 * @see BibtexParser#setLazyFieldValues(boolean)
+	 */
+	public void setLazyFieldValues(boolean lazyFieldValues) {
+		this.lazyFieldValues = lazyFieldValues;
+	}
+
+	/**
+	 * The problems are reported in the order of the file, after each chunk has
+	 * been parsed.
+	 *
+	 * @see BibtexParser#setDiagnostics(Diagnostics)
+	 */
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * The input is split into chunks of roughly this many bytes. The default is
+	 * 4MB.
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+
+		assert chunkSize > 0 : "chunkSize parameter must be positive.";
+
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Equivalent to parse(bibtexFile, path, Charset.defaultCharset()).
+	 */
+	public void parse(BibtexFile bibtexFile, Path path) throws ParseException, IOException {
+		parse(bibtexFile, path, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parses the file at path into bibtexFile. Only UTF-8, ISO-8859-1 and
+	 * US-ASCII files of up to 2GB can be split - anything else is handed to
+	 * BibtexParser.parse(BibtexFile, Path, Charset) and parsed on the calling
+	 * thread.
+	 *
+	 * @param bibtexFile
+	 * @param path
+	 * @param charset
+	 * @throws ParseException
+	 *             the first exception in the file, if throwAllParseExceptions
+	 *             is set. As with the BibtexParser, bibtexFile then contains
+	 *             everything up to that point.
+	 * @throws IOException
+	 */
+	public void parse(BibtexFile bibtexFile, Path path, Charset charset) throws ParseException, IOException {
+
+		assert bibtexFile != null : "bibtexFile parameter may not be null.";
+		assert path != null : "path parameter may not be null.";
+		assert charset != null : "charset parameter may not be null.";
+
+		this.exceptions = new LinkedList<ParseException>();
+		final byte encoding = LookAheadByteBuffer.getEncoding(charset);
+		final MappedByteBuffer buffer;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (!LookAheadByteBuffer.canDecode(charset) || channel.size() > Integer.MAX_VALUE) {
+				BibtexParser parser = makeParser();
+				try {
+					parser.parse(bibtexFile, channel, charset);
+				} finally {
+					addExceptions(Arrays.asList(parser.getExceptions()));
+				}
+				return;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+
+		final int[] boundaries = findChunkBoundaries(buffer);
+		final int numberOfChunks = boundaries.length - 1;
+
+		// we need the line number at the beginning of each chunk before we can
+		// parse it, otherwise the exceptions would report the wrong lines.
+		final ArrayList<LineCountTask> lineCounts = new ArrayList<LineCountTask>(numberOfChunks);
+		for (int i = 0; i < numberOfChunks; i++) {
+			lineCounts.add(new LineCountTask(buffer, boundaries[i], boundaries[i + 1]));
+			pool.execute(lineCounts.get(i));
+		}
+		final int[] firstLines = new int[numberOfChunks + 1];
+		firstLines[0] = 1;
+		for (int i = 0; i < numberOfChunks; i++) {
+			firstLines[i + 1] = firstLines[i] + lineCounts.get(i).join().intValue();
+		}
+
+		final ArrayList<ChunkTask> chunks = new ArrayList<ChunkTask>(numberOfChunks);
+		for (int i = 0; i < numberOfChunks; i++) {
+			chunks.add(new ChunkTask(bibtexFile, buffer, encoding, boundaries[i], boundaries[i + 1], firstLines[i]));
+			pool.execute(chunks.get(i));
+		}
+
+		try {
+			int chunkIndex = 0;
+			while (chunkIndex < numberOfChunks) {
+				ChunkTask chunk = chunks.get(chunkIndex).join();
+				int nextChunkIndex = chunkIndex + 1;
+				while (!chunk.endedAtTopLevel && nextChunkIndex < numberOfChunks) {
+					// the boundary was inside an entry: merge with the next
+					// chunk and try again.
+					chunks.get(nextChunkIndex).cancel(false);
+					nextChunkIndex++;
+					chunk = new ChunkTask(bibtexFile, buffer, encoding, boundaries[chunkIndex],
+						boundaries[nextChunkIndex], firstLines[chunkIndex]);
+					chunk.invoke();
+				}
+				for (BibtexAbstractEntry entry : chunk.entries) {
+					bibtexFile.addEntry(entry);
+				}
+				addExceptions(chunk.exceptions);
+				if (chunk.ioException != null)
+					throw chunk.ioException;
+				if (chunk.parseException != null)
+					throw chunk.parseException;
+				chunkIndex = nextChunkIndex;
+			}
+		} finally {
+			for (ChunkTask chunk : chunks) {
+				chunk.cancel(false);
+			}
+		}
+	}
+
+	private void addExceptions(List<ParseException> exceptions) {
+		if (diagnostics == null) {
+			this.exceptions.addAll(exceptions);
+			return;
+		}
+		for (ParseException exception : exceptions) {
+			BibtexParser.report(diagnostics, exception);
+		}
+	}
+
+	/**
+	 * The parsers collect their exceptions, since the exceptions of a chunk
+	 * that has to be parsed again are dropped.
+	 */
+	private BibtexParser makeParser() {
+		BibtexParser parser = new BibtexParser(throwAllParseExceptions);
+		parser.setMultipleFieldValuesPolicy(multipleFieldValuesPolicy);
+		parser.setLazyFieldValues(lazyFieldValues);
+		return parser;
+	}
+
+	/**
+	 * Each boundary but the first and the last is the position right after a
+	 * newline that is followed by an '@'.
+	 */
+	private int[] findChunkBoundaries(ByteBuffer buffer) {
+		final int limit = buffer.limit();
+		ArrayList<Integer> boundaries = new ArrayList<Integer>();
+		boundaries.add(Integer.valueOf(0));
+		int position = chunkSize;
+		while (position < limit) {
+			while (position < limit - 1 && !(buffer.get(position) == '\n' && buffer.get(position + 1) == '@'))
+				position++;
+			if (position >= limit - 1)
+				break;
+			boundaries.add(Integer.valueOf(position + 1));
+			position += chunkSize;
+		}
+		boundaries.add(Integer.valueOf(limit));
+		int[] result = new int[boundaries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i).intValue();
+		}
+		return result;
+	}
+
+	private static final class LineCountTask extends RecursiveTask<Integer> {
+
+		private static final long serialVersionUID = 1L;
+
+		LineCountTask(ByteBuffer buffer, int begin, int end) {
+			this.buffer = buffer;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		private final ByteBuffer buffer;
+		private final int begin, end;
+
+		protected Integer compute() {
+			int newlines = 0;
+			for (int i = begin; i < end; i++) {
+				if (buffer.get(i) == '\n')
+					newlines++;
+			}
+			return Integer.valueOf(newlines);
+		}
+	}
+
+	private final class ChunkTask extends RecursiveTask<ChunkTask> {
+
+		private static final long serialVersionUID = 1L;
+
+		ChunkTask(BibtexFile factory, ByteBuffer buffer, byte encoding, int begin, int end, int firstLine) {
+			this.factory = factory;
+			this.buffer = buffer;
+			this.encoding = encoding;
+			this.begin = begin;
+			this.end = end;
+			this.firstLine = firstLine;
+		}
+
+		private final BibtexFile factory;
+		private final ByteBuffer buffer;
+		private final byte encoding;
+		private final int begin, end, firstLine;
+
+		final ArrayList<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>();
+		final List<ParseException> exceptions = new ArrayList<ParseException>();
+		boolean endedAtTopLevel;
+		ParseException parseException;
+		IOException ioException;
+
+		protected ChunkTask compute() {
+			BibtexParser parser = makeParser();
+			try {
+				endedAtTopLevel = parser.parseChunk(factory,
+					new LookAheadByteBuffer(buffer, begin, end, encoding, firstLine), entries, end == buffer.limit());
+			} catch (ParseException e) {
+				endedAtTopLevel = true;
+				parseException = e;
+			} catch (IOException e) {
+				endedAtTopLevel = true;
+				ioException = e;
+			}
+			exceptions.addAll(Arrays.asList(parser.getExceptions()));
+			return this;
+		}
+	}
+}
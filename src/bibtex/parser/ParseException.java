@@ -12,8 +12,56 @@ package bibtex.parser;
 public final class ParseException extends Exception {
 
 	ParseException(int line, int column, String encountered, String expected){
-		super(""+line+":"+column+": encountered '"+encountered+"', expected '"+expected+"'.");	
+		this(line, column, encountered, expected, true);
 	}
-	
 
+	/**
+	 * @param stackTrace
+	 *            false for exceptions that are only collected, never thrown to
+	 *            the user - filling in the stack trace is the expensive part.
+	 */
+	ParseException(int line, int column, String encountered, String expected, boolean stackTrace) {
+		super(null, null, false, stackTrace);
+		this.line = line;
+		this.column = column;
+		this.encountered = encountered;
+		this.expected = expected;
+	}
+
+	private final int line, column;
+
+	private final String encountered, expected;
+
+	private String entryKey;
+
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return the key of the entry (or macro definition) that couldn't be
+	 *         parsed, or null if the parser didn't get that far.
+	 */
+	public String getEntryKey() {
+		return entryKey;
+	}
+
+	void setEntryKey(String entryKey) {
+		this.entryKey = entryKey;
+	}
+
+	/**
+	 * @return the message without the line and column.
+	 */
+	String getDescription() {
+		return "encountered '" + encountered + "', expected '" + expected + "'.";
+	}
+
+	public String getMessage() {
+		return "" + line + ":" + column + ": " + getDescription();
+	}
 }
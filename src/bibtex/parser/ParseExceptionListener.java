@@ -0,0 +1,17 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+/**
+ * Gets the non-fatal exceptions of a BibtexEntryIterator as soon as they
+ * occur, rather than after the whole input has been parsed.
+ *
+ * @see BibtexParser#iterator(bibtex.dom.BibtexFile, java.io.Reader,
+ *      ParseExceptionListener)
+ */
+public interface ParseExceptionListener {
+
+	public void exceptionOccurred(ParseException exception);
+}
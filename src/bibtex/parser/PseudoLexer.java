@@ -16,24 +16,64 @@ import java.io.Reader;
  */
 final class PseudoLexer {
 
+	/**
+	 * A slice of the input. The lexer reuses a single instance, so read it
+	 * before scanning on.
+	 */
 	static final class Token {
-		Token(int choice, String content, int line, int column) {
-			this.choice = choice;
-			this.content = content;
-			this.line = line;
-			this.column = column;
+		int choice;
+		int start, end;
+		int line, column;
+	}
+
+	/**
+	 * A set of ASCII characters that terminate a literal, with a lookup table
+	 * instead of a linear search.
+	 */
+	static final class TerminationSet {
+		TerminationSet(char[] chars) {
+			for (int i = 0; i < chars.length; i++) {
+				assert chars[i] < 128 : "only ASCII characters are supported.";
+				this.members[chars[i]] = true;
+				this.membersOrWhitespace[chars[i]] = true;
+			}
+			for (int c = 0; c < 128; c++) {
+				if (WHITESPACE[c])
+					this.membersOrWhitespace[c] = true;
+			}
+			final String alternatives = alternativesToString(chars);
+			this.expectedNotInSet = "not (" + alternatives + ")";
+			this.expectedNotInSetOrWhitespace = "not (" + alternatives + " or [whitespace])";
+		}
+
+		private final boolean[] members = new boolean[128];
+		private final boolean[] membersOrWhitespace = new boolean[128];
+		private final String expectedNotInSet, expectedNotInSetOrWhitespace;
+	}
+
+	private static final boolean[] WHITESPACE = new boolean[128];
+	static {
+		for (char c = 0; c < 128; c++) {
+			WHITESPACE[c] = Character.isWhitespace(c);
 		}
+	}
 
-		final int choice;
-		final String content;
-		final int line, column;
+	private static boolean isWhitespace(char c) {
+		return c < 128 ? WHITESPACE[c] : Character.isWhitespace(c);
 	}
 
-	private final LookAheadReader input;
-	private Token eofToken = null;
+	private final LookAheadInput input;
+	private final Token token = new Token();
+	private boolean stackTraces = true;
+	private boolean eofReached = false;
+	private int eofLine, eofColumn;
 
 	PseudoLexer(Reader input) throws IOException {
-		this.input = new LookAheadReader(input);
+		this(new LookAheadReader(input));
+	}
+
+	PseudoLexer(LookAheadInput input) {
+		this.input = input;
 	}
 
 	Token getNextToken() {
@@ -42,26 +82,76 @@ final class PseudoLexer {
 
 	/**
 	 * if it's a top level comment, result.choice will be 0, for @ 1, for EOF 2.
+	 * The slices of the previous top level item can't be accessed anymore
+	 * after this.
 	 * 
 	 * @return Token
 	 */
 	public Token scanTopLevelCommentOrAtOrEOF() throws IOException {
 		skipWhitespace();
-		if (eofToken != null) {
-			return new Token(2, eofToken.content, eofToken.line, eofToken.column);
+		input.mark();
+		final Token token = this.token;
+		if (eofReached) {
+			token.choice = 2;
+			token.start = token.end = input.getPosition();
+			token.line = eofLine;
+			token.column = eofColumn;
+			return token;
 		}
 
-		final int column = input.getColumn(), line = input.getLine();
+		token.line = input.getLine();
+		token.column = input.getColumn();
+		token.start = input.getPosition();
 		if (input.getCurrent() == '@') {
 			input.step();
-			return new Token(1, "@", line, column);
+			token.choice = 1;
+			token.end = input.getPosition();
+			return token;
 		}
-		StringBuffer content = new StringBuffer();
 		while (!input.eof() && input.getCurrent() != '@') {
-			content.append(input.getCurrent());
 			input.step();
 		}
-		return new Token(0, content.toString(), line, column);
+		token.choice = 0;
+		token.end = input.getPosition();
+		return token;
+	}
+
+	/**
+	 * @return the content of a slice that this lexer has returned.
+	 */
+	public String getContent(Token token) {
+		return input.substring(token.start, token.end);
+	}
+
+	/**
+	 * @param stackTraces
+	 *            false if the parse exceptions are only collected, not thrown
+	 *            to the user.
+	 */
+	void setStackTraces(boolean stackTraces) {
+		this.stackTraces = stackTraces;
+	}
+
+	private ParseException error(int line, int column, String encountered, String expected) {
+		return new ParseException(line, column, encountered, expected, stackTraces);
+	}
+
+	LookAheadInput getInput() {
+		return input;
+	}
+
+	/**
+	 * @return the position of the current character, see LookAheadInput.
+	 */
+	public int getPosition() {
+		return input.getPosition();
+	}
+
+	/**
+	 * @return the characters from start to end of the current top level item.
+	 */
+	public String substring(int start, int end) {
+		return input.substring(start, end);
 	}
 
 	/**
@@ -74,10 +164,10 @@ final class PseudoLexer {
 	public final int scanAlternatives(char[] alternatives, boolean lookAhead)
 		throws IOException, ParseException {
 		skipWhitespace();
-		if (eofToken != null)
-			throw new ParseException(
-				eofToken.line,
-				eofToken.column,
+		if (eofReached)
+			throw error(
+				eofLine,
+				eofColumn,
 				"[EOF]",
 				alternativesToString(alternatives));
 		final int line = input.getLine(), column = input.getColumn();
@@ -90,7 +180,7 @@ final class PseudoLexer {
 		}
 		if (!lookAhead)
 			input.step();
-		throw new ParseException(line, column, "" + input.getCurrent(), alternativesToString(alternatives));
+		throw error(line, column, "" + input.getCurrent(), alternativesToString(alternatives));
 	}
 
 	//	/**
@@ -139,148 +229,156 @@ final class PseudoLexer {
 	// alternativesToString(alternatives));
 	//	}
 
-	public String scanLiteral(char[] terminationSet, boolean excludeWhitespace, boolean enforceNonzero)
-		throws ParseException, IOException {
-		StringBuffer buffer = new StringBuffer();
-		scanLiteral(terminationSet, excludeWhitespace, enforceNonzero, buffer);
-		return buffer.toString();
-	}
-
-	/**
-	 * the return value is an index into the termination set the result is
-	 * appended in the resultTargetBuffer
-	 * 
-	 * @return Token
-	 */
-	public int scanLiteral(
-		char[] terminationSet,
-		boolean excludeWhitespace,
-		boolean enforceNonzero,
-		StringBuffer resultTargetBuffer)
+	public String scanLiteral(TerminationSet terminationSet, boolean excludeWhitespace, boolean enforceNonzero)
 		throws ParseException, IOException {
 		if (excludeWhitespace) {
 			skipWhitespace();
 
-			if (eofToken != null)
-				throw new ParseException(
-					eofToken.line,
-					eofToken.column,
+			if (eofReached)
+				throw error(
+					eofLine,
+					eofColumn,
 					"[EOF]",
-					"not (" + alternativesToString(terminationSet) + " or [whitespace])");
+					terminationSet.expectedNotInSetOrWhitespace);
 		} else
-			enforceNoEof("not (" + alternativesToString(terminationSet) + ")", false);
+			enforceNoEof(terminationSet.expectedNotInSet, false);
 		final int line = input.getLine(), column = input.getColumn();
-		int indexIntoTerminationSet = -1;
-		final int initialResultTargetBufferLength = resultTargetBuffer.length();
-		while (true) {
-			if (input.eof())
-				break;
+		final int start = input.getPosition();
+		final boolean[] terminators =
+			excludeWhitespace ? terminationSet.membersOrWhitespace : terminationSet.members;
+		while (!input.eof()) {
 			final char inputChar = input.getCurrent();
-
-			indexIntoTerminationSet = index(terminationSet, inputChar);
-			if (indexIntoTerminationSet >= 0 || excludeWhitespace && Character.isWhitespace(inputChar)) {
+			if (inputChar < 128 ? terminators[inputChar] : excludeWhitespace && Character.isWhitespace(inputChar))
 				break;
-			} else {
-				input.step();
-				resultTargetBuffer.append(inputChar);
-			}
+			input.step();
 		}
+		final int end = input.getPosition();
 
-		if (resultTargetBuffer.length() > initialResultTargetBufferLength || !enforceNonzero) {
-			return indexIntoTerminationSet;
+		if (end != start || !enforceNonzero) {
+			return input.substring(start, end);
 		} else {
-			throw new ParseException(
+			throw error(
 				line,
 				column,
 				"" + input.getCurrent(),
-				"not (" + alternativesToString(terminationSet) + " or [whitespace])");
+				terminationSet.expectedNotInSetOrWhitespace);
 		}
 	}
 
-	private static final char[] QUOTE_OR_LBRACE = new char[] { '\"', '{' };
+	private static final TerminationSet QUOTE_OR_LBRACE = new TerminationSet(new char[] { '\"', '{' });
+
+	private static final TerminationSet RBRACE_LBRACE = new TerminationSet(new char[] { '}', '{' });
 
-	public String scanQuotedString() throws IOException, ParseException {
-		StringBuffer content = new StringBuffer();
+	/**
+	 * The result is the slice between the quotes - braces inside are part of
+	 * it.
+	 */
+	public Token scanQuotedString() throws IOException, ParseException {
 		scan('"');
-		while (true) {
-			final int choice = this.scanLiteral(QUOTE_OR_LBRACE, false, false, content);
-			if (choice == 0) { // we terminated with '"'
-				break;
-			} else { // we found a '{'
-				scanBracketedString(content, true);
-			}
-		}
+		token.start = input.getPosition();
+		token.end = scanBracedContent(true);
 		scan('"');
-		return content.toString();
+		return token;
 	}
 
-	private final char[] RBRACE_LBRACE = new char[] { '}', '{' };
-
-	public void scanBracketedString(StringBuffer targetBuffer, boolean includeOuterBraces)
-		throws ParseException, IOException {
+	/**
+	 * The result is the slice between the outer braces - braces inside are
+	 * part of it.
+	 */
+	public Token scanBracketedString() throws ParseException, IOException {
 		scan('{');
-		if (includeOuterBraces)
-			targetBuffer.append('{');
-		while (true) {
-			final int choice = this.scanLiteral(RBRACE_LBRACE, false, false, targetBuffer);
+		token.start = input.getPosition();
+		token.end = scanBracedContent(false);
+		scan('}');
+		return token;
+	}
 
-			if (choice == 0) { // we terminated with '}'
-				break;
-			} else { // we terminated with '{'
-				scanBracketedString(targetBuffer, true);
+	/**
+	 * Skips to the closing quote (or brace) on the outermost level, keeping
+	 * track of nested braces.
+	 * 
+	 * @return the position of the closing quote or brace.
+	 */
+	private int scanBracedContent(boolean quoted) throws ParseException, IOException {
+		int depth = 0;
+		while (true) {
+			final boolean inQuotes = quoted && depth == 0;
+			enforceNoEof(inQuotes ? QUOTE_OR_LBRACE.expectedNotInSet : RBRACE_LBRACE.expectedNotInSet, false);
+			char inputChar;
+			while (true) {
+				if (input.eof()) {
+					// bibtex reads this as an unterminated brace.
+					skipWhitespace();
+					throw error(eofLine, eofColumn, "[EOF]", "{");
+				}
+				inputChar = input.getCurrent();
+				if (inputChar == '{' || inputChar == (inQuotes ? '"' : '}'))
+					break;
+				input.step();
 			}
+			if (inputChar == '{') {
+				depth++;
+			} else if (depth == 0) {
+				return input.getPosition();
+			} else {
+				depth--;
+			}
+			input.step();
 		}
-		scan('}');
-		if (includeOuterBraces)
-			targetBuffer.append("}");
 	}
 
 	public String scanEntryTypeName() throws ParseException, IOException {
 		skipWhitespace();
-		if (eofToken != null)
-			throw new ParseException(eofToken.line, eofToken.column, "[EOF]", "[a..z,A..Z]");
+		if (eofReached)
+			throw error(eofLine, eofColumn, "[EOF]", "[a..z,A..Z]");
 		final int line = input.getLine(), column = input.getColumn();
-		StringBuffer result = new StringBuffer();
+		final int start = input.getPosition();
 		while (true) {
 			enforceNoEof("[a..z,A..Z]", false);
 			char inputChar = input.getCurrent();
 
 			if (inputChar >= 'a' && inputChar <= 'z' || inputChar >= 'A' && inputChar <= 'Z') {
-				result.append(inputChar);
 				input.step();
 			} else {
 				break;
 			}
 		}
-		if (result.length() == 0) {
-			throw new ParseException(line, column, "" + input.getCurrent(), "[a..z,A..Z]");
+		final int end = input.getPosition();
+		if (end == start) {
+			throw error(line, column, "" + input.getCurrent(), "[a..z,A..Z]");
 		}
-		return result.toString();
+		return input.substring(start, end);
 
 	}
 
 	public void scan(char expected) throws ParseException, IOException {
 		skipWhitespace();
-		if (eofToken != null)
-			throw new ParseException(eofToken.line, eofToken.column, "[EOF]", "" + expected);
+		if (eofReached)
+			throw error(eofLine, eofColumn, "[EOF]", "" + expected);
 		final char encountered = input.getCurrent();
 		if (encountered != expected) {
 			final int line = input.getLine(), column = input.getColumn();
 			input.step();
-			throw new ParseException(line, column, "" + encountered, "" + expected);
+			throw error(line, column, "" + encountered, "" + expected);
 		} else input.step();
 	}
 
 	public void skipWhitespace() throws IOException {
-		if (eofToken != null)
+		if (eofReached)
 			return;
-		while (!input.eof() && Character.isWhitespace(input.getCurrent()))
+		while (!input.eof() && isWhitespace(input.getCurrent()))
 			input.step();
 		if (input.eof()) {
-			eofToken = new Token(-1, null, input.getLine(), input.getColumn());
+			reachedEof();
 		}
 	}
 
+	private void reachedEof() {
+		eofReached = true;
+		eofLine = input.getLine();
+		eofColumn = input.getColumn();
+	}
+
 	/**
 	 * make sure you call
 	 * 
@@ -289,11 +387,18 @@ final class PseudoLexer {
 	public void enforceNoEof(String expected, boolean skipWhiteSpace) throws ParseException, IOException {
 		if (skipWhiteSpace)
 			skipWhitespace();
-		else if (input.eof()) {
-			eofToken = new Token(-1, null, input.getLine(), input.getColumn());
+		else if (input.eof() && !eofReached) {
+			reachedEof();
 		}
-		if (eofToken != null)
-			throw new ParseException(eofToken.line, eofToken.column, "[EOF]", "" + expected);
+		if (eofReached)
+			throw error(eofLine, eofColumn, "[EOF]", "" + expected);
+	}
+
+	/**
+	 * @return true if the whole input has been consumed.
+	 */
+	public boolean eof() {
+		return input.eof();
 	}
 
 	/**
@@ -332,13 +437,4 @@ final class PseudoLexer {
 
 		return buffer.toString();
 	}
-
-	private static int index(char[] container, char element) {
-		for (int i = 0; i < container.length; i++) {
-			if (container[i] == element)
-				return i;
-		}
-		return -1;
-
-	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,23 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+/**
+ * Wraps a ParseException where the signature doesn't allow checked
+ * exceptions, i.e. in the Iterator and Stream methods of a
+ * BibtexEntryIterator that was created with throwAllParseExceptions set.
+ */
+public final class UncheckedParseException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	UncheckedParseException(ParseException cause) {
+		super(cause);
+	}
+
+	public ParseException getCause() {
+		return (ParseException) super.getCause();
+	}
+}
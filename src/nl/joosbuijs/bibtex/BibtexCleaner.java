@@ -1,23 +1,31 @@
 package nl.joosbuijs.bibtex;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.joda.time.DateTime;
 
 import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexSerializer;
+import bibtex.dom.ParallelBibtexSerializer;
+import bibtex.parser.BibtexEntryIterator;
 import bibtex.parser.BibtexParser;
 import bibtex.parser.ParseException;
+import bibtex.parser.ParseExceptionListener;
 
 /**
  * Class that helps clean/consolidate/fix/improve an existing bibtex file by use
@@ -48,18 +56,23 @@ public class BibtexCleaner {
 
 	public static void main(String... strings) {
 		Set<String> knownKeys = new HashSet<String>();
+		BibtexEntryIterator entries = null;
 
 		try {
 			/*
-			 * Load the dirty bibliography
+			 * Stream the dirty bibliography, one entry at a time
 			 */
 			String sourceBibFile = "joosThesis.bib";
-			FileReader in = new FileReader(sourceBibFile);
 			BibtexParser parser = new BibtexParser(false);
 			BibtexFile file = new BibtexFile();
-			parser.parse(file, in);
+			entries = parser.iterator(file, Paths.get(sourceBibFile), Charset.defaultCharset(),
+					new ParseExceptionListener() {
+						public void exceptionOccurred(ParseException exception) {
+							System.out.println("Skipping unparsable text: " + exception.getMessage());
+						}
+					});
 
-			System.out.println("loaded dirty Bibtex file " + sourceBibFile);
+			System.out.println("Opened dirty Bibtex file " + sourceBibFile);
 
 			/*
 			 * Create a the new bibtex file
@@ -72,13 +85,7 @@ public class BibtexCleaner {
 			 */
 			DBLPQueryParser dblpQuery = new DBLPQueryParser();
 
-			System.out.println("There are " + file.getEntries().size() + " entries to parse");
-
-			System.out.println("We expect to finish around "
-					+ DateTime.now().plusSeconds(
-							2
-									* Math.min(maxNrEntries2Parse > 0 ? maxNrEntries2Parse : Integer.MAX_VALUE, file
-											.getEntries().size()) * DBLPQueryParser.timeout));
+			System.out.println("Each entry takes up to " + 2 * DBLPQueryParser.timeout + " seconds");
 
 			String toplevelComment = String.format("%% This bibTex file was cleaned by BibtexCleaner by Joos Buijs %n"
 					+ "%% Cleaned version of %s%n" + "%% Cleaned on %s%n" + "%% %n%n", sourceBibFile, DateTime.now());
@@ -88,7 +95,8 @@ public class BibtexCleaner {
 			newCrossrefbibtex.addEntry(newCrossrefbibtex.makeToplevelComment("%%Crossreference bibtex file!"));
 
 			int nrEntriesCleaned = 0;
-			for (BibtexAbstractEntry potentialEntry : file.getEntries()) {
+			while (entries.hasNext()) {
+				BibtexAbstractEntry potentialEntry = entries.next();
 				if (potentialEntry instanceof BibtexEntry) {
 					BibtexEntry entry = (BibtexEntry) potentialEntry;
 					System.out.println("Cleaning entry " + entry.getEntryKey());
@@ -228,11 +236,11 @@ public class BibtexCleaner {
 			 */
 			String newBibFile = sourceBibFile.replace(".bib", "_cleaned.bib");
 			System.out.println("Saving clean Bibtex to " + newBibFile);
-			newbibtex.printBibtex(new PrintWriter(new File(newBibFile)));
+			saveBibtex(newbibtex, newBibFile);
 
 			String newCrossrefBibFile = newBibFile.replace(".bib", "_crossref.bib");
 			System.out.println("Saving clean crossref Bibtex to " + newCrossrefBibFile);
-			newCrossrefbibtex.printBibtex(new PrintWriter(new File(newCrossrefBibFile)));
+			saveBibtex(newCrossrefbibtex, newCrossrefBibFile);
 
 			System.out.println("DONE");
 			/*-
@@ -257,14 +265,48 @@ public class BibtexCleaner {
 				System.out.println();
 			}/**/
 
-		} catch (ParseException e) {
-			e.printStackTrace();
 		} catch (FileNotFoundException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} catch (UncheckedIOException e) {
+			e.getCause().printStackTrace();
+		} finally {
+			if (entries != null) {
+				try {
+					entries.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the given bibtex file in UTF-8, the same as printBibtex would,
+	 * rendering the entries on all cores if there are several cores and more
+	 * than one batch of entries
+	 * 
+	 * @param bibtex
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public static void saveBibtex(BibtexFile bibtex, String fileName) throws IOException {
+		ParallelBibtexSerializer parallelSerializer = new ParallelBibtexSerializer();
+		if (ForkJoinPool.commonPool().getParallelism() > 1 && bibtex.supportsConcurrentAccess()
+				&& bibtex.getEntries().size() > parallelSerializer.getBatchSize()) {
+			parallelSerializer.write(bibtex, Paths.get(fileName));
+			return;
+		}
+		// on one core, the tasks and the copies of the batches only cost time
+		BibtexSerializer serializer = new BibtexSerializer(FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+		try {
+			serializer.write(bibtex);
+		} finally {
+			serializer.close();
 		}
 	}
 